@@ -0,0 +1,108 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import src.Account;
+import src.AccountCache;
+import src.AccountRegistry;
+
+// Zipf-distributed lookups against an AccountCache holding a tenth of the
+// accounts, for each policy, with a plain AccountRegistry as the baseline.
+// Each round also runs one sequential scan over a quarter of the accounts in
+// the middle of the lookups, as an end-of-day report would. Prints the hit
+// ratio and ns per lookup; misses include reading the account back from the
+// spill file (in the temp directory, usually page cache).
+// Usage: java -cp <classes> bench.AccountCacheBenchmark [accounts] [lookups] [zipfExponent]
+public class AccountCacheBenchmark {
+
+  public static void main(String[] args) throws IOException {
+    int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+    int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 2_000_000;
+    double exponent = args.length > 2 ? Double.parseDouble(args[2]) : 0.9;
+
+    int[] keys = zipfKeys(accounts, lookups, exponent, new Random(42));
+    File spill = File.createTempFile("bench", ".spill");
+
+    System.out.println("policy,accounts,budget,hit_ratio,ns_per_lookup");
+    for (String policy : new String[] { "none", "LRU", "W_TINYLFU" }) {
+      long budget = policy.equals("none") ? accounts : accounts / 10;
+      AccountRegistry registry = policy.equals("none") ? new AccountRegistry(accounts)
+          : new AccountCache(spill.getPath(), AccountCache.Policy.valueOf(policy), budget, 0);
+      for (int i = 0; i < accounts; i++) {
+        Account acc = Account.ofCents("Bench", 100000 + i, 10_000, "password");
+        acc.depositCents(1 + i % 100);
+        registry.put(acc);
+      }
+
+      long sink = 0;
+      long elapsed = 0;
+      for (int round = 0; round < 2; round++) { // the first round is warm-up
+        long hitsBefore = stats(registry)[0];
+        long missesBefore = stats(registry)[1];
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+          if (i == lookups / 2) {
+            for (int accNo = 100000 + accounts / 2; accNo < 100000 + accounts * 3 / 4; accNo++) {
+              sink += registry.get(accNo).getBalanceCents();
+            }
+          }
+          sink += registry.get(keys[i]).getBalanceCents();
+        }
+        elapsed = System.nanoTime() - start;
+        if (round == 1) {
+          long hits = stats(registry)[0] - hitsBefore;
+          long misses = stats(registry)[1] - missesBefore;
+          double ratio = registry instanceof AccountCache ? (double) hits / (hits + misses) : 1;
+          System.out.printf("%s,%d,%d,%.3f,%.0f%n", policy, accounts, budget, ratio,
+              (double) elapsed / (lookups + accounts / 4));
+        }
+      }
+      if (registry instanceof AccountCache) {
+        ((AccountCache) registry).close();
+      }
+      if (sink == 42) {
+        System.err.println();
+      }
+    }
+    spill.delete();
+  }
+
+  private static long[] stats(AccountRegistry registry) {
+    if (!(registry instanceof AccountCache)) {
+      return new long[2];
+    }
+    AccountCache.Stats stats = ((AccountCache) registry).stats();
+    return new long[] { stats.hits(), stats.misses() };
+  }
+
+  // Account numbers drawn from a Zipf distribution over a shuffled ranking, so
+  // the popular accounts are spread across the number range
+  private static int[] zipfKeys(int accounts, int n, double exponent, Random random) {
+    double[] cumulative = new double[accounts];
+    double sum = 0;
+    for (int rank = 0; rank < accounts; rank++) {
+      sum += 1 / Math.pow(rank + 1, exponent);
+      cumulative[rank] = sum;
+    }
+    int[] ranking = new int[accounts];
+    for (int i = 0; i < accounts; i++) {
+      ranking[i] = i;
+    }
+    for (int i = accounts - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      int t = ranking[i];
+      ranking[i] = ranking[j];
+      ranking[j] = t;
+    }
+    int[] keys = new int[n];
+    for (int i = 0; i < n; i++) {
+      int rank = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+      rank = rank < 0 ? -rank - 1 : rank;
+      keys[i] = 100000 + ranking[Math.min(rank, accounts - 1)];
+    }
+    return keys;
+  }
+}
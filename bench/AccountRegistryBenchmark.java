@@ -0,0 +1,50 @@
+package bench;
+
+import src.Account;
+import src.AccountRegistry;
+
+// Measures AccountRegistry.get as the number of accounts grows.
+// Usage: java -Xmx4g -cp <classes> bench.AccountRegistryBenchmark [sizes...]
+// Default sizes are 1k, 100k, 1M and 10M accounts.
+public class AccountRegistryBenchmark {
+  private static final int LOOKUPS = 10_000_000;
+
+  public static void main(String[] args) {
+    int[] sizes = { 1_000, 100_000, 1_000_000, 10_000_000 };
+    if (args.length > 0) {
+      sizes = new int[args.length];
+      for (int i = 0; i < args.length; i++) {
+        sizes[i] = Integer.parseInt(args[i]);
+      }
+    }
+
+    System.out.println("accounts,ns_per_lookup");
+    for (int size : sizes) {
+      AccountRegistry registry = new AccountRegistry(size);
+      int[] numbers = new int[size];
+      for (int i = 0; i < size; i++) {
+        // Spread the numbers out so they are not just a dense run of keys
+        numbers[i] = 100000 + i * 7;
+        registry.put(new Account("Bench", numbers[i], 100.0, "password"));
+      }
+
+      long sink = 0;
+      // Warm up, then measure
+      for (int round = 0; round < 2; round++) {
+        long start = System.nanoTime();
+        int idx = 0;
+        for (int i = 0; i < LOOKUPS; i++) {
+          idx = (idx + 7919) % size; // stride through the keys instead of hitting one hot entry
+          sink += registry.get(numbers[idx]).getAccNo();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (round == 1) {
+          System.out.printf("%d,%.1f%n", size, (double) elapsed / LOOKUPS);
+        }
+      }
+      if (sink == 42) {
+        System.out.println(); // keeps the JIT from dropping the loop
+      }
+    }
+  }
+}
@@ -0,0 +1,78 @@
+package bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import src.Account;
+import src.BankService;
+import src.BatchPoster;
+
+// Postings/sec for a generated nightly file, by worker thread count. About one
+// posting in ten is a withdrawal that may bounce, so the reject path is
+// exercised too. The journal leaves flushing to the OS unless
+// -Dbank.journal.fsync says otherwise.
+// Usage: java -Xmx4g -cp <classes> bench.BatchPostingBenchmark [accounts] [postings] [threads...]
+public class BatchPostingBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int accountCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+    int postingCount = args.length > 1 ? Integer.parseInt(args[1]) : 5_000_000;
+    int cores = Runtime.getRuntime().availableProcessors();
+    int[] threadCounts = { 1, cores };
+    if (args.length > 2) {
+      threadCounts = new int[args.length - 2];
+      for (int i = 2; i < args.length; i++) {
+        threadCounts[i - 2] = Integer.parseInt(args[i]);
+      }
+    }
+    if (System.getProperty("bank.journal.fsync") == null) {
+      System.setProperty("bank.journal.fsync", "os");
+    }
+
+    File dir = Files.createTempDirectory("batch-bench").toFile();
+    File postings = new File(dir, "postings.csv");
+    File rejects = new File(dir, "rejects.csv");
+    writePostings(postings, accountCount, postingCount);
+
+    System.out.println("threads,postings,posted,rejected,seconds,postings_per_sec");
+    for (int threads : threadCounts) {
+      File dataDir = new File(dir, "data-" + threads);
+      dataDir.mkdir();
+      BankService service = new BankService(dataDir.getPath(), notice -> { });
+      service.open();
+      for (int i = 0; i < accountCount; i++) {
+        service.accounts().put(Account.ofCents("Bench", 100000 + i, 10_000, "password"));
+      }
+      BatchPoster.Report report = new BatchPoster(service, threads, BatchPoster.DEFAULT_BATCH_SIZE)
+          .post(postings.getPath(), rejects.getPath());
+      double seconds = report.elapsedNanos() / 1e9;
+      System.out.printf("%d,%d,%d,%d,%.2f,%.0f%n", threads, postingCount, report.posted(), report.rejected(),
+          seconds, postingCount / seconds);
+      for (File f : dataDir.listFiles()) {
+        f.delete();
+      }
+      dataDir.delete();
+    }
+    postings.delete();
+    rejects.delete();
+    dir.delete();
+  }
+
+  private static void writePostings(File file, int accountCount, int postingCount) throws IOException {
+    Random random = new Random(42);
+    try (BufferedWriter out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+      for (int i = 0; i < postingCount; i++) {
+        int accNo = 100000 + random.nextInt(accountCount);
+        if (random.nextInt(10) == 0) {
+          out.write(accNo + ",Withdrawal," + (1 + random.nextInt(200)) + ".00,Card payment\n");
+        } else {
+          out.write(accNo + ",Deposit," + random.nextInt(100) + "." + (10 + random.nextInt(90)) + ",Payroll\n");
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,152 @@
+package bench;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import src.Account;
+import src.AccountRegistry;
+import src.BankService;
+import src.MappedTransactionLog;
+import src.TextSnapshot;
+import src.Transaction;
+import src.TransferEngine;
+
+// Regression suite for the core operations, at several account counts. Prints
+// JSON results to stdout (progress goes to stderr); see Harness for settings.
+// Saves go to a temp directory through TextSnapshot, which is what
+// saveAllAccounts/saveAllTransactions call, so a run never touches the real
+// accounts.txt and transactions.txt.
+// Usage: bench/run.sh [sizes...]   (default sizes are 1k, 100k and 1M accounts)
+public class CoreBenchmarks {
+  private static final int FIRST_ACC_NO = 100000;
+  private static final int TRANSACTIONS_PER_ACCOUNT = 2;
+
+  public static void main(String[] args) throws Exception {
+    int[] sizes = { 1_000, 100_000, 1_000_000 };
+    if (args.length > 0) {
+      sizes = new int[args.length];
+      for (int i = 0; i < args.length; i++) {
+        sizes[i] = Integer.parseInt(args[i]);
+      }
+    }
+
+    File dir = Files.createTempDirectory("bank-bench").toFile();
+    File accountsFile = new File(dir, TextSnapshot.ACCOUNTS_FILE);
+    File transactionsFile = new File(dir, TextSnapshot.TRANSACTIONS_FILE);
+    Harness harness = new Harness();
+    for (int n : sizes) {
+      // Spread lookups over the whole registry instead of one hot entry
+      int stride = 7919;
+
+      harness.run("deposit", n, () -> {
+        Account[] accs = array(accounts(n, 0));
+        return i -> accs[(int) ((long) i * stride % n)].deposit(1.25) ? 1 : 0;
+      });
+      harness.run("withdraw", n, () -> {
+        Account[] accs = array(accounts(n, 0));
+        return i -> accs[(int) ((long) i * stride % n)].withdraw(1.25) ? 1 : 0;
+      });
+      harness.run("findAccountByNumber", n, () -> {
+        BankService service = service(dir, n);
+        return i -> service.findAccountByNumber(FIRST_ACC_NO + (int) ((long) i * stride % n)).getAccNo();
+      });
+      harness.run("transfer", n, () -> {
+        Account[] accs = array(accounts(n, 0));
+        TransferEngine engine = new TransferEngine(null);
+        return i -> {
+          int from = (int) ((long) i * stride % n);
+          int to = from + 1 == n ? 0 : from + 1;
+          return engine.transferCents(accs[from], accs[to], 125).ordinal();
+        };
+      });
+      harness.run("serviceDeposit", n, () -> {
+        BankService service = service(dir, n);
+        Account[] accs = array(service.accounts());
+        return i -> service.deposit(accs[(int) ((long) i * stride % n)], 125).balanceCents();
+      });
+      harness.run("serviceTransfer", n, () -> {
+        BankService service = service(dir, n);
+        Account[] accs = array(service.accounts());
+        return i -> {
+          int from = (int) ((long) i * stride % n);
+          int to = from + 1 == n ? 0 : from + 1;
+          return service.transfer(accs[from], accs[to].getAccNo(), 125).balanceCents();
+        };
+      });
+      harness.run("saveAllAccounts", n, () -> {
+        AccountRegistry accounts = accounts(n, 0);
+        return i -> {
+          TextSnapshot.writeAccounts(accountsFile.getPath(), accounts);
+          return accountsFile.length();
+        };
+      });
+      harness.run("saveAllTransactions", n, () -> {
+        AccountRegistry accounts = accounts(n, TRANSACTIONS_PER_ACCOUNT);
+        return i -> {
+          TextSnapshot.writeTransactions(transactionsFile.getPath(), accounts);
+          return transactionsFile.length();
+        };
+      });
+      harness.run("startupLoad", n, () -> {
+        AccountRegistry source = accounts(n, TRANSACTIONS_PER_ACCOUNT);
+        TextSnapshot.writeAccounts(accountsFile.getPath(), source);
+        TextSnapshot.writeTransactions(transactionsFile.getPath(), source);
+        // Same steps as BankingApp.main: read accounts, then map and index the history
+        return i -> {
+          AccountRegistry accounts = new AccountRegistry();
+          TextSnapshot.readAccounts(accountsFile.getPath(), accounts);
+          try (MappedTransactionLog log = MappedTransactionLog.open(transactionsFile.getPath())) {
+            return log.attachTo(accounts);
+          }
+        };
+      });
+    }
+    harness.writeJson(System.out);
+
+    accountsFile.delete();
+    transactionsFile.delete();
+    new File(dir, "service/" + BankService.JOURNAL_FILE).delete();
+    new File(dir, "service").delete();
+    dir.delete();
+  }
+
+  // A service over n accounts whose journal lives in the temp directory. The
+  // journal leaves flushing to the OS unless -Dbank.journal.fsync says otherwise,
+  // so the figures show the service path rather than the disk.
+  private static BankService service(File dir, int n) throws Exception {
+    File serviceDir = new File(dir, "service");
+    serviceDir.mkdir();
+    new File(serviceDir, BankService.JOURNAL_FILE).delete();
+    if (System.getProperty("bank.journal.fsync") == null) {
+      System.setProperty("bank.journal.fsync", "os");
+    }
+    BankService service = new BankService(serviceDir.getPath(), notice -> { });
+    service.open();
+    for (Account acc : accounts(n, 0)) {
+      service.accounts().put(acc);
+    }
+    return service;
+  }
+
+  // Balances are large enough that no withdrawal or transfer in a run fails
+  private static AccountRegistry accounts(int count, int transactionsEach) {
+    AccountRegistry accounts = new AccountRegistry(count);
+    for (int i = 0; i < count; i++) {
+      Account acc = Account.ofCents("Bench", FIRST_ACC_NO + i, 1_000_000_000_00L, "password");
+      for (int t = 0; t < transactionsEach; t++) {
+        acc.addTransaction(Transaction.ofCents("Deposit", 100 + t, "Deposit to account"));
+      }
+      accounts.put(acc);
+    }
+    return accounts;
+  }
+
+  private static Account[] array(AccountRegistry accounts) {
+    Account[] result = new Account[accounts.size()];
+    int i = 0;
+    for (Account acc : accounts) {
+      result[i++] = acc;
+    }
+    return result;
+  }
+}
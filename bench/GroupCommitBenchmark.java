@@ -0,0 +1,59 @@
+package bench;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import src.TransactionJournal;
+import src.TransactionJournal.FsyncPolicy;
+
+// Journal appends/sec with per-record fsync versus group commit, plus the group
+// commit batch size and latency figures.
+// Usage: java -cp <classes> bench.GroupCommitBenchmark [threads] [seconds]
+public class GroupCommitBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int threads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+    int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+    System.out.println("policy,threads,ops_per_sec");
+    for (FsyncPolicy policy : new FsyncPolicy[] { FsyncPolicy.PER_RECORD, FsyncPolicy.GROUP_COMMIT }) {
+      File file = File.createTempFile("journal-bench", ".log");
+      file.deleteOnExit();
+      try (TransactionJournal journal = new TransactionJournal(file.getPath(), policy)) {
+        long ops = run(journal, threads, seconds);
+        System.out.printf("%s,%d,%.0f%n", policy, threads, (double) ops / seconds);
+        if (journal.groupCommitStats() != null) {
+          System.out.println("  " + journal.groupCommitStats());
+        }
+      }
+      Files.deleteIfExists(file.toPath());
+    }
+  }
+
+  private static long run(TransactionJournal journal, int threads, int seconds) throws InterruptedException {
+    long end = System.nanoTime() + seconds * 1_000_000_000L;
+    long[] counts = new long[threads];
+    Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      final int id = t;
+      workers[t] = new Thread(() -> {
+        String record = "T," + (100000 + id) + ",Deposit,10.0,Deposit to account";
+        try {
+          while (System.nanoTime() < end) {
+            journal.append(record);
+            counts[id]++;
+          }
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      });
+      workers[t].start();
+    }
+    long total = 0;
+    for (int t = 0; t < threads; t++) {
+      workers[t].join();
+      total += counts[t];
+    }
+    return total;
+  }
+}
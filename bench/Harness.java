@@ -0,0 +1,114 @@
+package bench;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Locale;
+
+// Minimal JMH-style runner for the benchmarks in this directory, so they run
+// with nothing but the JDK. Each benchmark gets warmup iterations, then
+// measured iterations; an iteration calls the operation in growing batches
+// until it has run for at least the iteration time, and records ns/op.
+// Results are written as JSON in the layout of JMH's -rf json output.
+//
+// Settings (system properties):
+//   bench.warmup       warmup iterations (default 3)
+//   bench.iterations   measured iterations (default 5)
+//   bench.iterationMs  minimum time per iteration (default 200)
+//   bench.include      only run benchmarks whose name contains this text
+final class Harness {
+
+  interface Op {
+    long run(int i) throws Exception;
+  }
+
+  interface Setup {
+    Op create() throws Exception;
+  }
+
+  private final int warmups = Integer.getInteger("bench.warmup", 3);
+  private final int iterations = Integer.getInteger("bench.iterations", 5);
+  private final long iterationNanos = Long.getLong("bench.iterationMs", 200) * 1_000_000;
+  private final String include = System.getProperty("bench.include", "");
+  private final ArrayList<String> results = new ArrayList<>();
+  private long sink;
+
+  // Runs one benchmark for one data size. Setup runs before the timed part.
+  void run(String name, int accounts, Setup setup) throws Exception {
+    if (!name.contains(include)) {
+      return;
+    }
+    System.err.printf("%s accounts=%d%n", name, accounts);
+    Op op = setup.create();
+    double[] scores = new double[iterations];
+    int next = 0;
+    for (int it = 0; it < warmups + iterations; it++) {
+      long ops = 0;
+      int batch = 1;
+      long start = System.nanoTime();
+      long elapsed;
+      do {
+        for (int k = 0; k < batch; k++) {
+          sink += op.run(next++);
+        }
+        ops += batch;
+        if (batch < 1 << 16) {
+          batch <<= 1;
+        }
+        elapsed = System.nanoTime() - start;
+      } while (elapsed < iterationNanos);
+      if (it >= warmups) {
+        scores[it - warmups] = (double) elapsed / ops;
+      }
+    }
+    results.add(toJson(name, accounts, scores));
+    System.err.printf("  %.1f ns/op%n", mean(scores));
+  }
+
+  private String toJson(String name, int accounts, double[] scores) {
+    double mean = mean(scores);
+    double variance = 0;
+    for (double s : scores) {
+      variance += (s - mean) * (s - mean);
+    }
+    // Half-width of a 99.9% interval, normal approximation
+    double error = scores.length > 1 ? 3.29 * Math.sqrt(variance / (scores.length - 1)) / Math.sqrt(scores.length) : 0;
+    StringBuilder raw = new StringBuilder();
+    for (int i = 0; i < scores.length; i++) {
+      raw.append(i == 0 ? "" : ", ").append(String.format(Locale.ROOT, "%.3f", scores[i]));
+    }
+    return String.format(Locale.ROOT,
+        "  {%n"
+            + "    \"benchmark\": \"bench.CoreBenchmarks.%s\",%n"
+            + "    \"mode\": \"avgt\",%n"
+            + "    \"threads\": 1,%n"
+            + "    \"forks\": 1,%n"
+            + "    \"warmupIterations\": %d,%n"
+            + "    \"measurementIterations\": %d,%n"
+            + "    \"params\": { \"accounts\": \"%d\" },%n"
+            + "    \"primaryMetric\": {%n"
+            + "      \"score\": %.3f,%n"
+            + "      \"scoreError\": %.3f,%n"
+            + "      \"scoreUnit\": \"ns/op\",%n"
+            + "      \"rawData\": [[%s]]%n"
+            + "    }%n"
+            + "  }",
+        name, warmups, iterations, accounts, mean, error, raw);
+  }
+
+  private static double mean(double[] scores) {
+    double total = 0;
+    for (double s : scores) {
+      total += s;
+    }
+    return total / scores.length;
+  }
+
+  void writeJson(PrintStream out) {
+    out.println("[");
+    out.println(String.join("," + System.lineSeparator(), results));
+    out.println("]");
+    if (sink == 42) {
+      System.err.println(); // keeps the JIT from dropping the measured calls
+    }
+  }
+}
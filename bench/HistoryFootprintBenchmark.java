@@ -0,0 +1,69 @@
+package bench;
+
+import java.util.ArrayList;
+
+import src.Transaction;
+import src.TransactionHistory;
+
+// Retained heap per million transactions: one Transaction object per entry in an
+// ArrayList versus the columnar TransactionHistory. Descriptions are built per
+// entry the way the app builds them, over a given number of counterparties;
+// entries come a few seconds apart with sequence ids shared with other
+// accounts and the balance each left, as the app records them. The columnar
+// row also gives the bytes its arrays hold, which does not depend on the GC,
+// and how many descriptions the shared dictionary holds afterwards. The
+// default counterparties are more than that dictionary takes, as in a bank
+// with many accounts.
+// Usage: java -Xmx4g -cp <classes> bench.HistoryFootprintBenchmark [transactions] [counterparties]
+public class HistoryFootprintBenchmark {
+
+  // Keeps whatever was built reachable until the heap has been measured
+  private static Object retained;
+
+  public static void main(String[] args) {
+    int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+    int counterparties = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+
+    System.out.println("store,transactions,heap_mb,bytes_per_transaction,array_bytes_per_transaction,"
+        + "shared_descriptions");
+    for (int round = 0; round < 2; round++) {
+      measure("objects", n, counterparties);
+      measure("columnar", n, counterparties);
+    }
+  }
+
+  private static void measure(String store, int n, int counterparties) {
+    long before = usedHeap();
+    long arrayBytes = -1;
+    if (store.equals("objects")) {
+      ArrayList<Transaction> list = new ArrayList<>();
+      for (int i = 0; i < n; i++) {
+        list.add(Transaction.ofCents("Transfer", 100 + i, "Transfer to account " + (100000 + i % counterparties)));
+      }
+      retained = list;
+    } else {
+      TransactionHistory history = new TransactionHistory();
+      long time = System.currentTimeMillis();
+      long balance = 0;
+      for (int i = 0; i < n; i++) {
+        balance += 100 + i;
+        history.add("Transfer", 100 + i, time + i * 3_000L, 1 + i * 7L, balance,
+            "Transfer to account " + (100000 + i % counterparties));
+      }
+      arrayBytes = history.footprintBytes();
+      retained = history;
+    }
+    long heap = usedHeap() - before;
+    retained = null;
+    System.out.printf("%s,%d,%.1f,%.1f,%s,%d%n", store, n, heap / 1048576.0, (double) heap / n,
+        arrayBytes < 0 ? "" : String.format("%.1f", (double) arrayBytes / n), TransactionHistory.sharedDescriptions());
+  }
+
+  private static long usedHeap() {
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    Runtime rt = Runtime.getRuntime();
+    return rt.totalMemory() - rt.freeMemory();
+  }
+}
@@ -0,0 +1,76 @@
+package bench;
+
+import java.util.Random;
+
+import src.Account;
+import src.HistoryPage;
+import src.Transaction;
+
+// History queries against one account with a very long history: the latest
+// page, a page at a random cursor, and a one-hour time range. Entries are one
+// second apart. Prints ns per query; the full-list row is the old menu
+// option 5, for comparison.
+// Usage: java -Xmx2g -cp <classes> bench.HistoryQueryBenchmark [entries] [pageSize]
+public class HistoryQueryBenchmark {
+  private static final long START_MILLIS = 1_700_000_000_000L;
+
+  public static void main(String[] args) {
+    int entries = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+    int pageSize = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+    Account acc = Account.ofCents("History", 100000, 0, "password");
+    long firstSequence = 0;
+    for (int i = 0; i < entries; i++) {
+      acc.addTransaction(Transaction.ofCents("Deposit", 1 + i % 500, "Deposit to account", START_MILLIS + i * 1000L));
+      if (i == 0) {
+        firstSequence = acc.latestTransactions(1).transactions().get(0).getSequence();
+      }
+    }
+    long lastSequence = firstSequence + entries - 1;
+
+    System.out.println("query,entries,page_size,ns_per_query");
+    Random random = new Random(42);
+    long sink = 0;
+    for (int round = 0; round < 2; round++) { // the first round is warm-up
+      boolean print = round == 1;
+
+      long start = System.nanoTime();
+      int n = 200_000;
+      for (int i = 0; i < n; i++) {
+        sink += acc.latestTransactions(pageSize).nextCursor();
+      }
+      report(print, "latest_page", entries, pageSize, start, n);
+
+      start = System.nanoTime();
+      for (int i = 0; i < n; i++) {
+        long cursor = firstSequence + 1 + (long) (random.nextDouble() * (lastSequence - firstSequence));
+        sink += acc.transactionsBefore(cursor, pageSize).nextCursor();
+      }
+      report(print, "page_at_cursor", entries, pageSize, start, n);
+
+      start = System.nanoTime();
+      for (int i = 0; i < n; i++) {
+        long from = START_MILLIS + (long) (random.nextDouble() * (entries - 3600)) * 1000L;
+        HistoryPage page = acc.transactionsBetween(from, from + 3_600_000L, 0, pageSize);
+        sink += page.transactions().size();
+      }
+      report(print, "hour_range_first_page", entries, pageSize, start, n);
+
+      start = System.nanoTime();
+      n = 3;
+      for (int i = 0; i < n; i++) {
+        sink += acc.getTransactionsFrom(0).size();
+      }
+      report(print, "full_list", entries, entries, start, n);
+    }
+    if (sink == 42) {
+      System.err.println();
+    }
+  }
+
+  private static void report(boolean print, String query, int entries, int pageSize, long start, int n) {
+    if (print) {
+      System.out.printf("%s,%d,%d,%.0f%n", query, entries, pageSize, (double) (System.nanoTime() - start) / n);
+    }
+  }
+}
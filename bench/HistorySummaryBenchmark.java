@@ -0,0 +1,77 @@
+package bench;
+
+import java.util.Random;
+
+import src.Account;
+import src.HistorySummary;
+import src.Transaction;
+
+// Point-in-time balance and period totals against one account with a very
+// long history, entries one second apart: balanceAsOf at a random time, and
+// the totals of a random 30-day range. Prints ns per query; the scan row
+// works the totals of one range out from the transaction list instead, as
+// callers had to before.
+// Usage: java -Xmx2g -cp <classes> bench.HistorySummaryBenchmark [entries]
+public class HistorySummaryBenchmark {
+  private static final long START_MILLIS = 1_700_000_000_000L;
+  private static final long MONTH_MILLIS = 30L * 86_400_000L;
+
+  public static void main(String[] args) {
+    int entries = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+
+    Account acc = Account.ofCents("Summary", 100000, 0, "password");
+    long balance = 0;
+    for (int i = 0; i < entries; i++) {
+      long cents = 1 + i % 500;
+      boolean deposit = balance < cents || i % 3 != 0;
+      balance += deposit ? cents : -cents;
+      acc.addTransaction(Transaction.ofCents(deposit ? "Deposit" : "Withdrawal", cents,
+          deposit ? "Deposit to account" : "Withdrawal from account", START_MILLIS + i * 1000L, i + 1, balance));
+    }
+    long span = entries * 1000L - MONTH_MILLIS;
+
+    System.out.println("query,entries,ns_per_query");
+    Random random = new Random(42);
+    long sink = 0;
+    for (int round = 0; round < 2; round++) { // the first round is warm-up
+      boolean print = round == 1;
+
+      int n = 1_000_000;
+      long start = System.nanoTime();
+      for (int i = 0; i < n; i++) {
+        sink += acc.balanceAsOf(START_MILLIS + (long) (random.nextDouble() * entries * 1000L));
+      }
+      report(print, "balance_as_of", entries, start, n);
+
+      start = System.nanoTime();
+      for (int i = 0; i < n; i++) {
+        long from = START_MILLIS + (long) (random.nextDouble() * span);
+        sink += acc.summarize(from, from + MONTH_MILLIS).cents(HistorySummary.Flow.DEPOSIT);
+      }
+      report(print, "month_summary", entries, start, n);
+
+      n = 3;
+      start = System.nanoTime();
+      for (int i = 0; i < n; i++) {
+        long from = START_MILLIS + (long) (random.nextDouble() * span);
+        long deposits = 0;
+        for (Transaction t : acc.getTransactions()) {
+          if (t.getTimestamp() >= from && t.getTimestamp() < from + MONTH_MILLIS && t.getType().equals("Deposit")) {
+            deposits += t.getAmountCents();
+          }
+        }
+        sink += deposits;
+      }
+      report(print, "month_scan", entries, start, n);
+    }
+    if (sink == 42) {
+      System.err.println();
+    }
+  }
+
+  private static void report(boolean print, String query, int entries, long start, int n) {
+    if (print) {
+      System.out.printf("%s,%d,%.0f%n", query, entries, (System.nanoTime() - start) / (double) n);
+    }
+  }
+}
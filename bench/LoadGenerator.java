@@ -0,0 +1,147 @@
+package bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import src.BankServer;
+import src.Histogram;
+
+// Drives a running BankServer with many concurrent connections and reports
+// throughput and latency. Every connection creates and logs in to its own
+// account, then loops over balance/deposit/withdraw/transfer requests, one
+// at a time, until the run ends.
+//
+// Usage: java -cp <classes> bench.LoadGenerator [host] [port] [seconds] [connections...]
+// Default connection counts are 1k, 10k and 50k. Start the server with group
+// commit (-Dbank.journal.fsync=group) unless you want to measure fsync, and
+// raise the open file limit (ulimit -n) above twice the largest count when the
+// server runs on the same machine.
+public class LoadGenerator {
+  // Account numbers used by the generator start here; each run takes a fresh range
+  private static final int FIRST_ACC_NO = 100000;
+
+  public static void main(String[] args) throws Exception {
+    String host = args.length > 0 ? args[0] : "localhost";
+    int port = args.length > 1 ? Integer.parseInt(args[1]) : BankServer.DEFAULT_PORT;
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+    int[] counts = { 1_000, 10_000, 50_000 };
+    if (args.length > 3) {
+      counts = new int[args.length - 3];
+      for (int i = 3; i < args.length; i++) {
+        counts[i - 3] = Integer.parseInt(args[i]);
+      }
+    }
+
+    System.out.println("connections,ops_per_sec,p50_us,p99_us,p999_us,errors");
+    int nextAccNo = FIRST_ACC_NO;
+    for (int connections : counts) {
+      run(host, port, seconds, connections, nextAccNo);
+      nextAccNo += connections;
+    }
+  }
+
+  private static void run(String host, int port, int seconds, int connections, int firstAccNo)
+      throws InterruptedException {
+    Histogram latency = new Histogram();
+    LongAdder ops = new LongAdder();
+    LongAdder errors = new LongAdder();
+    CountDownLatch ready = new CountDownLatch(connections);
+    CountDownLatch start = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(connections);
+    long[] window = new long[2]; // measured start and end, nanoTime
+
+    ExecutorService clients = BankServer.perTaskExecutor("load-client");
+    for (int c = 0; c < connections; c++) {
+      int accNo = firstAccNo + c;
+      int peer = firstAccNo + (c + 1) % connections;
+      clients.execute(() -> {
+        boolean counted = false;
+        try (Socket socket = new Socket(host, port)) {
+          socket.setTcpNoDelay(true);
+          Client client = new Client(socket);
+          client.call("CREATE " + accNo + " 1000000 password Load Client"); // may already exist
+          if (!client.call("LOGIN " + accNo + " password").startsWith("OK")) {
+            errors.increment();
+            return;
+          }
+          ready.countDown();
+          counted = true;
+          start.await();
+          ThreadLocalRandom random = ThreadLocalRandom.current();
+          while (System.nanoTime() < window[1]) {
+            String request;
+            switch (random.nextInt(4)) {
+              case 0:
+                request = "BALANCE";
+                break;
+              case 1:
+                request = "DEPOSIT 1.00";
+                break;
+              case 2:
+                request = "WITHDRAW 1.00";
+                break;
+              default:
+                request = "TRANSFER " + peer + " 0.01";
+            }
+            long t0 = System.nanoTime();
+            String reply = client.call(request);
+            latency.record(System.nanoTime() - t0);
+            ops.increment();
+            if (!reply.startsWith("OK")) {
+              errors.increment();
+            }
+          }
+          client.call("QUIT");
+        } catch (IOException | InterruptedException e) {
+          errors.increment();
+        } finally {
+          if (!counted) {
+            ready.countDown(); // a connection that failed early must not hold up the start
+          }
+          done.countDown();
+        }
+      });
+    }
+
+    ready.await();
+    window[0] = System.nanoTime();
+    window[1] = window[0] + seconds * 1_000_000_000L;
+    start.countDown();
+    done.await();
+    clients.shutdown();
+
+    double elapsed = Math.max(System.nanoTime(), window[1]) - window[0];
+    System.out.printf("%d,%.0f,%.1f,%.1f,%.1f,%d%n", connections, ops.sum() / (elapsed / 1e9),
+        latency.percentile(50) / 1000.0, latency.percentile(99) / 1000.0, latency.percentile(99.9) / 1000.0,
+        errors.sum());
+  }
+
+  // One request line out, one reply line back; HISTORY is not used here
+  private static final class Client {
+    private final OutputStream out;
+    private final BufferedReader in;
+
+    Client(Socket socket) throws IOException {
+      this.out = socket.getOutputStream();
+      this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    String call(String request) throws IOException {
+      out.write((request + "\n").getBytes(StandardCharsets.UTF_8));
+      out.flush();
+      String reply = in.readLine();
+      if (reply == null) {
+        throw new IOException("Server closed the connection");
+      }
+      return reply;
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import src.BankService;
+
+// Logins per second against a BankService at several PBKDF2 work factors,
+// with client threads logging in as fast as they can. Hashing runs on the
+// service's PasswordVerifier (half the CPUs unless -Dbank.password.threads
+// says otherwise), so extra clients queue rather than adding CPU load; a
+// client turned away with BUSY counts as rejected. The last column is the
+// rate of resume() with a session token, which skips the hash altogether.
+// Usage: java -cp <classes> bench.LoginBenchmark [clients] [secondsPerFactor] [iterations...]
+public class LoginBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int clients = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+    long seconds = args.length > 1 ? Long.parseLong(args[1]) : 3;
+    int[] factors = { 1_000, 10_000, 50_000, 100_000, 300_000, 600_000 };
+    if (args.length > 2) {
+      factors = new int[args.length - 2];
+      for (int i = 2; i < args.length; i++) {
+        factors[i - 2] = Integer.parseInt(args[i]);
+      }
+    }
+
+    System.out.println("iterations,clients,logins_per_sec,mean_ms_per_login,rejected,resumes_per_sec");
+    for (int iterations : factors) {
+      System.setProperty("bank.password.iterations", String.valueOf(iterations));
+      Path dir = Files.createTempDirectory("bench-login");
+      BankService service = new BankService(dir.toString(), notice -> { });
+      service.open();
+      for (int c = 0; c < clients; c++) {
+        service.createAccount("Bench", 100000 + c, 0, "password" + c);
+      }
+      String token = service.login(100000, "password0").token();
+
+      AtomicLong logins = new AtomicLong();
+      AtomicLong rejected = new AtomicLong();
+      AtomicLong latencyNanos = new AtomicLong();
+      long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+      CountDownLatch finished = new CountDownLatch(clients);
+      for (int c = 0; c < clients; c++) {
+        int accNo = 100000 + c;
+        String password = "password" + c;
+        new Thread(() -> {
+          while (System.nanoTime() < deadline) {
+            long start = System.nanoTime();
+            BankService.Result result = service.login(accNo, password);
+            if (result.ok()) {
+              logins.incrementAndGet();
+              latencyNanos.addAndGet(System.nanoTime() - start);
+            } else if (result.status() == BankService.Status.BUSY) {
+              rejected.incrementAndGet();
+            }
+          }
+          finished.countDown();
+        }).start();
+      }
+      finished.await();
+
+      long resumes = 0;
+      long start = System.nanoTime();
+      while (System.nanoTime() - start < 500_000_000L) {
+        if (service.resume(token).ok()) {
+          resumes++;
+        }
+      }
+      double resumeSeconds = (System.nanoTime() - start) / 1e9;
+
+      System.out.printf("%d,%d,%.1f,%.2f,%d,%.0f%n", iterations, clients, logins.get() / (double) seconds,
+          logins.get() == 0 ? 0 : latencyNanos.get() / 1e6 / logins.get(), rejected.get(), resumes / resumeSeconds);
+      service.close();
+      deleteTree(dir);
+    }
+  }
+
+  private static void deleteTree(Path dir) throws Exception {
+    try (var files = Files.walk(dir)) {
+      files.sorted((a, b) -> b.getNameCount() - a.getNameCount()).forEach(p -> p.toFile().delete());
+    }
+  }
+}
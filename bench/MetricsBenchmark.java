@@ -0,0 +1,88 @@
+package bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import src.Metrics;
+import src.Metrics.Operation;
+import src.Metrics.Outcome;
+
+// Cost of Metrics.record() per event, which has a budget of 50 ns, from one
+// thread and from several threads recording into the same operation at once
+// (the contended case for the LongAdders and the histogram). The cost is CPU
+// time per event, summed over the recording threads, so it means the same on
+// one core as on many. It includes the System.nanoTime() call inside record();
+// the last column is the cost of that call alone, which depends on the
+// machine's clock source.
+// Usage: java -cp <classes> bench.MetricsBenchmark [eventsPerThread] [threads...]
+public class MetricsBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    long events = args.length > 0 ? Long.parseLong(args[0]) : 20_000_000;
+    int[] threadCounts = { 1, 2, 4, 8 };
+    if (args.length > 1) {
+      threadCounts = new int[args.length - 1];
+      for (int i = 1; i < args.length; i++) {
+        threadCounts[i - 1] = Integer.parseInt(args[i]);
+      }
+    }
+
+    System.out.println("threads,events,ns_per_event,ns_per_nanotime");
+    for (int threads : threadCounts) {
+      Metrics metrics = new Metrics();
+      run(metrics, threads, events / 4); // warm-up
+      double baseline = baseline(events);
+      double cpuNanos = run(new Metrics(), threads, events);
+      System.out.printf("%d,%d,%.1f,%.1f%n", threads, events * threads, cpuNanos / (events * threads), baseline);
+    }
+  }
+
+  // Total CPU time of the recording threads
+  private static double run(Metrics metrics, int threads, long events) throws InterruptedException {
+    ThreadMXBean cpu = ManagementFactory.getThreadMXBean();
+    AtomicLong cpuNanos = new AtomicLong();
+    CountDownLatch ready = new CountDownLatch(threads);
+    CountDownLatch go = new CountDownLatch(1);
+    CountDownLatch finished = new CountDownLatch(threads);
+    for (int t = 0; t < threads; t++) {
+      new Thread(() -> {
+        ready.countDown();
+        try {
+          go.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        long cpuStart = cpu.getCurrentThreadCpuTime();
+        long base = System.nanoTime();
+        for (long i = 0; i < events; i++) {
+          // Start times spread the values over the histogram's buckets
+          metrics.record(Operation.DEPOSIT, Outcome.SUCCESS, base - (i & 0xFFFF));
+        }
+        cpuNanos.addAndGet(cpu.getCurrentThreadCpuTime() - cpuStart);
+        finished.countDown();
+      }).start();
+    }
+    ready.await();
+    go.countDown();
+    finished.await();
+    if (metrics.count(Operation.DEPOSIT, Outcome.SUCCESS) != events * threads) {
+      throw new AssertionError("lost events");
+    }
+    return cpuNanos.get();
+  }
+
+  private static final AtomicLong SINK = new AtomicLong();
+
+  private static double baseline(long events) {
+    long sum = 0;
+    long start = System.nanoTime();
+    for (long i = 0; i < events; i++) {
+      sum += System.nanoTime();
+    }
+    long elapsed = System.nanoTime() - start;
+    SINK.addAndGet(sum);
+    return (double) elapsed / events;
+  }
+}
@@ -0,0 +1,116 @@
+package bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import src.AccountRegistry;
+import src.MappedTransactionLog;
+import src.ParallelLoader;
+import src.TextSnapshot;
+
+// Startup time for accounts.txt plus transactions.txt: the sequential split()
+// reader against ParallelLoader and the parallel MappedTransactionLog index, on
+// fork-join pools of 1, 2, 4 ... threads up to the core count. Each row is the
+// best of three loads, after one untimed warm-up load. The sequential reader
+// decodes every transaction where the parallel one only indexes them, so its
+// row is the old startup path rather than a like-for-like single thread; the
+// scaling is in the parallel rows.
+// Usage: java -Xmx4g -cp <classes> bench.ParallelLoadBenchmark [accounts] [transactions] [threads...]
+public class ParallelLoadBenchmark {
+  private static final int RUNS = 3;
+
+  public static void main(String[] args) throws Exception {
+    int accountCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+    int transactionCount = args.length > 1 ? Integer.parseInt(args[1]) : 5_000_000;
+    int cores = Runtime.getRuntime().availableProcessors();
+    int[] threadCounts;
+    if (args.length > 2) {
+      threadCounts = new int[args.length - 2];
+      for (int i = 2; i < args.length; i++) {
+        threadCounts[i - 2] = Integer.parseInt(args[i]);
+      }
+    } else {
+      int n = 0;
+      for (int t = 1; t < cores; t *= 2) {
+        n++;
+      }
+      threadCounts = new int[n + 1];
+      for (int i = 0; i < n; i++) {
+        threadCounts[i] = 1 << i;
+      }
+      threadCounts[n] = cores;
+    }
+
+    File dir = Files.createTempDirectory("load-bench").toFile();
+    File accountsFile = new File(dir, TextSnapshot.ACCOUNTS_FILE);
+    File transactionsFile = new File(dir, TextSnapshot.TRANSACTIONS_FILE);
+    write(accountsFile, transactionsFile, accountCount, transactionCount);
+
+    System.out.println("loader,threads,accounts,transactions,seconds,speedup");
+    loadSequential(accountsFile, transactionsFile);
+    long sequential = Long.MAX_VALUE;
+    for (int run = 0; run < RUNS; run++) {
+      sequential = Math.min(sequential, loadSequential(accountsFile, transactionsFile));
+    }
+    print("sequential", 1, accountCount, transactionCount, sequential, sequential);
+
+    for (int threads : threadCounts) {
+      ForkJoinPool pool = new ForkJoinPool(threads);
+      loadParallel(accountsFile, transactionsFile, pool);
+      long best = Long.MAX_VALUE;
+      for (int run = 0; run < RUNS; run++) {
+        best = Math.min(best, loadParallel(accountsFile, transactionsFile, pool));
+      }
+      pool.shutdown();
+      print("parallel", threads, accountCount, transactionCount, best, sequential);
+    }
+
+    accountsFile.delete();
+    transactionsFile.delete();
+    dir.delete();
+  }
+
+  private static long loadSequential(File accountsFile, File transactionsFile) throws IOException {
+    long start = System.nanoTime();
+    AccountRegistry accounts = new AccountRegistry();
+    TextSnapshot.readAccounts(accountsFile.getPath(), accounts);
+    TextSnapshot.readTransactions(transactionsFile.getPath(), accounts);
+    return System.nanoTime() - start;
+  }
+
+  private static long loadParallel(File accountsFile, File transactionsFile, ForkJoinPool pool) throws IOException {
+    long start = System.nanoTime();
+    AccountRegistry accounts = new AccountRegistry();
+    ParallelLoader.readAccounts(accountsFile.getPath(), accounts, pool, problem -> { });
+    try (MappedTransactionLog log = MappedTransactionLog.open(transactionsFile.getPath(), pool, problem -> { })) {
+      log.attachTo(accounts);
+    }
+    return System.nanoTime() - start;
+  }
+
+  private static void print(String loader, int threads, int accounts, int transactions, long nanos, long baseline) {
+    System.out.printf("%s,%d,%d,%d,%.3f,%.2f%n", loader, threads, accounts, transactions, nanos / 1e9,
+        (double) baseline / nanos);
+  }
+
+  private static void write(File accountsFile, File transactionsFile, int accountCount, int transactionCount)
+      throws IOException {
+    try (BufferedWriter out = Files.newBufferedWriter(accountsFile.toPath(), StandardCharsets.UTF_8)) {
+      for (int i = 0; i < accountCount; i++) {
+        out.write("Account Holder " + i + "," + (100000 + i) + "," + (i % 10_000) + ".50,password" + i + "\n");
+      }
+    }
+    Random random = new Random(42);
+    try (BufferedWriter out = Files.newBufferedWriter(transactionsFile.toPath(), StandardCharsets.UTF_8)) {
+      for (int i = 0; i < transactionCount; i++) {
+        int accNo = 100000 + random.nextInt(accountCount);
+        out.write(accNo + ",Deposit," + random.nextInt(500) + ".25,Deposit to account\n");
+      }
+    }
+  }
+}
@@ -0,0 +1,229 @@
+package bench;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import src.Account;
+import src.BankService;
+import src.ShardedEngine;
+import src.TransferEngine;
+
+// Commands per second through a ShardedEngine at several shard counts,
+// against the direct path (callers apply the change themselves under
+// TransferEngine's stripe locks) as the baseline. The mix is 40% deposits, 40%
+// withdrawals and 20% transfers over uniformly chosen accounts, so with N
+// shards about (N-1)/N of the transfers cross shards. Each client keeps up to
+// window commands outstanding; nothing is persisted, so this measures the
+// engine rather than the journal. Shards only scale up to the number of cores
+// left over by the clients.
+//
+// The service rows run the same mix through BankService, direct and with
+// -Dbank.engine=sharded. There the shards still take stripe locks and write
+// the journal (left to the OS to flush unless -Dbank.journal.fsync says
+// otherwise), and each client waits for every command, so they show what the
+// engine is worth inside the service rather than on its own.
+// Usage: java -cp <classes> bench.ShardedEngineBenchmark [accounts] [clients] [seconds] [window] [shards...]
+public class ShardedEngineBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int accountCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+    int clients = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+    int window = args.length > 3 ? Integer.parseInt(args[3]) : 256;
+    int[] shardCounts = { 1, 2, 4, 8 };
+    if (args.length > 4) {
+      shardCounts = new int[args.length - 4];
+      for (int i = 4; i < args.length; i++) {
+        shardCounts[i - 4] = Integer.parseInt(args[i]);
+      }
+    }
+
+    Account[] accounts = new Account[accountCount];
+    for (int i = 0; i < accountCount; i++) {
+      accounts[i] = Account.ofCents("Bench", 100000 + i, 100_000_000, "password");
+    }
+
+    System.out.println("engine,shards,clients,commands_per_sec,cross_shard_per_sec");
+    TransferEngine direct = new TransferEngine(null);
+    long ops = run(accounts, clients, seconds, (kind, a, b, cents) -> {
+      if (kind == 2) {
+        direct.transferCents(a, b, cents);
+        return DONE;
+      }
+      ReentrantLock lock = stripe(a);
+      lock.lock();
+      try {
+        if (kind == 0) {
+          a.depositCents(cents);
+        } else {
+          a.withdrawCents(cents);
+        }
+      } finally {
+        lock.unlock();
+      }
+      return DONE;
+    }, 1);
+    System.out.printf("direct,0,%d,%.0f,0%n", clients, (double) ops / seconds);
+
+    for (int shards : shardCounts) {
+      ShardedEngine engine = new ShardedEngine(shards, new PlainLedger());
+      ops = run(accounts, clients, seconds, (kind, a, b, cents) -> {
+        switch (kind) {
+          case 0:
+            return engine.deposit(a, cents);
+          case 1:
+            return engine.withdraw(a, cents);
+          default:
+            return engine.transfer(a, b, cents);
+        }
+      }, window);
+      long crossShard = crossShard(engine.stats());
+      engine.close();
+      System.out.printf("sharded,%d,%d,%.0f,%.0f%n", shards, clients, (double) ops / seconds,
+          (double) crossShard / seconds);
+    }
+
+    if (System.getProperty("bank.journal.fsync") == null) {
+      System.setProperty("bank.journal.fsync", "os");
+    }
+    ops = runService(accountCount, clients, seconds, 0);
+    System.out.printf("service_direct,0,%d,%.0f,0%n", clients, (double) ops / seconds);
+    for (int shards : shardCounts) {
+      ops = runService(accountCount, clients, seconds, shards);
+      System.out.printf("service_sharded,%d,%d,%.0f,%n", shards, clients, (double) ops / seconds);
+    }
+  }
+
+  // A fresh service in a temp directory, on the sharded engine if shards > 0
+  private static long runService(int accountCount, int clients, int seconds, int shards) throws Exception {
+    File dir = Files.createTempDirectory("sharded-bench").toFile();
+    if (shards > 0) {
+      System.setProperty("bank.engine", "sharded");
+      System.setProperty("bank.engine.shards", Integer.toString(shards));
+    }
+    BankService service = new BankService(dir.getPath(), notice -> { });
+    try {
+      service.open();
+    } finally {
+      System.clearProperty("bank.engine");
+      System.clearProperty("bank.engine.shards");
+    }
+    Account[] accounts = new Account[accountCount];
+    for (int i = 0; i < accountCount; i++) {
+      accounts[i] = Account.ofCents("Bench", 100000 + i, 100_000_000, "password");
+      service.accounts().put(accounts[i]);
+    }
+    long ops = run(accounts, clients, seconds, (kind, a, b, cents) -> {
+      if (kind == 0) {
+        service.deposit(a, cents);
+      } else if (kind == 1) {
+        service.withdraw(a, cents);
+      } else if (a != b) {
+        service.transfer(a, b.getAccNo(), cents);
+      }
+      return DONE;
+    }, 1);
+    service.close();
+    for (File f : dir.listFiles()) {
+      f.delete();
+    }
+    dir.delete();
+    return ops;
+  }
+
+  interface Command {
+    CompletableFuture<?> submit(int kind, Account a, Account b, long cents);
+  }
+
+  // Applies changes without locks: each account is only touched by its shard
+  static final class PlainLedger implements ShardedEngine.Ledger {
+    @Override
+    public TransferEngine.Result deposit(Account account, long cents) {
+      account.depositCents(cents);
+      return TransferEngine.Result.SUCCESS;
+    }
+
+    @Override
+    public TransferEngine.Result withdraw(Account account, long cents) {
+      return account.withdrawCents(cents) ? TransferEngine.Result.SUCCESS : TransferEngine.Result.INSUFFICIENT_FUNDS;
+    }
+
+    @Override
+    public TransferEngine.Result transfer(Account from, Account to, long cents) {
+      if (from == to) {
+        return TransferEngine.Result.SAME_ACCOUNT;
+      }
+      if (!from.withdrawCents(cents)) {
+        return TransferEngine.Result.INSUFFICIENT_FUNDS;
+      }
+      to.depositCents(cents);
+      return TransferEngine.Result.SUCCESS;
+    }
+  }
+
+  private static final CompletableFuture<Boolean> DONE = CompletableFuture.completedFuture(true);
+
+  // Deposits and withdrawals on the direct path hold a stripe lock, as in
+  // BankService. These stripes are not the TransferEngine's, so a deposit may
+  // overlap a transfer of the same account, which only flatters the baseline.
+  private static final ReentrantLock[] STRIPES = new ReentrantLock[TransferEngine.DEFAULT_STRIPES];
+
+  static {
+    for (int i = 0; i < STRIPES.length; i++) {
+      STRIPES[i] = new ReentrantLock();
+    }
+  }
+
+  private static ReentrantLock stripe(Account account) {
+    int h = account.getAccNo() * 0x9E3779B9;
+    return STRIPES[(h ^ (h >>> 16)) & (STRIPES.length - 1)];
+  }
+
+  private static long run(Account[] accounts, int clients, int seconds, Command command, int window)
+      throws InterruptedException {
+    AtomicLong total = new AtomicLong();
+    long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+    CountDownLatch finished = new CountDownLatch(clients);
+    for (int c = 0; c < clients; c++) {
+      long seed = c;
+      new Thread(() -> {
+        Random random = new Random(seed);
+        ArrayDeque<CompletableFuture<?>> outstanding = new ArrayDeque<>();
+        long ops = 0;
+        while (System.nanoTime() < deadline) {
+          for (int i = 0; i < 64; i++) {
+            int kind = random.nextInt(5);
+            Account a = accounts[random.nextInt(accounts.length)];
+            Account b = accounts[random.nextInt(accounts.length)];
+            outstanding.add(command.submit(kind < 2 ? kind : 2, a, b, 1 + random.nextInt(100)));
+            if (outstanding.size() >= window) {
+              outstanding.poll().join();
+            }
+            ops++;
+          }
+        }
+        while (!outstanding.isEmpty()) {
+          outstanding.poll().join();
+        }
+        total.addAndGet(ops);
+        finished.countDown();
+      }).start();
+    }
+    finished.await();
+    return total.get();
+  }
+
+  private static long crossShard(String stats) {
+    long sum = 0;
+    for (String shard : stats.split(" ")) {
+      sum += Long.parseLong(shard.substring(shard.indexOf('/') + 1));
+    }
+    return sum;
+  }
+}
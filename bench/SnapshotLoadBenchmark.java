@@ -0,0 +1,64 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+
+import src.Account;
+import src.AccountRegistry;
+import src.BinarySnapshot;
+import src.TextSnapshot;
+import src.Transaction;
+
+// Cold-load time of the CSV files versus the binary snapshot for the same data.
+// Usage: java -cp <classes> bench.SnapshotLoadBenchmark [accounts] [transactionsPerAccount]
+public class SnapshotLoadBenchmark {
+
+  public static void main(String[] args) throws IOException {
+    int accountCount = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+    int perAccount = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+    AccountRegistry accounts = new AccountRegistry(accountCount);
+    for (int i = 0; i < accountCount; i++) {
+      Account acc = Account.ofCents("Account Holder", 100000 + i, 1_000_00 + i, "password" + i);
+      for (int t = 0; t < perAccount; t++) {
+        acc.addTransaction(Transaction.ofCents(t % 2 == 0 ? "Deposit" : "Withdrawal", 100 + t, "Deposit to account"));
+      }
+      accounts.put(acc);
+    }
+
+    File dir = new File(System.getProperty("java.io.tmpdir"), "snapshot-bench");
+    dir.mkdirs();
+    String accountsFile = new File(dir, "accounts.txt").getPath();
+    String transactionsFile = new File(dir, "transactions.txt").getPath();
+    String snapshotFile = new File(dir, "bank.snapshot").getPath();
+    TextSnapshot.writeAccounts(accountsFile, accounts);
+    TextSnapshot.writeTransactions(transactionsFile, accounts);
+    BinarySnapshot.write(snapshotFile, accounts);
+    accounts = null;
+
+    System.out.println("format,accounts,transactions,bytes,load_ms");
+    for (int round = 0; round < 5; round++) {
+      long start = System.nanoTime();
+      AccountRegistry text = new AccountRegistry();
+      TextSnapshot.readAccounts(accountsFile, text);
+      TextSnapshot.readTransactions(transactionsFile, text);
+      long textMs = (System.nanoTime() - start) / 1_000_000;
+
+      start = System.nanoTime();
+      AccountRegistry binary = BinarySnapshot.read(snapshotFile);
+      long binaryMs = (System.nanoTime() - start) / 1_000_000;
+
+      // First rounds are JIT warm-up; report the last two
+      if (round >= 3) {
+        long total = (long) accountCount * perAccount;
+        System.out.printf("text,%d,%d,%d,%d%n", text.size(), total,
+            new File(accountsFile).length() + new File(transactionsFile).length(), textMs);
+        System.out.printf("binary,%d,%d,%d,%d%n", binary.size(), total, new File(snapshotFile).length(), binaryMs);
+      }
+    }
+    new File(accountsFile).delete();
+    new File(transactionsFile).delete();
+    new File(snapshotFile).delete();
+    dir.delete();
+  }
+}
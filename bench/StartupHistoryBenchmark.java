@@ -0,0 +1,87 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+
+import src.Account;
+import src.AccountRegistry;
+import src.MappedTransactionLog;
+import src.TextSnapshot;
+import src.Transaction;
+
+// Startup cost of decoding every transaction up front versus mapping the file
+// and indexing it by account, as the history size grows.
+// Usage: java -Xmx4g -cp <classes> bench.StartupHistoryBenchmark [accounts] [transactionsPerAccount...]
+public class StartupHistoryBenchmark {
+
+  public static void main(String[] args) throws IOException {
+    int accountCount = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+    int[] perAccount = { 5, 20, 80 };
+    if (args.length > 1) {
+      perAccount = new int[args.length - 1];
+      for (int i = 1; i < args.length; i++) {
+        perAccount[i - 1] = Integer.parseInt(args[i]);
+      }
+    }
+
+    File file = File.createTempFile("transactions", ".txt");
+    file.deleteOnExit();
+    System.out.println("mode,transactions,load_ms,retained_heap_mb");
+    for (int n : perAccount) {
+      writeHistory(file, accountCount, n);
+      long total = (long) accountCount * n;
+      measure("eager", file, accountCount, total);
+      measure("mapped", file, accountCount, total);
+    }
+  }
+
+  // Keeps whatever was loaded reachable until the heap has been measured
+  private static Object retained;
+
+  private static void writeHistory(File file, int accountCount, int perAccount) throws IOException {
+    AccountRegistry source = accounts(accountCount);
+    for (Account acc : source) {
+      for (int t = 0; t < perAccount; t++) {
+        acc.addTransaction(Transaction.ofCents("Deposit", 100 + t, "Deposit to account"));
+      }
+    }
+    TextSnapshot.writeTransactions(file.getPath(), source);
+  }
+
+  private static void measure(String mode, File file, int accountCount, long total) throws IOException {
+    AccountRegistry accounts = accounts(accountCount);
+    long before = usedHeap();
+    long start = System.nanoTime();
+    MappedTransactionLog log = null;
+    if (mode.equals("eager")) {
+      TextSnapshot.readTransactions(file.getPath(), accounts);
+    } else {
+      log = MappedTransactionLog.open(file.getPath());
+      log.attachTo(accounts);
+    }
+    long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+    retained = accounts;
+    long heap = usedHeap() - before;
+    retained = null;
+    if (log != null) {
+      log.close();
+    }
+    System.out.printf("%s,%d,%d,%.1f%n", mode, total, elapsedMs, heap / 1048576.0);
+  }
+
+  private static AccountRegistry accounts(int count) {
+    AccountRegistry accounts = new AccountRegistry(count);
+    for (int i = 0; i < count; i++) {
+      accounts.put(Account.ofCents("Bench", 100000 + i, 100, "password"));
+    }
+    return accounts;
+  }
+
+  private static long usedHeap() {
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    Runtime rt = Runtime.getRuntime();
+    return rt.totalMemory() - rt.freeMemory();
+  }
+}
@@ -0,0 +1,112 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+
+import src.Account;
+import src.AccountRegistry;
+import src.MappedTransactionLog;
+import src.StatementExporter;
+import src.StatementExporter.Format;
+import src.TextSnapshot;
+import src.Transaction;
+
+// Exports the whole statement of one account with a very long history to a
+// stream that discards the bytes, as CSV and as JSON, and prints rows/sec and
+// bytes allocated per row. The history is exported from memory and then, as
+// after a restart, from a mapped transactions snapshot (the _mapped rows),
+// whole and for the last tenth of its time span. The to_string row is the way
+// a statement was built before: the transaction list, one String per row,
+// encoded for the stream.
+// Usage: java -Xmx2g -cp <classes> bench.StatementExportBenchmark [entries] [rounds]
+public class StatementExportBenchmark {
+  private static final long START_MILLIS = 1_700_000_000_000L;
+
+  // Counts what it is given and keeps none of it
+  static final class NullOutputStream extends OutputStream {
+    long bytes;
+
+    @Override
+    public void write(int b) {
+      bytes++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      bytes += len;
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    int entries = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+    int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+    Account acc = Account.ofCents("Statement", 100000, 0, "password");
+    for (int i = 0; i < entries; i++) {
+      String type = i % 3 == 0 ? "Withdrawal" : "Deposit";
+      acc.addTransaction(Transaction.ofCents(type, 1 + i % 100_000, type + " to account", START_MILLIS + i * 1000L));
+    }
+
+    File snapshot = File.createTempFile("statement", ".txt");
+    snapshot.deleteOnExit();
+    AccountRegistry written = new AccountRegistry();
+    written.put(acc);
+    TextSnapshot.writeTransactions(snapshot.getPath(), written);
+    AccountRegistry loaded = new AccountRegistry();
+    loaded.put(Account.ofCents("Statement", 100000, 0, "password"));
+    MappedTransactionLog log = MappedTransactionLog.open(snapshot.getPath());
+    log.attachTo(loaded);
+    Account mapped = loaded.get(100000);
+    long lastTenth = START_MILLIS + entries * 900L;
+
+    System.out.println("format,rows,rows_per_sec,bytes_per_row,allocated_bytes_per_row");
+    for (int round = 0; round <= rounds; round++) { // the first round is warm-up
+      boolean print = round > 0;
+      for (Format format : Format.values()) {
+        String name = format.name().toLowerCase();
+        exportRound(print, name, new StatementExporter(format), acc, Long.MIN_VALUE);
+        exportRound(print, name + "_mapped", new StatementExporter(format), mapped, Long.MIN_VALUE);
+        exportRound(print, name + "_mapped_last_tenth", new StatementExporter(format), mapped, lastTenth);
+      }
+
+      NullOutputStream out = new NullOutputStream();
+      long allocated = allocatedBytes();
+      long start = System.nanoTime();
+      int rows = 0;
+      for (Transaction t : acc.getTransactions()) {
+        out.write((t + "\n").getBytes());
+        rows++;
+      }
+      report(print, "to_string", rows, start, out.bytes, allocated);
+    }
+    log.close();
+  }
+
+  private static void exportRound(boolean print, String name, StatementExporter exporter, Account acc,
+      long fromMillis) throws IOException {
+    NullOutputStream out = new NullOutputStream();
+    long allocated = allocatedBytes();
+    long start = System.nanoTime();
+    int rows = exporter.export(acc, fromMillis, Long.MAX_VALUE, out);
+    report(print, name, rows, start, out.bytes, allocated);
+  }
+
+  private static void report(boolean print, String name, int rows, long start, long bytes, long allocatedBefore) {
+    long nanos = System.nanoTime() - start;
+    long allocated = allocatedBytes() - allocatedBefore;
+    if (print) {
+      System.out.printf("%s,%d,%.0f,%.1f,%.1f%n", name, rows, rows * 1e9 / nanos, (double) bytes / rows,
+          allocatedBefore < 0 ? Double.NaN : (double) allocated / rows);
+    }
+  }
+
+  // Bytes this thread has allocated so far, or -1 where the JVM cannot tell
+  private static long allocatedBytes() {
+    if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads) {
+      return threads.getCurrentThreadAllocatedBytes();
+    }
+    return -1;
+  }
+}
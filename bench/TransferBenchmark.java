@@ -0,0 +1,82 @@
+package bench;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import src.Account;
+import src.TransferEngine;
+
+// Concurrent transfer throughput over uniformly chosen accounts and over a
+// Zipf-skewed distribution where a few hot accounts take most of the traffic.
+// Usage: java -cp <classes> bench.TransferBenchmark [accounts] [threads] [seconds] [zipfExponent]
+public class TransferBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int accountCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+    int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+    double exponent = args.length > 3 ? Double.parseDouble(args[3]) : 1.0;
+
+    Account[] accounts = new Account[accountCount];
+    for (int i = 0; i < accountCount; i++) {
+      accounts[i] = new Account("Bench", 100000 + i, 1_000_000.0, "password");
+    }
+
+    System.out.println("distribution,accounts,threads,transfers_per_sec");
+    double[] zipfCdf = zipfCdf(accountCount, exponent);
+    for (String distribution : new String[] { "uniform", "zipf" }) {
+      double[] cdf = distribution.equals("zipf") ? zipfCdf : null;
+      long ops = run(accounts, cdf, threads, seconds);
+      System.out.printf("%s,%d,%d,%.0f%n", distribution, accountCount, threads, (double) ops / seconds);
+    }
+  }
+
+  private static double[] zipfCdf(int n, double exponent) {
+    double[] cdf = new double[n];
+    double sum = 0;
+    for (int i = 0; i < n; i++) {
+      sum += 1.0 / Math.pow(i + 1, exponent);
+      cdf[i] = sum;
+    }
+    for (int i = 0; i < n; i++) {
+      cdf[i] /= sum;
+    }
+    return cdf;
+  }
+
+  private static int pick(Random random, double[] cdf, int n) {
+    if (cdf == null) {
+      return random.nextInt(n);
+    }
+    int idx = Arrays.binarySearch(cdf, random.nextDouble());
+    return Math.min(idx < 0 ? -idx - 1 : idx, n - 1);
+  }
+
+  private static long run(Account[] accounts, double[] cdf, int threads, int seconds) throws InterruptedException {
+    TransferEngine engine = new TransferEngine(null);
+    long end = System.nanoTime() + seconds * 1_000_000_000L;
+    long[] counts = new long[threads];
+    Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      final int id = t;
+      workers[t] = new Thread(() -> {
+        Random random = new Random(id);
+        long done = 0;
+        while ((done & 1023) != 0 || System.nanoTime() < end) {
+          Account from = accounts[pick(random, cdf, accounts.length)];
+          Account to = accounts[pick(random, cdf, accounts.length)];
+          engine.transfer(from, to, 1.0);
+          done++;
+        }
+        counts[id] = done;
+      });
+      workers[t].start();
+    }
+    long total = 0;
+    for (int t = 0; t < threads; t++) {
+      workers[t].join();
+      total += counts[t];
+    }
+    return total;
+  }
+}
@@ -0,0 +1,16 @@
+#!/bin/sh
+# Compiles the sources and runs the core benchmark suite with the JDK alone.
+# JSON results go to the file given in BENCH_OUT (default bench-results.json);
+# compare two runs with any JSON diff tool.
+#
+# Usage: bench/run.sh [sizes...]
+#   BENCH_OUT=before.json bench/run.sh 1000 100000
+#   JAVA_OPTS="-Dbench.include=transfer -Dbench.iterations=10" bench/run.sh
+set -e
+root=$(cd "$(dirname "$0")/.." && pwd)
+classes=$(mktemp -d)
+trap 'rm -rf "$classes"' EXIT
+
+javac -d "$classes" -cp "$root/lib/*" $(find "$root/src" "$root/bench" -name '*.java')
+java -Xmx4g $JAVA_OPTS -cp "$classes" bench.CoreBenchmarks "$@" > "${BENCH_OUT:-bench-results.json}"
+echo "Results written to ${BENCH_OUT:-bench-results.json}" >&2
@@ -1,84 +1,382 @@
 package src;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
 
 public class Account {
   private String name;
   private int accNo;
-  private double balance;
-  private String password;
+  // Balance in cents. Only changed under the history lock, together with the
+  // entry recording the change, so concurrent deposits and withdrawals never
+  // lose an update and never overdraw; volatile so reads need no lock.
+  private volatile long balanceCents;
+  // A PasswordHasher hash, or the plaintext password of an account saved
+  // before passwords were hashed; BankService replaces that at the next login
+  private String credential;
 
   // New field for transaction history
-  private ArrayList<Transaction> transactions;
+  private TransactionHistory history;
+  private final Object historyLock = new Object();
 
+  // History still sitting in the mapped transactions file. Until it is needed,
+  // history only holds entries added since the snapshot was loaded.
+  private MappedTransactionLog snapshotHistory;
+  private int snapshotCount;
+
+  // Counts changes to the password and history. Every balance change also adds
+  // a history entry, so an unchanged count means an unchanged account.
+  private int changeCount;
+
+  // Set while the account is evicted from an AccountCache. A change made through
+  // a reference kept from before the eviction puts the account back.
+  volatile AccountCache evictedFrom;
+
+  // password is stored as given: callers taking a password from a user hash it
+  // first (BankService does), while the loaders pass what the files hold
   public Account(String name, int accNo, double balance, String password) {
+    this(name, accNo, password, Money.fromDouble(balance));
+  }
+
+  public static Account ofCents(String name, int accNo, long balanceCents, String password) {
+    return new Account(name, accNo, password, balanceCents);
+  }
+
+  private Account(String name, int accNo, String password, long balanceCents) {
     if (name == null || name.trim().isEmpty()) {
       throw new IllegalArgumentException("Name cannot be empty");
     }
-    if (balance < 0) {
+    if (balanceCents < 0) {
       throw new IllegalArgumentException("Balance cannot be negative");
     }
     if (password == null || password.trim().isEmpty()) {
       throw new IllegalArgumentException("Password cannot be null or empty");
     }
-    if (password.length() < 6) { // Consistent with BankingApp validation
+    if (password.length() < 6) { // Consistent with BankService validation
       throw new IllegalArgumentException("Password must be at least 6 characters long.");
     }
 
     this.name = name;
     this.accNo = accNo;
-    this.balance = balance;
-    this.password = password;
-    this.transactions = new ArrayList<>(); // Initialize transactions list
+    this.balanceCents = balanceCents;
+    this.credential = password;
+    this.history = new TransactionHistory(); // Initialize transaction history
+  }
+
+  // Credits the balance and records transaction (a new one) as one step under
+  // the history lock, so the entry carries the balance this credit produced
+  // and entries are in the order their changes were made. Returns the new balance.
+  long creditCents(long cents, Transaction transaction) {
+    long balance;
+    synchronized (historyLock) {
+      balance = balanceCents + cents;
+      balanceCents = balance;
+      append(transaction, balance);
+    }
+    changed();
+    return balance;
+  }
+
+  // The same for a debit. Returns the new balance, or -1 and records nothing
+  // if the funds are insufficient.
+  long debitCents(long cents, Transaction transaction) {
+    long balance;
+    synchronized (historyLock) {
+      // The funds check and the debit are one step under the lock
+      if (balanceCents < cents) {
+        return -1;
+      }
+      balance = balanceCents - cents;
+      balanceCents = balance;
+      append(transaction, balance);
+    }
+    changed();
+    return balance;
   }
 
   // New methods:
+  // A transaction without a sequence id is new: it gets the next id, a
+  // timestamp no earlier than the previous entry's even if the clock went back,
+  // and the current balance. Stored transactions keep their own.
   public void addTransaction(Transaction transaction) {
-    transactions.add(transaction);
+    synchronized (historyLock) {
+      if (transaction.getSequence() == 0) {
+        append(transaction, balanceCents);
+      } else {
+        Transaction.advanceSequence(transaction.getSequence());
+        history.add(transaction);
+        changeCount++;
+      }
+    }
+    changed();
+  }
+
+  // Stamps a new transaction and adds it; called with the history lock held
+  private void append(Transaction transaction, long balance) {
+    int n = history.size();
+    long previous = n > 0 ? history.timestampAt(n - 1) : 0;
+    transaction.stamp(Transaction.nextSequence(), Math.max(transaction.getTimestamp(), previous), balance);
+    history.add(transaction);
+    changeCount++;
+  }
+
+  // Outside the history lock: readmitting takes the cache's lock, and the cache
+  // takes history locks while it evicts
+  private void changed() {
+    AccountCache cache = evictedFrom;
+    if (cache != null) {
+      cache.readmit(this);
+    }
+  }
+
+  int changeCount() {
+    synchronized (historyLock) {
+      return changeCount;
+    }
   }
 
-  public ArrayList<Transaction> getTransactions() {
-    return transactions;
+  // Rough heap footprint, for AccountCache's byte budget
+  long estimatedBytes() {
+    synchronized (historyLock) {
+      return 160 + 2L * (name.length() + credential.length())
+          + (long) TransactionHistory.ENTRY_BYTES * history.size();
+    }
+  }
+
+  // Gives action the entries that are not in the mapped snapshot history and
+  // returns the log holding the rest (null if none), as one consistent view
+  MappedTransactionLog forEachUnmappedTransaction(Consumer<Transaction> action) {
+    synchronized (historyLock) {
+      history.forEach(0, action);
+      return snapshotHistory;
+    }
+  }
+
+  // Visits the in-memory entries with a sequence id in (after, through], oldest
+  // first. Entries still in the mapped snapshot history are never visited: a
+  // checkpoint uses this for what it has not written to that file yet.
+  void forEachNewTransaction(long after, long through, Consumer<Transaction> action) {
+    synchronized (historyLock) {
+      int n = history.size();
+      for (int i = history.indexOfSequence(after + 1); i < n && history.sequenceAt(i) <= through; i++) {
+        action.accept(history.get(i));
+      }
+    }
+  }
+
+  // Read-only view of the whole history. Decodes the snapshot history the first
+  // time it is needed.
+  public List<Transaction> getTransactions() {
+    synchronized (historyLock) {
+      loadSnapshotHistory();
+      return history.asList();
+    }
+  }
+
+  // Called with the history lock held
+  private void loadSnapshotHistory() {
+    if (snapshotHistory != null) {
+      TransactionHistory loaded = new TransactionHistory();
+      snapshotHistory.forEach(accNo, loaded::add);
+      loaded.addAll(history);
+      history = loaded;
+      snapshotHistory = null;
+      snapshotCount = 0;
+    }
+  }
+
+  void attachSnapshotHistory(MappedTransactionLog log) {
+    synchronized (historyLock) {
+      snapshotHistory = log;
+      snapshotCount = log.count(accNo);
+      changeCount++;
+    }
+    changed();
+  }
+
+  // Takes over another account object's history, e.g. when the journal replaces
+  // an account with its updated state
+  void adoptHistoryOf(Account other) {
+    synchronized (other.historyLock) {
+      synchronized (historyLock) {
+        TransactionHistory merged = other.history;
+        merged.addAll(history);
+        history = merged;
+        snapshotHistory = other.snapshotHistory;
+        snapshotCount = other.snapshotCount;
+      }
+    }
+  }
+
+  // Sequence id of the newest transaction, 0 if there are none. Read from the
+  // mapped log's index while the history is still there, so journal replay
+  // does not decode it.
+  long lastSequence() {
+    synchronized (historyLock) {
+      if (history.isEmpty()) {
+        return snapshotHistory != null ? snapshotHistory.lastSequence(accNo) : 0;
+      }
+      return history.sequenceAt(history.size() - 1);
+    }
   }
 
-  public void display() {
-    System.out.println("Account Holder: " + name);
-    System.out.println("Account Number: " + accNo);
-    System.out.printf("Current Balance: $%.2f%n", balance);
-    // Password is intentionally not printed
+  public int getTransactionCount() {
+    synchronized (historyLock) {
+      return snapshotCount + history.size();
+    }
+  }
+
+  // Copy of the history from the given position on; does not decode the
+  // snapshot history when only newer entries are asked for
+  public List<Transaction> getTransactionsFrom(int index) {
+    synchronized (historyLock) {
+      ArrayList<Transaction> result = new ArrayList<>();
+      if (snapshotHistory != null && index >= snapshotCount) {
+        history.forEach(index - snapshotCount, result::add);
+      } else {
+        getTransactions();
+        history.forEach(Math.max(index, 0), result::add);
+      }
+      return result;
+    }
+  }
+
+  // The newest transactions, newest first
+  public HistoryPage latestTransactions(int limit) {
+    return transactionsBefore(Long.MAX_VALUE, limit);
+  }
+
+  // Up to limit transactions with a sequence id below cursor, newest first.
+  // Only decodes the snapshot history when the page reaches back into it.
+  public HistoryPage transactionsBefore(long cursor, int limit) {
+    checkLimit(limit);
+    synchronized (historyLock) {
+      int end = history.indexOfSequence(cursor);
+      if (snapshotHistory != null && end < limit) {
+        getTransactions();
+        end = history.indexOfSequence(cursor);
+      }
+      int start = Math.max(0, end - limit);
+      ArrayList<Transaction> page = new ArrayList<>(end - start);
+      for (int i = end - 1; i >= start; i--) {
+        page.add(history.get(i));
+      }
+      boolean more = start > 0 || snapshotHistory != null;
+      return new HistoryPage(page, more ? history.sequenceAt(start) : 0);
+    }
+  }
+
+  // Up to limit transactions recorded in [fromMillis, toMillis) with a sequence
+  // id of at least cursor, oldest first. Use 0 as the first cursor.
+  public HistoryPage transactionsBetween(long fromMillis, long toMillis, long cursor, int limit) {
+    checkLimit(limit);
+    synchronized (historyLock) {
+      // Snapshot entries are older than every newer entry, so they can only be
+      // in the page if both the range and the cursor reach back before those
+      if (snapshotHistory != null && (history.isEmpty()
+          || (fromMillis <= history.timestampAt(0) && cursor < history.sequenceAt(0)))) {
+        getTransactions();
+      }
+      int i = Math.max(history.indexOfTime(fromMillis), history.indexOfSequence(cursor));
+      int n = history.size();
+      ArrayList<Transaction> page = new ArrayList<>(Math.min(limit, n - i));
+      for (; i < n && page.size() < limit && history.timestampAt(i) < toMillis; i++) {
+        page.add(history.get(i));
+      }
+      boolean more = i < n && history.timestampAt(i) < toMillis;
+      return new HistoryPage(page, more ? history.sequenceAt(i) : 0);
+    }
+  }
+
+  // The balance at the start of millis, after every transaction recorded
+  // before it, or -1 if those were loaded from files written before balances
+  // were kept. A binary search, plus decoding the snapshot history the first
+  // time.
+  public long balanceAsOf(long millis) {
+    synchronized (historyLock) {
+      loadSnapshotHistory();
+      return balanceBefore(history.indexOfTime(millis));
+    }
+  }
+
+  // Totals of the transactions recorded in [fromMillis, toMillis), by kind,
+  // and the balance at either end. Costs two binary searches and reading at
+  // most 126 entries, however long the history or the range.
+  public HistorySummary summarize(long fromMillis, long toMillis) {
+    synchronized (historyLock) {
+      loadSnapshotHistory();
+      int from = history.indexOfTime(fromMillis);
+      int to = Math.max(from, history.indexOfTime(toMillis));
+      return new HistorySummary(history.tallies(from, to), balanceBefore(from), balanceBefore(to));
+    }
+  }
+
+  // Every change to the balance adds an entry, so with none it has not changed
+  private long balanceBefore(int index) {
+    return history.isEmpty() ? balanceCents : history.balanceBefore(index);
+  }
+
+  private static void checkLimit(int limit) {
+    if (limit < 1) {
+      throw new IllegalArgumentException("Page size must be positive");
+    }
+  }
+
+  // Visits the whole history in order without keeping decoded snapshot entries
+  public void forEachTransaction(Consumer<Transaction> action) {
+    synchronized (historyLock) {
+      if (snapshotHistory != null) {
+        snapshotHistory.forEach(accNo, action);
+      }
+      history.forEach(0, action);
+    }
+  }
+
+  // Visits the transactions recorded in [fromMillis, toMillis), oldest first,
+  // and returns how many. Entries in memory are read straight from their
+  // columns and entries still in the snapshot straight from its mapped lines.
+  // The history lock is only held to take the view, so a long export does not
+  // hold up changes; entries added meanwhile are left out.
+  public int visitTransactions(long fromMillis, long toMillis, TransactionHistory.EntryVisitor visitor)
+      throws IOException {
+    TransactionHistory view;
+    int end;
+    MappedTransactionLog mapped;
+    synchronized (historyLock) {
+      view = history;
+      end = view.size();
+      mapped = snapshotHistory;
+    }
+    int visited = mapped == null ? 0 : mapped.visit(accNo, fromMillis, toMillis, visitor);
+    int start = Math.min(view.indexOfTime(fromMillis), end);
+    int stop = Math.max(start, Math.min(view.indexOfTime(toMillis), end));
+    view.forEach(start, stop, visitor);
+    return visited + stop - start;
   }
 
   public boolean deposit(double amount) {
-    if (amount <= 0) {
-      System.out.println("Deposit amount must be greater than zero.");
+    return depositCents(Money.fromDouble(amount));
+  }
+
+  public boolean depositCents(long cents) {
+    if (cents <= 0) {
       return false;
     }
-    balance += amount;
-    System.out.println("Deposited $" + amount);
-    System.out.println("New Balance: $" + balance);
-
-    // Add transaction
-    addTransaction(new Transaction("Deposit", amount, "Deposit to account"));
+    creditCents(cents, Transaction.ofCents("Deposit", cents, "Deposit to account"));
     return true;
   }
 
   public boolean withdraw(double amount) {
-    if (amount <= 0) {
-      System.out.println("Withdrawal amount must be greater than zero.");
-      return false;
-    }
-    if (balance >= amount) {
-      balance -= amount;
-      System.out.println("Withdrew $" + amount);
-      System.out.println("New Balance: $" + balance);
+    return withdrawCents(Money.fromDouble(amount));
+  }
 
-      // Add transaction
-      addTransaction(new Transaction("Withdrawal", amount, "Withdrawal from account"));
-      return true;
-    } else {
-      System.out.println("Insufficient funds.");
+  public boolean withdrawCents(long cents) {
+    if (cents <= 0) {
       return false;
     }
+    // false if the funds are insufficient
+    return debitCents(cents, Transaction.ofCents("Withdrawal", cents, "Withdrawal from account")) >= 0;
   }
 
   public String getName() {
@@ -90,11 +388,38 @@ public class Account {
   }
 
   public double getBalance() {
-    return balance;
+    return Money.toDouble(balanceCents);
+  }
+
+  public long getBalanceCents() {
+    return balanceCents;
   }
 
+  // The stored hash (or legacy plaintext), as the snapshot writers and toCSV store it
+  String passwordForStorage() {
+    synchronized (historyLock) {
+      return credential;
+    }
+  }
+
+  // Hashes input, so this is slow by design; BankService runs it on its
+  // PasswordVerifier threads
   public boolean checkPassword(String input) {
-    return this.password.equals(input);
+    return PasswordHasher.matches(input, passwordForStorage());
+  }
+
+  // Swaps in a new stored hash, unless the credential is no longer expected
+  // (the password was changed meanwhile). Returns whether it was swapped.
+  boolean replaceCredential(String expected, String replacement) {
+    synchronized (historyLock) {
+      if (!credential.equals(expected)) {
+        return false;
+      }
+      credential = replacement;
+      changeCount++;
+    }
+    changed();
+    return true;
   }
 
   // New method to set the password
@@ -106,11 +431,28 @@ public class Account {
       throw new IllegalArgumentException("New password must be at least 6 characters long.");
     }
     // Important: this check is for setting *any* password.
-    // The check for "new password cannot be same as old" will be in BankingApp.
-    this.password = newPassword;
+    // The check for "new password cannot be same as old" is in BankService.
+    String hash = PasswordHasher.fromSystemProperties().hash(newPassword);
+    synchronized (historyLock) {
+      this.credential = hash;
+      changeCount++;
+    }
+    changed();
   }
 
   public String toCSV() {
-    return name + "," + accNo + "," + balance + "," + password;
+    StringBuilder sb = new StringBuilder(64);
+    sb.append(name).append(',').append(accNo).append(',');
+    Money.append(sb, balanceCents);
+    return sb.append(',').append(passwordForStorage()).toString();
+  }
+
+  // Inverse of toCSV; the password is the last field so it may contain commas
+  public static Account fromCSV(String line) {
+    String[] parts = line.split(",", 4);
+    if (parts.length != 4) {
+      throw new IllegalArgumentException("Expected 4 fields but found " + parts.length);
+    }
+    return ofCents(parts[0], Integer.parseInt(parts[1]), Money.parse(parts[2]), parts[3]);
   }
 }
\ No newline at end of file
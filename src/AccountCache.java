@@ -0,0 +1,483 @@
+package src;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// AccountRegistry that keeps only a working set of accounts in memory. Once
+// there are more than maxEntries resident accounts, or their estimated size is
+// over maxBytes, the policy picks accounts to evict; a changed account is
+// written to an AccountSpill file first. get() loads evicted accounts back on
+// demand, so callers see every account as before. size(), contains() and
+// iteration cover evicted accounts too; iteration reads them from the spill
+// file without making them resident again.
+//
+// There is never more than one Account object per accNo. An evicted account
+// that is still referenced (by a logged-in session, say) is handed out again
+// instead of being read back, and a change made through such a reference puts
+// it back in the cache, so the spill file is rewritten at its next eviction.
+//
+// All methods are synchronized on the cache, except that reading an account
+// back from the spill file happens outside that monitor, under a lock for the
+// account's stripe: a slow read only holds up lookups of accounts in the same
+// stripe, and two threads missing the same account read it once. Evictions
+// still write the spill file under the monitor.
+public class AccountCache extends AccountRegistry {
+
+  public enum Policy {
+    LRU,
+    W_TINYLFU
+  }
+
+  // Counters since the cache was created
+  public static final class Stats {
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final long spillWrites;
+    private final int resident;
+    private final long residentBytes;
+
+    Stats(long hits, long misses, long evictions, long spillWrites, int resident, long residentBytes) {
+      this.hits = hits;
+      this.misses = misses;
+      this.evictions = evictions;
+      this.spillWrites = spillWrites;
+      this.resident = resident;
+      this.residentBytes = residentBytes;
+    }
+
+    public long hits() {
+      return hits;
+    }
+
+    // Lookups of an evicted account
+    public long misses() {
+      return misses;
+    }
+
+    public long evictions() {
+      return evictions;
+    }
+
+    // Evictions that had to write the account; the rest were unchanged since
+    // their last write
+    public long spillWrites() {
+      return spillWrites;
+    }
+
+    public int resident() {
+      return resident;
+    }
+
+    public long residentBytes() {
+      return residentBytes;
+    }
+
+    public double hitRatio() {
+      return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("hits=%d misses=%d hitRatio=%.3f evictions=%d spillWrites=%d resident=%d residentBytes=%d",
+          hits, misses, hitRatio(), evictions, spillWrites, resident, residentBytes);
+    }
+  }
+
+  // Bookkeeping for one resident account
+  private static final class Resident {
+    long bytes;
+    int spilledChangeCount = -1; // the account's changeCount when last written, -1 if never
+
+    Resident(long bytes) {
+      this.bytes = bytes;
+    }
+  }
+
+  // Weak reference to an evicted account, to hand out the same object while it is in use
+  private static final class EvictedRef extends WeakReference<Account> {
+    final int accNo;
+
+    EvictedRef(Account account, ReferenceQueue<Account> queue) {
+      super(account, queue);
+      this.accNo = account.getAccNo();
+    }
+  }
+
+  private final long maxEntries;
+  private final long maxBytes;
+  private final EvictionPolicy policy;
+  private final AccountSpill spill;
+  private final HashMap<Integer, Resident> residents = new HashMap<>();
+  private final HashMap<Integer, EvictedRef> evicted = new HashMap<>();
+  private final Object[] loadLocks = new Object[64];
+  private final ReferenceQueue<Account> collected = new ReferenceQueue<>();
+  private long residentBytes;
+  private int spilledOnly; // accounts in the spill file that are not resident
+  private long replacements; // puts, removes and clears, so a load can tell its read went stale
+
+  private long hits;
+  private long misses;
+  private long evictions;
+  private long spillWrites;
+
+  // maxEntries and maxBytes of 0 mean no limit of that kind
+  public AccountCache(String spillFile, Policy policy, long maxEntries, long maxBytes) {
+    if (maxEntries < 0 || maxBytes < 0) {
+      throw new IllegalArgumentException("Cache limits cannot be negative");
+    }
+    this.maxEntries = maxEntries == 0 ? Long.MAX_VALUE : maxEntries;
+    this.maxBytes = maxBytes == 0 ? Long.MAX_VALUE : maxBytes;
+    this.policy = EvictionPolicy.create(policy, maxEntries == 0 ? 1 << 16 : maxEntries);
+    this.spill = new AccountSpill(spillFile);
+    for (int i = 0; i < loadLocks.length; i++) {
+      loadLocks[i] = new Object();
+    }
+  }
+
+  // Reads -Dbank.cache.maxEntries, -Dbank.cache.maxBytes and
+  // -Dbank.cache.policy=lru|w-tinylfu (the default). Returns a plain registry
+  // when neither limit is set.
+  public static AccountRegistry fromSystemProperties(String spillFile) {
+    long maxEntries = Long.getLong("bank.cache.maxEntries", 0);
+    long maxBytes = Long.getLong("bank.cache.maxBytes", 0);
+    if (maxEntries == 0 && maxBytes == 0) {
+      return new AccountRegistry();
+    }
+    String mode = System.getProperty("bank.cache.policy", "w-tinylfu");
+    Policy policy;
+    switch (mode) {
+      case "lru":
+        policy = Policy.LRU;
+        break;
+      case "w-tinylfu":
+        policy = Policy.W_TINYLFU;
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown cache policy: " + mode);
+    }
+    return new AccountCache(spillFile, policy, maxEntries, maxBytes);
+  }
+
+  @Override
+  public Account get(int accNo) {
+    synchronized (this) {
+      Account acc = super.get(accNo);
+      if (acc != null) {
+        hits++;
+        touch(acc);
+        return acc;
+      }
+      if (!spill.contains(accNo)) {
+        return null;
+      }
+      misses++;
+      acc = readmitHeld(accNo);
+      if (acc != null) {
+        return acc;
+      }
+    }
+    synchronized (loadLocks[(accNo * 0x9E3779B9) >>> 26]) {
+      while (true) {
+        long seen;
+        synchronized (this) {
+          // Loaded, replaced or removed while this thread waited for the lock
+          Account acc = super.get(accNo);
+          if (acc == null && spill.contains(accNo)) {
+            acc = readmitHeld(accNo);
+          }
+          if (acc != null || !spill.contains(accNo)) {
+            return acc;
+          }
+          seen = replacements;
+        }
+        Account loaded = spill.read(accNo);
+        synchronized (this) {
+          if (loaded != null && replacements == seen) {
+            admit(loaded);
+            residents.get(accNo).spilledChangeCount = loaded.changeCount();
+            spilledOnly--;
+            evictIfNeeded();
+            return loaded;
+          }
+        }
+      }
+    }
+  }
+
+  // An evicted account that is still in use, made resident again; null if it
+  // has been collected. It may have changed since it was written, so it is
+  // written again at its next eviction.
+  private Account readmitHeld(int accNo) {
+    EvictedRef ref = evicted.get(accNo);
+    Account acc = ref == null ? null : ref.get();
+    if (acc == null) {
+      return null;
+    }
+    evicted.remove(accNo);
+    acc.evictedFrom = null;
+    admit(acc);
+    spilledOnly--;
+    evictIfNeeded();
+    return acc;
+  }
+
+  // Resident accounts and evicted ones still in use get the log now; the rest
+  // get it when they are read back, so attaching reads nothing from the spill
+  // file and evicts nothing
+  @Override
+  synchronized int attachSnapshotHistory(MappedTransactionLog log) {
+    int attached = super.attachSnapshotHistory(log);
+    for (int accNo : spill.accNos()) {
+      if (super.contains(accNo) || log.count(accNo) == 0) {
+        continue;
+      }
+      EvictedRef ref = evicted.get(accNo);
+      Account held = ref == null ? null : ref.get();
+      if (held != null) {
+        held.attachSnapshotHistory(log); // which readmits it
+      }
+      spill.attachOnRead(accNo, log);
+      attached++;
+    }
+    return attached;
+  }
+
+  @Override
+  public synchronized boolean contains(int accNo) {
+    return super.contains(accNo) || spill.contains(accNo);
+  }
+
+  @Override
+  public synchronized int size() {
+    return super.size() + spilledOnly;
+  }
+
+  @Override
+  public synchronized boolean isEmpty() {
+    return size() == 0;
+  }
+
+  // Replacing an evicted account does not read it back, so the previous
+  // account is only returned if it was resident or is still referenced
+  @Override
+  public synchronized Account put(Account account) {
+    if (account == null) {
+      throw new IllegalArgumentException("Account cannot be null");
+    }
+    int accNo = account.getAccNo();
+    replacements++;
+    Account previous = super.put(account);
+    if (previous != null) {
+      Resident resident = residents.get(accNo);
+      residentBytes -= resident.bytes;
+      resident.bytes = account.estimatedBytes();
+      resident.spilledChangeCount = -1;
+      residentBytes += resident.bytes;
+      policy.onAccess(accNo);
+    } else {
+      previous = forgetEvicted(accNo);
+      admit(account);
+    }
+    evictIfNeeded();
+    return previous;
+  }
+
+  @Override
+  public synchronized Account remove(int accNo) {
+    replacements++;
+    Account removed = super.remove(accNo);
+    if (removed != null) {
+      residentBytes -= residents.remove(accNo).bytes;
+      policy.onRemove(accNo);
+      spill.remove(accNo);
+      return removed;
+    }
+    return forgetEvicted(accNo);
+  }
+
+  @Override
+  public synchronized void clear() {
+    replacements++;
+    super.clear();
+    for (int accNo : residents.keySet()) {
+      policy.onRemove(accNo);
+    }
+    residents.clear();
+    for (EvictedRef ref : evicted.values()) {
+      Account acc = ref.get();
+      if (acc != null) {
+        acc.evictedFrom = null;
+      }
+    }
+    evicted.clear();
+    residentBytes = 0;
+    spilledOnly = 0;
+    try {
+      spill.clear();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // Drops an evicted account, returning it if it is still referenced
+  private Account forgetEvicted(int accNo) {
+    if (!spill.contains(accNo)) {
+      return null;
+    }
+    spill.remove(accNo);
+    spilledOnly--;
+    EvictedRef ref = evicted.remove(accNo);
+    Account acc = ref == null ? null : ref.get();
+    if (acc != null) {
+      acc.evictedFrom = null;
+    }
+    return acc;
+  }
+
+  // Called by Account when it changes while evicted
+  synchronized void readmit(Account acc) {
+    if (acc.evictedFrom != this) {
+      return; // already back, or removed
+    }
+    acc.evictedFrom = null;
+    evicted.remove(acc.getAccNo());
+    admit(acc);
+    spilledOnly--;
+    evictIfNeeded();
+  }
+
+  public synchronized Stats stats() {
+    return new Stats(hits, misses, evictions, spillWrites, super.size(), residentBytes);
+  }
+
+  // Deletes the spill file; the cache is empty afterwards
+  public synchronized void close() throws IOException {
+    clear();
+    spill.close();
+  }
+
+  private void admit(Account acc) {
+    Resident resident = new Resident(acc.estimatedBytes());
+    super.put(acc);
+    residents.put(acc.getAccNo(), resident);
+    residentBytes += resident.bytes;
+    policy.onAdd(acc.getAccNo());
+  }
+
+  // Hits refresh the size estimate, since resident accounts keep growing their history
+  private void touch(Account acc) {
+    Resident resident = residents.get(acc.getAccNo());
+    long bytes = acc.estimatedBytes();
+    residentBytes += bytes - resident.bytes;
+    resident.bytes = bytes;
+    policy.onAccess(acc.getAccNo());
+  }
+
+  private void evictIfNeeded() {
+    while (super.size() > 1 && (super.size() > maxEntries || residentBytes > maxBytes)) {
+      evict(policy.evict());
+    }
+    expungeCollected();
+  }
+
+  private void evict(int accNo) {
+    Account acc = super.remove(accNo);
+    Resident resident = residents.remove(accNo);
+    residentBytes -= resident.bytes;
+    // Marked first: a change from here on readmits the account, so one that
+    // misses the write below is never lost
+    acc.evictedFrom = this;
+    if (resident.spilledChangeCount != acc.changeCount() || !spill.contains(accNo)) {
+      spill.write(acc);
+      spillWrites++;
+    }
+    evicted.put(accNo, new EvictedRef(acc, collected));
+    spilledOnly++;
+    evictions++;
+  }
+
+  private void expungeCollected() {
+    EvictedRef ref;
+    while ((ref = (EvictedRef) collected.poll()) != null) {
+      evicted.remove(ref.accNo, ref);
+    }
+  }
+
+  // The iterator below already works from a copy of the account numbers, so
+  // evicted accounts are not all read into memory
+  @Override
+  Iterable<Account> copy() {
+    return this;
+  }
+
+  // Evicted accounts are read from the spill file (or taken from a live
+  // reference) one at a time and are not made resident
+  @Override
+  public Iterator<Account> iterator() {
+    int[] accNos;
+    synchronized (this) {
+      accNos = new int[size()];
+      int n = 0;
+      for (Iterator<Account> it = super.iterator(); it.hasNext();) {
+        accNos[n++] = it.next().getAccNo();
+      }
+      for (int accNo : spill.accNos()) {
+        if (!super.contains(accNo)) {
+          accNos[n++] = accNo;
+        }
+      }
+    }
+    return new Iterator<Account>() {
+      private int pos;
+      private Account next = advance();
+
+      private Account advance() {
+        while (pos < accNos.length) {
+          Account acc = peek(accNos[pos++]);
+          if (acc != null) {
+            return acc;
+          }
+        }
+        return null;
+      }
+
+      @Override
+      public boolean hasNext() {
+        return next != null;
+      }
+
+      @Override
+      public Account next() {
+        if (next == null) {
+          throw new NoSuchElementException();
+        }
+        Account acc = next;
+        next = advance();
+        return acc;
+      }
+    };
+  }
+
+  // The account without counting a lookup or changing what is resident; null
+  // if it was removed. The spill file is read outside the monitor.
+  private Account peek(int accNo) {
+    synchronized (this) {
+      Account acc = super.get(accNo);
+      if (acc != null || !spill.contains(accNo)) {
+        return acc;
+      }
+      EvictedRef ref = evicted.get(accNo);
+      acc = ref == null ? null : ref.get();
+      if (acc != null) {
+        return acc;
+      }
+    }
+    return spill.read(accNo);
+  }
+}
@@ -0,0 +1,246 @@
+package src;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// Account store keyed on accNo. Lookups go through an open-addressing table of
+// primitive ints (no Integer boxing), while the accounts themselves sit in an
+// insertion-ordered array so listing and saving keep the order accounts were added.
+public class AccountRegistry implements Iterable<Account> {
+  private static final int DEFAULT_CAPACITY = 16;
+
+  // Hash table: keys[i] is the accNo, slots[i] is (position in entries + 1), 0 = empty
+  private int[] keys;
+  private int[] slots;
+  private int mask;
+
+  // Accounts in insertion order; removed entries are left null until compaction
+  private Account[] entries;
+  private int entryCount; // used positions in entries, including removed ones
+  private int size; // live accounts
+
+  public AccountRegistry() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public AccountRegistry(int expectedSize) {
+    if (expectedSize < 0) {
+      throw new IllegalArgumentException("Expected size cannot be negative");
+    }
+    int tableSize = tableSizeFor(expectedSize);
+    keys = new int[tableSize];
+    slots = new int[tableSize];
+    mask = tableSize - 1;
+    entries = new Account[Math.max(expectedSize, DEFAULT_CAPACITY)];
+  }
+
+  // Table is kept at most half full so probe sequences stay short
+  private static int tableSizeFor(int expectedSize) {
+    int needed = Math.max(DEFAULT_CAPACITY, expectedSize * 2);
+    int size = Integer.highestOneBit(needed - 1) << 1;
+    if (size <= 0) {
+      throw new IllegalArgumentException("Too many accounts: " + expectedSize);
+    }
+    return size;
+  }
+
+  private static int hash(int accNo) {
+    int h = accNo * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private int indexOf(int accNo) {
+    int i = hash(accNo) & mask;
+    while (slots[i] != 0) {
+      if (keys[i] == accNo) {
+        return i;
+      }
+      i = (i + 1) & mask;
+    }
+    return -1;
+  }
+
+  public Account get(int accNo) {
+    int i = indexOf(accNo);
+    return i < 0 ? null : entries[slots[i] - 1];
+  }
+
+  public boolean contains(int accNo) {
+    return indexOf(accNo) >= 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  // Adds the account, or replaces the one with the same accNo in place (keeping
+  // its position in the iteration order). Returns the replaced account, if any.
+  public Account put(Account account) {
+    if (account == null) {
+      throw new IllegalArgumentException("Account cannot be null");
+    }
+    int accNo = account.getAccNo();
+    int i = indexOf(accNo);
+    if (i >= 0) {
+      int pos = slots[i] - 1;
+      Account previous = entries[pos];
+      entries[pos] = account;
+      return previous;
+    }
+
+    if ((size + 1) * 2 > keys.length) {
+      rehash(keys.length * 2);
+    }
+    if (entryCount == entries.length) {
+      if (size < entryCount / 2) {
+        compact();
+      } else {
+        Account[] grown = new Account[entries.length + (entries.length >> 1)];
+        System.arraycopy(entries, 0, grown, 0, entryCount);
+        entries = grown;
+      }
+    }
+
+    entries[entryCount] = account;
+    insertSlot(accNo, entryCount + 1);
+    entryCount++;
+    size++;
+    return null;
+  }
+
+  public Account remove(int accNo) {
+    int i = indexOf(accNo);
+    if (i < 0) {
+      return null;
+    }
+    int pos = slots[i] - 1;
+    Account removed = entries[pos];
+    entries[pos] = null;
+    deleteSlot(i);
+    size--;
+    return removed;
+  }
+
+  public void clear() {
+    Arrays.fill(slots, 0);
+    Arrays.fill(entries, 0, entryCount, null);
+    entryCount = 0;
+    size = 0;
+  }
+
+  private void insertSlot(int accNo, int slot) {
+    int i = hash(accNo) & mask;
+    while (slots[i] != 0) {
+      i = (i + 1) & mask;
+    }
+    keys[i] = accNo;
+    slots[i] = slot;
+  }
+
+  // Backward-shift deletion: pulls later entries of the probe run into the hole
+  // so lookups never need tombstones.
+  private void deleteSlot(int hole) {
+    int i = hole;
+    while (true) {
+      i = (i + 1) & mask;
+      if (slots[i] == 0) {
+        break;
+      }
+      int home = hash(keys[i]) & mask;
+      // Move the entry back only if its home is not inside (hole, i]
+      if (((i - home) & mask) >= ((i - hole) & mask)) {
+        keys[hole] = keys[i];
+        slots[hole] = slots[i];
+        hole = i;
+      }
+    }
+    slots[hole] = 0;
+  }
+
+  private void rehash(int newTableSize) {
+    int[] oldKeys = keys;
+    int[] oldSlots = slots;
+    keys = new int[newTableSize];
+    slots = new int[newTableSize];
+    mask = newTableSize - 1;
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldSlots[i] != 0) {
+        insertSlot(oldKeys[i], oldSlots[i]);
+      }
+    }
+  }
+
+  // Squeezes out removed entries and re-points the table at the new positions
+  private void compact() {
+    int live = 0;
+    for (int pos = 0; pos < entryCount; pos++) {
+      Account acc = entries[pos];
+      if (acc != null) {
+        entries[live] = acc;
+        slots[indexOf(acc.getAccNo())] = live + 1;
+        live++;
+      }
+    }
+    Arrays.fill(entries, live, entryCount, null);
+    entryCount = live;
+  }
+
+  // Gives each account with lines in the log its slice of it; returns how many
+  // accounts that was
+  int attachSnapshotHistory(MappedTransactionLog log) {
+    int attached = 0;
+    for (int i = 0; i < entryCount; i++) {
+      if (entries[i] != null && log.count(entries[i].getAccNo()) > 0) {
+        entries[i].attachSnapshotHistory(log);
+        attached++;
+      }
+    }
+    return attached;
+  }
+
+  // The accounts as they are now, to iterate while the registry keeps changing
+  Iterable<Account> copy() {
+    Account[] live = new Account[size];
+    int n = 0;
+    for (int i = 0; i < entryCount; i++) {
+      if (entries[i] != null) {
+        live[n++] = entries[i];
+      }
+    }
+    return Arrays.asList(live);
+  }
+
+  @Override
+  public Iterator<Account> iterator() {
+    return new Iterator<Account>() {
+      private int pos = advance(0);
+
+      private int advance(int from) {
+        while (from < entryCount && entries[from] == null) {
+          from++;
+        }
+        return from;
+      }
+
+      @Override
+      public boolean hasNext() {
+        return pos < entryCount;
+      }
+
+      @Override
+      public Account next() {
+        if (pos >= entryCount) {
+          throw new NoSuchElementException();
+        }
+        Account acc = entries[pos];
+        pos = advance(pos + 1);
+        return acc;
+      }
+    };
+  }
+}
@@ -0,0 +1,350 @@
+package src;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Scratch file for accounts evicted from an AccountCache. Each eviction of a
+// changed account appends a record and points the index at it; older records
+// for the account become garbage. Once the garbage is more than COMPACT_BYTES
+// and more than the live records, the live records are moved down over it and
+// the file is cut short, so it stays within about twice its live size. The
+// file is only a cache of state the snapshot and journal already hold, and is
+// deleted on close.
+//
+// Record: length (int), then accNo (int), balance cents (long), name, password,
+// snapshot log id (int, -1 = none), entry count (int), and per entry type,
+// amount cents (long), timestamp (long), sequence (long), balance cents (long),
+// description. Strings are written with DataOutput.writeUTF.
+//
+// History that still sits in a MappedTransactionLog is not copied: the record
+// names the log, which stays open while the service runs, and only the entries
+// added since are written. A log attached to the accounts after some were
+// spilled is noted against their records instead (attachOnRead) and handed to
+// each account when it is read.
+//
+// The index is only changed by callers holding the AccountCache's monitor, and
+// under the write lock here; read() takes the read lock instead of that
+// monitor, so spilled accounts are read without holding up the cache.
+final class AccountSpill implements Closeable {
+  static final long COMPACT_BYTES = 1 << 16;
+
+  private final Path path;
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  private FileChannel channel; // opened on the first write
+  private long end;
+  private long liveBytes; // the latest records, length fields included
+
+  // accNo -> offset and length of its latest record, and the id + 1 of a log
+  // to attach when it is read (0 for none), open addressing with
+  // backward-shift deletion
+  private int[] keys = new int[64];
+  private long[] offsets = new long[64];
+  private int[] lengths = new int[64];
+  private int[] pending = new int[64];
+  private boolean[] used = new boolean[64];
+  private int size;
+
+  private final ArrayList<MappedTransactionLog> logs = new ArrayList<>();
+  private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+
+  AccountSpill(String file) {
+    this.path = Paths.get(file);
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean contains(int accNo) {
+    return used[slotFor(accNo)];
+  }
+
+  void write(Account acc) {
+    lock.writeLock().lock();
+    try {
+      buffer.reset();
+      buffer.write(new byte[4], 0, 4); // length, filled in below
+      DataOutputStream out = new DataOutputStream(buffer);
+      out.writeInt(acc.getAccNo());
+      out.writeLong(acc.getBalanceCents());
+      out.writeUTF(acc.getName());
+      out.writeUTF(acc.passwordForStorage());
+      ArrayList<Transaction> unmapped = new ArrayList<>();
+      MappedTransactionLog log = acc.forEachUnmappedTransaction(unmapped::add);
+      out.writeInt(log == null ? -1 : logId(log));
+      out.writeInt(unmapped.size());
+      for (Transaction t : unmapped) {
+        out.writeUTF(t.getType());
+        out.writeLong(t.getAmountCents());
+        out.writeLong(t.getTimestamp());
+        out.writeLong(t.getSequence());
+        out.writeLong(t.getBalanceCents());
+        out.writeUTF(t.getDescription());
+      }
+      out.flush();
+      ByteBuffer record = ByteBuffer.wrap(buffer.toByteArray());
+      record.putInt(0, record.remaining() - 4);
+
+      if (channel == null) {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+      }
+      long offset = end;
+      int length = record.remaining();
+      while (record.hasRemaining()) {
+        end += channel.write(record, end);
+      }
+      put(acc.getAccNo(), offset, length);
+      long garbage = end - liveBytes;
+      if (garbage > COMPACT_BYTES && garbage > liveBytes) {
+        compact();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot spill account " + acc.getAccNo(), e);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  // Has the account's record, if it has one, give the account the log when it
+  // is read; a record written later names its log itself
+  void attachOnRead(int accNo, MappedTransactionLog log) {
+    lock.writeLock().lock();
+    try {
+      int slot = slotFor(accNo);
+      if (used[slot]) {
+        pending[slot] = logId(log) + 1;
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  // Rebuilds the account from its latest record, or returns null if it has none
+  Account read(int accNo) {
+    lock.readLock().lock();
+    try {
+      int slot = slotFor(accNo);
+      if (!used[slot]) {
+        return null;
+      }
+      ByteBuffer length = ByteBuffer.allocate(4);
+      readFully(length, offsets[slot]);
+      ByteBuffer body = ByteBuffer.allocate(length.getInt(0));
+      readFully(body, offsets[slot] + 4);
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(body.array()));
+      in.readInt();
+      long balance = in.readLong();
+      String name = in.readUTF();
+      String password = in.readUTF();
+      Account acc = Account.ofCents(name, accNo, balance, password);
+      int logId = in.readInt();
+      if (pending[slot] > 0) {
+        logId = pending[slot] - 1;
+      }
+      if (logId >= 0) {
+        acc.attachSnapshotHistory(logs.get(logId));
+      }
+      for (int i = in.readInt(); i > 0; i--) {
+        String type = in.readUTF();
+        long cents = in.readLong();
+        long timestamp = in.readLong();
+        long sequence = in.readLong();
+        long balanceAfter = in.readLong();
+        acc.addTransaction(Transaction.ofCents(type, cents, in.readUTF(), timestamp, sequence, balanceAfter));
+      }
+      return acc;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot read spilled account " + accNo, e);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  // Moves the live records to the front of the file, in file order, and cuts
+  // off the rest. Each record moves down or stays, so none is overwritten
+  // before it is copied.
+  private void compact() throws IOException {
+    Integer[] slots = new Integer[size];
+    int n = 0;
+    for (int i = 0; i < keys.length; i++) {
+      if (used[i]) {
+        slots[n++] = i;
+      }
+    }
+    Arrays.sort(slots, (a, b) -> Long.compare(offsets[a], offsets[b]));
+    long to = 0;
+    for (int slot : slots) {
+      if (offsets[slot] != to) {
+        ByteBuffer record = ByteBuffer.allocate(lengths[slot]);
+        readFully(record, offsets[slot]);
+        record.flip();
+        while (record.hasRemaining()) {
+          channel.write(record, to + record.position());
+        }
+        offsets[slot] = to;
+      }
+      to += lengths[slot];
+    }
+    channel.truncate(to);
+    end = to;
+  }
+
+  private void readFully(ByteBuffer buf, long position) throws IOException {
+    while (buf.hasRemaining()) {
+      if (channel.read(buf, position + buf.position()) < 0) {
+        throw new IOException("Spill file ends unexpectedly");
+      }
+    }
+  }
+
+  private int logId(MappedTransactionLog log) {
+    for (int i = 0; i < logs.size(); i++) {
+      if (logs.get(i) == log) {
+        return i;
+      }
+    }
+    logs.add(log);
+    return logs.size() - 1;
+  }
+
+  // Accounts with a record, in table order
+  int[] accNos() {
+    int[] result = new int[size];
+    int n = 0;
+    for (int i = 0; i < keys.length; i++) {
+      if (used[i]) {
+        result[n++] = keys[i];
+      }
+    }
+    return result;
+  }
+
+  private int slotFor(int accNo) {
+    int mask = keys.length - 1;
+    int h = accNo * 0x9E3779B9;
+    int i = (h ^ (h >>> 16)) & mask;
+    while (used[i] && keys[i] != accNo) {
+      i = (i + 1) & mask;
+    }
+    return i;
+  }
+
+  private void put(int accNo, long offset, int length) {
+    int slot = slotFor(accNo);
+    if (!used[slot]) {
+      if ((size + 1) * 2 > keys.length) {
+        grow();
+        slot = slotFor(accNo);
+      }
+      used[slot] = true;
+      keys[slot] = accNo;
+      size++;
+    } else {
+      liveBytes -= lengths[slot];
+    }
+    offsets[slot] = offset;
+    lengths[slot] = length;
+    pending[slot] = 0;
+    liveBytes += length;
+  }
+
+  void remove(int accNo) {
+    lock.writeLock().lock();
+    try {
+      int hole = slotFor(accNo);
+      if (!used[hole]) {
+        return;
+      }
+      liveBytes -= lengths[hole];
+      int mask = keys.length - 1;
+      int i = hole;
+      while (true) {
+        i = (i + 1) & mask;
+        if (!used[i]) {
+          break;
+        }
+        int h = keys[i] * 0x9E3779B9;
+        int home = (h ^ (h >>> 16)) & mask;
+        if (((i - home) & mask) >= ((i - hole) & mask)) {
+          keys[hole] = keys[i];
+          offsets[hole] = offsets[i];
+          lengths[hole] = lengths[i];
+          pending[hole] = pending[i];
+          hole = i;
+        }
+      }
+      used[hole] = false;
+      size--;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void grow() {
+    int[] oldKeys = keys;
+    long[] oldOffsets = offsets;
+    int[] oldLengths = lengths;
+    int[] oldPending = pending;
+    boolean[] oldUsed = used;
+    keys = new int[oldKeys.length * 2];
+    offsets = new long[oldKeys.length * 2];
+    lengths = new int[oldKeys.length * 2];
+    pending = new int[oldKeys.length * 2];
+    used = new boolean[oldKeys.length * 2];
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldUsed[i]) {
+        int slot = slotFor(oldKeys[i]);
+        used[slot] = true;
+        keys[slot] = oldKeys[i];
+        offsets[slot] = oldOffsets[i];
+        lengths[slot] = oldLengths[i];
+        pending[slot] = oldPending[i];
+      }
+    }
+  }
+
+  void clear() throws IOException {
+    lock.writeLock().lock();
+    try {
+      Arrays.fill(used, false);
+      size = 0;
+      end = 0;
+      liveBytes = 0;
+      if (channel != null) {
+        channel.truncate(0);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    lock.writeLock().lock();
+    try {
+      clear();
+      if (channel != null) {
+        channel.close();
+        channel = null;
+      }
+      Files.deleteIfExists(path);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+}
@@ -0,0 +1,193 @@
+package src;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// Replaces a file as a whole. Everything goes to <file>.tmp through a 64 KB
+// buffer; commit() forces the temporary file to disk, renames it over the file
+// and forces the directory, so after a crash the file has either its old
+// contents or all of the new ones. Closing without commit() deletes the
+// temporary file and leaves the old one alone:
+//
+//   try (AtomicFileWriter out = new AtomicFileWriter(file)) {
+//     out.write(...);
+//     out.commit();
+//   }
+//
+// Text is written as UTF-8; write(ByteBuffer) takes binary data.
+public final class AtomicFileWriter extends Writer {
+  public static final int DEFAULT_BUFFER_BYTES = 64 * 1024;
+
+  // Opens the temporary file for writing. Tests pass one whose channel fails
+  // part way, as a crash or full disk would.
+  public interface ChannelOpener {
+    FileChannel open(Path temp) throws IOException;
+  }
+
+  public static final ChannelOpener FILES = temp -> FileChannel.open(temp, StandardOpenOption.CREATE,
+      StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+  private final Path target;
+  private final Path temp;
+  private final FileChannel channel;
+  private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+  private final CharBuffer chars;
+  private final ByteBuffer bytes;
+  private boolean closed;
+
+  public AtomicFileWriter(String file) throws IOException {
+    this(file, DEFAULT_BUFFER_BYTES);
+  }
+
+  public AtomicFileWriter(String file, int bufferBytes) throws IOException {
+    this(file, bufferBytes, FILES);
+  }
+
+  public AtomicFileWriter(String file, int bufferBytes, ChannelOpener opener) throws IOException {
+    if (bufferBytes < 16) {
+      throw new IllegalArgumentException("Buffer must be at least 16 bytes");
+    }
+    this.target = Paths.get(file);
+    this.temp = Paths.get(file + ".tmp");
+    this.chars = CharBuffer.allocate(bufferBytes / 4);
+    this.bytes = ByteBuffer.allocateDirect(bufferBytes);
+    this.channel = opener.open(temp);
+  }
+
+  @Override
+  public void write(int c) throws IOException {
+    ensureOpen();
+    if (!chars.hasRemaining()) {
+      encode(false);
+    }
+    chars.put((char) c);
+  }
+
+  @Override
+  public void write(char[] buf, int off, int len) throws IOException {
+    ensureOpen();
+    while (len > 0) {
+      if (!chars.hasRemaining()) {
+        encode(false);
+      }
+      int n = Math.min(len, chars.remaining());
+      chars.put(buf, off, n);
+      off += n;
+      len -= n;
+    }
+  }
+
+  @Override
+  public void write(String s, int off, int len) throws IOException {
+    ensureOpen();
+    while (len > 0) {
+      if (!chars.hasRemaining()) {
+        encode(false);
+      }
+      int n = Math.min(len, chars.remaining());
+      chars.put(s, off, off + n);
+      off += n;
+      len -= n;
+    }
+  }
+
+  // Writes the remaining bytes of buf after any buffered text
+  public void write(ByteBuffer buf) throws IOException {
+    ensureOpen();
+    encode(false);
+    drain();
+    writeToFile(buf);
+  }
+
+  // Moves the buffered text into the byte buffer, writing that out whenever it fills
+  private void encode(boolean endOfInput) throws IOException {
+    chars.flip();
+    while (true) {
+      CoderResult result = encoder.encode(chars, bytes, endOfInput);
+      if (result.isOverflow()) {
+        drain();
+      } else if (result.isUnderflow()) {
+        break;
+      } else {
+        result.throwException();
+      }
+    }
+    chars.compact(); // keeps a high surrogate whose pair has not been written yet
+  }
+
+  private void drain() throws IOException {
+    bytes.flip();
+    writeToFile(bytes);
+    bytes.clear();
+  }
+
+  private void writeToFile(ByteBuffer buf) throws IOException {
+    while (buf.hasRemaining()) {
+      channel.write(buf);
+    }
+  }
+
+  // Hands buffered data to the operating system; only commit() makes it durable
+  @Override
+  public void flush() throws IOException {
+    ensureOpen();
+    encode(false);
+    drain();
+  }
+
+  // Makes the new contents durable and puts them in place of the file
+  public void commit() throws IOException {
+    ensureOpen();
+    encode(true);
+    while (encoder.flush(bytes).isOverflow()) {
+      drain();
+    }
+    drain();
+    channel.force(true);
+    channel.close();
+    closed = true;
+    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    forceDirectory(target.toAbsolutePath().getParent());
+  }
+
+  // The rename is only durable once the directory entry is. Some platforms
+  // cannot open a directory; the rename is still atomic there.
+  static void forceDirectory(Path dir) {
+    try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+      channel.force(true);
+    } catch (IOException e) {
+      // best effort
+    }
+  }
+
+  // Without a commit, discards what was written
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      channel.close();
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  private void ensureOpen() throws IOException {
+    if (closed) {
+      throw new IOException("Writer for " + target + " is closed");
+    }
+  }
+}
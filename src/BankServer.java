@@ -0,0 +1,149 @@
+package src;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// TCP front end for BankService: one BankSession per connection, speaking the
+// line protocol described there. Each connection runs on its own thread;
+// on Java 21+ that is a virtual thread, on older JDKs a platform thread with a
+// small stack, so tens of thousands of mostly idle connections stay affordable.
+//
+// Usage: java -cp <classes> src.BankServer [port] [dataDir]
+// The journal settings (-Dbank.journal.fsync=group etc.) apply as for the menu.
+public class BankServer implements AutoCloseable {
+  public static final int DEFAULT_PORT = 7070;
+
+  // Stack size for platform connection threads when virtual threads are unavailable
+  private static final long PLATFORM_STACK_BYTES = 256 * 1024;
+
+  private final BankService service;
+  private final ServerSocket serverSocket;
+  private final ExecutorService connections;
+  private final AtomicInteger open = new AtomicInteger();
+  private volatile boolean closing;
+
+  public BankServer(BankService service, int port) throws IOException {
+    this.service = service;
+    this.serverSocket = new ServerSocket();
+    serverSocket.setReuseAddress(true);
+    serverSocket.bind(new InetSocketAddress(port), 4096);
+    this.connections = perTaskExecutor("bank-session");
+  }
+
+  // A virtual thread per task where the JDK has them, found by reflection so
+  // the code still compiles and runs on Java 17
+  public static ExecutorService perTaskExecutor(String name) {
+    try {
+      Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) factory.invoke(null);
+    } catch (ReflectiveOperationException e) {
+      AtomicInteger count = new AtomicInteger();
+      return Executors.newCachedThreadPool(task -> {
+        Thread t = new Thread(null, task, name + "-" + count.incrementAndGet(), PLATFORM_STACK_BYTES);
+        t.setDaemon(true);
+        return t;
+      });
+    }
+  }
+
+  public int port() {
+    return serverSocket.getLocalPort();
+  }
+
+  public int openConnections() {
+    return open.get();
+  }
+
+  // Accepts connections until close() is called
+  public void serve() throws IOException {
+    while (!closing) {
+      Socket socket;
+      try {
+        socket = serverSocket.accept();
+      } catch (SocketException e) {
+        if (closing) {
+          return;
+        }
+        throw e;
+      }
+      socket.setTcpNoDelay(true);
+      open.incrementAndGet();
+      connections.execute(() -> {
+        try {
+          converse(socket);
+        } finally {
+          open.decrementAndGet();
+        }
+      });
+    }
+  }
+
+  private void converse(Socket socket) {
+    BankSession session = new BankSession(service, sourceKey(socket.getInetAddress()));
+    try (Socket s = socket;
+        BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+        Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+      String line;
+      while (!session.isClosed() && (line = in.readLine()) != null) {
+        if (line.isEmpty()) {
+          continue;
+        }
+        session.handle(line, out);
+        out.write('\n');
+        out.flush();
+      }
+    } catch (IOException e) {
+      // The client went away; its session ends with the connection
+    }
+  }
+
+  // Rate limiter key for a client address: an IPv4 address as is, an IPv6 one
+  // by its /64 network, which a single host usually has to itself
+  public static int sourceKey(InetAddress address) {
+    byte[] bytes = address.getAddress();
+    int key = bytes.length == 4 ? ByteBuffer.wrap(bytes).getInt() : Arrays.hashCode(Arrays.copyOf(bytes, 8));
+    return key == 0 ? 1 : key;
+  }
+
+  @Override
+  public void close() throws IOException {
+    closing = true;
+    serverSocket.close();
+    connections.shutdownNow();
+  }
+
+  public static void main(String[] args) throws IOException {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+    String dataDir = args.length > 1 ? args[1] : ".";
+
+    BankService service = new BankService(dataDir, System.out::println);
+    service.open();
+    BankServer server = new BankServer(service, port);
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      try {
+        server.close();
+      } catch (IOException e) {
+        System.out.println("Error closing server: " + e.getMessage());
+      }
+      service.close();
+    }));
+    System.out.println("Banking server listening on port " + server.port());
+    server.serve();
+  }
+}
@@ -0,0 +1,1109 @@
+package src;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// The banking operations without any console I/O. Every operation returns a
+// Result with a status code and a message a client can show as is; problems
+// that do not belong to one operation (load warnings, failed saves) go to the
+// notices callback given to the constructor.
+//
+// Operations are safe to call from many threads. Lookups share a read lock on
+// the registry; changes to one account hold that account's transfer stripe, so
+// its journal records are written in the order the changes were made.
+//
+// Data files live in the given directory: accounts.txt and transactions.txt (or
+// bank.snapshot with -Dbank.snapshot.format=binary) plus journal.log. A
+// background Checkpointer writes a new snapshot and starts a fresh journal once
+// the journal grows past its limit, so startup replay stays bounded. With a
+// cache budget set (see AccountCache.fromSystemProperties) only a working set of
+// accounts stays in memory and the rest wait in accounts.spill.
+//
+// Passwords are stored as PBKDF2 hashes. Hashing and checking them runs on a
+// bounded PasswordVerifier, and fails with BUSY when its queue is full; a
+// login hands out a session token that resume() accepts without hashing.
+// Login attempts are counted per account and per client in RateLimiters, and
+// past their allowance are turned away before any hashing; a successful one
+// does not count.
+//
+// Every operation is timed into metrics() by outcome. The metrics are
+// registered with JMX (unless -Dbank.metrics.jmx=false) and, with
+// -Dbank.metrics.file set, dumped there in Prometheus format by a MetricsDumper.
+//
+// The changing operations take an optional idempotency key from the client. A
+// retry with a key that already succeeded on the account gets the first
+// result back (marked replayed()) without applying anything or writing to the
+// data files; see IdempotencyTable. Keys are remembered in memory only.
+//
+// With -Dbank.engine=sharded, deposits, withdrawals and transfers are run by a
+// ShardedEngine, each on the thread of the shard owning the account, instead
+// of on the caller's thread, which waits for the outcome. The shard is not the
+// account's only writer, though: batches, password changes, deletions and
+// checkpoints still change or read accounts from other threads under the
+// stripe locks, so the shard takes the account's stripe lock too and journals
+// the change while holding it, as the direct path does. The shards line up
+// with the stripes, so two shards never contend for one; what the engine
+// gives is one thread per account instead of callers queueing on its lock,
+// not lock-free changes. bench.ShardedEngineBenchmark measures both paths.
+public class BankService {
+
+  public enum Status {
+    OK,
+    INVALID_NAME,
+    INVALID_ACCOUNT_NUMBER,
+    ACCOUNT_EXISTS,
+    ACCOUNT_NOT_FOUND,
+    INVALID_AMOUNT,
+    INSUFFICIENT_FUNDS,
+    SAME_ACCOUNT,
+    INVALID_PASSWORD,
+    WRONG_PASSWORD,
+    SAME_PASSWORD,
+    SESSION_EXPIRED,
+    BUSY,
+    RATE_LIMITED,
+    INVALID_KEY,
+    KEY_REUSED,
+    IN_PROGRESS,
+    IO_ERROR
+  }
+
+  public static final class Result {
+    private static final Result VALID = new Result(Status.OK, "OK", null, 0, null, false);
+
+    private final Status status;
+    private final String message;
+    private final Account account;
+    private final long balanceCents;
+    private final String token;
+    private final boolean replayed;
+
+    private Result(Status status, String message, Account account, long balanceCents, String token,
+        boolean replayed) {
+      this.status = status;
+      this.message = message;
+      this.account = account;
+      this.balanceCents = balanceCents;
+      this.token = token;
+      this.replayed = replayed;
+    }
+
+    static Result ok(Account account) {
+      return new Result(Status.OK, "OK", account, account.getBalanceCents(), null, false);
+    }
+
+    static Result loggedIn(Account account, String token) {
+      return new Result(Status.OK, "OK", account, account.getBalanceCents(), token, false);
+    }
+
+    static Result ok(Account account, long balanceCents) {
+      return new Result(Status.OK, "OK", account, balanceCents, null, false);
+    }
+
+    static Result replayed(Account account, long balanceCents) {
+      return new Result(Status.OK, "OK", account, balanceCents, null, true);
+    }
+
+    static Result fail(Status status, String message) {
+      return new Result(status, message, null, 0, null, false);
+    }
+
+    // The change was made in memory but could not be saved; the next checkpoint saves it
+    static Result ioError() {
+      return fail(Status.IO_ERROR, "The change was made but could not be saved yet. Please check your balance"
+          + " before trying again.");
+    }
+
+    static Result busy() {
+      return fail(Status.BUSY, "Too many logins in progress. Please try again shortly.");
+    }
+
+    public boolean ok() {
+      return status == Status.OK;
+    }
+
+    public Status status() {
+      return status;
+    }
+
+    public String message() {
+      return message;
+    }
+
+    // The account the operation acted on; null on failure
+    public Account account() {
+      return account;
+    }
+
+    // Balance of that account right after the operation
+    public long balanceCents() {
+      return balanceCents;
+    }
+
+    // Session token from a successful login or resume; null otherwise
+    public String token() {
+      return token;
+    }
+
+    // True if this is the remembered result of an earlier request with the
+    // same idempotency key, and nothing was applied this time
+    public boolean replayed() {
+      return replayed;
+    }
+
+    @Override
+    public String toString() {
+      return status + ": " + message;
+    }
+  }
+
+  public static final String JOURNAL_FILE = "journal.log";
+  public static final String SPILL_FILE = "accounts.spill";
+
+  // -Dbank.snapshot.format=binary keeps the snapshot in bank.snapshot instead of the CSV files
+  static final boolean BINARY_SNAPSHOT = "binary".equals(System.getProperty("bank.snapshot.format", "text"));
+
+  public static final int MAX_KEY_LENGTH = 64;
+
+  // What applyDeposit and applyWithdraw return for an account deleted meanwhile
+  private static final long NOT_REGISTERED = -2;
+  private static final long NOT_SAVED = -3;
+
+  private static final int ATTEMPT_SLOTS = 1 << 10; // a power of two
+
+  private static final Pattern NAME_PATTERN = Pattern.compile("^[a-zA-Z\\s.'-]+$");
+
+  private final AccountRegistry accounts;
+  private final ReentrantReadWriteLock registryLock = new ReentrantReadWriteLock();
+  private final Consumer<String> notices;
+  private final String accountsFile;
+  private final String transactionsFile;
+  private final String binaryFile;
+  private final String journalFile;
+  private final AtomicFileWriter.ChannelOpener snapshotFiles;
+  private final AtomicFileWriter.ChannelOpener journalFiles;
+  private final TransferEngine transferEngine;
+  private volatile ShardedEngine shards; // null for the direct path
+  private final PasswordHasher hasher;
+  private final PasswordVerifier verifier;
+  private final SessionTokens sessions;
+  private final RateLimiter accountAttempts;
+  // Account attempts whose password check is running, per slot of accNo hashes
+  private final AtomicIntegerArray attemptsRunning = new AtomicIntegerArray(ATTEMPT_SLOTS);
+  private final RateLimiter sourceAttempts;
+  private final IdempotencyTable idempotency;
+  private final Metrics metrics = new Metrics();
+  private final String metricsInstance;
+  private List<ObjectName> metricsBeans = List.of();
+  private MetricsDumper metricsDumper;
+
+  // Changes since the last snapshot; null means every change rewrites the snapshot files
+  private TransactionJournal journal;
+  private volatile Checkpointer checkpointer; // null without a journal
+
+  // Batch postings hold the read lock from applying to journaling; checkpoints
+  // take the write lock. Other changes are journaled under their stripe lock.
+  private final ReentrantReadWriteLock batchGate = new ReentrantReadWriteLock();
+
+  // transactions.txt holds every entry with a sequence id up to filedThrough and
+  // none above it; -1 when that is not known, and the next checkpoint rewrites it
+  private long filedThrough = -1;
+  private final AtomicBoolean accountsDeleted = new AtomicBoolean();
+
+  // Kept open while the service runs; accounts decode their history from it on demand
+  private MappedTransactionLog transactionLog;
+
+  public BankService(String dataDir, Consumer<String> notices) {
+    this(dataDir, notices, AtomicFileWriter.FILES);
+  }
+
+  // snapshotFiles opens the temporary files snapshots are written to
+  public BankService(String dataDir, Consumer<String> notices, AtomicFileWriter.ChannelOpener snapshotFiles) {
+    this(dataDir, notices, snapshotFiles, TransactionJournal.APPEND);
+  }
+
+  // journalFiles opens the journal files
+  public BankService(String dataDir, Consumer<String> notices, AtomicFileWriter.ChannelOpener snapshotFiles,
+      AtomicFileWriter.ChannelOpener journalFiles) {
+    this.notices = notices;
+    this.snapshotFiles = snapshotFiles;
+    this.journalFiles = journalFiles;
+    this.accountsFile = new File(dataDir, TextSnapshot.ACCOUNTS_FILE).getPath();
+    this.transactionsFile = new File(dataDir, TextSnapshot.TRANSACTIONS_FILE).getPath();
+    this.binaryFile = new File(dataDir, BinarySnapshot.DEFAULT_FILE).getPath();
+    this.journalFile = new File(dataDir, JOURNAL_FILE).getPath();
+    this.accounts = AccountCache.fromSystemProperties(new File(dataDir, SPILL_FILE).getPath());
+    this.transferEngine = new TransferEngine(TransferEngine.DEFAULT_STRIPES, this::persistChange,
+        this::isRegistered);
+    this.hasher = PasswordHasher.fromSystemProperties();
+    this.verifier = PasswordVerifier.fromSystemProperties();
+    this.sessions = SessionTokens.fromSystemProperties();
+    // -Dbank.login.account.* and -Dbank.login.source.*; see RateLimiter.fromSystemProperties
+    this.accountAttempts = RateLimiter.fromSystemProperties("bank.login.account", 5, 30_000);
+    this.sourceAttempts = RateLimiter.fromSystemProperties("bank.login.source", 100, 1_000);
+    this.idempotency = IdempotencyTable.fromSystemProperties();
+    this.metricsInstance = new File(dataDir).getAbsolutePath();
+  }
+
+  // Loads the snapshot, replays the journal on top of it and opens the journal
+  // for new changes. Throws only if a binary snapshot exists but cannot be read:
+  // starting empty would overwrite it at the next save.
+  public void open() throws IOException {
+    if (BINARY_SNAPSHOT && new File(binaryFile).exists()) {
+      BinarySnapshot.read(binaryFile, accounts);
+      notices.accept("Loaded existing accounts from snapshot.");
+    } else {
+      long start = System.nanoTime();
+      try {
+        ParallelLoader.readAccounts(accountsFile, accounts, notices);
+        metrics.record(Metrics.Operation.LOAD_ACCOUNTS, Metrics.Outcome.SUCCESS, start);
+        notices.accept("Loaded existing accounts from file.");
+      } catch (IOException e) {
+        metrics.record(Metrics.Operation.LOAD_ACCOUNTS, Metrics.Outcome.IO_ERROR, start);
+        notices.accept("No previous accounts found (or error reading file). Starting fresh.");
+      }
+      loadTransactions();
+    }
+    if (Boolean.parseBoolean(System.getProperty("bank.metrics.jmx", "true"))) {
+      try {
+        metricsBeans = metrics.register(metricsInstance);
+      } catch (JMException e) {
+        notices.accept("Metrics not registered with JMX: " + e.getMessage());
+      }
+    }
+    metricsDumper = MetricsDumper.fromSystemProperties(metrics, notices);
+
+    // Bring the snapshot up to date with changes journaled since it was written
+    try {
+      int replayed = TransactionJournal.replay(journalFile, accounts, notices);
+      if (replayed > 0) {
+        notices.accept("Recovered " + replayed + " journaled changes.");
+      }
+      journal = TransactionJournal.openFromSystemProperties(journalFile, journalFiles);
+      if (replayed > 0) {
+        checkpoint();
+      }
+      checkpointer = Checkpointer.fromSystemProperties(this::checkpoint, journal::size);
+    } catch (IOException e) {
+      notices.accept("Journal unavailable (" + e.getMessage() + "). Changes will rewrite the data files.");
+    }
+    if ("sharded".equals(System.getProperty("bank.engine", "direct"))) {
+      shards = ShardedEngine.fromSystemProperties(new ShardLedger());
+    }
+  }
+
+  // Maps the transactions file and indexes it by account; each account's history
+  // is only decoded when it is first needed. Malformed lines are reported.
+  private void loadTransactions() {
+    long start = System.nanoTime();
+    try {
+      transactionLog = MappedTransactionLog.open(transactionsFile, ForkJoinPool.commonPool(), notices);
+      transactionLog.attachTo(accounts);
+      metrics.record(Metrics.Operation.LOAD_TRANSACTIONS, Metrics.Outcome.SUCCESS, start);
+    } catch (IOException e) {
+      metrics.record(Metrics.Operation.LOAD_TRANSACTIONS, Metrics.Outcome.IO_ERROR, start);
+      notices.accept("No transactions file found or error reading transactions.");
+    }
+  }
+
+  // Writes a final snapshot, closes the journal and deletes the cache's spill file
+  public void close() {
+    ShardedEngine engine = shards;
+    if (engine != null) {
+      engine.close();
+      shards = null;
+    }
+    if (checkpointer != null) {
+      checkpointer.close();
+      checkpointer = null;
+    }
+    if (journal != null) {
+      checkpoint();
+      if (journal.groupCommitStats() != null) {
+        notices.accept("Journal group commit: " + journal.groupCommitStats());
+      }
+      try {
+        journal.close();
+      } catch (IOException e) {
+        notices.accept("Error closing journal: " + e.getMessage());
+      }
+      journal = null;
+    }
+    verifier.close();
+    if (metricsDumper != null) {
+      metricsDumper.close();
+      metricsDumper = null;
+    }
+    Metrics.unregister(metricsBeans);
+    metricsBeans = List.of();
+    if (accounts instanceof AccountCache) {
+      AccountCache cache = (AccountCache) accounts;
+      notices.accept("Account cache: " + cache.stats());
+      try {
+        cache.close();
+      } catch (IOException e) {
+        notices.accept("Error closing account cache: " + e.getMessage());
+      }
+    }
+  }
+
+  // The registry itself; not safe to use while other threads call the service
+  public AccountRegistry accounts() {
+    return accounts;
+  }
+
+  public Metrics metrics() {
+    return metrics;
+  }
+
+  // Hit, miss and eviction counts of the account cache; null when every account is kept in memory
+  public AccountCache.Stats cacheStats() {
+    return accounts instanceof AccountCache ? ((AccountCache) accounts).stats() : null;
+  }
+
+  // Loads the account back from the spill file if the cache evicted it
+  public Account findAccountByNumber(int accNo) {
+    registryLock.readLock().lock();
+    try {
+      return accounts.get(accNo);
+    } finally {
+      registryLock.readLock().unlock();
+    }
+  }
+
+  // False once the account has been deleted, although a session may still
+  // hold it: a change made through it would journal an account that replay
+  // brings back. Checked under the account's stripe lock, which deletion holds.
+  private boolean isRegistered(Account account) {
+    return findAccountByNumber(account.getAccNo()) == account;
+  }
+
+  private static Result notFound(Account account) {
+    return Result.fail(Status.ACCOUNT_NOT_FOUND, "Account not found for number: " + account.getAccNo());
+  }
+
+  // Records the operation's time under its outcome and passes the result on
+  private Result timed(Metrics.Operation operation, long start, Result result) {
+    Metrics.Outcome outcome;
+    switch (result.status()) {
+      case OK:
+        outcome = result.replayed() ? Metrics.Outcome.REPLAYED : Metrics.Outcome.SUCCESS;
+        break;
+      case INSUFFICIENT_FUNDS:
+        outcome = Metrics.Outcome.INSUFFICIENT_FUNDS;
+        break;
+      case WRONG_PASSWORD:
+        outcome = Metrics.Outcome.WRONG_PASSWORD;
+        break;
+      case BUSY:
+      case RATE_LIMITED:
+      case IN_PROGRESS:
+        outcome = Metrics.Outcome.REJECTED;
+        break;
+      case IO_ERROR:
+        outcome = Metrics.Outcome.IO_ERROR;
+        break;
+      default:
+        outcome = Metrics.Outcome.INVALID;
+    }
+    metrics.record(operation, outcome, start);
+    return result;
+  }
+
+  // Runs the operation unless the account has already had a successful request
+  // with this key, in which case it returns that request's result. Failures
+  // are not remembered: they applied nothing, so a retry simply runs again.
+  // A key used before for another request (see IdempotencyTable.request) is
+  // refused with KEY_REUSED. account is null for createAccount, whose replay
+  // looks the account up.
+  private static long request(Metrics.Operation operation, long cents, int counterparty) {
+    return IdempotencyTable.request(operation.ordinal(), cents, counterparty);
+  }
+
+  private Result once(String key, int accNo, Account account, long request, Supplier<Result> operation) {
+    if (key == null) {
+      return operation.get();
+    }
+    if (key.isEmpty() || key.length() > MAX_KEY_LENGTH) {
+      return Result.fail(Status.INVALID_KEY, "Idempotency keys must be 1 to " + MAX_KEY_LENGTH + " characters.");
+    }
+    long remembered = idempotency.claim(accNo, key, request);
+    if (remembered == IdempotencyTable.MISMATCH) {
+      return Result.fail(Status.KEY_REUSED, "This idempotency key was already used for a different request.");
+    }
+    if (remembered == IdempotencyTable.IN_PROGRESS) {
+      return Result.fail(Status.IN_PROGRESS, "A request with this key is still being processed.");
+    }
+    if (remembered != IdempotencyTable.CLAIMED) {
+      return Result.replayed(account != null ? account : findAccountByNumber(accNo), remembered);
+    }
+    Result result = null;
+    try {
+      result = operation.get();
+    } finally {
+      if (result != null && result.ok()) {
+        idempotency.complete(accNo, key, result.balanceCents());
+      } else {
+        idempotency.release(accNo, key);
+      }
+    }
+    return result;
+  }
+
+  public String idempotencyStats() {
+    return idempotency.stats();
+  }
+
+  // Field checks, usable by a client before it has collected the whole request
+
+  public static Result validateName(String name) {
+    if (name == null || name.trim().isEmpty()) {
+      return Result.fail(Status.INVALID_NAME, "Name cannot be empty.");
+    }
+    if (!NAME_PATTERN.matcher(name).matches()) {
+      return Result.fail(Status.INVALID_NAME,
+          "Name contains invalid characters. Please use only letters, spaces, apostrophes, or hyphens.");
+    }
+    return Result.VALID;
+  }
+
+  public static Result validateAccountNumber(int accNo) {
+    if (String.valueOf(accNo).length() != 6) {
+      return Result.fail(Status.INVALID_ACCOUNT_NUMBER, "Account number must be exactly 6 digits.");
+    }
+    return Result.VALID;
+  }
+
+  public static Result validatePassword(String password) {
+    if (password == null || password.trim().isEmpty()) {
+      return Result.fail(Status.INVALID_PASSWORD, "Password cannot be empty.");
+    }
+    if (password.length() < 6) {
+      return Result.fail(Status.INVALID_PASSWORD, "Password must be at least 6 characters long.");
+    }
+    return Result.VALID;
+  }
+
+  public Result createAccount(String name, int accNo, long initialCents, String password) {
+    return createAccount(name, accNo, initialCents, password, null);
+  }
+
+  // idempotencyKey may be null, here and in the other changing operations
+  public Result createAccount(String name, int accNo, long initialCents, String password, String idempotencyKey) {
+    long start = System.nanoTime();
+    return timed(Metrics.Operation.CREATE_ACCOUNT, start, once(idempotencyKey, accNo, null,
+        request(Metrics.Operation.CREATE_ACCOUNT, initialCents, 0),
+        () -> untimedCreateAccount(name, accNo, initialCents, password)));
+  }
+
+  private Result untimedCreateAccount(String name, int accNo, long initialCents, String password) {
+    Result check = validateName(name);
+    if (check.ok()) {
+      check = validateAccountNumber(accNo);
+    }
+    if (check.ok()) {
+      check = validatePassword(password);
+    }
+    if (!check.ok()) {
+      return check;
+    }
+    if (initialCents < 0) {
+      return Result.fail(Status.INVALID_AMOUNT, "Initial balance cannot be negative.");
+    }
+
+    Account account;
+    try {
+      account = Account.ofCents(name, accNo, initialCents, verifier.call(() -> hasher.hash(password)));
+    } catch (RejectedExecutionException e) {
+      return Result.busy();
+    } catch (IllegalArgumentException e) {
+      return Result.fail(Status.INVALID_NAME, e.getMessage());
+    }
+    registryLock.writeLock().lock();
+    try {
+      if (accounts.contains(accNo)) {
+        return Result.fail(Status.ACCOUNT_EXISTS, "Account number already exists. Please use a different number.");
+      }
+      accounts.put(account);
+    } finally {
+      registryLock.writeLock().unlock();
+    }
+    return persistChange(changeRecords(account, 0)) ? Result.ok(account) : Result.ioError();
+  }
+
+  public Result login(int accNo, String password) {
+    return login(accNo, password, 0);
+  }
+
+  // source identifies the client (see BankServer.sourceKey), or is 0 if there
+  // is none. An account gets 5 failed attempts, then one more every 30
+  // seconds; a source 100, then one a second. Over either limit the attempt
+  // fails with RATE_LIMITED in constant time, before any password work. Every
+  // attempt takes its tokens before the password is checked, so guesses made
+  // in parallel are limited too, and a successful one hands them back. One
+  // that finds the account's bucket empty while others on it are still being
+  // checked fails at once with BUSY rather than waiting to see whether they
+  // hand theirs back.
+  //
+  // A successful login carries a session token for resume(). A password stored
+  // in plaintext or hashed at another work factor is rehashed while the
+  // password is at hand.
+  public Result login(int accNo, String password, int source) {
+    long start = System.nanoTime();
+    return timed(Metrics.Operation.LOGIN, start, untimedLogin(accNo, password, source));
+  }
+
+  private Result untimedLogin(int accNo, String password, int source) {
+    Result attempt = acquireAttempt(accNo, source, "Too many failed login attempts. Please wait and try again.");
+    if (!attempt.ok()) {
+      return attempt;
+    }
+    Account account = findAccountByNumber(accNo);
+    if (account == null) {
+      endAttempt(accNo, 0, true); // counts against the source only
+      return Result.fail(Status.ACCOUNT_NOT_FOUND, "Account not found for number: " + accNo);
+    }
+    String stored = account.passwordForStorage();
+    String rehashed;
+    try {
+      rehashed = verifier.call(() -> {
+        if (!PasswordHasher.matches(password, stored)) {
+          return null;
+        }
+        return hasher.needsRehash(stored) ? hasher.hash(password) : stored;
+      });
+    } catch (RejectedExecutionException e) {
+      endAttempt(accNo, source, true);
+      return Result.busy();
+    }
+    endAttempt(accNo, source, rehashed != null);
+    if (rehashed == null) {
+      return Result.fail(Status.WRONG_PASSWORD, "Wrong Password.");
+    }
+    if (!rehashed.equals(stored)) {
+      ReentrantLock lock = transferEngine.lockFor(account);
+      lock.lock();
+      try {
+        if (isRegistered(account) && account.replaceCredential(stored, rehashed)) {
+          persistChange(changeRecords(account, account.getTransactionCount()));
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+    return Result.loggedIn(account, sessions.issue(accNo));
+  }
+
+  // Takes a token from the account's and the source's buckets (0 for none).
+  // VALID, or with neither taken RATE_LIMITED (with limitedMessage) if either
+  // is empty, or BUSY if the account's is but other attempts on it are still
+  // running and may hand theirs back.
+  private Result acquireAttempt(int accNo, int source, String limitedMessage) {
+    if (accNo != 0) {
+      int slot = attemptSlot(accNo);
+      if (!accountAttempts.tryAcquire(accNo)) {
+        return attemptsRunning.get(slot) > 0 ? Result.busy() : Result.fail(Status.RATE_LIMITED, limitedMessage);
+      }
+      attemptsRunning.incrementAndGet(slot);
+    }
+    if (source != 0 && !sourceAttempts.tryAcquire(source)) {
+      endAttempt(accNo, 0, true);
+      return Result.fail(Status.RATE_LIMITED, limitedMessage);
+    }
+    return Result.VALID;
+  }
+
+  // Ends an attempt that acquireAttempt let through; refund hands its tokens
+  // back when it did not count as a failure
+  private void endAttempt(int accNo, int source, boolean refund) {
+    if (accNo != 0) {
+      if (refund) {
+        accountAttempts.release(accNo);
+      }
+      attemptsRunning.decrementAndGet(attemptSlot(accNo));
+    }
+    if (source != 0 && refund) {
+      sourceAttempts.release(source);
+    }
+  }
+
+  private static int attemptSlot(int accNo) {
+    return (accNo * 0x9E3779B9) >>> (32 - Integer.numberOfTrailingZeros(ATTEMPT_SLOTS));
+  }
+
+  // Logs in with a token from an earlier login, without hashing anything
+  public Result resume(String token) {
+    int accNo = sessions.lookup(token);
+    if (accNo < 0) {
+      return Result.fail(Status.SESSION_EXPIRED, "Session expired or unknown. Please log in again.");
+    }
+    Account account = findAccountByNumber(accNo);
+    if (account == null) {
+      sessions.revoke(token);
+      return Result.fail(Status.ACCOUNT_NOT_FOUND, "Account not found for number: " + accNo);
+    }
+    return Result.loggedIn(account, token);
+  }
+
+  public void logout(String token) {
+    sessions.revoke(token);
+  }
+
+  // Checks the password of an account already logged in, as the prompts
+  // before sensitive changes do: on the verifier and against the same limit
+  // as login. OK, WRONG_PASSWORD, RATE_LIMITED or BUSY.
+  public Result verifyPassword(Account account, String password) {
+    return verifyPassword(account, password, "Wrong Password.");
+  }
+
+  // WRONG_PASSWORD with the given message, RATE_LIMITED, BUSY, or VALID
+  private Result verifyPassword(Account account, String password, String failure) {
+    int accNo = account.getAccNo();
+    Result attempt = acquireAttempt(accNo, 0, "Too many failed password attempts. Please wait and try again.");
+    if (!attempt.ok()) {
+      return attempt;
+    }
+    String stored = account.passwordForStorage();
+    boolean matches;
+    try {
+      matches = verifier.call(() -> PasswordHasher.matches(password, stored));
+    } catch (RejectedExecutionException e) {
+      endAttempt(accNo, 0, true);
+      return Result.busy();
+    }
+    endAttempt(accNo, 0, matches);
+    return matches ? Result.VALID : Result.fail(Status.WRONG_PASSWORD, failure);
+  }
+
+  public Result deposit(Account account, long cents) {
+    return deposit(account, cents, null);
+  }
+
+  public Result deposit(Account account, long cents, String idempotencyKey) {
+    long start = System.nanoTime();
+    return timed(Metrics.Operation.DEPOSIT, start, once(idempotencyKey, account.getAccNo(), account,
+        request(Metrics.Operation.DEPOSIT, cents, 0),
+        () -> untimedDeposit(account, cents)));
+  }
+
+  private Result untimedDeposit(Account account, long cents) {
+    if (cents <= 0) {
+      return Result.fail(Status.INVALID_AMOUNT, "Invalid amount. Must be greater than 0.");
+    }
+    ShardedEngine engine = shards;
+    long balance;
+    if (engine != null) {
+      ShardedEngine.Outcome outcome = engine.deposit(account, cents).join();
+      balance = outcome.result() == TransferEngine.Result.SUCCESS ? outcome.balanceCents()
+          : outcome.result() == TransferEngine.Result.IO_ERROR ? NOT_SAVED : NOT_REGISTERED;
+    } else {
+      balance = applyDeposit(account, cents);
+    }
+    if (balance == NOT_REGISTERED) {
+      return notFound(account);
+    }
+    if (balance == NOT_SAVED) {
+      return Result.ioError();
+    }
+    return Result.ok(account, balance);
+  }
+
+  // Returns the balance after the deposit, NOT_REGISTERED, or NOT_SAVED
+  private long applyDeposit(Account account, long cents) {
+    ReentrantLock lock = transferEngine.lockFor(account);
+    lock.lock();
+    try {
+      if (!isRegistered(account)) {
+        return NOT_REGISTERED;
+      }
+      int historyStart = account.getTransactionCount();
+      long balance = account.creditCents(cents,
+          Transaction.ofCents("Deposit", cents, "Deposited to account " + account.getAccNo()));
+      return persistChange(changeRecords(account, historyStart)) ? balance : NOT_SAVED;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public Result withdraw(Account account, long cents) {
+    return withdraw(account, cents, null);
+  }
+
+  public Result withdraw(Account account, long cents, String idempotencyKey) {
+    long start = System.nanoTime();
+    return timed(Metrics.Operation.WITHDRAW, start, once(idempotencyKey, account.getAccNo(), account,
+        request(Metrics.Operation.WITHDRAW, cents, 0),
+        () -> untimedWithdraw(account, cents)));
+  }
+
+  private Result untimedWithdraw(Account account, long cents) {
+    if (cents <= 0) {
+      return Result.fail(Status.INVALID_AMOUNT, "Invalid amount. Must be greater than 0.");
+    }
+    ShardedEngine engine = shards;
+    long balance;
+    if (engine != null) {
+      ShardedEngine.Outcome outcome = engine.withdraw(account, cents).join();
+      balance = outcome.result() == TransferEngine.Result.SUCCESS ? outcome.balanceCents()
+          : outcome.result() == TransferEngine.Result.ACCOUNT_NOT_FOUND ? NOT_REGISTERED
+          : outcome.result() == TransferEngine.Result.IO_ERROR ? NOT_SAVED : -1;
+    } else {
+      balance = applyWithdraw(account, cents);
+    }
+    if (balance == NOT_REGISTERED) {
+      return notFound(account);
+    }
+    if (balance == NOT_SAVED) {
+      return Result.ioError();
+    }
+    if (balance < 0) {
+      return Result.fail(Status.INSUFFICIENT_FUNDS, "Insufficient funds.");
+    }
+    return Result.ok(account, balance);
+  }
+
+  // Returns the balance after the withdrawal, -1 if there were not enough
+  // funds, NOT_REGISTERED, or NOT_SAVED
+  private long applyWithdraw(Account account, long cents) {
+    ReentrantLock lock = transferEngine.lockFor(account);
+    lock.lock();
+    try {
+      if (!isRegistered(account)) {
+        return NOT_REGISTERED;
+      }
+      int historyStart = account.getTransactionCount();
+      long balance = account.debitCents(cents,
+          Transaction.ofCents("Withdrawal", cents, "Withdrew from account " + account.getAccNo()));
+      if (balance < 0) {
+        return -1;
+      }
+      return persistChange(changeRecords(account, historyStart)) ? balance : NOT_SAVED;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // Moves money from the account to the recipient as one unit; the result
+  // carries the sender's balance
+  public Result transfer(Account from, int toAccNo, long cents) {
+    return transfer(from, toAccNo, cents, null);
+  }
+
+  public Result transfer(Account from, int toAccNo, long cents, String idempotencyKey) {
+    long start = System.nanoTime();
+    return timed(Metrics.Operation.TRANSFER, start, once(idempotencyKey, from.getAccNo(), from,
+        request(Metrics.Operation.TRANSFER, cents, toAccNo),
+        () -> untimedTransfer(from, toAccNo, cents)));
+  }
+
+  private Result untimedTransfer(Account from, int toAccNo, long cents) {
+    Result check = validateAccountNumber(toAccNo);
+    if (!check.ok()) {
+      return check;
+    }
+    Account to = findAccountByNumber(toAccNo);
+    if (to == null) {
+      return Result.fail(Status.ACCOUNT_NOT_FOUND, "Recipient account not found.");
+    }
+    ShardedEngine engine = shards;
+    TransferEngine.Result result;
+    long balance;
+    if (engine != null) {
+      ShardedEngine.Outcome outcome = engine.transfer(from, to, cents).join();
+      result = outcome.result();
+      balance = outcome.balanceCents();
+    } else {
+      result = transferEngine.transferCents(from, to, cents);
+      balance = from.getBalanceCents();
+    }
+    switch (result) {
+      case SUCCESS:
+        return Result.ok(from, balance);
+      case SAME_ACCOUNT:
+        return Result.fail(Status.SAME_ACCOUNT, "Cannot transfer to your own account.");
+      case INSUFFICIENT_FUNDS:
+        return Result.fail(Status.INSUFFICIENT_FUNDS, "Insufficient funds for transfer.");
+      case ACCOUNT_NOT_FOUND:
+        return isRegistered(from) ? Result.fail(Status.ACCOUNT_NOT_FOUND, "Recipient account not found.")
+            : notFound(from);
+      case IO_ERROR:
+        return Result.ioError();
+      default:
+        return Result.fail(Status.INVALID_AMOUNT, "Amount must be greater than 0.");
+    }
+  }
+
+  // Ends every session of the account
+  public Result changePassword(Account account, String currentPassword, String newPassword) {
+    return changePassword(account, currentPassword, newPassword, null);
+  }
+
+  public Result changePassword(Account account, String currentPassword, String newPassword, String idempotencyKey) {
+    long start = System.nanoTime();
+    return timed(Metrics.Operation.CHANGE_PASSWORD, start, once(idempotencyKey, account.getAccNo(), account,
+        request(Metrics.Operation.CHANGE_PASSWORD, 0, 0),
+        () -> untimedChangePassword(account, currentPassword, newPassword)));
+  }
+
+  private Result untimedChangePassword(Account account, String currentPassword, String newPassword) {
+    String stored = account.passwordForStorage();
+    String wrongPassword = "Current password verification failed. Password not changed.";
+    Result check = verifyPassword(account, currentPassword, wrongPassword);
+    if (check.ok()) {
+      check = validatePassword(newPassword);
+    }
+    if (!check.ok()) {
+      return check;
+    }
+    String hash;
+    try {
+      hash = verifier.call(() -> PasswordHasher.matches(newPassword, stored) ? null : hasher.hash(newPassword));
+    } catch (RejectedExecutionException e) {
+      return Result.busy();
+    }
+    if (hash == null) {
+      return Result.fail(Status.SAME_PASSWORD, "New password cannot be the same as your current password.");
+    }
+    ReentrantLock lock = transferEngine.lockFor(account);
+    lock.lock();
+    try {
+      if (!isRegistered(account)) {
+        return notFound(account);
+      }
+      if (!account.replaceCredential(stored, hash)) {
+        return Result.fail(Status.WRONG_PASSWORD, wrongPassword); // changed by another session meanwhile
+      }
+      sessions.revokeAll(account.getAccNo());
+      return persistChange(changeRecords(account, account.getTransactionCount())) ? Result.ok(account)
+          : Result.ioError();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public Result deleteAccount(Account account, String password) {
+    return deleteAccount(account, password, null);
+  }
+
+  public Result deleteAccount(Account account, String password, String idempotencyKey) {
+    long start = System.nanoTime();
+    return timed(Metrics.Operation.DELETE_ACCOUNT, start, once(idempotencyKey, account.getAccNo(), account,
+        request(Metrics.Operation.DELETE_ACCOUNT, 0, 0),
+        () -> untimedDeleteAccount(account, password)));
+  }
+
+  private Result untimedDeleteAccount(Account account, String password) {
+    Result check = verifyPassword(account, password, "Password verification failed. Account not deleted.");
+    if (!check.ok()) {
+      return check;
+    }
+    ReentrantLock lock = transferEngine.lockFor(account);
+    lock.lock();
+    try {
+      registryLock.writeLock().lock();
+      try {
+        if (accounts.remove(account.getAccNo()) == null) {
+          return Result.fail(Status.ACCOUNT_NOT_FOUND, "Account not found for number: " + account.getAccNo());
+        }
+      } finally {
+        registryLock.writeLock().unlock();
+      }
+      accountsDeleted.set(true);
+      sessions.revokeAll(account.getAccNo());
+      ArrayList<String> deletion = new ArrayList<>();
+      deletion.add(TransactionJournal.deletionRecord(account.getAccNo()));
+      return persistChange(deletion) ? Result.ok(account) : Result.ioError();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public List<Transaction> history(Account account) {
+    return account.getTransactions();
+  }
+
+  // Up to limit entries older than cursor, newest first; Long.MAX_VALUE for
+  // the latest page
+  public HistoryPage history(Account account, long cursor, int limit) {
+    return account.transactionsBefore(cursor, limit);
+  }
+
+  // Up to limit entries recorded in [fromMillis, toMillis), oldest first,
+  // starting at cursor; 0 for the first page
+  public HistoryPage historyBetween(Account account, long fromMillis, long toMillis, long cursor, int limit) {
+    return account.transactionsBetween(fromMillis, toMillis, cursor, limit);
+  }
+
+  // Stripe lock that every change to the account holds
+  ReentrantLock lockFor(Account account) {
+    return transferEngine.lockFor(account);
+  }
+
+  // Stripe locks of the first count accNos, in the order they must be taken
+  List<ReentrantLock> locksFor(int[] accNos, int count) {
+    return transferEngine.locksFor(accNos, count);
+  }
+
+  // Runs on the shard threads the same code as the direct path, stripe lock and
+  // journal write included (see the class comment)
+  private final class ShardLedger implements ShardedEngine.Ledger {
+    @Override
+    public TransferEngine.Result deposit(Account account, long cents) {
+      long balance = applyDeposit(account, cents);
+      return balance == NOT_REGISTERED ? TransferEngine.Result.ACCOUNT_NOT_FOUND
+          : balance == NOT_SAVED ? TransferEngine.Result.IO_ERROR : TransferEngine.Result.SUCCESS;
+    }
+
+    @Override
+    public TransferEngine.Result withdraw(Account account, long cents) {
+      long balance = applyWithdraw(account, cents);
+      return balance == NOT_REGISTERED ? TransferEngine.Result.ACCOUNT_NOT_FOUND
+          : balance == NOT_SAVED ? TransferEngine.Result.IO_ERROR
+          : balance < 0 ? TransferEngine.Result.INSUFFICIENT_FUNDS : TransferEngine.Result.SUCCESS;
+    }
+
+    @Override
+    public TransferEngine.Result transfer(Account from, Account to, long cents) {
+      return transferEngine.transferCents(from, to, cents);
+    }
+  }
+
+  public String engineStats() {
+    ShardedEngine engine = shards;
+    return engine == null ? "direct" : engine.stats();
+  }
+
+  // Journal records for an account's current state plus the transactions it
+  // gained from index firstNewTransaction onwards
+  private static ArrayList<String> changeRecords(Account acc, int firstNewTransaction) {
+    ArrayList<String> records = new ArrayList<>();
+    records.add(TransactionJournal.accountRecord(acc));
+    for (Transaction t : acc.getTransactionsFrom(firstNewTransaction)) {
+      records.add(TransactionJournal.transactionRecord(acc.getAccNo(), t));
+    }
+    return records;
+  }
+
+  // Persists one change and returns whether it is durable. With a journal only
+  // the change itself is written; without one the whole snapshot is rewritten.
+  // A change that could not be written stays made in memory, so the next
+  // checkpoint saves it; the background checkpointer is asked for one at once.
+  boolean persistChange(ArrayList<String> records) {
+    TransactionJournal current = journal;
+    if (current == null) {
+      return saveSnapshot();
+    }
+    Checkpointer background = checkpointer;
+    try {
+      current.append(records.toArray(new String[0]));
+    } catch (IOException e) {
+      notices.accept("Error saving changes: " + e.getMessage());
+      if (background != null) {
+        background.requestCheckpoint();
+      }
+      return false;
+    }
+    if (background != null) {
+      background.journalGrew();
+    }
+    return true;
+  }
+
+  // Lock that batch postings hold until their journal record is written
+  Lock batchGate() {
+    return batchGate.readLock();
+  }
+
+  // Writes a fresh snapshot and drops the journal records it now contains.
+  // Changes carry on meanwhile: the journal is switched to a fresh file first,
+  // and each account is read under its stripe lock, so every state written is
+  // one the journal holds too and replaying the fresh file on top is exact.
+  //
+  // accounts.txt is rewritten whole. transactions.txt only gets the entries
+  // added since the last checkpoint appended, unless it has never been written
+  // by this service or an account was deleted since (its lines would stay).
+  public synchronized void checkpoint() {
+    TransactionJournal current = journal;
+    if (current == null) {
+      saveSnapshot();
+      return;
+    }
+    batchGate.writeLock().lock();
+    try {
+      current.beginCheckpoint();
+      // Entries up to here are in their account by the time it is read; later
+      // ones are all in the fresh journal, so they are left for the next checkpoint
+      long through = Transaction.currentSequence();
+      boolean full = BINARY_SNAPSHOT || filedThrough < 0 || accountsDeleted.getAndSet(false);
+      Iterable<Account> snapshot;
+      registryLock.readLock().lock();
+      try {
+        snapshot = accounts.copy();
+      } finally {
+        registryLock.readLock().unlock();
+      }
+      long after = filedThrough;
+      filedThrough = -1; // unknown until this one is complete
+      if (writeSnapshot(snapshot, transferEngine::lockFor, full ? -1 : after, through)) {
+        filedThrough = through;
+        current.endCheckpoint();
+      } else if (full) {
+        accountsDeleted.set(true);
+      }
+    } catch (IOException e) {
+      notices.accept("Error checkpointing journal: " + e.getMessage());
+    } finally {
+      batchGate.writeLock().unlock();
+    }
+  }
+
+  public synchronized boolean saveSnapshot() {
+    filedThrough = -1;
+    registryLock.readLock().lock();
+    try {
+      return writeSnapshot(accounts, null, -1, Long.MAX_VALUE);
+    } finally {
+      registryLock.readLock().unlock();
+    }
+  }
+
+  // Writes the snapshot files with the transactions up to throughSequence, or
+  // with afterSequence >= 0 only appends those after it to transactions.txt
+  private boolean writeSnapshot(Iterable<Account> snapshot, Function<Account, ReentrantLock> lockFor,
+      long afterSequence, long throughSequence) {
+    long start = System.nanoTime();
+    try {
+      if (BINARY_SNAPSHOT) {
+        BinarySnapshot.write(binaryFile, snapshot, lockFor, throughSequence, snapshotFiles);
+      } else {
+        if (afterSequence >= 0) {
+          TextSnapshot.appendTransactions(transactionsFile, snapshot, lockFor, afterSequence, throughSequence);
+        } else {
+          TextSnapshot.writeTransactions(transactionsFile, snapshot, lockFor, throughSequence, snapshotFiles);
+        }
+        TextSnapshot.writeAccounts(accountsFile, snapshot, lockFor, snapshotFiles);
+      }
+      metrics.record(Metrics.Operation.SAVE_SNAPSHOT, Metrics.Outcome.SUCCESS, start);
+      return true;
+    } catch (IOException | IllegalArgumentException e) {
+      metrics.record(Metrics.Operation.SAVE_SNAPSHOT, Metrics.Outcome.IO_ERROR, start);
+      notices.accept("Error saving snapshot: " + e.getMessage());
+      return false;
+    }
+  }
+}
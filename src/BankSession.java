@@ -0,0 +1,263 @@
+package src;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+// One client's conversation with the service over the line protocol used by
+// BankServer. Holds that client's login instead of a process-wide one.
+//
+// Requests are one line, words separated by single spaces; amounts are decimal
+// dollars ("12.50"). The name in CREATE is the rest of the line, so it may
+// contain spaces; passwords may not.
+//
+//   CREATE <accNo> <amount> <password> <name>
+//   LOGIN <accNo> <password>
+//   RESUME <token>
+//   TOKEN
+//   BALANCE
+//   DEPOSIT <amount>
+//   WITHDRAW <amount>
+//   TRANSFER <toAccNo> <amount>
+//   HISTORY [<limit> [<cursor>]]
+//   PASSWORD <current> <new>
+//   DELETE <password>
+//   LOGOUT
+//   QUIT
+//   KEY <key> <command>
+//
+// Every reply starts with "OK" or "ERR <STATUS> <message>". OK replies to
+// account operations carry the balance; HISTORY replies "OK <n>" followed by n
+// transaction lines. With a limit, HISTORY returns one page, newest first, of
+// the entries before cursor (or the latest ones), and replies
+// "OK <n> <nextCursor>"; a next cursor of 0 means there are no older entries.
+// Without one the whole history is sent oldest first, written out entry by
+// entry as it is read rather than built up first.
+// TOKEN replies "OK <token>" with the token of the current login, which RESUME
+// accepts on a later connection in place of the password. LOGOUT ends it;
+// QUIT does not.
+//
+// KEY runs the command with an idempotency key (1 to 64 characters, no
+// spaces). CREATE, DEPOSIT, WITHDRAW, TRANSFER, PASSWORD and DELETE that
+// succeeded with a key are not applied again when a client retries them with
+// it, on this connection or another, and the retry gets the same reply.
+public class BankSession {
+  private static final int MAX_PAGE = 1000;
+
+  private final BankService service;
+  private final int source;
+  private Account account;
+  private String token;
+  private boolean closed;
+  private final StringBuilder row = new StringBuilder(); // one HISTORY entry at a time
+
+  public BankSession(BankService service) {
+    this(service, 0);
+  }
+
+  // source is the client's rate limiter key (BankServer.sourceKey), or 0
+  public BankSession(BankService service, int source) {
+    this.service = service;
+    this.source = source;
+  }
+
+  public boolean isClosed() {
+    return closed;
+  }
+
+  // The logged-in account, or null
+  public Account account() {
+    return account;
+  }
+
+  // Writes the reply to line, without a line break after it. The whole
+  // HISTORY goes to out as it is read; other replies are written at once.
+  public void handle(String line, Appendable out) throws IOException {
+    if (account != null && line.trim().equalsIgnoreCase("HISTORY")) {
+      writeHistory(out);
+    } else {
+      out.append(handle(line));
+    }
+  }
+
+  public String handle(String line) {
+    String request = line.trim();
+    String key = null;
+    if (request.regionMatches(true, 0, "KEY ", 0, 4)) {
+      String[] keyed = request.split(" ", 3);
+      if (keyed.length < 3) {
+        return "ERR BAD_REQUEST Expected a key and a command";
+      }
+      key = keyed[1];
+      request = keyed[2];
+    }
+    String[] words = request.split(" ", 5);
+    String command = words[0].toUpperCase();
+    try {
+      switch (command) {
+        case "CREATE":
+          expect(words, 5);
+          return reply(service.createAccount(words[4], parseAccNo(words[1]), parseAmount(words[2]), words[3], key));
+        case "LOGIN":
+          expect(words, 3);
+          return loggedIn(service.login(parseAccNo(words[1]), words[2], source));
+        case "RESUME":
+          expect(words, 2);
+          return loggedIn(service.resume(words[1]));
+        case "QUIT":
+          closed = true;
+          account = null;
+          token = null;
+          return "OK";
+        default:
+          return loggedIn(command, words, key);
+      }
+    } catch (IllegalArgumentException e) {
+      return "ERR BAD_REQUEST " + e.getMessage();
+    }
+  }
+
+  private String loggedIn(BankService.Result result) {
+    if (result.ok()) {
+      account = result.account();
+      token = result.token();
+    }
+    return reply(result);
+  }
+
+  private String loggedIn(String command, String[] words, String key) {
+    if (account == null) {
+      switch (command) {
+        case "BALANCE":
+        case "DEPOSIT":
+        case "WITHDRAW":
+        case "TRANSFER":
+        case "HISTORY":
+        case "PASSWORD":
+        case "DELETE":
+        case "TOKEN":
+        case "LOGOUT":
+          return "ERR NOT_LOGGED_IN Please log in first.";
+        default:
+          return "ERR BAD_REQUEST Unknown command: " + command;
+      }
+    }
+    switch (command) {
+      case "BALANCE":
+        expect(words, 1);
+        return "OK " + Money.format(account.getBalanceCents());
+      case "DEPOSIT":
+        expect(words, 2);
+        return reply(service.deposit(account, parseAmount(words[1]), key));
+      case "WITHDRAW":
+        expect(words, 2);
+        return reply(service.withdraw(account, parseAmount(words[1]), key));
+      case "TRANSFER":
+        expect(words, 3);
+        return reply(service.transfer(account, parseAccNo(words[1]), parseAmount(words[2]), key));
+      case "HISTORY": {
+        if (words.length > 1) {
+          return historyPage(words);
+        }
+        StringBuilder sb = new StringBuilder();
+        try {
+          writeHistory(sb);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e); // a StringBuilder does not throw it
+        }
+        return sb.toString();
+      }
+      case "PASSWORD":
+        expect(words, 3);
+        return reply(service.changePassword(account, words[1], words[2], key));
+      case "DELETE": {
+        expect(words, 2);
+        BankService.Result result = service.deleteAccount(account, words[1], key);
+        if (result.ok()) {
+          account = null;
+          token = null;
+        }
+        return result.ok() ? "OK" : reply(result);
+      }
+      case "TOKEN":
+        expect(words, 1);
+        return "OK " + token;
+      case "LOGOUT":
+        expect(words, 1);
+        service.logout(token);
+        account = null;
+        token = null;
+        return "OK";
+      default:
+        return "ERR BAD_REQUEST Unknown command: " + command;
+    }
+  }
+
+  private String historyPage(String[] words) {
+    if (words.length > 3) {
+      throw new IllegalArgumentException("Expected at most 2 arguments");
+    }
+    int limit;
+    long cursor;
+    try {
+      limit = Integer.parseInt(words[1]);
+      cursor = words.length > 2 ? Long.parseLong(words[2]) : Long.MAX_VALUE;
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Limit and cursor must be numeric.");
+    }
+    if (limit < 1 || limit > MAX_PAGE) {
+      throw new IllegalArgumentException("Limit must be between 1 and " + MAX_PAGE + ".");
+    }
+    HistoryPage page = service.history(account, cursor, limit);
+    StringBuilder sb = new StringBuilder("OK ").append(page.transactions().size()).append(' ')
+        .append(page.nextCursor());
+    for (Transaction t : page.transactions()) {
+      sb.append('\n').append(t);
+    }
+    return sb.toString();
+  }
+
+  // "OK <n>" and the n entries the account had when asked, oldest first, each
+  // appended as it is visited
+  private void writeHistory(Appendable out) throws IOException {
+    int count = account.getTransactionCount();
+    out.append("OK ").append(Integer.toString(count));
+    int[] left = { count };
+    account.visitTransactions(Long.MIN_VALUE, Long.MAX_VALUE, (type, amountCents, timestamp, sequence, description) -> {
+      if (left[0]-- > 0) { // entries added meanwhile are left out
+        row.setLength(0);
+        row.append('\n').append(type).append(": $");
+        Money.append(row, amountCents).append(" - ").append(description);
+        out.append(row);
+      }
+    });
+  }
+
+  private static String reply(BankService.Result result) {
+    if (result.ok()) {
+      return "OK " + Money.format(result.balanceCents());
+    }
+    return "ERR " + result.status() + " " + result.message();
+  }
+
+  private static void expect(String[] words, int count) {
+    if (words.length != count) {
+      throw new IllegalArgumentException("Expected " + (count - 1) + " arguments");
+    }
+  }
+
+  private static int parseAccNo(String word) {
+    try {
+      return Integer.parseInt(word);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Account number must be numeric.");
+    }
+  }
+
+  private static long parseAmount(String word) {
+    try {
+      return Money.parse(word);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Amount must be numeric.");
+    }
+  }
+}
@@ -1,74 +1,67 @@
 package src;
 
 import java.util.Scanner;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.regex.Pattern; // Import Pattern for regex validation
-
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+// Console menu on top of BankService. Everything here is prompting and
+// printing; the operations themselves live in the service.
 public class BankingApp {
 
   static Account loggedInAccount = null;
 
+  private static final int HISTORY_PAGE_SIZE = 20;
+  private static final DateTimeFormatter ENTRY_TIME =
+      DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm").withZone(ZoneId.systemDefault());
+
   // Helper method for pausing execution
   private static void pressEnterToContinue(Scanner sc) {
     System.out.println("\nPress Enter to continue...");
     sc.nextLine(); // Consume the newline
   }
 
-  // New helper method to validate password format
-  // This method only checks format, does not interact with user directly
-  private static boolean isValidPasswordFormat(String password) {
-    return password != null && !password.trim().isEmpty() && password.length() >= 6;
+  // Reads the next token as an exact amount in cents; returns -1 if it is not a valid amount
+  private static long nextAmountCents(Scanner sc) {
+    String token = sc.next();
+    try {
+      return Money.parse(token);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
   }
 
   // New helper method to prompt and get a valid password string from user
   private static String getValidatedPasswordInput(Scanner sc, String promptMessage) {
-    String password;
     while (true) {
       System.out.print(promptMessage);
-      password = sc.nextLine();
-      if (isValidPasswordFormat(password)) {
+      String password = sc.nextLine();
+      BankService.Result check = BankService.validatePassword(password);
+      if (check.ok()) {
         return password;
-      } else {
-        if (password.trim().isEmpty()) {
-          System.out.println("Error: Password cannot be empty.");
-        } else { // Implicitly means length < 6
-          System.out.println("Error: Password must be at least 6 characters long.");
-        }
       }
+      System.out.println("Error: " + check.message());
     }
   }
 
-  public static Account findAccountByNumber(ArrayList<Account> accounts, int accNo) {
-    for (Account acc : accounts) {
-      if (acc.getAccNo() == accNo)
-        return acc;
-    }
-    return null;
-  }
-
-  public static void createAccount(ArrayList<Account> accounts, Scanner sc) {
+  public static void createAccount(BankService service, Scanner sc) {
     String name;
     int accNo;
-    double balance;
+    long balance;
     String password;
 
     // Input validation for name
     while (true) {
       System.out.print("Enter account holder's name: ");
       name = sc.nextLine();
-      if (name.trim().isEmpty()) {
-        System.out.println("Error: Name cannot be empty.");
-      } else if (!Pattern.matches("^[a-zA-Z\\s.'-]+$", name)) { // Regex to allow letters, spaces, apostrophes, hyphens
-        System.out.println(
-            "Error: Name contains invalid characters. Please use only letters, spaces, apostrophes, or hyphens.");
-      } else {
+      BankService.Result check = BankService.validateName(name);
+      if (check.ok()) {
         break;
       }
+      System.out.println("Error: " + check.message());
     }
 
     // Input validation for account number
@@ -83,9 +76,10 @@ public class BankingApp {
       accNo = sc.nextInt();
       sc.nextLine(); // Clear newline
 
-      if (String.valueOf(accNo).length() != 6) {
-        System.out.println("Error: Account number must be exactly 6 digits.");
-      } else if (findAccountByNumber(accounts, accNo) != null) {
+      BankService.Result check = BankService.validateAccountNumber(accNo);
+      if (!check.ok()) {
+        System.out.println("Error: " + check.message());
+      } else if (service.findAccountByNumber(accNo) != null) {
         System.out.println("Account number already exists. Please use a different number.\n");
       } else {
         break;
@@ -101,7 +95,7 @@ public class BankingApp {
         sc.nextLine(); // Clear the rest of the line
         continue;
       }
-      balance = sc.nextDouble();
+      balance = nextAmountCents(sc);
       sc.nextLine(); // Clear newline
       if (balance < 0) {
         System.out.println("Error: Initial balance cannot be negative.");
@@ -113,49 +107,32 @@ public class BankingApp {
     // Use the new helper method for password input
     password = getValidatedPasswordInput(sc, "Enter password (min 6 characters): ");
 
-    try {
-      Account newAccount = new Account(name, accNo, balance, password);
-      accounts.add(newAccount);
-      saveAllAccounts(accounts);
-      saveAllTransactions(accounts);
+    BankService.Result result = service.createAccount(name, accNo, balance, password);
+    if (result.ok()) {
       System.out.println("Account created successfully and saved to file!\n");
-    } catch (IllegalArgumentException e) {
-      // This catch block is mostly a fallback now because getValidatedPasswordInput
-      // handles most issues,
-      // but it catches any edge cases or future validations added to Account
-      // constructor.
-      System.out.println("Error creating account: " + e.getMessage());
+    } else {
+      System.out.println("Error creating account: " + result.message());
     }
   }
 
-  public static void viewAllAccounts(ArrayList<Account> accounts) {
+  public static void viewAllAccounts(BankService service) {
+    AccountRegistry accounts = service.accounts();
     if (accounts.isEmpty()) {
       System.out.println("No accounts available.\n");
     } else {
       int count = 1;
       for (Account acc : accounts) {
         System.out.println("--- Account " + count + " ---");
-        acc.display();
+        display(acc);
         System.out.println("-----------------------");
         count++;
       }
     }
   }
 
-  public static void saveAllAccounts(ArrayList<Account> accounts) {
-    try {
-      BufferedWriter bw = new BufferedWriter(new FileWriter("accounts.txt"));
-      for (Account acc : accounts) {
-        bw.write(acc.toCSV());
-        bw.newLine();
-      }
-      bw.close();
-    } catch (IOException e) {
-      System.out.println("Error saving accounts: " + e.getMessage());
-    }
-  }
-
-  public static boolean verifyPassword(Account acc, Scanner sc) {
+  // Asks for the account's password up to three times; returns the password
+  // once it is right, or null. Checked by the service, under the login limit.
+  public static String verifyPassword(BankService service, Account acc, Scanner sc) {
     final int MAX_PASSWORD_ATTEMPTS = 3;
     int attempts = 0;
 
@@ -163,19 +140,23 @@ public class BankingApp {
       System.out.print("Enter password: ");
       String inputPass = sc.nextLine();
 
-      if (acc.checkPassword(inputPass)) {
-        return true;
-      } else {
+      BankService.Result check = service.verifyPassword(acc, inputPass);
+      if (check.ok()) {
+        return inputPass;
+      } else if (check.status() == BankService.Status.WRONG_PASSWORD) {
         attempts++;
         System.out.println("Wrong Password. Attempts left: " + (MAX_PASSWORD_ATTEMPTS - attempts));
+      } else {
+        System.out.println(check.message());
+        return null;
       }
     }
 
     System.out.println("Too many failed attempts.");
-    return false;
+    return null;
   }
 
-  public static Account login(ArrayList<Account> accounts, Scanner sc) {
+  public static Account login(BankService service, Scanner sc) {
     int accNo;
     while (true) {
       System.out.print("Enter account number: ");
@@ -188,24 +169,33 @@ public class BankingApp {
       accNo = sc.nextInt();
       sc.nextLine(); // Clear newline
 
-      if (String.valueOf(accNo).length() != 6) {
+      if (!BankService.validateAccountNumber(accNo).ok()) {
         System.out.println("Account number must be exactly 6 digits. Please try again.");
       } else {
         break;
       }
     }
 
-    Account acc = findAccountByNumber(accounts, accNo);
-
-    if (acc != null) {
-      if (verifyPassword(acc, sc)) {
-        System.out.println("Login successful. Welcome, " + acc.getName() + "!");
-        return acc;
-      }
-    } else {
+    if (service.findAccountByNumber(accNo) == null) {
       System.out.println("Account not found for number: " + accNo);
+      return null;
     }
-
+    // Each attempt is checked by the service, which hashes the password once
+    final int MAX_PASSWORD_ATTEMPTS = 3;
+    for (int attempts = 1; attempts <= MAX_PASSWORD_ATTEMPTS; attempts++) {
+      System.out.print("Enter password: ");
+      BankService.Result result = service.login(accNo, sc.nextLine());
+      if (result.ok()) {
+        System.out.println("Login successful. Welcome, " + result.account().getName() + "!");
+        return result.account();
+      }
+      if (result.status() != BankService.Status.WRONG_PASSWORD) {
+        System.out.println(result.message());
+        return null;
+      }
+      System.out.println("Wrong Password. Attempts left: " + (MAX_PASSWORD_ATTEMPTS - attempts));
+    }
+    System.out.println("Too many failed attempts.");
     return null;
   }
 
@@ -213,188 +203,167 @@ public class BankingApp {
     System.out.println("You have been logged out.\n");
   }
 
-  public static void transferFunds(Account loggedInAccount, ArrayList<Account> accounts, Scanner sc) {
+  public static void transferFunds(Account loggedInAccount, BankService service, Scanner sc) {
     // Step 1: Prompt for the recipient's account number
     System.out.print("Enter recipient's account number (6 digits): ");
     int recipientAccNo = sc.nextInt();
 
-    // Validate account number (6 digits)
-    if (String.valueOf(recipientAccNo).length() != 6) {
+    // Validate account number and recipient before asking for the amount
+    if (!BankService.validateAccountNumber(recipientAccNo).ok()) {
       System.out.println("Invalid account number. It should be a 6-digit number.");
       return;
     }
-
-    // Step 2: Find the recipient account
-    Account recipientAccount = findAccountByNumber(accounts, recipientAccNo);
-    if (recipientAccount == null) {
+    if (service.findAccountByNumber(recipientAccNo) == null) {
       System.out.println("Recipient account not found.");
       return;
     }
 
-    // Step 3: Prompt for the transfer amount
+    // Step 2: Prompt for the transfer amount
     System.out.print("Enter amount to transfer: ");
-    double transferAmount = sc.nextDouble();
+    long transferAmount = nextAmountCents(sc);
 
-    // Step 4: Validate the amount
-    if (transferAmount <= 0) {
-      System.out.println("Amount must be greater than 0.");
+    // Step 3: Move the money and record both legs as one unit
+    BankService.Result result = service.transfer(loggedInAccount, recipientAccNo, transferAmount);
+    if (!result.ok()) {
+      System.out.println(result.message());
       return;
     }
 
-    if (loggedInAccount.getBalance() < transferAmount) {
-      System.out.println("Insufficient funds for transfer.");
-      return;
-    }
-
-    // Step 5: Perform the transaction
-    boolean withdrawalSuccess = loggedInAccount.withdraw(transferAmount);
-    if (!withdrawalSuccess) {
-      System.out.println("Withdrawal failed.");
-      return;
-    }
-
-    boolean depositSuccess = recipientAccount.deposit(transferAmount);
-    if (!depositSuccess) {
-      System.out.println("Deposit failed.");
-      return;
-    }
-
-    // Step 6: Log transactions
-    Transaction senderTransaction = new Transaction(
-        "Transfer",
-        -transferAmount,
-        "Transfer to account " + recipientAccNo);
-    loggedInAccount.addTransaction(senderTransaction);
-
-    Transaction recipientTransaction = new Transaction(
-        "Transfer",
-        transferAmount,
-        "Transfer from account " + loggedInAccount.getAccNo());
-    recipientAccount.addTransaction(recipientTransaction);
-
-    // Step 7: Save all changes
-    try {
-      saveAllAccounts(accounts);
-      saveAllTransactions(accounts);
-    } catch (Exception e) {
-      System.out.println("Error saving accounts or transactions: " + e.getMessage());
-    }
-
     System.out.println("Transfer successful!");
-    System.out.printf("Transferred $%.2f from account %s to account %s.%n", transferAmount, loggedInAccount.getAccNo(),
-        recipientAccNo);
-  }
-
-  // New method to save all transactions to a file
-  // This method will be called after each transaction to keep a record
-  public static void saveAllTransactions(ArrayList<Account> accounts) {
-    try (BufferedWriter writer = new BufferedWriter(new FileWriter("transactions.txt"))) {
-      for (Account acc : accounts) {
-        for (Transaction t : acc.getTransactions()) {
-          // Format: accNo,type,amount,description (description should not contain commas
-          // or handle escaping)
-          writer.write(acc.getAccNo() + "," + t.getType() + "," + t.getAmount() + "," + t.getDescription());
-          writer.newLine();
-        }
-      }
-    } catch (IOException e) {
-      System.out.println("Error saving transactions: " + e.getMessage());
-    }
-  }
-
-  public static void loadTransactions(ArrayList<Account> accounts) {
-    try (BufferedReader reader = new BufferedReader(new FileReader("transactions.txt"))) {
-      String line;
-      while ((line = reader.readLine()) != null) {
-        String[] parts = line.split(",", 4); // limit 4 to preserve commas in description if any
-        if (parts.length == 4) {
-          int accNo = Integer.parseInt(parts[0]);
-          String type = parts[1];
-          double amount = Double.parseDouble(parts[2]);
-          String description = parts[3];
-
-          Account acc = findAccountByNumber(accounts, accNo);
-          if (acc != null) {
-            acc.addTransaction(new Transaction(type, amount, description));
-          }
-        }
-      }
-    } catch (IOException e) {
-      System.out.println("No transactions file found or error reading transactions.");
-    }
+    System.out.println("Transferred $" + Money.format(transferAmount) + " from account " + loggedInAccount.getAccNo()
+        + " to account " + recipientAccNo + ".");
   }
 
   // New method for changing password
-  public static void changePassword(ArrayList<Account> accounts, Scanner sc) {
+  public static void changePassword(BankService service, Scanner sc) {
     System.out.println("\n--- Change Password ---");
     // 1. Verify current password
-    if (!verifyPassword(loggedInAccount, sc)) {
+    String currentPassword = verifyPassword(service, loggedInAccount, sc);
+    if (currentPassword == null) {
       System.out.println("Current password verification failed. Password not changed.");
       return;
     }
 
-    // 2. Get new password with validation
-    String newPassword;
-    String confirmNewPassword;
+    // 2. Get new password with validation, then confirm it
     while (true) {
-      newPassword = getValidatedPasswordInput(sc, "Enter new password (min 6 characters): ");
+      String newPassword = getValidatedPasswordInput(sc, "Enter new password (min 6 characters): ");
+      System.out.print("Confirm new password: ");
+      String confirmNewPassword = sc.nextLine();
+      if (!newPassword.equals(confirmNewPassword)) {
+        System.out.println("Error: New passwords do not match. Please try again.");
+        continue;
+      }
 
-      // Additional check: New password cannot be the same as the old password
-      if (loggedInAccount.checkPassword(newPassword)) {
+      BankService.Result result = service.changePassword(loggedInAccount, currentPassword, newPassword);
+      if (result.status() == BankService.Status.SAME_PASSWORD) {
         System.out.println("Error: New password cannot be the same as your current password.");
         continue; // Re-prompt for new password
       }
-
-      // 3. Confirm new password
-      System.out.print("Confirm new password: ");
-      confirmNewPassword = sc.nextLine();
-
-      if (newPassword.equals(confirmNewPassword)) {
-        break; // Passwords match and are valid format
+      if (result.ok()) {
+        System.out.println("Password changed successfully!");
       } else {
-        System.out.println("Error: New passwords do not match. Please try again.");
+        System.out.println("Failed to change password: " + result.message());
       }
+      return;
     }
+  }
 
-    // 4. Set the new password using the Account class method, handling potential
-    // exceptions
+  // Shows the history a page at a time, newest first, with the option of
+  // switching to a date range
+  public static void viewHistory(BankService service, Scanner sc) {
+    HistoryPage page = service.history(loggedInAccount, Long.MAX_VALUE, HISTORY_PAGE_SIZE);
+    if (page.transactions().isEmpty()) {
+      System.out.println("No transaction history available.");
+      pressEnterToContinue(sc);
+      return;
+    }
+    System.out.println("--- Transaction History (newest first) ---");
+    while (true) {
+      for (Transaction t : page.transactions()) {
+        System.out.println(formatEntry(t));
+      }
+      System.out.print(page.hasMore() ? "Enter for older entries, d for a date range, q to return: "
+          : "End of history. d for a date range, Enter to return: ");
+      String answer = sc.nextLine().trim();
+      if (answer.equalsIgnoreCase("d")) {
+        viewHistoryBetween(service, sc);
+        return;
+      }
+      if (!page.hasMore() || answer.equalsIgnoreCase("q")) {
+        return;
+      }
+      page = service.history(loggedInAccount, page.nextCursor(), HISTORY_PAGE_SIZE);
+    }
+  }
+
+  private static void viewHistoryBetween(BankService service, Scanner sc) {
+    LocalDate from;
+    LocalDate to;
     try {
-      loggedInAccount.setPassword(newPassword);
-      saveAllAccounts(accounts);
-      System.out.println("Password changed successfully!");
-    } catch (IllegalArgumentException e) {
-      // This catch block would ideally not be hit if getValidatedPasswordInput
-      // and the "same as old" check are perfect, but it's a defensive measure
-      System.out.println("Failed to change password: " + e.getMessage());
+      System.out.print("From date (yyyy-mm-dd): ");
+      from = LocalDate.parse(sc.nextLine().trim());
+      System.out.print("To date, inclusive (yyyy-mm-dd): ");
+      to = LocalDate.parse(sc.nextLine().trim());
+    } catch (DateTimeParseException e) {
+      System.out.println("Invalid date.");
+      pressEnterToContinue(sc);
+      return;
     }
+    ZoneId zone = ZoneId.systemDefault();
+    long fromMillis = from.atStartOfDay(zone).toInstant().toEpochMilli();
+    long toMillis = to.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+
+    System.out.println("--- Transactions from " + from + " to " + to + " ---");
+    long cursor = 0;
+    boolean any = false;
+    while (true) {
+      HistoryPage page = service.historyBetween(loggedInAccount, fromMillis, toMillis, cursor, HISTORY_PAGE_SIZE);
+      for (Transaction t : page.transactions()) {
+        System.out.println(formatEntry(t));
+        any = true;
+      }
+      if (!page.hasMore()) {
+        break;
+      }
+      System.out.print("Enter for more, q to return: ");
+      if (sc.nextLine().trim().equalsIgnoreCase("q")) {
+        return;
+      }
+      cursor = page.nextCursor();
+    }
+    if (!any) {
+      System.out.println("No transactions in that range.");
+    }
+    pressEnterToContinue(sc);
+  }
+
+  private static String formatEntry(Transaction t) {
+    String when = t.getTimestamp() == 0 ? "(date unknown)   "
+        : ENTRY_TIME.format(Instant.ofEpochMilli(t.getTimestamp()));
+    return when + "  " + t;
+  }
+
+  private static void display(Account acc) {
+    System.out.println("Account Holder: " + acc.getName());
+    System.out.println("Account Number: " + acc.getAccNo());
+    System.out.println("Current Balance: $" + Money.format(acc.getBalanceCents()));
+    // Password is intentionally not printed
+  }
+
+  // Prints what the account's balance became after a deposit or withdrawal
+  private static void printBalanceChange(String verb, long cents, BankService.Result result) {
+    System.out.println(verb + " $" + Money.format(cents));
+    System.out.println("New Balance: $" + Money.format(result.balanceCents()));
   }
 
   public static void main(String[] args) {
     Scanner sc = new Scanner(System.in);
-    ArrayList<Account> accounts = new ArrayList<>();
-
+    BankService service = new BankService(".", System.out::println);
     try {
-      BufferedReader br = new BufferedReader(new java.io.FileReader("accounts.txt"));
-      String line;
-
-      while ((line = br.readLine()) != null) {
-        String[] parts = line.split(",");
-        if (parts.length == 4) {
-          String name = parts[0];
-          int accNo = Integer.parseInt(parts[1]);
-          double balance = Double.parseDouble(parts[2]);
-          String password = parts[3];
-          accounts.add(new Account(name, accNo, balance, password));
-        }
-      }
-      br.close();
-      System.out.println("Loaded existing accounts from file.");
+      service.open();
     } catch (IOException e) {
-      System.out.println("No previous accounts found (or error reading file). Starting fresh.");
-    } catch (NumberFormatException e) {
-      System.out
-          .println("Error reading account data: Invalid number format in file. Some accounts might not be loaded.");
-      // Optionally, you might want to log the specific line that caused the error
+      System.out.println("Error reading snapshot: " + e.getMessage());
+      System.exit(1); // Starting fresh would overwrite the damaged snapshot at the next save
     }
 
     while (true) {
@@ -415,17 +384,18 @@ public class BankingApp {
 
         switch (choice) {
           case 1:
-            createAccount(accounts, sc);
+            createAccount(service, sc);
             pressEnterToContinue(sc);
             break;
           case 2:
-            loggedInAccount = login(accounts, sc);
+            loggedInAccount = login(service, sc);
             if (loggedInAccount == null) { // If login failed, prompt to continue
               pressEnterToContinue(sc);
             }
             break;
           case 3:
             System.out.println("Exiting the Banking App. Goodbye!");
+            service.close();
             sc.close();
             System.exit(0);
             break;
@@ -457,7 +427,7 @@ public class BankingApp {
 
         switch (choice) {
           case 1:
-            loggedInAccount.display();
+            display(loggedInAccount);
             pressEnterToContinue(sc);
             break;
 
@@ -470,18 +440,14 @@ public class BankingApp {
               pressEnterToContinue(sc);
               break;
             }
-            double depAmt = sc.nextDouble();
+            long depAmt = nextAmountCents(sc);
             sc.nextLine();
-            if (depAmt <= 0) {
-              System.out.println("Invalid amount. Must be greater than 0.");
+            BankService.Result deposit = service.deposit(loggedInAccount, depAmt);
+            if (deposit.ok()) {
+              printBalanceChange("Deposited", depAmt, deposit);
+              System.out.println("Deposit successful.");
             } else {
-              if (loggedInAccount.deposit(depAmt)) {
-                loggedInAccount.addTransaction(
-                    new Transaction("Deposit", depAmt, "Deposited to account " + loggedInAccount.getAccNo()));
-                saveAllAccounts(accounts);
-                saveAllTransactions(accounts);
-                System.out.println("Deposit successful.");
-              }
+              System.out.println(deposit.message());
             }
             pressEnterToContinue(sc);
             break;
@@ -495,54 +461,45 @@ public class BankingApp {
               pressEnterToContinue(sc);
               break;
             }
-            double wdAmt = sc.nextDouble();
+            long wdAmt = nextAmountCents(sc);
             sc.nextLine();
-            if (wdAmt <= 0) {
-              System.out.println("Invalid amount. Must be greater than 0.");
-            } else if (loggedInAccount.withdraw(wdAmt)) {
-              loggedInAccount.addTransaction(
-                  new Transaction("Withdrawal", wdAmt, "Withdrew from account " + loggedInAccount.getAccNo()));
-              saveAllAccounts(accounts);
-              saveAllTransactions(accounts);
+            BankService.Result withdrawal = service.withdraw(loggedInAccount, wdAmt);
+            if (withdrawal.ok()) {
+              printBalanceChange("Withdrew", wdAmt, withdrawal);
               System.out.println("Withdrawal successful.");
+            } else {
+              System.out.println(withdrawal.message());
             }
             pressEnterToContinue(sc);
             break;
 
           case 4: // Transfer Funds
-            transferFunds(loggedInAccount, accounts, sc);
+            transferFunds(loggedInAccount, service, sc);
             break;
 
           case 5:
-            ArrayList<Transaction> history = loggedInAccount.getTransactions();
-            if (history.isEmpty()) {
-              System.out.println("No transaction history available.");
-            } else {
-              System.out.println("--- Transaction History ---");
-              for (Transaction t : history) {
-                System.out.println(t);
-              }
-              System.out.println("---------------------------");
-            }
-            pressEnterToContinue(sc);
+            viewHistory(service, sc);
             break;
 
           case 6: // Handle Change Password
-            changePassword(accounts, sc);
+            changePassword(service, sc);
             pressEnterToContinue(sc);
             break;
 
           case 7:
             System.out.println("To delete your account, please verify your password.");
-            if (verifyPassword(loggedInAccount, sc)) {
+            String password = verifyPassword(service, loggedInAccount, sc);
+            if (password != null) {
               System.out.print("Are you sure you want to delete your account? (yes/no): ");
               String confirm = sc.nextLine();
               if (confirm.equalsIgnoreCase("yes")) {
-                accounts.remove(loggedInAccount);
-                saveAllAccounts(accounts);
-                saveAllTransactions(accounts);
-                System.out.println("Your account has been deleted.");
-                loggedInAccount = null; // Log out the user
+                BankService.Result deletion = service.deleteAccount(loggedInAccount, password);
+                if (deletion.ok()) {
+                  System.out.println("Your account has been deleted.");
+                  loggedInAccount = null; // Log out the user
+                } else {
+                  System.out.println(deletion.message());
+                }
               } else {
                 System.out.println("Account deletion cancelled.");
               }
@@ -566,4 +523,4 @@ public class BankingApp {
       }
     }
   }
-}
\ No newline at end of file
+}
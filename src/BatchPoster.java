@@ -0,0 +1,346 @@
+package src;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Applies a file of postings (deposits and withdrawals) through a BankService,
+// one line per posting:
+//
+//   accNo,type,amount,description      type is Deposit or Withdrawal
+//
+// The file is read in batches. Each batch is split across worker threads by
+// accNo, so one account's postings are always applied by the same worker in
+// file order, and the whole batch is then persisted as one journal change
+// (or one snapshot rewrite when there is no journal). A crash mid-batch loses
+// that batch as a whole, never part of it, also while a checkpoint runs.
+// The batch's stripe locks are held from the first posting until it is
+// journaled, so no interactive change to its accounts is journaled in between.
+//
+// Rows that cannot be applied (malformed, unknown account, insufficient funds)
+// are written to the reject file in file order as "lineNumber,REASON,original line".
+//
+// Usage: java -cp <classes> src.BatchPoster <postings.csv> [rejects.csv] [dataDir]
+public class BatchPoster {
+  public static final int DEFAULT_BATCH_SIZE = 100_000;
+
+  private static final byte DEPOSIT = 0;
+  private static final byte WITHDRAWAL = 1;
+  private static final byte NOT_A_POSTING = 2;
+
+  public static final class Report {
+    private long posted;
+    private long rejected;
+    private int batches;
+    private long elapsedNanos;
+
+    public long posted() {
+      return posted;
+    }
+
+    public long rejected() {
+      return rejected;
+    }
+
+    public int batches() {
+      return batches;
+    }
+
+    public long elapsedNanos() {
+      return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+      double seconds = elapsedNanos / 1e9;
+      return String.format("posted=%d rejected=%d batches=%d seconds=%.2f postingsPerSec=%.0f", posted, rejected,
+          batches, seconds, (posted + rejected) / Math.max(seconds, 1e-9));
+    }
+  }
+
+  private final BankService service;
+  private final int threads;
+  private final int batchSize;
+
+  public BatchPoster(BankService service) {
+    this(service, Runtime.getRuntime().availableProcessors(), DEFAULT_BATCH_SIZE);
+  }
+
+  public BatchPoster(BankService service, int threads, int batchSize) {
+    if (threads < 1 || batchSize < 1) {
+      throw new IllegalArgumentException("Threads and batch size must be positive");
+    }
+    this.service = service;
+    this.threads = threads;
+    this.batchSize = batchSize;
+  }
+
+  public Report post(String postingsFile, String rejectFile) throws IOException {
+    Report report = new Report();
+    long start = System.nanoTime();
+    ExecutorService workers = Executors.newFixedThreadPool(threads);
+    try (BufferedReader in = Files.newBufferedReader(Paths.get(postingsFile), StandardCharsets.UTF_8);
+        Writer rejects = new BufferedWriter(Files.newBufferedWriter(Paths.get(rejectFile), StandardCharsets.UTF_8))) {
+      Batch batch = new Batch(batchSize);
+      long lineNo = 0;
+      String line;
+      while ((line = in.readLine()) != null) {
+        lineNo++;
+        if (line.isEmpty()) {
+          continue;
+        }
+        batch.add(lineNo, line);
+        if (batch.size == batchSize) {
+          apply(batch, workers, rejects, report);
+          batch.clear();
+        }
+      }
+      if (batch.size > 0) {
+        apply(batch, workers, rejects, report);
+      }
+    } finally {
+      workers.shutdown();
+    }
+    report.elapsedNanos = System.nanoTime() - start;
+    return report;
+  }
+
+  // Checkpoints wait for the batch to be applied and journaled, so a snapshot
+  // never holds part of a batch the journal does not
+  private void apply(Batch batch, ExecutorService workers, Writer rejects, Report report) throws IOException {
+    long start = System.nanoTime();
+    Lock gate = service.batchGate();
+    gate.lock();
+    try {
+      applyBatch(batch, workers, rejects, report);
+      service.metrics().record(Metrics.Operation.POST_BATCH, Metrics.Outcome.SUCCESS, start);
+    } catch (IOException e) {
+      service.metrics().record(Metrics.Operation.POST_BATCH, Metrics.Outcome.IO_ERROR, start);
+      throw e;
+    } finally {
+      gate.unlock();
+    }
+  }
+
+  // The stripe locks are taken here and the workers post under them: replay
+  // skips records older than an account's latest one, so an interactive change
+  // journaled between a posting and the batch record would hide the posting.
+  private void applyBatch(Batch batch, ExecutorService workers, Writer rejects, Report report) throws IOException {
+    List<Callable<Partition>> tasks = new ArrayList<>(threads);
+    for (int p = 0; p < threads; p++) {
+      Partition partition = new Partition(p);
+      tasks.add(() -> partition.apply(batch));
+    }
+
+    List<ReentrantLock> locks = service.locksFor(batch.accNos, batch.size);
+    for (ReentrantLock lock : locks) {
+      lock.lock();
+    }
+    try {
+      ArrayList<String> records = new ArrayList<>();
+      ArrayList<Partition> done = new ArrayList<>(threads);
+      try {
+        for (Future<Partition> f : workers.invokeAll(tasks)) {
+          done.add(f.get());
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while posting", e);
+      } catch (ExecutionException e) {
+        throw new IOException("Posting failed: " + e.getCause(), e.getCause());
+      }
+
+      for (Partition partition : done) {
+        records.addAll(partition.records);
+        for (Account acc : partition.touched) {
+          records.add(TransactionJournal.accountRecord(acc));
+        }
+        report.posted += partition.posted;
+      }
+      if (!records.isEmpty() && !service.persistChange(records)) {
+        // The batch stays posted in memory and the next checkpoint saves it
+        throw new IOException("Batch " + (report.batches + 1) + " was posted but could not be journaled");
+      }
+    } finally {
+      for (int i = locks.size() - 1; i >= 0; i--) {
+        locks.get(i).unlock();
+      }
+    }
+
+    for (int i = 0; i < batch.size; i++) {
+      if (batch.reasons[i] != null) {
+        reject(rejects, batch.lineNos[i], batch.reasons[i], batch.lines[i]);
+        report.rejected++;
+      }
+    }
+    report.batches++;
+  }
+
+  private static void reject(Writer out, long lineNo, String reason, String line) throws IOException {
+    out.write(Long.toString(lineNo));
+    out.write(',');
+    out.write(reason);
+    out.write(',');
+    out.write(line);
+    out.write('\n');
+  }
+
+  private static int partitionFor(int accNo, int partitions) {
+    int h = accNo * 0x9E3779B9;
+    return ((h ^ (h >>> 16)) & 0x7FFFFFFF) % partitions;
+  }
+
+  // Parsed lines of one batch, in file order. Lines that are not postings are
+  // kept too, already marked with their reject reason.
+  private static final class Batch {
+    final long[] lineNos;
+    final String[] lines;
+    final int[] accNos;
+    final byte[] types;
+    final long[] cents;
+    final String[] descriptions;
+    final String[] reasons; // null unless the line is rejected
+    int size;
+
+    Batch(int capacity) {
+      lineNos = new long[capacity];
+      lines = new String[capacity];
+      accNos = new int[capacity];
+      types = new byte[capacity];
+      cents = new long[capacity];
+      descriptions = new String[capacity];
+      reasons = new String[capacity];
+    }
+
+    void add(long lineNo, String line) {
+      int i = size++;
+      lineNos[i] = lineNo;
+      lines[i] = line;
+      reasons[i] = parse(i, line);
+      if (reasons[i] != null) {
+        types[i] = NOT_A_POSTING;
+      }
+    }
+
+    // Fills in slot i from the line; returns why it is not a posting, or null
+    private String parse(int i, String line) {
+      int c1 = line.indexOf(',');
+      int c2 = c1 < 0 ? -1 : line.indexOf(',', c1 + 1);
+      int c3 = c2 < 0 ? -1 : line.indexOf(',', c2 + 1);
+      if (c3 < 0 || line.substring(c3 + 1).trim().isEmpty()) {
+        return "MALFORMED";
+      }
+      int accNo;
+      long amount;
+      try {
+        accNo = Integer.parseInt(line, 0, c1, 10);
+        amount = Money.parse(line, c2 + 1, c3);
+      } catch (NumberFormatException e) {
+        return "MALFORMED";
+      }
+      if (amount <= 0) {
+        return "INVALID_AMOUNT";
+      }
+      byte type;
+      int typeLength = c2 - c1 - 1;
+      if (typeLength == 7 && line.regionMatches(true, c1 + 1, "Deposit", 0, 7)) {
+        type = DEPOSIT;
+      } else if (typeLength == 10 && line.regionMatches(true, c1 + 1, "Withdrawal", 0, 10)) {
+        type = WITHDRAWAL;
+      } else {
+        return "UNKNOWN_TYPE";
+      }
+      accNos[i] = accNo;
+      types[i] = type;
+      cents[i] = amount;
+      descriptions[i] = line.substring(c3 + 1);
+      return null;
+    }
+
+    void clear() {
+      Arrays.fill(lines, 0, size, null);
+      Arrays.fill(descriptions, 0, size, null);
+      size = 0;
+    }
+  }
+
+  // The postings of one worker: every account whose accNo maps to it
+  private final class Partition {
+    final int index;
+    final ArrayList<String> records = new ArrayList<>();
+    final ArrayList<Account> touched = new ArrayList<>();
+    long posted;
+
+    Partition(int index) {
+      this.index = index;
+    }
+
+    Partition apply(Batch batch) {
+      // Accounts already seen in this batch; the registry lookup is only done once per account
+      IdentityHashMap<Account, Boolean> seen = new IdentityHashMap<>();
+      for (int i = 0; i < batch.size; i++) {
+        int accNo = batch.accNos[i];
+        if (batch.types[i] == NOT_A_POSTING || partitionFor(accNo, threads) != index) {
+          continue;
+        }
+        Account acc = service.findAccountByNumber(accNo);
+        if (acc == null) {
+          batch.reasons[i] = "UNKNOWN_ACCOUNT";
+          continue;
+        }
+        // The coordinator holds the account's stripe lock for the whole batch
+        long cents = batch.cents[i];
+        Transaction t;
+        if (batch.types[i] == DEPOSIT) {
+          t = Transaction.ofCents("Deposit", cents, batch.descriptions[i]);
+          acc.creditCents(cents, t);
+        } else {
+          t = Transaction.ofCents("Withdrawal", cents, batch.descriptions[i]);
+          if (acc.debitCents(cents, t) < 0) {
+            batch.reasons[i] = "INSUFFICIENT_FUNDS";
+            continue;
+          }
+        }
+        records.add(TransactionJournal.transactionRecord(accNo, t));
+        if (seen.put(acc, Boolean.TRUE) == null) {
+          touched.add(acc);
+        }
+        posted++;
+      }
+      return this;
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.out.println("Usage: BatchPoster <postings.csv> [rejects.csv] [dataDir]");
+      return;
+    }
+    String rejectFile = args.length > 1 ? args[1] : args[0] + ".rejects";
+    String dataDir = args.length > 2 ? args[2] : ".";
+
+    BankService service = new BankService(dataDir, System.out::println);
+    service.open();
+    Report report = new BatchPoster(service).post(args[0], rejectFile);
+    service.close();
+    System.out.println("Batch posting finished: " + report);
+    if (report.rejected() > 0) {
+      System.out.println("Rejected rows written to " + rejectFile);
+    }
+  }
+}
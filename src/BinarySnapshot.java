@@ -0,0 +1,280 @@
+package src;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+// Binary alternative to the accounts.txt / transactions.txt pair, in one file:
+//
+//   header  magic "MBNK" (int), format version (int)
+//   block   kind (byte), record count (int), payload length (int), payload, CRC32 of payload (int)
+//   ...     account blocks first, then transaction blocks, then an END block
+//
+// Account record:     accNo (int), balance cents (long), name, password
+// Transaction record: accNo (int), amount cents (long), sequence (long), timestamp (long),
+//                     balance cents after it (long, -1 if not recorded), type, description
+// Strings are a u16 byte length followed by UTF-8 bytes. All numbers are big-endian.
+// Version 1 and 2 files are still read. Their transaction records have no
+// balance, and version 1 ones no sequence or timestamp either: those
+// transactions get new sequence ids as they are loaded.
+public final class BinarySnapshot {
+  public static final String DEFAULT_FILE = "bank.snapshot";
+  public static final int MAGIC = 0x4D424E4B; // "MBNK"
+  public static final int VERSION = 3;
+
+  static final byte END_BLOCK = 0;
+  static final byte ACCOUNT_BLOCK = 1;
+  static final byte TRANSACTION_BLOCK = 2;
+
+  private static final int BLOCK_HEADER_BYTES = 9;
+  private static final int RECORDS_PER_BLOCK = 4096;
+  private static final int MAX_STRING_BYTES = 0xFFFF;
+
+  private BinarySnapshot() {
+  }
+
+  public static void write(String file, AccountRegistry accounts) throws IOException {
+    write(file, accounts, null, Long.MAX_VALUE, AtomicFileWriter.FILES);
+  }
+
+  // Only transactions with a sequence id up to throughSequence are written.
+  // Each account is read while holding lockFor(account), if lockFor is given.
+  // Written through an AtomicFileWriter, so a crash leaves either the old
+  // snapshot or the new one.
+  static void write(String file, Iterable<Account> accounts, Function<Account, ? extends Lock> lockFor,
+      long throughSequence, AtomicFileWriter.ChannelOpener opener) throws IOException {
+    try (AtomicFileWriter sink = new AtomicFileWriter(file, AtomicFileWriter.DEFAULT_BUFFER_BYTES, opener)) {
+      BlockWriter out = new BlockWriter(sink);
+      ByteBuffer header = ByteBuffer.allocate(8).putInt(MAGIC).putInt(VERSION);
+      header.flip();
+      out.writeFully(header);
+
+      for (Account acc : accounts) {
+        Lock lock = lockFor == null ? null : lockFor.apply(acc);
+        if (lock != null) {
+          lock.lock();
+        }
+        try {
+          ByteBuffer rec = out.startRecord(ACCOUNT_BLOCK);
+          rec.putInt(acc.getAccNo()).putLong(acc.getBalanceCents());
+          out.putString(acc.getName());
+          out.putString(acc.passwordForStorage());
+          out.endRecord();
+        } finally {
+          if (lock != null) {
+            lock.unlock();
+          }
+        }
+      }
+      for (Account acc : accounts) {
+        Lock lock = lockFor == null ? null : lockFor.apply(acc);
+        if (lock != null) {
+          lock.lock();
+        }
+        try {
+          acc.forEachTransaction(t -> {
+            if (t.getSequence() > throughSequence) {
+              return;
+            }
+            try {
+              ByteBuffer rec = out.startRecord(TRANSACTION_BLOCK);
+              rec.putInt(acc.getAccNo()).putLong(t.getAmountCents()).putLong(t.getSequence())
+                  .putLong(t.getTimestamp()).putLong(t.getBalanceCents());
+              out.putString(t.getType());
+              out.putString(t.getDescription());
+              out.endRecord();
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          });
+        } catch (UncheckedIOException e) {
+          throw e.getCause();
+        } finally {
+          if (lock != null) {
+            lock.unlock();
+          }
+        }
+      }
+      out.finish();
+      sink.commit();
+    }
+  }
+
+  public static AccountRegistry read(String file) throws IOException {
+    AccountRegistry accounts = new AccountRegistry();
+    read(file, accounts);
+    return accounts;
+  }
+
+  // Loads into an existing registry. Throws IOException if the file is not a
+  // snapshot, has an unsupported version, or a block fails its checksum.
+  public static void read(String file, AccountRegistry accounts) throws IOException {
+    try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(8);
+      readFully(channel, header);
+      header.flip();
+      if (header.getInt() != MAGIC) {
+        throw new IOException("Not a banking snapshot: " + file);
+      }
+      int version = header.getInt();
+      if (version < 1 || version > VERSION) {
+        throw new IOException("Unsupported snapshot version " + version);
+      }
+
+      ByteBuffer blockHeader = ByteBuffer.allocate(BLOCK_HEADER_BYTES);
+      ByteBuffer payload = ByteBuffer.allocate(64 * 1024);
+      ByteBuffer crcBuf = ByteBuffer.allocate(4);
+      CRC32 crc = new CRC32();
+      while (true) {
+        blockHeader.clear();
+        readFully(channel, blockHeader);
+        blockHeader.flip();
+        byte kind = blockHeader.get();
+        int count = blockHeader.getInt();
+        int length = blockHeader.getInt();
+        if (kind == END_BLOCK) {
+          return;
+        }
+        if (length < 0 || count < 0) {
+          throw new IOException("Corrupt snapshot block header");
+        }
+        if (payload.capacity() < length) {
+          payload = ByteBuffer.allocate(length);
+        }
+        payload.clear().limit(length);
+        readFully(channel, payload);
+        crcBuf.clear();
+        readFully(channel, crcBuf);
+        crc.reset();
+        crc.update(payload.array(), 0, length);
+        if ((int) crc.getValue() != crcBuf.getInt(0)) {
+          throw new IOException("Snapshot block checksum mismatch");
+        }
+        payload.flip();
+        decodeBlock(kind, count, payload, version, accounts);
+      }
+    }
+  }
+
+  private static void decodeBlock(byte kind, int count, ByteBuffer in, int version, AccountRegistry accounts)
+      throws IOException {
+    boolean sequenced = kind == TRANSACTION_BLOCK && version >= 2;
+    try {
+      for (int i = 0; i < count; i++) {
+        int accNo = in.getInt();
+        long cents = in.getLong();
+        long sequence = sequenced ? in.getLong() : 0;
+        long timestamp = sequenced ? in.getLong() : 0;
+        long balance = kind == TRANSACTION_BLOCK && version >= 3 ? in.getLong() : -1;
+        String first = getString(in);
+        String second = getString(in);
+        if (kind == ACCOUNT_BLOCK) {
+          accounts.put(Account.ofCents(first, accNo, cents, second));
+        } else if (kind == TRANSACTION_BLOCK) {
+          Account acc = accounts.get(accNo);
+          if (acc != null) {
+            acc.addTransaction(Transaction.ofCents(first, cents, second, timestamp, sequence, balance));
+          }
+        } else {
+          throw new IOException("Unknown snapshot block kind " + kind);
+        }
+      }
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      throw new IOException("Corrupt snapshot record: " + e.getMessage(), e);
+    }
+  }
+
+  private static String getString(ByteBuffer in) {
+    int len = in.getShort() & 0xFFFF;
+    String s = new String(in.array(), in.arrayOffset() + in.position(), len, StandardCharsets.UTF_8);
+    in.position(in.position() + len);
+    return s;
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buf) throws IOException {
+    while (buf.hasRemaining()) {
+      if (channel.read(buf) < 0) {
+        throw new EOFException("Snapshot ends unexpectedly");
+      }
+    }
+  }
+
+  // Packs records into a reusable block buffer and writes each full block with
+  // its header and checksum
+  private static final class BlockWriter {
+    private final AtomicFileWriter file;
+    private final ByteBuffer block = ByteBuffer.allocate(1 << 20);
+    private final ByteBuffer frame = ByteBuffer.allocate(BLOCK_HEADER_BYTES);
+    private final ByteBuffer trailer = ByteBuffer.allocate(4);
+    private final CRC32 crc = new CRC32();
+    private byte kind = END_BLOCK;
+    private int count;
+    private int recordStart;
+
+    BlockWriter(AtomicFileWriter file) {
+      this.file = file;
+    }
+
+    ByteBuffer startRecord(byte recordKind) throws IOException {
+      // Leave room for the largest possible record so it never straddles a flush
+      if (recordKind != kind || count == RECORDS_PER_BLOCK
+          || block.remaining() < 36 + 2 * (2 + MAX_STRING_BYTES)) {
+        flush();
+        kind = recordKind;
+      }
+      recordStart = block.position();
+      return block;
+    }
+
+    void putString(String s) {
+      byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+      if (bytes.length > MAX_STRING_BYTES) {
+        block.position(recordStart);
+        throw new IllegalArgumentException("String too long for snapshot: " + bytes.length + " bytes");
+      }
+      block.putShort((short) bytes.length).put(bytes);
+    }
+
+    void endRecord() {
+      count++;
+    }
+
+    private void flush() throws IOException {
+      if (count == 0) {
+        return;
+      }
+      crc.reset();
+      crc.update(block.array(), 0, block.position());
+      frame.clear();
+      frame.put(kind).putInt(count).putInt(block.position()).flip();
+      writeFully(frame);
+      block.flip();
+      writeFully(block);
+      trailer.clear();
+      trailer.putInt((int) crc.getValue()).flip();
+      writeFully(trailer);
+      block.clear();
+      count = 0;
+    }
+
+    void finish() throws IOException {
+      flush();
+      frame.clear();
+      frame.put(END_BLOCK).putInt(0).putInt(0).flip();
+      writeFully(frame);
+    }
+
+    void writeFully(ByteBuffer buf) throws IOException {
+      file.write(buf);
+    }
+  }
+}
@@ -0,0 +1,113 @@
+package src;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+// Runs checkpoints on a background thread so the journal, and with it the time
+// replay takes on startup, stays bounded. A checkpoint is due once the journal
+// has grown past maxJournalBytes, or when intervalMillis has passed since the
+// last one; either limit can be 0 to turn it off.
+//
+// Callers that append to the journal call journalGrew(), which only wakes the
+// thread once the size limit is crossed, so appends never wait for a checkpoint.
+public class Checkpointer implements AutoCloseable {
+  public static final long DEFAULT_MAX_JOURNAL_BYTES = 64L << 20;
+
+  private final Runnable checkpoint;
+  private final LongSupplier journalBytes;
+  private final long maxJournalBytes;
+  private final long intervalNanos;
+  private final Thread worker;
+
+  private boolean requested; // guarded by this
+  private boolean closed; // guarded by this
+  private volatile long completed;
+
+  public Checkpointer(Runnable checkpoint, LongSupplier journalBytes, long maxJournalBytes, long intervalMillis) {
+    if (maxJournalBytes < 0 || intervalMillis < 0) {
+      throw new IllegalArgumentException("Checkpoint limits cannot be negative");
+    }
+    this.checkpoint = checkpoint;
+    this.journalBytes = journalBytes;
+    this.maxJournalBytes = maxJournalBytes;
+    this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+    this.worker = new Thread(this::run, "checkpointer");
+    this.worker.setDaemon(true);
+    this.worker.start();
+  }
+
+  // Reads -Dbank.checkpoint.maxJournalBytes (default 64 MB) and
+  // -Dbank.checkpoint.intervalMs (default 0, off). Returns null when both are 0.
+  public static Checkpointer fromSystemProperties(Runnable checkpoint, LongSupplier journalBytes) {
+    long maxBytes = Long.getLong("bank.checkpoint.maxJournalBytes", DEFAULT_MAX_JOURNAL_BYTES);
+    long intervalMillis = Long.getLong("bank.checkpoint.intervalMs", 0);
+    if (maxBytes == 0 && intervalMillis == 0) {
+      return null;
+    }
+    return new Checkpointer(checkpoint, journalBytes, maxBytes, intervalMillis);
+  }
+
+  public void journalGrew() {
+    if (maxJournalBytes > 0 && journalBytes.getAsLong() >= maxJournalBytes) {
+      requestCheckpoint();
+    }
+  }
+
+  // Asks for a checkpoint now, e.g. because a change could not be journaled
+  // and only a snapshot will save it
+  public synchronized void requestCheckpoint() {
+    if (!requested) {
+      requested = true;
+      notifyAll();
+    }
+  }
+
+  // Number of checkpoints run so far
+  public long completed() {
+    return completed;
+  }
+
+  private void run() {
+    long last = System.nanoTime();
+    while (true) {
+      synchronized (this) {
+        try {
+          while (!requested && !closed) {
+            if (intervalNanos == 0) {
+              wait();
+            } else {
+              long remaining = last + intervalNanos - System.nanoTime();
+              if (remaining <= 0) {
+                break;
+              }
+              TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+          }
+        } catch (InterruptedException e) {
+          return;
+        }
+        if (closed) {
+          return;
+        }
+        requested = false;
+      }
+      checkpoint.run();
+      completed++;
+      last = System.nanoTime();
+    }
+  }
+
+  // Waits for a running checkpoint to finish, then stops the thread
+  @Override
+  public void close() {
+    synchronized (this) {
+      closed = true;
+      notifyAll();
+    }
+    try {
+      worker.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,205 @@
+package src;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+// Decides which resident account AccountCache evicts next. The cache reports
+// every account it adds, every hit and every removal, and asks for a victim
+// while it is over budget. Calls are made under the cache's lock.
+//
+// The segments are insertion-ordered LinkedHashMaps used as queues, eldest
+// first; moving an entry to the young end is a remove and put.
+abstract class EvictionPolicy {
+
+  static EvictionPolicy create(AccountCache.Policy policy, long expectedEntries) {
+    switch (policy) {
+      case LRU:
+        return new Lru();
+      case W_TINYLFU:
+        return new WTinyLfu(expectedEntries);
+      default:
+        throw new IllegalArgumentException("Unknown policy " + policy);
+    }
+  }
+
+  abstract void onAdd(int accNo);
+
+  abstract void onAccess(int accNo);
+
+  abstract void onRemove(int accNo);
+
+  // Picks the next account to evict and forgets it; the cache must not be empty
+  abstract int evict();
+
+  private static int eldest(LinkedHashMap<Integer, Boolean> queue) {
+    Iterator<Integer> it = queue.keySet().iterator();
+    int accNo = it.next();
+    it.remove();
+    return accNo;
+  }
+
+  private static void touch(LinkedHashMap<Integer, Boolean> queue, int accNo) {
+    queue.remove(accNo);
+    queue.put(accNo, Boolean.TRUE);
+  }
+
+  // Least recently used
+  static final class Lru extends EvictionPolicy {
+    private final LinkedHashMap<Integer, Boolean> queue = new LinkedHashMap<>();
+
+    @Override
+    void onAdd(int accNo) {
+      touch(queue, accNo);
+    }
+
+    @Override
+    void onAccess(int accNo) {
+      touch(queue, accNo);
+    }
+
+    @Override
+    void onRemove(int accNo) {
+      queue.remove(accNo);
+    }
+
+    @Override
+    int evict() {
+      return eldest(queue);
+    }
+  }
+
+  // W-TinyLFU (Einziger, Friedman and Manes): new accounts enter a small LRU
+  // window (1% of the cache). The account pushed out of the window joins the
+  // main region as a candidate, and at the next eviction it only displaces the
+  // main region's eldest entry if it has been used more often recently, going by
+  // a count-min sketch of access frequencies. The main region is a segmented
+  // LRU: entries hit again while on probation move to the protected segment
+  // (80% of the main region). One-off scans therefore pass through the window
+  // without flushing the accounts that are busy every day.
+  static final class WTinyLfu extends EvictionPolicy {
+    private final LinkedHashMap<Integer, Boolean> window = new LinkedHashMap<>();
+    private final LinkedHashMap<Integer, Boolean> probation = new LinkedHashMap<>();
+    private final LinkedHashMap<Integer, Boolean> protectedSegment = new LinkedHashMap<>();
+    private final FrequencySketch sketch;
+    private boolean hasCandidate;
+    private int candidate; // last account moved from the window to probation
+
+    WTinyLfu(long expectedEntries) {
+      sketch = new FrequencySketch(expectedEntries);
+    }
+
+    @Override
+    void onAdd(int accNo) {
+      sketch.increment(accNo);
+      touch(window, accNo);
+      int total = window.size() + probation.size() + protectedSegment.size();
+      if (window.size() > Math.max(1, total / 100)) {
+        candidate = eldest(window);
+        hasCandidate = true;
+        probation.put(candidate, Boolean.TRUE);
+      }
+    }
+
+    @Override
+    void onAccess(int accNo) {
+      sketch.increment(accNo);
+      if (window.containsKey(accNo)) {
+        touch(window, accNo);
+      } else if (probation.remove(accNo) != null) {
+        if (hasCandidate && candidate == accNo) {
+          hasCandidate = false;
+        }
+        protectedSegment.put(accNo, Boolean.TRUE);
+        int main = probation.size() + protectedSegment.size();
+        if (protectedSegment.size() > main * 4 / 5) {
+          probation.put(eldest(protectedSegment), Boolean.TRUE);
+        }
+      } else if (protectedSegment.containsKey(accNo)) {
+        touch(protectedSegment, accNo);
+      }
+    }
+
+    @Override
+    void onRemove(int accNo) {
+      if (hasCandidate && candidate == accNo) {
+        hasCandidate = false;
+      }
+      if (window.remove(accNo) == null && probation.remove(accNo) == null) {
+        protectedSegment.remove(accNo);
+      }
+    }
+
+    @Override
+    int evict() {
+      if (probation.isEmpty()) {
+        return eldest(protectedSegment.isEmpty() ? window : protectedSegment);
+      }
+      int victim = probation.keySet().iterator().next();
+      if (hasCandidate && candidate != victim) {
+        hasCandidate = false;
+        if (sketch.frequency(candidate) <= sketch.frequency(victim)) {
+          probation.remove(candidate);
+          return candidate;
+        }
+      }
+      hasCandidate = hasCandidate && candidate != victim;
+      probation.remove(victim);
+      return victim;
+    }
+  }
+
+  // Count-min sketch with four 4-bit counters per account, packed sixteen to a
+  // long. Counters are halved once the sample reaches ten times the width, so
+  // the frequencies describe recent use rather than all time.
+  static final class FrequencySketch {
+    private static final long[] SEEDS = { 0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL,
+        0xCBF29CE484222325L };
+    private static final long HALF_MASK = 0x7777777777777777L;
+
+    private final long[] table;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(long expectedEntries) {
+      int width = Integer.highestOneBit((int) Math.max(64, Math.min(expectedEntries, 1 << 26)) - 1) << 1;
+      table = new long[width];
+      mask = width - 1;
+      sampleSize = 10 * width;
+    }
+
+    int frequency(int accNo) {
+      int min = 15;
+      for (int row = 0; row < 4; row++) {
+        long h = hash(accNo, row);
+        int shift = (int) (h >>> 60) << 2;
+        min = Math.min(min, (int) ((table[(int) h & mask] >>> shift) & 0xF));
+      }
+      return min;
+    }
+
+    void increment(int accNo) {
+      boolean added = false;
+      for (int row = 0; row < 4; row++) {
+        long h = hash(accNo, row);
+        int index = (int) h & mask;
+        int shift = (int) (h >>> 60) << 2;
+        if (((table[index] >>> shift) & 0xF) < 15) {
+          table[index] += 1L << shift;
+          added = true;
+        }
+      }
+      if (added && ++additions == sampleSize) {
+        for (int i = 0; i < table.length; i++) {
+          table[i] = (table[i] >>> 1) & HALF_MASK;
+        }
+        additions /= 2;
+      }
+    }
+
+    private static long hash(int accNo, int row) {
+      long h = (accNo + SEEDS[row]) * SEEDS[(row + 1) & 3];
+      return h ^ (h >>> 29);
+    }
+  }
+}
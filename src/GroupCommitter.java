@@ -0,0 +1,208 @@
+package src;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Collects records from many threads and hands them to a single writer thread,
+// which commits each batch with one write and one fsync. Callers get a future
+// that completes once their record is durable (or fails with the I/O error).
+public class GroupCommitter implements AutoCloseable {
+
+  // Writes and syncs one batch; called only from the writer thread
+  public interface Sink {
+    void commit(List<byte[]> batch) throws IOException;
+  }
+
+  private static final class Pending {
+    final byte[] data;
+    final long enqueuedAt = System.nanoTime();
+    final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    Pending(byte[] data) {
+      this.data = data;
+    }
+  }
+
+  private static final Pending SHUTDOWN = new Pending(new byte[0]);
+
+  private final Sink sink;
+  private final int maxBatchSize;
+  private final long maxLingerNanos;
+  private final LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+  private final Thread writer;
+  // Guards closed against queueing: nothing is queued once the writer has
+  // been told to stop, so every queued record is committed or failed
+  private final Object queueLock = new Object();
+  private boolean closed;
+
+  private final LongAdder batches = new LongAdder();
+  private final LongAdder records = new LongAdder();
+  private final Histogram batchSizes = new Histogram();
+  private final Histogram commitLatencyNanos = new Histogram();
+
+  public GroupCommitter(Sink sink, int maxBatchSize, long maxLingerMicros) {
+    if (maxBatchSize < 1) {
+      throw new IllegalArgumentException("Max batch size must be at least 1");
+    }
+    if (maxLingerMicros < 0) {
+      throw new IllegalArgumentException("Max linger cannot be negative");
+    }
+    this.sink = sink;
+    this.maxBatchSize = maxBatchSize;
+    this.maxLingerNanos = TimeUnit.MICROSECONDS.toNanos(maxLingerMicros);
+    this.writer = new Thread(this::run, "group-commit");
+    this.writer.setDaemon(true);
+    this.writer.start();
+  }
+
+  public CompletableFuture<Void> submit(byte[] record) {
+    Pending p = new Pending(record);
+    synchronized (queueLock) {
+      if (closed) {
+        throw new IllegalStateException("Group committer is closed");
+      }
+      queue.add(p);
+    }
+    return p.done;
+  }
+
+  // Blocks until the record is durable
+  public void submitAndWait(byte[] record) throws IOException {
+    try {
+      submit(record).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for commit", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+    }
+  }
+
+  private void run() {
+    ArrayList<Pending> batch = new ArrayList<>(maxBatchSize);
+    ArrayList<byte[]> data = new ArrayList<>(maxBatchSize);
+    boolean stopping = false;
+    while (!stopping) {
+      try {
+        Pending first = queue.take();
+        if (first == SHUTDOWN) {
+          break;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + maxLingerNanos;
+        while (batch.size() < maxBatchSize) {
+          // Take whatever is already waiting, then linger for more until the deadline
+          Pending next = queue.poll();
+          if (next == null) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+              break;
+            }
+            next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+              break;
+            }
+          }
+          if (next == SHUTDOWN) {
+            stopping = true;
+            break;
+          }
+          batch.add(next);
+        }
+      } catch (InterruptedException e) {
+        stopping = true;
+      }
+      if (!batch.isEmpty()) {
+        commit(batch, data);
+      }
+    }
+    // Records still queued when the writer stops (it was interrupted, or
+    // SHUTDOWN came mid-batch) are failed rather than left hanging, and later
+    // submits are rejected
+    synchronized (queueLock) {
+      closed = true;
+      Pending leftover;
+      while ((leftover = queue.poll()) != null) {
+        if (leftover != SHUTDOWN) {
+          leftover.done.completeExceptionally(new IOException("Group committer is closed"));
+        }
+      }
+    }
+  }
+
+  private void commit(ArrayList<Pending> batch, ArrayList<byte[]> data) {
+    for (Pending p : batch) {
+      data.add(p.data);
+    }
+    IOException failure = null;
+    try {
+      sink.commit(data);
+    } catch (IOException e) {
+      failure = e;
+    }
+    long now = System.nanoTime();
+    for (Pending p : batch) {
+      if (failure == null) {
+        commitLatencyNanos.record(now - p.enqueuedAt);
+        p.done.complete(null);
+      } else {
+        p.done.completeExceptionally(failure);
+      }
+    }
+    batches.increment();
+    records.add(batch.size());
+    batchSizes.record(batch.size());
+    batch.clear();
+    data.clear();
+  }
+
+  // Commits everything already submitted, then stops the writer thread
+  @Override
+  public void close() {
+    synchronized (queueLock) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      queue.add(SHUTDOWN);
+    }
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public long batchCount() {
+    return batches.sum();
+  }
+
+  public long recordCount() {
+    return records.sum();
+  }
+
+  public Histogram batchSizes() {
+    return batchSizes;
+  }
+
+  public Histogram commitLatencyNanos() {
+    return commitLatencyNanos;
+  }
+
+  public String stats() {
+    long b = batchCount();
+    long r = recordCount();
+    return String.format(
+        "batches=%d records=%d avgBatch=%.1f p50Batch=%d maxBatch~%d commitLatencyUs p50=%.1f p99=%.1f p99.9=%.1f",
+        b, r, b == 0 ? 0.0 : (double) r / b, batchSizes.percentile(50), batchSizes.percentile(100),
+        commitLatencyNanos.percentile(50) / 1000.0, commitLatencyNanos.percentile(99) / 1000.0,
+        commitLatencyNanos.percentile(99.9) / 1000.0);
+  }
+}
@@ -0,0 +1,79 @@
+package src;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Thread-safe log-linear histogram of non-negative longs (latencies in
+// nanoseconds, batch sizes, ...). Each power of two is split into 8 sub-buckets,
+// so reported percentiles are within about 12% of the recorded value.
+public class Histogram {
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+  static int bucketFor(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) Math.max(value, 0);
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+  }
+
+  // Largest value that falls in the given bucket
+  static long upperBound(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    long sub = bucket % SUB_BUCKETS;
+    long lower = (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+    return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+  }
+
+  public void record(long value) {
+    counts.incrementAndGet(bucketFor(value));
+  }
+
+  public long count() {
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      total += counts.get(i);
+    }
+    return total;
+  }
+
+  // Value at the given percentile (0-100), or 0 when nothing has been recorded
+  public long percentile(double percentile) {
+    long total = count();
+    if (total == 0) {
+      return 0;
+    }
+    long target = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= target) {
+        return upperBound(i);
+      }
+    }
+    return upperBound(BUCKETS - 1);
+  }
+
+  // Adds the counts recorded in other to this histogram
+  public void add(Histogram other) {
+    for (int i = 0; i < BUCKETS; i++) {
+      long n = other.counts.get(i);
+      if (n != 0) {
+        counts.addAndGet(i, n);
+      }
+    }
+  }
+
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts.set(i, 0);
+    }
+  }
+}
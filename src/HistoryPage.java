@@ -0,0 +1,29 @@
+package src;
+
+import java.util.List;
+
+// One page of an account's history. The cursor is a transaction sequence id:
+// pass nextCursor() back to get the page after this one. It stays valid while
+// new transactions are added, since entries never move.
+public final class HistoryPage {
+  private final List<Transaction> transactions;
+  private final long nextCursor;
+
+  HistoryPage(List<Transaction> transactions, long nextCursor) {
+    this.transactions = transactions;
+    this.nextCursor = nextCursor;
+  }
+
+  public List<Transaction> transactions() {
+    return transactions;
+  }
+
+  // Cursor for the next page, or 0 when this is the last one
+  public long nextCursor() {
+    return nextCursor;
+  }
+
+  public boolean hasMore() {
+    return nextCursor != 0;
+  }
+}
@@ -0,0 +1,47 @@
+package src;
+
+// What an account's history did over a time range: how many deposits,
+// withdrawals and transfers each way changed the balance and by how much,
+// and the balance at either end. Amounts are positive cents.
+public final class HistorySummary {
+
+  public enum Flow {
+    DEPOSIT,
+    WITHDRAWAL,
+    TRANSFER_IN,
+    TRANSFER_OUT
+  }
+
+  private final long[] tallies; // count and cents per flow, in Flow order
+  private final long openingBalanceCents;
+  private final long closingBalanceCents;
+
+  HistorySummary(long[] tallies, long openingBalanceCents, long closingBalanceCents) {
+    this.tallies = tallies;
+    this.openingBalanceCents = openingBalanceCents;
+    this.closingBalanceCents = closingBalanceCents;
+  }
+
+  public long count(Flow flow) {
+    return tallies[2 * flow.ordinal()];
+  }
+
+  public long cents(Flow flow) {
+    return tallies[2 * flow.ordinal() + 1];
+  }
+
+  // Money in less money out
+  public long netCents() {
+    return cents(Flow.DEPOSIT) + cents(Flow.TRANSFER_IN) - cents(Flow.WITHDRAWAL) - cents(Flow.TRANSFER_OUT);
+  }
+
+  // The balance at the start of the range, or -1 if it was not recorded
+  public long openingBalanceCents() {
+    return openingBalanceCents;
+  }
+
+  // The balance at the end of the range, or -1 if it was not recorded
+  public long closingBalanceCents() {
+    return closingBalanceCents;
+  }
+}
@@ -0,0 +1,213 @@
+package src;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Remembers which client-supplied idempotency keys have been applied, and the
+// balance each left behind, so a retried request can be answered without
+// running it again. Keys are scoped to an account: the same key on two
+// accounts is two different requests. Each key also keeps a fingerprint of
+// the request it was first used for (see request()), and a later request with
+// the key that does not match it is refused as MISMATCH instead of answered
+// with the first one's balance.
+//
+// Memory is fixed when the table is made. A key is kept as a 64-bit
+// fingerprint of account and key, next to its request's, in parallel arrays, with no object per
+// entry, and entries expire ttl after they were written. The table is set
+// associative: a fingerprint picks a group of WAYS slots and lives in one of
+// them, so a lookup reads at most WAYS slots. When a group is full of live
+// entries a new key takes the slot that would expire first; that is counted
+// in stats(), and means the table is too small for the ttl and key rate.
+//
+// A key goes through two steps. claim() either finds it (and returns the
+// remembered balance), finds another request still running with it, or
+// marks it as running. The caller then either complete()s it with the
+// balance after the operation or release()s it if the operation did not
+// apply, so a retry runs it afresh.
+public class IdempotencyTable {
+  public static final int DEFAULT_SLOTS = 1 << 20;
+  public static final long DEFAULT_TTL_SECONDS = 60 * 60;
+
+  // What claim() returns besides a remembered balance, which is never negative
+  public static final long CLAIMED = -1;
+  public static final long IN_PROGRESS = -2;
+  public static final long MISMATCH = -3;
+
+  private static final int WAYS = 8;
+  private static final int LOCKS = 64;
+  private static final long RUNNING = Long.MIN_VALUE; // balance of a claimed key
+
+  private final long[] keys; // 0 for an empty slot
+  private final long[] requests;
+  private final long[] balances;
+  private final int[] expires; // seconds since epochMillis
+  private final Object[] locks = new Object[LOCKS];
+  private final int groupMask;
+  private final int ttlSeconds;
+  private final LongSupplier clockMillis;
+  private final long epochMillis;
+  private final LongAdder replayed = new LongAdder();
+  private final LongAdder evicted = new LongAdder();
+
+  public IdempotencyTable(int slots, long ttlSeconds) {
+    this(slots, ttlSeconds, () -> System.nanoTime() / 1_000_000);
+  }
+
+  // slots is rounded up to a power of two, at least WAYS
+  public IdempotencyTable(int slots, long ttlSeconds, LongSupplier clockMillis) {
+    if (slots < 1 || ttlSeconds < 1 || ttlSeconds > Integer.MAX_VALUE / 2) {
+      throw new IllegalArgumentException("Idempotency table needs slots >= 1 and a ttl of 1 to 2^30 seconds");
+    }
+    int capacity = Math.max(WAYS, Integer.highestOneBit(slots - 1) << 1);
+    this.keys = new long[capacity];
+    this.requests = new long[capacity];
+    this.balances = new long[capacity];
+    this.expires = new int[capacity];
+    this.groupMask = capacity / WAYS - 1;
+    this.ttlSeconds = (int) ttlSeconds;
+    this.clockMillis = clockMillis;
+    this.epochMillis = clockMillis.getAsLong();
+    for (int i = 0; i < LOCKS; i++) {
+      locks[i] = new Object();
+    }
+  }
+
+  // Reads -Dbank.idempotency.slots (default 2^20, about 28 MB) and
+  // -Dbank.idempotency.ttlSeconds (default 3600)
+  public static IdempotencyTable fromSystemProperties() {
+    return new IdempotencyTable(Integer.getInteger("bank.idempotency.slots", DEFAULT_SLOTS),
+        Long.getLong("bank.idempotency.ttlSeconds", DEFAULT_TTL_SECONDS));
+  }
+
+  // For callers that use each key for one kind of request only
+  public long claim(int accNo, String key) {
+    return claim(accNo, key, 0);
+  }
+
+  // The balance remembered for the key, IN_PROGRESS if the same request with
+  // it is running, MISMATCH if the key was used for a different request, or
+  // CLAIMED if it is new (or expired) and the caller must now complete() or
+  // release() it
+  public long claim(int accNo, String key, long request) {
+    long fingerprint = fingerprint(accNo, key);
+    int group = group(fingerprint);
+    int now = now();
+    synchronized (locks[group & (LOCKS - 1)]) {
+      int base = group * WAYS;
+      int victim = base;
+      for (int i = base; i < base + WAYS; i++) {
+        if (keys[i] == fingerprint) {
+          if (expires[i] - now <= 0) {
+            victim = i; // expired: reuse its slot, so a fingerprint is never in two
+            break;
+          }
+          if (requests[i] != request) {
+            return MISMATCH;
+          }
+          if (balances[i] == RUNNING) {
+            return IN_PROGRESS;
+          }
+          replayed.increment();
+          return balances[i];
+        }
+        if (expires[i] - expires[victim] < 0) {
+          victim = i;
+        }
+      }
+      // Empty and expired slots have the earliest expiry times, so they go first
+      if (keys[victim] != 0 && expires[victim] - now > 0) {
+        evicted.increment();
+      }
+      keys[victim] = fingerprint;
+      requests[victim] = request;
+      balances[victim] = RUNNING;
+      expires[victim] = now + ttlSeconds;
+      return CLAIMED;
+    }
+  }
+
+  // Remembers the balance for a claimed key, for ttl from now
+  public void complete(int accNo, String key, long balanceCents) {
+    if (balanceCents < 0) {
+      throw new IllegalArgumentException("Balances are never negative");
+    }
+    long fingerprint = fingerprint(accNo, key);
+    int group = group(fingerprint);
+    synchronized (locks[group & (LOCKS - 1)]) {
+      int slot = find(group, fingerprint);
+      if (slot >= 0) {
+        balances[slot] = balanceCents;
+        expires[slot] = now() + ttlSeconds;
+      }
+    }
+  }
+
+  // Forgets a claimed key whose operation did not apply
+  public void release(int accNo, String key) {
+    long fingerprint = fingerprint(accNo, key);
+    int group = group(fingerprint);
+    synchronized (locks[group & (LOCKS - 1)]) {
+      int slot = find(group, fingerprint);
+      if (slot >= 0 && balances[slot] == RUNNING) {
+        keys[slot] = 0;
+        expires[slot] = 0;
+      }
+    }
+  }
+
+  public int slots() {
+    return keys.length;
+  }
+
+  public String stats() {
+    return "replayed=" + replayed.sum() + " evictedLive=" + evicted.sum();
+  }
+
+  private int find(int group, long fingerprint) {
+    for (int i = group * WAYS; i < (group + 1) * WAYS; i++) {
+      if (keys[i] == fingerprint) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private int group(long fingerprint) {
+    return (int) (fingerprint >>> 32) & groupMask;
+  }
+
+  private int now() {
+    return (int) ((clockMillis.getAsLong() - epochMillis) / 1000);
+  }
+
+  // Fingerprint of what a request does, to tell a retry from another request
+  // that reuses its key: the operation, its amount and the other account
+  // involved (0 if none)
+  public static long request(int operation, long amountCents, int counterparty) {
+    long h = mix((operation * 0x9E3779B97F4A7C15L) ^ amountCents);
+    return mix(h ^ counterparty);
+  }
+
+  private static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb93fe1a85ec3L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  // 64-bit FNV-1a over the account number and the key's chars, then mixed
+  // (MurmurHash3's finalizer) so every bit depends on all of them. Two keys
+  // in the table share a fingerprint with odds of about n^2 / 2^65 over n
+  // live keys: around one in 10^7 for a million.
+  static long fingerprint(int accNo, String key) {
+    long h = 0xcbf29ce484222325L;
+    h = (h ^ accNo) * 0x100000001b3L;
+    for (int i = 0; i < key.length(); i++) {
+      h = (h ^ key.charAt(i)) * 0x100000001b3L;
+    }
+    h = mix(h);
+    return h == 0 ? 1 : h;
+  }
+}
@@ -0,0 +1,213 @@
+package src;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Read-only memory mapping of a whole file, in 1 GB regions, with the helpers
+// the loaders need to cut it into lines and line-aligned ranges.
+final class MappedFile implements Closeable {
+  private static final int REGION_SHIFT = 30; // 1 GB per mapping
+  private static final long REGION_MASK = (1L << REGION_SHIFT) - 1;
+
+  private final FileChannel channel;
+  private final MappedByteBuffer[] regions;
+  private final long size;
+
+  private MappedFile(FileChannel channel) throws IOException {
+    this.channel = channel;
+    this.size = channel.size();
+    int regionCount = (int) ((size + REGION_MASK) >>> REGION_SHIFT);
+    regions = new MappedByteBuffer[regionCount];
+    for (int i = 0; i < regionCount; i++) {
+      long start = (long) i << REGION_SHIFT;
+      regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(1L << REGION_SHIFT, size - start));
+    }
+  }
+
+  static MappedFile open(String file) throws IOException {
+    FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+    try {
+      return new MappedFile(channel);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  long size() {
+    return size;
+  }
+
+  byte byteAt(long pos) {
+    return regions[(int) (pos >>> REGION_SHIFT)].get((int) (pos & REGION_MASK));
+  }
+
+  // Position of the next '\n' at or after pos, or size if there is none
+  long lineEnd(long pos) {
+    while (pos < size && byteAt(pos) != '\n') {
+      pos++;
+    }
+    return pos;
+  }
+
+  // Splits the file into at most parts ranges of similar size, each starting at
+  // the beginning of a line. Returns the boundaries: range i is
+  // [bounds[i], bounds[i + 1]).
+  long[] lineAlignedBounds(int parts) {
+    long[] bounds = new long[parts + 1];
+    int count = 0;
+    long start = 0;
+    bounds[count++] = 0;
+    for (int i = 1; i < parts && start < size; i++) {
+      long cut = Math.max(start, size * i / parts);
+      long next = cut == 0 ? 0 : lineEnd(cut - 1) + 1; // the line containing cut - 1 ends the range
+      if (next >= size) {
+        break;
+      }
+      if (next > start) {
+        bounds[count++] = next;
+        start = next;
+      }
+    }
+    bounds[count++] = size;
+    return Arrays.copyOf(bounds, count);
+  }
+
+  // The bytes [start, end) as UTF-8 text, without a trailing '\r'
+  String text(long start, long end) {
+    if (end > start && byteAt(end - 1) == '\r') {
+      end--;
+    }
+    byte[] bytes = new byte[(int) (end - start)];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = byteAt(start + i);
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  // A CharSequence over the ASCII bytes starting at a position, for parsing
+  // numbers in place without building a String. Reuse one per thread.
+  static final class View implements CharSequence {
+    private final MappedFile file;
+    private long base;
+    private int length;
+
+    View(MappedFile file) {
+      this.file = file;
+    }
+
+    View at(long start, long end) {
+      base = start;
+      length = (int) Math.min(end - start, Integer.MAX_VALUE);
+      return this;
+    }
+
+    @Override
+    public char charAt(int index) {
+      return (char) (file.byteAt(base + index) & 0xFF);
+    }
+
+    @Override
+    public int length() {
+      return length;
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      return file.text(base + start, base + end);
+    }
+
+    @Override
+    public String toString() {
+      return file.text(base, base + length);
+    }
+  }
+
+  // The UTF-8 bytes [start, end) decoded into a reusable char buffer, for
+  // handing text on without building a String per line. Malformed sequences
+  // become U+FFFD. Reuse one per thread.
+  static final class Text implements CharSequence {
+    private static final char REPLACEMENT = '\uFFFD';
+
+    private final MappedFile file;
+    private char[] chars = new char[64];
+    private int length;
+
+    Text(MappedFile file) {
+      this.file = file;
+    }
+
+    // UTF-8 never takes fewer bytes than UTF-16 chars, so end - start chars is room enough
+    Text at(long start, long end) {
+      int bytes = (int) (end - start);
+      if (chars.length < bytes) {
+        chars = new char[Math.max(bytes, chars.length * 2)];
+      }
+      int n = 0;
+      long pos = start;
+      while (pos < end) {
+        int b = file.byteAt(pos++) & 0xFF;
+        if (b < 0x80) {
+          chars[n++] = (char) b;
+          continue;
+        }
+        int extra = b >= 0xF8 ? -1 : b >= 0xF0 ? 3 : b >= 0xE0 ? 2 : b >= 0xC0 ? 1 : -1;
+        int codePoint = extra < 0 ? -1 : b & (0x3F >> extra);
+        for (int i = 0; i < extra && codePoint >= 0; i++) {
+          int next = pos < end ? file.byteAt(pos) & 0xFF : 0;
+          if ((next & 0xC0) != 0x80) {
+            codePoint = -1;
+          } else {
+            codePoint = codePoint << 6 | (next & 0x3F);
+            pos++;
+          }
+        }
+        int min = extra == 1 ? 0x80 : extra == 2 ? 0x800 : 0x10000;
+        if (codePoint < min || codePoint > Character.MAX_CODE_POINT
+            || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+          chars[n++] = REPLACEMENT;
+        } else if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+          chars[n++] = Character.highSurrogate(codePoint);
+          chars[n++] = Character.lowSurrogate(codePoint);
+        } else {
+          chars[n++] = (char) codePoint;
+        }
+      }
+      length = n;
+      return this;
+    }
+
+    @Override
+    public char charAt(int index) {
+      return chars[index];
+    }
+
+    @Override
+    public int length() {
+      return length;
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      return new String(chars, start, end - start);
+    }
+
+    @Override
+    public String toString() {
+      return new String(chars, 0, length);
+    }
+  }
+
+  // The mappings stay valid until they are garbage collected; closing only
+  // releases the file handle
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
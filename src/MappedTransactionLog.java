@@ -0,0 +1,545 @@
+package src;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+// Read-only view of transactions.txt through memory-mapped regions. Opening the
+// log makes one pass over the bytes to build an offset index per accNo (the
+// account's line offsets, 8 bytes per transaction, and its newest sequence
+// id); nothing is decoded into Transaction objects until an account's history
+// is actually asked for, and visit() reads rows in place without decoding them
+// at all.
+//
+// The pass is split into line-aligned ranges scanned in parallel on a
+// fork-join pool; each range checks its lines' shape and collects (accNo,
+// offset) pairs, which are then linked into the index in file order and
+// finally grouped so each account's lines sit together, oldest first.
+//
+// Files that start with TextSnapshot.TRANSACTIONS_HEADER carry each
+// transaction's sequence id, timestamp and the balance it left; files that
+// start with TextSnapshot.SEQUENCED_HEADER lack the balance. Older files have
+// neither header nor sequence ids; their
+// transactions get the line's position in the index as sequence id, and the
+// process-wide sequence is moved past the log's ids either way.
+public class MappedTransactionLog implements Closeable {
+  // Ranges smaller than this are not worth a task of their own
+  private static final long MIN_RANGE_BYTES = 1 << 20;
+
+  private final MappedFile file;
+  private final boolean sequenced;
+  private final boolean balanced;
+  private long maxSequence;
+
+  // Per line: start offset. Once the index is built the lines are grouped by
+  // account: counts[slot] lines starting at heads[slot].
+  private long[] lineStarts = new long[1024];
+  // While indexing only: the next line for the same account (-1 = end)
+  private int[] nextLine = new int[1024];
+  // Files without sequence ids: each grouped line's position in the file
+  private int[] lineNumbers;
+  private int lineCount;
+
+  // accNo -> first/last line index, line count and highest sequence id, open
+  // addressing on accNo. tails is only needed while indexing.
+  private int[] keys;
+  private int[] heads;
+  private int[] tails;
+  private int[] counts;
+  private long[] lastSequences;
+  private boolean[] used;
+  private int mask;
+  private int accountCount;
+
+  private MappedTransactionLog(MappedFile file) {
+    this.file = file;
+    this.balanced = startsWith(file, TextSnapshot.TRANSACTIONS_HEADER);
+    this.sequenced = balanced || startsWith(file, TextSnapshot.SEQUENCED_HEADER);
+    initTable(1024);
+  }
+
+  private static boolean startsWith(MappedFile file, String prefix) {
+    if (file.size() < prefix.length()) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length(); i++) {
+      if (file.byteAt(i) != prefix.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public static MappedTransactionLog open(String file) throws IOException {
+    return open(file, ForkJoinPool.commonPool(), problem -> { });
+  }
+
+  // Malformed lines are left out of the index and reported to problems with
+  // their line number
+  public static MappedTransactionLog open(String file, ForkJoinPool pool, Consumer<String> problems)
+      throws IOException {
+    MappedFile mapped = MappedFile.open(file);
+    try {
+      MappedTransactionLog log = new MappedTransactionLog(mapped);
+      log.buildIndex(pool, new File(file).getName(), problems);
+      return log;
+    } catch (RuntimeException e) {
+      mapped.close();
+      throw e;
+    }
+  }
+
+  private void buildIndex(ForkJoinPool pool, String name, Consumer<String> problems) {
+    int parts = (int) Math.max(1, Math.min(pool.getParallelism() * 4L, file.size() / MIN_RANGE_BYTES));
+    long[] bounds = file.lineAlignedBounds(parts);
+    List<Callable<Range>> tasks = new ArrayList<>();
+    for (int i = 0; i + 1 < bounds.length; i++) {
+      long from = bounds[i];
+      long to = bounds[i + 1];
+      tasks.add(() -> new Range(file, sequenced, balanced).scan(from, to));
+    }
+
+    String expected = balanced ? "accNo,sequence,timestamp,balance,type,amount,description"
+        : sequenced ? "accNo,sequence,timestamp,type,amount,description" : "accNo,type,amount,description";
+    long linesBefore = 0;
+    for (Future<Range> future : pool.invokeAll(tasks)) {
+      Range range;
+      try {
+        range = future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while indexing " + name, e);
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("Indexing " + name + " failed", e.getCause());
+      }
+      for (int i = 0; i < range.count; i++) {
+        // Unsequenced lines get their position in the index, as forEach gives them
+        addLine(range.accNos[i], range.starts[i], sequenced ? range.sequences[i] : lineCount + 1);
+      }
+      for (int i = 0; i < range.badCount; i++) {
+        problems.accept(name + " line " + (linesBefore + range.badLines[i]) + ": expected " + expected);
+      }
+      linesBefore += range.lines;
+      maxSequence = Math.max(maxSequence, range.maxSequence);
+    }
+    groupLines();
+    Transaction.advanceSequence(sequenced ? maxSequence : lineCount);
+  }
+
+  // Rewrites the per-account chains as runs of lineStarts, so an account's
+  // lines can be binary searched by time, and drops the chains
+  private void groupLines() {
+    long[] grouped = new long[lineCount];
+    int[] numbers = sequenced ? null : new int[lineCount];
+    int next = 0;
+    for (int slot = 0; slot < keys.length; slot++) {
+      if (!used[slot]) {
+        continue;
+      }
+      int first = next;
+      for (int line = heads[slot]; line >= 0; line = nextLine[line]) {
+        grouped[next] = lineStarts[line];
+        if (numbers != null) {
+          numbers[next] = line;
+        }
+        next++;
+      }
+      heads[slot] = first;
+    }
+    lineStarts = grouped;
+    lineNumbers = numbers;
+    nextLine = null;
+    tails = null;
+  }
+
+  // The lines of one byte range: (accNo, offset, sequence id if the file has
+  // them) for each well-formed line, and the range-relative numbers (1-based)
+  // of malformed ones
+  private static final class Range {
+    private final MappedFile file;
+    private final MappedFile.View view;
+    private final boolean sequenced;
+    private final boolean balanced;
+    int[] accNos = new int[1024];
+    long[] starts = new long[1024];
+    long[] sequences = new long[1024];
+    int count;
+    int[] badLines = new int[8];
+    int badCount;
+    int lines;
+    long maxSequence;
+    private long lineSequence; // of the line parse() last accepted
+    private long fieldEnd; // where the last number read by number() ended
+
+    Range(MappedFile file, boolean sequenced, boolean balanced) {
+      this.file = file;
+      this.view = new MappedFile.View(file);
+      this.sequenced = sequenced;
+      this.balanced = balanced;
+    }
+
+    Range scan(long from, long to) {
+      long pos = from;
+      while (pos < to) {
+        long end = file.lineEnd(pos);
+        if (sequenced && end == file.size()) {
+          break; // no newline: torn by a checkpoint that crashed while appending
+        }
+        lines++;
+        long contentEnd = end > pos && file.byteAt(end - 1) == '\r' ? end - 1 : end;
+        if (contentEnd > pos && !(sequenced && pos == 0)) { // nor blank lines nor the header
+          int accNo = parse(pos, contentEnd);
+          if (accNo >= 0) {
+            add(accNo, pos, lineSequence);
+            maxSequence = Math.max(maxSequence, lineSequence);
+          } else {
+            if (badCount == badLines.length) {
+              badLines = Arrays.copyOf(badLines, badCount * 2);
+            }
+            badLines[badCount++] = lines;
+          }
+        }
+        pos = end + 1;
+      }
+      return this;
+    }
+
+    // The accNo of a well-formed line, or -1
+    private int parse(long start, long end) {
+      long accNo = number(start, end, Integer.MAX_VALUE);
+      if (accNo < 0) {
+        return -1;
+      }
+      long pos = fieldEnd;
+      if (sequenced) {
+        long sequence = number(pos + 1, end, Long.MAX_VALUE);
+        if (sequence <= 0 || number(fieldEnd + 1, end, Long.MAX_VALUE) < 0) {
+          return -1;
+        }
+        lineSequence = sequence;
+        pos = fieldEnd;
+      }
+      if (balanced) {
+        long balanceStart = ++pos; // may be empty
+        while (pos < end && file.byteAt(pos) != ',') {
+          pos++;
+        }
+        if (pos == end || (pos > balanceStart && amount(start, end, balanceStart, pos) < 0)) {
+          return -1;
+        }
+      }
+      long typeStart = ++pos;
+      while (pos < end && file.byteAt(pos) != ',') {
+        pos++;
+      }
+      if (pos == typeStart || pos == end) {
+        return -1;
+      }
+      long amountStart = ++pos;
+      while (pos < end && file.byteAt(pos) != ',') {
+        pos++;
+      }
+      if (pos == end) {
+        return -1;
+      }
+      if (amount(start, end, amountStart, pos) <= 0) {
+        return -1;
+      }
+      for (pos++; pos < end; pos++) {
+        if (file.byteAt(pos) > ' ') {
+          return (int) accNo; // the description has something besides whitespace
+        }
+      }
+      return -1;
+    }
+
+    // The cents in [from, to) of the line [start, end), or -1 if they do not parse
+    private long amount(long start, long end, long from, long to) {
+      try {
+        view.at(start, end);
+        return Money.parse(view, (int) (from - start), (int) (to - start));
+      } catch (NumberFormatException e) {
+        return -1;
+      }
+    }
+
+    // The digits from pos up to the next ',' as a number no greater than max,
+    // or -1; leaves fieldEnd at the ','
+    private long number(long pos, long end, long max) {
+      long start = pos;
+      long value = 0;
+      byte b = 0;
+      while (pos < end && (b = file.byteAt(pos)) >= '0' && b <= '9') {
+        if (value > (max - (b - '0')) / 10) {
+          return -1;
+        }
+        value = value * 10 + (b - '0');
+        pos++;
+      }
+      fieldEnd = pos;
+      return pos == start || pos == end || b != ',' ? -1 : value;
+    }
+
+    private void add(int accNo, long start, long sequence) {
+      if (count == accNos.length) {
+        accNos = Arrays.copyOf(accNos, count * 2);
+        starts = Arrays.copyOf(starts, count * 2);
+        sequences = Arrays.copyOf(sequences, count * 2);
+      }
+      accNos[count] = accNo;
+      starts[count] = start;
+      sequences[count++] = sequence;
+    }
+  }
+
+  private void addLine(int accNo, long start, long sequence) {
+    if (lineCount == lineStarts.length) {
+      lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+      nextLine = Arrays.copyOf(nextLine, lineCount * 2);
+    }
+    int line = lineCount++;
+    lineStarts[line] = start;
+    nextLine[line] = -1;
+
+    int slot = slotFor(accNo);
+    if (used[slot]) {
+      nextLine[tails[slot]] = line;
+      tails[slot] = line;
+      counts[slot]++;
+      lastSequences[slot] = Math.max(lastSequences[slot], sequence);
+      return;
+    }
+    used[slot] = true;
+    keys[slot] = accNo;
+    heads[slot] = line;
+    tails[slot] = line;
+    counts[slot] = 1;
+    lastSequences[slot] = sequence;
+    if (++accountCount * 2 > keys.length) {
+      growTable();
+    }
+  }
+
+  private void initTable(int capacity) {
+    keys = new int[capacity];
+    heads = new int[capacity];
+    tails = new int[capacity];
+    counts = new int[capacity];
+    lastSequences = new long[capacity];
+    used = new boolean[capacity];
+    mask = capacity - 1;
+  }
+
+  private int slotFor(int accNo) {
+    int h = accNo * 0x9E3779B9;
+    int i = (h ^ (h >>> 16)) & mask;
+    while (used[i] && keys[i] != accNo) {
+      i = (i + 1) & mask;
+    }
+    return i;
+  }
+
+  private void growTable() {
+    int[] oldKeys = keys;
+    int[] oldHeads = heads;
+    int[] oldTails = tails;
+    int[] oldCounts = counts;
+    long[] oldLastSequences = lastSequences;
+    boolean[] oldUsed = used;
+    initTable(oldKeys.length * 2);
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldUsed[i]) {
+        int slot = slotFor(oldKeys[i]);
+        used[slot] = true;
+        keys[slot] = oldKeys[i];
+        heads[slot] = oldHeads[i];
+        tails[slot] = oldTails[i];
+        counts[slot] = oldCounts[i];
+        lastSequences[slot] = oldLastSequences[i];
+      }
+    }
+  }
+
+  // Number of transactions for the account, without decoding any of them
+  public int count(int accNo) {
+    int slot = slotFor(accNo);
+    return used[slot] ? counts[slot] : 0;
+  }
+
+  // Highest sequence id among the account's transactions, 0 if it has none;
+  // known from the index, so nothing is decoded
+  public long lastSequence(int accNo) {
+    int slot = slotFor(accNo);
+    return used[slot] ? lastSequences[slot] : 0;
+  }
+
+  public int accountCount() {
+    return accountCount;
+  }
+
+  // Hands each registered account its slice of the log; lines for accounts that
+  // are not registered are ignored. Returns the number of accounts attached.
+  public int attachTo(AccountRegistry accounts) {
+    return accounts.attachSnapshotHistory(this);
+  }
+
+  // Decodes the account's transactions in file order. Lines whose amount or
+  // description is invalid are skipped, as the text loader does.
+  public void forEach(int accNo, Consumer<Transaction> action) {
+    int slot = slotFor(accNo);
+    if (!used[slot]) {
+      return;
+    }
+    for (int line = heads[slot], end = line + counts[slot]; line < end; line++) {
+      long start = lineStarts[line];
+      String text = file.text(start, file.lineEnd(start));
+      Transaction t = sequenced ? decodeSequenced(text, balanced) : decode(text, lineNumbers[line] + 1);
+      if (t != null) {
+        action.accept(t);
+      }
+    }
+  }
+
+  // Visits the account's transactions recorded in [fromMillis, toMillis), in
+  // file order, and returns how many. An account's lines are in time order, so
+  // the first is found by binary search and the walk stops at the first line
+  // past the range. Fields are read in place and the type and description are
+  // decoded into buffers reused for the next row: nothing is allocated per row.
+  public int visit(int accNo, long fromMillis, long toMillis, TransactionHistory.EntryVisitor visitor)
+      throws IOException {
+    int slot = slotFor(accNo);
+    if (!used[slot]) {
+      return 0;
+    }
+    Row row = new Row();
+    int end = heads[slot] + counts[slot];
+    int low = heads[slot];
+    int high = end;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (row.timestampAt(lineStarts[mid]) < fromMillis) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    int visited = 0;
+    for (int line = low; line < end; line++) {
+      row.read(lineStarts[line], sequenced ? 0 : lineNumbers[line] + 1);
+      if (row.timestamp >= toMillis) {
+        break;
+      }
+      visitor.visit(row.type, row.amountCents, row.timestamp, row.sequence, row.description);
+      visited++;
+    }
+    return visited;
+  }
+
+  // The fields of one line, read in place. Only lines in the index are read,
+  // and their shape was checked when it was built.
+  private final class Row {
+    private final MappedFile.View view = new MappedFile.View(file);
+    final MappedFile.Text type = new MappedFile.Text(file);
+    final MappedFile.Text description = new MappedFile.Text(file);
+    long sequence;
+    long timestamp;
+    long amountCents;
+    private long pos;
+
+    // Unsequenced lines have no time, and are given 0 as forEach does
+    long timestampAt(long start) {
+      if (!sequenced) {
+        return 0;
+      }
+      pos = start;
+      skipField(); // accNo
+      skipField(); // sequence id
+      return number();
+    }
+
+    void read(long start, long lineSequence) {
+      long end = file.lineEnd(start);
+      if (end > start && file.byteAt(end - 1) == '\r') {
+        end--;
+      }
+      pos = start;
+      skipField(); // accNo
+      if (sequenced) {
+        sequence = number();
+        timestamp = number();
+        if (balanced) {
+          skipField();
+        }
+      } else {
+        sequence = lineSequence;
+        timestamp = 0;
+      }
+      long typeStart = pos;
+      skipField();
+      type.at(typeStart, pos - 1);
+      long amountStart = pos;
+      skipField();
+      amountCents = Money.parse(view.at(amountStart, pos - 1));
+      description.at(pos, end);
+    }
+
+    // Moves pos past the next ','
+    private void skipField() {
+      while (file.byteAt(pos) != ',') {
+        pos++;
+      }
+      pos++;
+    }
+
+    // The digits at pos, moving pos past the ',' after them
+    private long number() {
+      long value = 0;
+      byte b;
+      while ((b = file.byteAt(pos++)) != ',') {
+        value = value * 10 + (b - '0');
+      }
+      return value;
+    }
+  }
+
+  private static Transaction decode(String line, long sequence) {
+    String[] parts = line.split(",", 4);
+    if (parts.length != 4) {
+      return null;
+    }
+    try {
+      return Transaction.ofCents(parts[1], Money.parse(parts[2]), parts[3], 0, sequence);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  private static Transaction decodeSequenced(String line, boolean balanced) {
+    int fields = balanced ? 7 : 6;
+    String[] parts = line.split(",", fields);
+    if (parts.length != fields) {
+      return null;
+    }
+    try {
+      int type = fields - 3;
+      long balance = balanced && !parts[3].isEmpty() ? Money.parse(parts[3]) : -1;
+      return Transaction.ofCents(parts[type], Money.parse(parts[type + 1]), parts[type + 2],
+          Long.parseLong(parts[2]), Long.parseLong(parts[1]), balance);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    file.close();
+  }
+}
@@ -0,0 +1,259 @@
+package src;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// Counts and latencies of the banking operations, by operation and outcome.
+// Recording allocates nothing: each operation and outcome pair has its own
+// log-linear Histogram, which also keeps its count, and a LongAdder of total
+// time, found by array index. That is one atomic add and one LongAdder add per
+// event besides reading the clock; see bench.MetricsBenchmark.
+//
+// Read them through JMX (one OperationMetricsMXBean per operation, under
+// "src:type=BankMetrics"), or as Prometheus text from writePrometheus(), which
+// MetricsDumper writes to a file periodically.
+public final class Metrics {
+
+  public enum Operation {
+    LOGIN,
+    CREATE_ACCOUNT,
+    DEPOSIT,
+    WITHDRAW,
+    TRANSFER,
+    CHANGE_PASSWORD,
+    DELETE_ACCOUNT,
+    POST_BATCH, // one BatchPoster batch
+    SAVE_SNAPSHOT,
+    LOAD_ACCOUNTS,
+    LOAD_TRANSACTIONS
+  }
+
+  public enum Outcome {
+    SUCCESS,
+    REPLAYED, // answered from an idempotency key, nothing applied
+    INSUFFICIENT_FUNDS,
+    WRONG_PASSWORD,
+    REJECTED, // busy, rate limited or a retry racing the original
+    INVALID, // any other refusal: bad input, unknown account, ...
+    IO_ERROR
+  }
+
+  private static final Operation[] OPERATIONS = Operation.values();
+  private static final Outcome[] OUTCOMES = Outcome.values();
+  private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+  private final Cell[] cells = new Cell[OPERATIONS.length * OUTCOMES.length];
+
+  private static final class Cell {
+    final LongAdder totalNanos = new LongAdder();
+    final Histogram latencyNanos = new Histogram();
+  }
+
+  public Metrics() {
+    for (int i = 0; i < cells.length; i++) {
+      cells[i] = new Cell();
+    }
+  }
+
+  // Records one operation that started at startNanos (a System.nanoTime() value)
+  public void record(Operation operation, Outcome outcome, long startNanos) {
+    long elapsed = System.nanoTime() - startNanos;
+    Cell cell = cells[operation.ordinal() * OUTCOMES.length + outcome.ordinal()];
+    cell.totalNanos.add(elapsed);
+    cell.latencyNanos.record(elapsed);
+  }
+
+  public long count(Operation operation, Outcome outcome) {
+    return cell(operation, outcome).latencyNanos.count();
+  }
+
+  public long count(Operation operation) {
+    long total = 0;
+    for (Outcome outcome : OUTCOMES) {
+      total += count(operation, outcome);
+    }
+    return total;
+  }
+
+  public Histogram latencyNanos(Operation operation, Outcome outcome) {
+    return cell(operation, outcome).latencyNanos;
+  }
+
+  private Cell cell(Operation operation, Outcome outcome) {
+    return cells[operation.ordinal() * OUTCOMES.length + outcome.ordinal()];
+  }
+
+  // Prometheus text exposition format: one summary of latencies in seconds,
+  // labelled by operation and outcome, for every pair that has been recorded
+  public void writePrometheus(Writer out) throws IOException {
+    out.write("# HELP bank_operation_seconds Latency of banking operations by outcome.\n");
+    out.write("# TYPE bank_operation_seconds summary\n");
+    StringBuilder line = new StringBuilder(128);
+    for (Operation operation : OPERATIONS) {
+      for (Outcome outcome : OUTCOMES) {
+        Cell cell = cell(operation, outcome);
+        long count = cell.latencyNanos.count();
+        if (count == 0) {
+          continue;
+        }
+        String labels = "operation=\"" + label(operation) + "\",outcome=\"" + label(outcome) + "\"";
+        for (double q : QUANTILES) {
+          line.setLength(0);
+          line.append("bank_operation_seconds{").append(labels).append(",quantile=\"").append(q).append("\"} ")
+              .append(seconds(cell.latencyNanos.percentile(q * 100))).append('\n');
+          out.write(line.toString());
+        }
+        out.write("bank_operation_seconds_sum{" + labels + "} " + seconds(cell.totalNanos.sum()) + "\n");
+        out.write("bank_operation_seconds_count{" + labels + "} " + count + "\n");
+      }
+    }
+  }
+
+  private static String label(Enum<?> value) {
+    return value.name().toLowerCase(Locale.ROOT);
+  }
+
+  private static String seconds(long nanos) {
+    return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+  }
+
+  // What JMX shows for one operation; latencies are over all outcomes
+  public interface OperationMetricsMXBean {
+    long getSuccessCount();
+
+    long getReplayedCount();
+
+    long getInsufficientFundsCount();
+
+    long getWrongPasswordCount();
+
+    long getRejectedCount();
+
+    long getInvalidCount();
+
+    long getIoErrorCount();
+
+    double getMeanMicros();
+
+    long getP50Micros();
+
+    long getP99Micros();
+
+    long getP999Micros();
+  }
+
+  private final class OperationView implements OperationMetricsMXBean {
+    private final Operation operation;
+
+    OperationView(Operation operation) {
+      this.operation = operation;
+    }
+
+    @Override
+    public long getSuccessCount() {
+      return count(operation, Outcome.SUCCESS);
+    }
+
+    @Override
+    public long getReplayedCount() {
+      return count(operation, Outcome.REPLAYED);
+    }
+
+    @Override
+    public long getInsufficientFundsCount() {
+      return count(operation, Outcome.INSUFFICIENT_FUNDS);
+    }
+
+    @Override
+    public long getWrongPasswordCount() {
+      return count(operation, Outcome.WRONG_PASSWORD);
+    }
+
+    @Override
+    public long getRejectedCount() {
+      return count(operation, Outcome.REJECTED);
+    }
+
+    @Override
+    public long getInvalidCount() {
+      return count(operation, Outcome.INVALID);
+    }
+
+    @Override
+    public long getIoErrorCount() {
+      return count(operation, Outcome.IO_ERROR);
+    }
+
+    @Override
+    public double getMeanMicros() {
+      long count = 0;
+      long nanos = 0;
+      for (Outcome outcome : OUTCOMES) {
+        count += cell(operation, outcome).latencyNanos.count();
+        nanos += cell(operation, outcome).totalNanos.sum();
+      }
+      return count == 0 ? 0 : nanos / 1000.0 / count;
+    }
+
+    @Override
+    public long getP50Micros() {
+      return percentile(50) / 1000;
+    }
+
+    @Override
+    public long getP99Micros() {
+      return percentile(99) / 1000;
+    }
+
+    @Override
+    public long getP999Micros() {
+      return percentile(99.9) / 1000;
+    }
+
+    private long percentile(double percentile) {
+      Histogram merged = new Histogram();
+      for (Outcome outcome : OUTCOMES) {
+        merged.add(cell(operation, outcome).latencyNanos);
+      }
+      return merged.percentile(percentile);
+    }
+  }
+
+  // Registers one MXBean per operation under src:type=BankMetrics,instance=<instance>.
+  // Returns the names, for unregister().
+  public List<ObjectName> register(String instance) throws JMException {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    List<ObjectName> names = new ArrayList<>();
+    try {
+      for (Operation operation : OPERATIONS) {
+        ObjectName name = new ObjectName("src:type=BankMetrics,instance=" + ObjectName.quote(instance)
+            + ",operation=" + label(operation));
+        server.registerMBean(new OperationView(operation), name);
+        names.add(name);
+      }
+    } catch (JMException e) {
+      unregister(names);
+      throw e;
+    }
+    return names;
+  }
+
+  public static void unregister(List<ObjectName> names) {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    for (ObjectName name : names) {
+      try {
+        server.unregisterMBean(name);
+      } catch (JMException e) {
+        // already gone
+      }
+    }
+  }
+}
@@ -0,0 +1,88 @@
+package src;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Writes Metrics in Prometheus text format to a local file every interval, for
+// a node exporter's textfile collector or anything else that reads files. Each
+// dump replaces the file atomically, so readers never see half of one.
+public class MetricsDumper implements AutoCloseable {
+  private final Metrics metrics;
+  private final String file;
+  private final long intervalNanos;
+  private final Consumer<String> notices;
+  private final Thread worker;
+  private boolean closed; // guarded by this
+
+  public MetricsDumper(Metrics metrics, String file, long intervalMillis, Consumer<String> notices) {
+    if (intervalMillis < 1) {
+      throw new IllegalArgumentException("Dump interval must be positive");
+    }
+    this.metrics = metrics;
+    this.file = file;
+    this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+    this.notices = notices;
+    this.worker = new Thread(this::run, "metrics-dumper");
+    this.worker.setDaemon(true);
+    this.worker.start();
+  }
+
+  // Reads -Dbank.metrics.file and -Dbank.metrics.intervalMs (default 10000).
+  // Returns null when no file is set.
+  public static MetricsDumper fromSystemProperties(Metrics metrics, Consumer<String> notices) {
+    String file = System.getProperty("bank.metrics.file");
+    if (file == null || file.isEmpty()) {
+      return null;
+    }
+    return new MetricsDumper(metrics, file, Long.getLong("bank.metrics.intervalMs", 10_000), notices);
+  }
+
+  public void dump() throws IOException {
+    try (AtomicFileWriter out = new AtomicFileWriter(file)) {
+      metrics.writePrometheus(out);
+      out.commit();
+    }
+  }
+
+  private void run() {
+    while (true) {
+      synchronized (this) {
+        long deadline = System.nanoTime() + intervalNanos;
+        try {
+          long remaining;
+          while (!closed && (remaining = deadline - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+          }
+        } catch (InterruptedException e) {
+          return;
+        }
+        if (closed) {
+          return;
+        }
+      }
+      try {
+        dump();
+      } catch (IOException e) {
+        notices.accept("Error writing metrics to " + file + ": " + e.getMessage());
+      }
+    }
+  }
+
+  // Stops the thread and writes a final dump
+  @Override
+  public void close() {
+    synchronized (this) {
+      closed = true;
+      notifyAll();
+    }
+    try {
+      worker.join();
+      dump();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (IOException e) {
+      notices.accept("Error writing metrics to " + file + ": " + e.getMessage());
+    }
+  }
+}
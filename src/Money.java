@@ -0,0 +1,114 @@
+package src;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+// Money is held as a long count of cents. These helpers convert at the edges:
+// formatting appends digits straight into a caller's StringBuilder, and parsing
+// reads plain decimals without going through Double. Older files written with
+// Double.toString ("150.0", "0.30000000000000004", "1.0E7") still parse, so
+// existing accounts.txt / transactions.txt load as-is and are rewritten in the
+// two-decimal format at the next save.
+public final class Money {
+  public static final long CENTS_PER_UNIT = 100;
+
+  private Money() {
+  }
+
+  // For amounts that arrive as doubles; rounds to the nearest cent
+  public static long fromDouble(double amount) {
+    if (Double.isNaN(amount) || Double.isInfinite(amount)) {
+      throw new IllegalArgumentException("Amount must be a finite number");
+    }
+    return Math.round(amount * CENTS_PER_UNIT);
+  }
+
+  public static double toDouble(long cents) {
+    return (double) cents / CENTS_PER_UNIT;
+  }
+
+  // Appends the amount as units.cc, e.g. 15000 -> "150.00"
+  public static StringBuilder append(StringBuilder sb, long cents) {
+    if (cents < 0) {
+      if (cents == Long.MIN_VALUE) {
+        return sb.append("-92233720368547758.08");
+      }
+      sb.append('-');
+      cents = -cents;
+    }
+    long fraction = cents % CENTS_PER_UNIT;
+    sb.append(cents / CENTS_PER_UNIT).append('.');
+    if (fraction < 10) {
+      sb.append('0');
+    }
+    return sb.append(fraction);
+  }
+
+  public static String format(long cents) {
+    return append(new StringBuilder(24), cents).toString();
+  }
+
+  public static long parse(CharSequence text) {
+    return parse(text, 0, text.length());
+  }
+
+  // Parses text[start, end) as an amount in cents. Digits past the second
+  // decimal place are rounded half-up.
+  public static long parse(CharSequence text, int start, int end) {
+    int i = start;
+    boolean negative = false;
+    if (i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+      negative = text.charAt(i) == '-';
+      i++;
+    }
+
+    long units = 0;
+    int unitDigits = 0;
+    char c;
+    while (i < end && (c = text.charAt(i)) >= '0' && c <= '9') {
+      if (units > (Long.MAX_VALUE / CENTS_PER_UNIT) / 10) {
+        throw new NumberFormatException("Amount out of range: " + text.subSequence(start, end));
+      }
+      units = units * 10 + (c - '0');
+      unitDigits++;
+      i++;
+    }
+
+    long fraction = 0;
+    int fractionDigits = 0;
+    boolean roundUp = false;
+    if (i < end && text.charAt(i) == '.') {
+      i++;
+      while (i < end && (c = text.charAt(i)) >= '0' && c <= '9') {
+        if (fractionDigits < 2) {
+          fraction = fraction * 10 + (c - '0');
+        } else if (fractionDigits == 2) {
+          roundUp = c >= '5';
+        }
+        fractionDigits++;
+        i++;
+      }
+    }
+
+    if (i != end) {
+      // Exponent notation from Double.toString, or not a number at all
+      return parseSlow(text.subSequence(start, end).toString());
+    }
+    if (unitDigits == 0 && fractionDigits == 0) {
+      throw new NumberFormatException("Not an amount: \"" + text.subSequence(start, end) + "\"");
+    }
+    if (fractionDigits == 1) {
+      fraction *= 10;
+    }
+    long cents = units * CENTS_PER_UNIT + fraction + (roundUp ? 1 : 0);
+    return negative ? -cents : cents;
+  }
+
+  private static long parseSlow(String text) {
+    try {
+      return new BigDecimal(text).setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    } catch (ArithmeticException e) {
+      throw new NumberFormatException("Amount out of range: " + text);
+    }
+  }
+}
@@ -0,0 +1,155 @@
+package src;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+// Startup loading of accounts.txt on a fork-join pool. The file is mapped and
+// cut into line-aligned byte ranges; each range is parsed on its own task
+// without split or regex, and the accounts are then put into the registry in
+// file order, so a duplicated accNo ends up the same as with a sequential read.
+// transactions.txt goes through MappedTransactionLog.open, which indexes it
+// the same way.
+//
+// Lines that are not "name,accNo,balance,password" or that Account rejects are
+// left out and reported to problems as "accounts.txt line N: reason". Blank
+// lines are skipped without a report.
+public final class ParallelLoader {
+  // Ranges smaller than this are not worth a task of their own
+  private static final long MIN_RANGE_BYTES = 1 << 20;
+
+  private ParallelLoader() {
+  }
+
+  public static int readAccounts(String file, AccountRegistry accounts, Consumer<String> problems)
+      throws IOException {
+    return readAccounts(file, accounts, ForkJoinPool.commonPool(), problems);
+  }
+
+  public static int readAccounts(String file, AccountRegistry accounts, ForkJoinPool pool,
+      Consumer<String> problems) throws IOException {
+    String name = new File(file).getName();
+    try (MappedFile mapped = MappedFile.open(file)) {
+      int parts = (int) Math.max(1, Math.min(pool.getParallelism() * 4L, mapped.size() / MIN_RANGE_BYTES));
+      long[] bounds = mapped.lineAlignedBounds(parts);
+      List<Callable<Range>> tasks = new ArrayList<>();
+      for (int i = 0; i + 1 < bounds.length; i++) {
+        long from = bounds[i];
+        long to = bounds[i + 1];
+        tasks.add(() -> new Range(mapped).scan(from, to));
+      }
+
+      int loaded = 0;
+      long linesBefore = 0;
+      for (Future<Range> future : pool.invokeAll(tasks)) {
+        Range range;
+        try {
+          range = future.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted while loading " + name, e);
+        } catch (ExecutionException e) {
+          throw new IOException("Loading " + name + " failed", e.getCause());
+        }
+        for (int i = 0; i < range.count; i++) {
+          accounts.put(range.accounts[i]);
+        }
+        loaded += range.count;
+        for (int i = 0; i < range.badCount; i++) {
+          problems.accept(name + " line " + (linesBefore + range.badLines[i]) + ": " + range.badReasons[i]);
+        }
+        linesBefore += range.lines;
+      }
+      return loaded;
+    }
+  }
+
+  // The accounts of one byte range, and the range-relative numbers (1-based)
+  // of the lines that could not be loaded
+  private static final class Range {
+    private final MappedFile file;
+    private final MappedFile.View view;
+    Account[] accounts = new Account[256];
+    int count;
+    int[] badLines = new int[8];
+    String[] badReasons = new String[8];
+    int badCount;
+    int lines;
+
+    Range(MappedFile file) {
+      this.file = file;
+      this.view = new MappedFile.View(file);
+    }
+
+    Range scan(long from, long to) {
+      long pos = from;
+      while (pos < to) {
+        long end = file.lineEnd(pos);
+        lines++;
+        long contentEnd = end > pos && file.byteAt(end - 1) == '\r' ? end - 1 : end;
+        if (contentEnd > pos) {
+          String problem = parse(pos, contentEnd);
+          if (problem != null) {
+            if (badCount == badLines.length) {
+              badLines = Arrays.copyOf(badLines, badCount * 2);
+              badReasons = Arrays.copyOf(badReasons, badCount * 2);
+            }
+            badLines[badCount] = lines;
+            badReasons[badCount++] = problem;
+          }
+        }
+        pos = end + 1;
+      }
+      return this;
+    }
+
+    // Adds the account on the line; returns why it could not, or null
+    private String parse(long start, long end) {
+      long c1 = next(start, end);
+      long c2 = next(c1 + 1, end);
+      long c3 = next(c2 + 1, end);
+      if (c3 == end || next(c3 + 1, end) != end) {
+        return "expected name,accNo,balance,password";
+      }
+      view.at(start, end);
+      int accNo;
+      long balance;
+      try {
+        accNo = Integer.parseInt(view, (int) (c1 + 1 - start), (int) (c2 - start), 10);
+      } catch (NumberFormatException e) {
+        return "invalid account number";
+      }
+      try {
+        balance = Money.parse(view, (int) (c2 + 1 - start), (int) (c3 - start));
+      } catch (NumberFormatException e) {
+        return "invalid balance";
+      }
+      Account account;
+      try {
+        account = Account.ofCents(file.text(start, c1), accNo, balance, file.text(c3 + 1, end));
+      } catch (IllegalArgumentException e) {
+        return e.getMessage();
+      }
+      if (count == accounts.length) {
+        accounts = Arrays.copyOf(accounts, count * 2);
+      }
+      accounts[count++] = account;
+      return null;
+    }
+
+    // Position of the next ',' at or after pos, or end
+    private long next(long pos, long end) {
+      while (pos < end && file.byteAt(pos) != ',') {
+        pos++;
+      }
+      return Math.min(pos, end);
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package src;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+// Salted PBKDF2 password hashes, stored as
+//   pbkdf2-sha256$<iterations>$<salt>$<hash>
+// with salt and hash in unpadded Base64, so a hash is safe in every snapshot
+// format. The iteration count is kept with each hash: hashes made at an older
+// count still verify, and needsRehash() tells the caller to replace them.
+// Anything not in this format is a plaintext password from before passwords
+// were hashed; it still verifies, and always needs a rehash.
+public final class PasswordHasher {
+  public static final String PREFIX = "pbkdf2-sha256$";
+  public static final int DEFAULT_ITERATIONS = 100_000;
+
+  private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+  private static final int SALT_BYTES = 16;
+  private static final int HASH_BYTES = 32;
+  private static final SecureRandom RANDOM = new SecureRandom();
+
+  private final int iterations;
+
+  public PasswordHasher(int iterations) {
+    if (iterations < 1) {
+      throw new IllegalArgumentException("Iterations must be at least 1");
+    }
+    this.iterations = iterations;
+  }
+
+  // Reads the work factor from -Dbank.password.iterations (default 100,000)
+  public static PasswordHasher fromSystemProperties() {
+    return new PasswordHasher(Integer.getInteger("bank.password.iterations", DEFAULT_ITERATIONS));
+  }
+
+  public int iterations() {
+    return iterations;
+  }
+
+  public String hash(String password) {
+    byte[] salt = new byte[SALT_BYTES];
+    RANDOM.nextBytes(salt);
+    Base64.Encoder base64 = Base64.getEncoder().withoutPadding();
+    return PREFIX + iterations + '$' + base64.encodeToString(salt) + '$'
+        + base64.encodeToString(derive(password, salt, iterations, HASH_BYTES));
+  }
+
+  // Checks password against a stored hash, using the salt and iteration count
+  // stored with it. Takes as long as hashing does; run it off request threads.
+  public static boolean matches(String password, String stored) {
+    if (password == null || stored == null) {
+      return false;
+    }
+    Parsed parsed = parse(stored);
+    if (parsed == null) {
+      return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), stored.getBytes(StandardCharsets.UTF_8));
+    }
+    return MessageDigest.isEqual(parsed.hash, derive(password, parsed.salt, parsed.iterations, parsed.hash.length));
+  }
+
+  // True for plaintext and for hashes made at a different iteration count
+  public boolean needsRehash(String stored) {
+    Parsed parsed = parse(stored);
+    return parsed == null || parsed.iterations != iterations;
+  }
+
+  public static boolean isHash(String stored) {
+    return parse(stored) != null;
+  }
+
+  private static byte[] derive(String password, byte[] salt, int iterations, int bytes) {
+    PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, bytes * 8);
+    try {
+      return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException(ALGORITHM + " is not available", e); // every JDK has it
+    } finally {
+      spec.clearPassword();
+    }
+  }
+
+  private static final class Parsed {
+    final int iterations;
+    final byte[] salt;
+    final byte[] hash;
+
+    Parsed(int iterations, byte[] salt, byte[] hash) {
+      this.iterations = iterations;
+      this.salt = salt;
+      this.hash = hash;
+    }
+  }
+
+  // Null if stored is not a well-formed hash
+  private static Parsed parse(String stored) {
+    if (stored == null || !stored.startsWith(PREFIX)) {
+      return null;
+    }
+    String[] parts = stored.substring(PREFIX.length()).split("\\$", -1);
+    if (parts.length != 3) {
+      return null;
+    }
+    try {
+      int iterations = Integer.parseInt(parts[0]);
+      byte[] salt = Base64.getDecoder().decode(parts[1]);
+      byte[] hash = Base64.getDecoder().decode(parts[2]);
+      if (iterations < 1 || salt.length == 0 || hash.length == 0) {
+        return null;
+      }
+      return new Parsed(iterations, salt, hash);
+    } catch (IllegalArgumentException e) { // includes NumberFormatException
+      return null;
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package src;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Runs password hashing on a few dedicated threads, so a burst of logins
+// cannot take every CPU away from the threads serving other requests. At most
+// maxQueued tasks wait for a thread; past that call() fails at once with
+// RejectedExecutionException, and the caller reports the service as busy
+// rather than letting the backlog, and every caller's wait, grow.
+public class PasswordVerifier implements AutoCloseable {
+  public static final int DEFAULT_MAX_QUEUED = 256;
+
+  private final ThreadPoolExecutor executor;
+  private final AtomicLong completed = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+
+  public PasswordVerifier(int threads, int maxQueued) {
+    if (threads < 1 || maxQueued < 1) {
+      throw new IllegalArgumentException("Verifier needs at least one thread and one queue slot");
+    }
+    AtomicInteger count = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<>(maxQueued), task -> {
+          Thread t = new Thread(task, "password-verifier-" + count.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        }, (task, pool) -> {
+          rejected.incrementAndGet();
+          throw new RejectedExecutionException("Password verification queue is full");
+        });
+    this.executor.allowCoreThreadTimeOut(true);
+  }
+
+  // Reads -Dbank.password.threads (default: half the CPUs, at least one) and
+  // -Dbank.password.maxQueued (default 256)
+  public static PasswordVerifier fromSystemProperties() {
+    int threads = Integer.getInteger("bank.password.threads",
+        Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    return new PasswordVerifier(threads, Integer.getInteger("bank.password.maxQueued", DEFAULT_MAX_QUEUED));
+  }
+
+  // Runs task on a verifier thread and waits for its result. Throws
+  // RejectedExecutionException if the queue is full or the wait is interrupted.
+  public <T> T call(Callable<T> task) {
+    Future<T> result = executor.submit(task);
+    try {
+      T value = result.get();
+      completed.incrementAndGet();
+      return value;
+    } catch (InterruptedException e) {
+      result.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new RejectedExecutionException("Interrupted waiting for password verification", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  public long completed() {
+    return completed.get();
+  }
+
+  public long rejected() {
+    return rejected.get();
+  }
+
+  public String stats() {
+    return "completed=" + completed.get() + " rejected=" + rejected.get() + " queued=" + executor.getQueue().size();
+  }
+
+  // Lets queued work finish, then stops the threads
+  @Override
+  public void close() {
+    executor.shutdown();
+    try {
+      executor.awaitTermination(30, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
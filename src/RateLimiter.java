@@ -0,0 +1,193 @@
+package src;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Token buckets keyed by int (an account number, a client address), without
+// locks and in a fixed amount of memory. Each bucket holds up to burst tokens
+// and regains one every intervalMillis.
+//
+// A bucket is kept as the time at which it will be full again (the "theoretical
+// arrival time" of GCRA, which behaves exactly like a token bucket), so a key
+// and its bucket fit in one long and every update is a single compare-and-set:
+//
+//   bits 63..32  key
+//   bits 31..0   refill time, milliseconds mod 2^32
+//
+// The table is open addressed with a probe window of PROBES slots, and slots
+// are never emptied. A full bucket is the same as no bucket, so a key that is
+// missing from its window takes the slot in it whose bucket is fullest, which
+// for idle keys means one that has already refilled. Memory therefore stays at
+// 8 bytes per slot however many distinct keys turn up; when more keys are
+// active at once than the table holds, the least limited ones start over with
+// a full bucket.
+public class RateLimiter {
+  public static final int DEFAULT_SLOTS = 1 << 18;
+
+  private static final int PROBES = 8;
+  private static final long MASK32 = 0xFFFFFFFFL;
+
+  private final AtomicLongArray table;
+  private final int mask;
+  private final long intervalMillis;
+  private final long tolerance; // how far ahead of now the refill time may be for a token to be left
+  private final long maxAhead;
+  private final LongSupplier clockMillis;
+  private final LongAdder acquired = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder reclaimed = new LongAdder();
+
+  public RateLimiter(int burst, long intervalMillis, int slots) {
+    this(burst, intervalMillis, slots, () -> System.nanoTime() / 1_000_000);
+  }
+
+  // slots is rounded up to a power of two
+  public RateLimiter(int burst, long intervalMillis, int slots, LongSupplier clockMillis) {
+    if (burst < 1 || intervalMillis < 1 || slots < PROBES) {
+      throw new IllegalArgumentException("Rate limiter needs burst >= 1, interval >= 1 ms and slots >= " + PROBES);
+    }
+    if ((long) burst * intervalMillis > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("burst * interval must be under 2^31 ms");
+    }
+    int capacity = Integer.highestOneBit(slots - 1) << 1;
+    this.table = new AtomicLongArray(capacity);
+    this.mask = capacity - 1;
+    this.intervalMillis = intervalMillis;
+    this.tolerance = intervalMillis * (burst - 1);
+    this.maxAhead = intervalMillis * burst;
+    this.clockMillis = clockMillis;
+  }
+
+  // Reads -D<prefix>.burst, -D<prefix>.intervalMs and -D<prefix>.slots
+  public static RateLimiter fromSystemProperties(String prefix, int burst, long intervalMillis) {
+    return new RateLimiter(Integer.getInteger(prefix + ".burst", burst),
+        Long.getLong(prefix + ".intervalMs", intervalMillis), Integer.getInteger(prefix + ".slots", DEFAULT_SLOTS));
+  }
+
+  // True if the key's bucket is empty. Reads at most PROBES slots and writes nothing.
+  public boolean isLimited(int key) {
+    checkKey(key);
+    long now = clockMillis.getAsLong();
+    int home = spread(key) & mask;
+    for (int i = 0; i < PROBES; i++) {
+      long v = table.get((home + i) & mask);
+      if (v == 0) {
+        return false;
+      }
+      if ((int) (v >>> 32) == key) {
+        return refillTime(v, now) - now > tolerance;
+      }
+    }
+    return false;
+  }
+
+  // Takes a token from the key's bucket; false, and nothing taken, if it is empty
+  public boolean tryAcquire(int key) {
+    checkKey(key);
+    long now = clockMillis.getAsLong();
+    int home = spread(key) & mask;
+    while (true) {
+      int victim = -1;
+      long victimValue = 0;
+      long victimRefill = Long.MAX_VALUE;
+      for (int i = 0; i < PROBES; i++) {
+        int slot = (home + i) & mask;
+        long v = table.get(slot);
+        if (v == 0) {
+          victim = slot;
+          victimValue = 0;
+          break;
+        }
+        long refill = refillTime(v, now);
+        if ((int) (v >>> 32) == key) {
+          if (refill - now > tolerance) {
+            rejected.increment();
+            return false;
+          }
+          if (table.compareAndSet(slot, v, pack(key, Math.max(refill, now) + intervalMillis))) {
+            acquired.increment();
+            return true;
+          }
+          victim = -2; // lost a race for this slot; look again
+          break;
+        }
+        if (refill < victimRefill) {
+          victim = slot;
+          victimValue = v;
+          victimRefill = refill;
+        }
+      }
+      if (victim == -2) {
+        continue;
+      }
+      // Not in the window: start a full bucket, less this token
+      if (table.compareAndSet(victim, victimValue, pack(key, now + intervalMillis))) {
+        if (victimValue != 0 && victimRefill > now) {
+          reclaimed.increment(); // a key that was still limited lost its bucket
+        }
+        acquired.increment();
+        return true;
+      }
+    }
+  }
+
+  // Gives back a token taken by tryAcquire, for an attempt that turned out
+  // not to count. A bucket that is full, or no longer in the table, stays as is.
+  public void release(int key) {
+    checkKey(key);
+    long now = clockMillis.getAsLong();
+    int home = spread(key) & mask;
+    while (true) {
+      int slot = -1;
+      long v = 0;
+      for (int i = 0; i < PROBES; i++) {
+        v = table.get((home + i) & mask);
+        if (v == 0) {
+          return;
+        }
+        if ((int) (v >>> 32) == key) {
+          slot = (home + i) & mask;
+          break;
+        }
+      }
+      if (slot < 0) {
+        return;
+      }
+      long refill = refillTime(v, now);
+      if (refill <= now || table.compareAndSet(slot, v, pack(key, Math.max(now, refill - intervalMillis)))) {
+        return;
+      }
+    }
+  }
+
+  public int slots() {
+    return table.length();
+  }
+
+  public String stats() {
+    return "acquired=" + acquired.sum() + " rejected=" + rejected.sum() + " reclaimedActive=" + reclaimed.sum();
+  }
+
+  private long pack(int key, long refill) {
+    return ((long) key << 32) | (refill & MASK32);
+  }
+
+  // Refill times are stored mod 2^32 ms and are never more than maxAhead past
+  // the time they were written, so anything further ahead than that is in the past
+  private long refillTime(long v, long now) {
+    long ahead = (v - now) & MASK32;
+    return ahead <= maxAhead ? now + ahead : now - ((now - v) & MASK32);
+  }
+
+  private static int spread(int key) {
+    int h = key * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private static void checkKey(int key) {
+    if (key == 0) {
+      throw new IllegalArgumentException("Rate limiter keys cannot be 0");
+    }
+  }
+}
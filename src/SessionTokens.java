@@ -0,0 +1,96 @@
+package src;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Tokens handed out at login, so a client can carry on with its session
+// without sending the password again, and without the service hashing it
+// again. A token is 32 random bytes in URL-safe Base64 and stays valid for ttl
+// after it was issued or last used. At most maxEntries are kept; past that
+// the least recently used is dropped and its client has to log in again.
+public class SessionTokens {
+  public static final long DEFAULT_TTL_SECONDS = 15 * 60;
+  public static final int DEFAULT_MAX_ENTRIES = 100_000;
+
+  private static final SecureRandom RANDOM = new SecureRandom();
+
+  private final long ttlNanos;
+  private final int maxEntries;
+  // Least recently used first; guarded by this
+  private final LinkedHashMap<String, Session> tokens = new LinkedHashMap<>(16, 0.75f, true);
+
+  private static final class Session {
+    final int accNo;
+    long expiresAt;
+
+    Session(int accNo, long expiresAt) {
+      this.accNo = accNo;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  public SessionTokens(long ttlMillis, int maxEntries) {
+    if (ttlMillis < 1 || maxEntries < 1) {
+      throw new IllegalArgumentException("Session ttl and capacity must be positive");
+    }
+    this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    this.maxEntries = maxEntries;
+  }
+
+  // Reads -Dbank.session.ttlSeconds (default 900) and -Dbank.session.maxEntries
+  // (default 100,000)
+  public static SessionTokens fromSystemProperties() {
+    long ttlSeconds = Long.getLong("bank.session.ttlSeconds", DEFAULT_TTL_SECONDS);
+    return new SessionTokens(TimeUnit.SECONDS.toMillis(ttlSeconds),
+        Integer.getInteger("bank.session.maxEntries", DEFAULT_MAX_ENTRIES));
+  }
+
+  public String issue(int accNo) {
+    byte[] bytes = new byte[32];
+    RANDOM.nextBytes(bytes);
+    String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    synchronized (this) {
+      tokens.put(token, new Session(accNo, System.nanoTime() + ttlNanos));
+      if (tokens.size() > maxEntries) {
+        Iterator<String> eldest = tokens.keySet().iterator();
+        eldest.next();
+        eldest.remove();
+      }
+    }
+    return token;
+  }
+
+  // The account the token belongs to, or -1 if it is unknown or has expired.
+  // Using a token extends it.
+  public synchronized int lookup(String token) {
+    Session session = token == null ? null : tokens.get(token);
+    if (session == null) {
+      return -1;
+    }
+    long now = System.nanoTime();
+    if (now - session.expiresAt >= 0) {
+      tokens.remove(token);
+      return -1;
+    }
+    session.expiresAt = now + ttlNanos;
+    return session.accNo;
+  }
+
+  public synchronized void revoke(String token) {
+    if (token != null) {
+      tokens.remove(token);
+    }
+  }
+
+  // Drops every token of the account, e.g. after its password changed
+  public synchronized void revokeAll(int accNo) {
+    tokens.values().removeIf(session -> session.accNo == accNo);
+  }
+
+  public synchronized int size() {
+    return tokens.size();
+  }
+}
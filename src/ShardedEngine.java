@@ -0,0 +1,402 @@
+package src;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+// Runs deposits, withdrawals and transfers on N single-threaded shards instead
+// of on the callers' threads. Accounts are partitioned by accNo, and every
+// change to an account is made by the thread of the shard that owns it, one at
+// a time, so the Ledger that applies them needs no locking of its own.
+//
+// Callers hand commands to a shard through its ring buffer: preallocated
+// entries claimed with one atomic increment and published by sequence number,
+// as in the LMAX Disruptor, so many threads can submit without a lock and the
+// shard consumes them in order. A caller blocked on a full ring spins until
+// the shard catches up.
+//
+// A transfer between accounts on two shards is a message exchange rather than
+// a lock:
+//   1. prepare  the lower-numbered shard takes the command and freezes its
+//               account: commands for it wait in a queue from then on
+//   2. commit   the higher-numbered shard, which now owns both accounts,
+//               applies the transfer and replies to the caller
+//   3. release  the lower shard unfreezes its account and runs what waited
+// Only the lower shard of a pair ever freezes and waits for the higher, so
+// chains of waiting always end and two transfers in opposite directions
+// cannot deadlock. Messages between shards go through an unbounded inbox, so
+// a shard never blocks on another shard's full ring.
+public class ShardedEngine implements AutoCloseable {
+
+  // Applies the changes. Each call is made on the thread of the shard that owns
+  // the accounts involved (both of them, for a transfer).
+  public interface Ledger {
+    TransferEngine.Result deposit(Account account, long cents);
+
+    TransferEngine.Result withdraw(Account account, long cents);
+
+    TransferEngine.Result transfer(Account from, Account to, long cents);
+  }
+
+  // What a command came to, with the balance of its account (the sender's, for
+  // a transfer) right after it
+  public static final class Outcome {
+    private final TransferEngine.Result result;
+    private final long balanceCents;
+
+    Outcome(TransferEngine.Result result, long balanceCents) {
+      this.result = result;
+      this.balanceCents = balanceCents;
+    }
+
+    public TransferEngine.Result result() {
+      return result;
+    }
+
+    public long balanceCents() {
+      return balanceCents;
+    }
+  }
+
+  public static final int DEFAULT_RING_SIZE = 1 << 12;
+
+  private static final int DEPOSIT = 0;
+  private static final int WITHDRAW = 1;
+  private static final int TRANSFER = 2; // same shard, or prepare on the lower one
+  private static final int COMMIT = 3;
+  private static final int RELEASE = 4;
+  private static final int SPINS = 100;
+
+  private final Shard[] shards;
+  private final Ledger ledger;
+  private final AtomicLong inFlight = new AtomicLong();
+  private volatile boolean closed;
+  private volatile boolean stopped;
+
+  private static final class Command {
+    final boolean pooled; // a ring entry, reused once the shard moves past it
+    int type;
+    Account account;
+    Account other;
+    long cents;
+    CompletableFuture<Outcome> reply;
+
+    Command(boolean pooled) {
+      this.pooled = pooled;
+    }
+
+    Command detached() {
+      if (!pooled) {
+        return this;
+      }
+      Command copy = new Command(false);
+      copy.type = type;
+      copy.account = account;
+      copy.other = other;
+      copy.cents = cents;
+      copy.reply = reply;
+      return copy;
+    }
+  }
+
+  public ShardedEngine(int shardCount, Ledger ledger) {
+    this(shardCount, DEFAULT_RING_SIZE, ledger);
+  }
+
+  public ShardedEngine(int shardCount, int ringSize, Ledger ledger) {
+    if (shardCount < 1 || Integer.bitCount(shardCount) != 1 || ringSize < 2 || Integer.bitCount(ringSize) != 1) {
+      throw new IllegalArgumentException("Shard count and ring size must be powers of two");
+    }
+    this.ledger = ledger;
+    this.shards = new Shard[shardCount];
+    for (int i = 0; i < shardCount; i++) {
+      shards[i] = new Shard(i, ringSize);
+    }
+    for (Shard shard : shards) {
+      shard.thread.start();
+    }
+  }
+
+  // Reads -Dbank.engine.shards (default: the number of processors, rounded
+  // down to a power of two) and -Dbank.engine.ringSize (default 4096)
+  public static ShardedEngine fromSystemProperties(Ledger ledger) {
+    int shards = Integer.getInteger("bank.engine.shards",
+        Integer.highestOneBit(Runtime.getRuntime().availableProcessors()));
+    return new ShardedEngine(shards, Integer.getInteger("bank.engine.ringSize", DEFAULT_RING_SIZE), ledger);
+  }
+
+  public int shardCount() {
+    return shards.length;
+  }
+
+  // Spreads accNo the way TransferEngine picks stripes, so with as many stripes
+  // as shards or more, each stripe belongs to one shard
+  public int shardFor(int accNo) {
+    int h = accNo * 0x9E3779B9;
+    return (h ^ (h >>> 16)) & (shards.length - 1);
+  }
+
+  public CompletableFuture<Outcome> deposit(Account account, long cents) {
+    return submit(shards[shardFor(account.getAccNo())], DEPOSIT, account, null, cents);
+  }
+
+  public CompletableFuture<Outcome> withdraw(Account account, long cents) {
+    return submit(shards[shardFor(account.getAccNo())], WITHDRAW, account, null, cents);
+  }
+
+  public CompletableFuture<Outcome> transfer(Account from, Account to, long cents) {
+    int a = shardFor(from.getAccNo());
+    int b = shardFor(to.getAccNo());
+    return submit(shards[Math.min(a, b)], TRANSFER, from, to, cents);
+  }
+
+  private CompletableFuture<Outcome> submit(Shard shard, int type, Account account, Account other, long cents) {
+    inFlight.incrementAndGet();
+    if (closed) {
+      inFlight.decrementAndGet();
+      throw new IllegalStateException("Engine is closed");
+    }
+    CompletableFuture<Outcome> reply = new CompletableFuture<>();
+    long seq = shard.claimed.getAndIncrement();
+    while (seq - shard.consumed.get() >= shard.ring.length) {
+      Thread.yield(); // ring full: wait for the shard to catch up
+    }
+    Command command = shard.ring[(int) seq & shard.mask];
+    command.type = type;
+    command.account = account;
+    command.other = other;
+    command.cents = cents;
+    command.reply = reply;
+    shard.published.set((int) seq & shard.mask, seq);
+    shard.wake();
+    return reply;
+  }
+
+  public String stats() {
+    StringBuilder sb = new StringBuilder();
+    for (Shard shard : shards) {
+      sb.append(sb.length() == 0 ? "" : " ").append("shard").append(shard.index).append('=')
+          .append(shard.consumed.get()).append('/').append(shard.crossShard);
+    }
+    return sb.toString();
+  }
+
+  // Waits for the commands already submitted, then stops the shards. New ones
+  // are refused with IllegalStateException.
+  @Override
+  public void close() {
+    closed = true;
+    while (inFlight.get() > 0) {
+      Thread.yield();
+    }
+    stopped = true;
+    for (Shard shard : shards) {
+      LockSupport.unpark(shard.thread);
+    }
+    for (Shard shard : shards) {
+      try {
+        shard.thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  private void complete(Command command, TransferEngine.Result result) {
+    command.reply.complete(new Outcome(result, command.account.getBalanceCents()));
+    inFlight.decrementAndGet();
+  }
+
+  private void fail(Command command, RuntimeException e) {
+    command.reply.completeExceptionally(e);
+    inFlight.decrementAndGet();
+  }
+
+  private final class Shard {
+    final int index;
+    final Command[] ring;
+    final int mask;
+    final AtomicLongArray published; // sequence number last published into each entry
+    final AtomicLong claimed = new AtomicLong();
+    final AtomicLong consumed = new AtomicLong();
+    final ConcurrentLinkedQueue<Command> inbox = new ConcurrentLinkedQueue<>();
+    final Thread thread;
+    volatile boolean sleeping;
+
+    // Owned by the shard's thread. An account in here is frozen by a
+    // cross-shard transfer, and its commands wait in the queue until release.
+    final HashMap<Integer, ArrayDeque<Command>> frozen = new HashMap<>();
+    long crossShard;
+
+    Shard(int index, int ringSize) {
+      this.index = index;
+      this.ring = new Command[ringSize];
+      for (int i = 0; i < ringSize; i++) {
+        ring[i] = new Command(true);
+      }
+      this.mask = ringSize - 1;
+      this.published = new AtomicLongArray(ringSize);
+      for (int i = 0; i < ringSize; i++) {
+        published.set(i, -1);
+      }
+      this.thread = new Thread(this::run, "shard-" + index);
+      this.thread.setDaemon(true);
+    }
+
+    void wake() {
+      if (sleeping) {
+        LockSupport.unpark(thread);
+      }
+    }
+
+    void send(Command message) {
+      inbox.add(message);
+      wake();
+    }
+
+    private void run() {
+      long next = 0;
+      int idle = 0;
+      while (true) {
+        Command message;
+        while ((message = inbox.poll()) != null) {
+          process(message);
+        }
+        int slot = (int) next & mask;
+        if (published.get(slot) == next) {
+          Command command = ring[slot];
+          process(command);
+          command.account = null;
+          command.other = null;
+          command.reply = null;
+          consumed.set(++next);
+          idle = 0;
+          continue;
+        }
+        if (stopped) {
+          return;
+        }
+        if (++idle < SPINS) {
+          Thread.onSpinWait();
+          continue;
+        }
+        // Park, checking again after saying so in case a producer missed it
+        sleeping = true;
+        if (inbox.isEmpty() && published.get(slot) != next && !stopped) {
+          LockSupport.park(this);
+        }
+        sleeping = false;
+        idle = 0;
+      }
+    }
+
+    private void process(Command command) {
+      try {
+        switch (command.type) {
+          case DEPOSIT:
+            if (!deferIfFrozen(command.account, command)) {
+              complete(command, ledger.deposit(command.account, command.cents));
+            }
+            break;
+          case WITHDRAW:
+            if (!deferIfFrozen(command.account, command)) {
+              complete(command, ledger.withdraw(command.account, command.cents));
+            }
+            break;
+          case TRANSFER:
+            transfer(command);
+            break;
+          case COMMIT:
+            commit(command);
+            break;
+          case RELEASE:
+            release(command.account.getAccNo());
+            break;
+          default:
+            throw new IllegalStateException("Unknown command " + command.type);
+        }
+      } catch (RuntimeException e) {
+        if (command.type == COMMIT) {
+          shards[shardFor(mine(command, false).getAccNo())].send(releaseOf(mine(command, false)));
+        }
+        if (command.reply != null) {
+          fail(command, e);
+        }
+      }
+    }
+
+    private void transfer(Command command) {
+      Account from = command.account;
+      Account to = command.other;
+      int otherShard = Math.max(shardFor(from.getAccNo()), shardFor(to.getAccNo()));
+      if (otherShard == index) {
+        // Both accounts are here
+        if (!deferIfFrozen(from, command) && !deferIfFrozen(to, command)) {
+          complete(command, ledger.transfer(from, to, command.cents));
+        }
+        return;
+      }
+      Account local = mine(command, true);
+      if (deferIfFrozen(local, command)) {
+        return;
+      }
+      frozen.put(local.getAccNo(), new ArrayDeque<>());
+      crossShard++;
+      Command commit = command.detached();
+      commit.type = COMMIT;
+      shards[otherShard].send(commit);
+    }
+
+    private void commit(Command command) {
+      Account local = mine(command, true);
+      if (deferIfFrozen(local, command)) {
+        return;
+      }
+      Account remote = mine(command, false);
+      TransferEngine.Result result = ledger.transfer(command.account, command.other, command.cents);
+      // Reply before the release, so the sender's balance is still the one the transfer left
+      complete(command, result);
+      shards[shardFor(remote.getAccNo())].send(releaseOf(remote));
+    }
+
+    private void release(int accNo) {
+      ArrayDeque<Command> waiting = frozen.remove(accNo);
+      while (waiting != null && !waiting.isEmpty()) {
+        process(waiting.poll());
+        ArrayDeque<Command> again = frozen.get(accNo);
+        if (again != null) {
+          // Frozen again by a transfer that was waiting; the rest wait behind it
+          again.addAll(waiting);
+          return;
+        }
+      }
+    }
+
+    // The transfer's account that this shard owns (local) or the other one
+    private Account mine(Command command, boolean local) {
+      boolean fromIsHere = shardFor(command.account.getAccNo()) == index;
+      return fromIsHere == local ? command.account : command.other;
+    }
+
+    private boolean deferIfFrozen(Account account, Command command) {
+      ArrayDeque<Command> waiting = frozen.get(account.getAccNo());
+      if (waiting == null) {
+        return false;
+      }
+      waiting.add(command.detached());
+      return true;
+    }
+  }
+
+  private static Command releaseOf(Account account) {
+    Command release = new Command(false);
+    release.type = RELEASE;
+    release.account = account;
+    return release;
+  }
+}
@@ -0,0 +1,43 @@
+package src;
+
+import java.io.IOException;
+
+// Converts between the CSV snapshot files and the binary snapshot.
+// Usage:
+//   java src.SnapshotConverter to-binary <accounts.txt> <transactions.txt> <bank.snapshot>
+//   java src.SnapshotConverter to-text <bank.snapshot> <accounts.txt> <transactions.txt>
+public class SnapshotConverter {
+
+  public static void toBinary(String accountsFile, String transactionsFile, String snapshotFile) throws IOException {
+    AccountRegistry accounts = new AccountRegistry();
+    TextSnapshot.readAccounts(accountsFile, accounts);
+    TextSnapshot.readTransactions(transactionsFile, accounts);
+    BinarySnapshot.write(snapshotFile, accounts);
+  }
+
+  public static void toText(String snapshotFile, String accountsFile, String transactionsFile) throws IOException {
+    AccountRegistry accounts = BinarySnapshot.read(snapshotFile);
+    TextSnapshot.writeAccounts(accountsFile, accounts);
+    TextSnapshot.writeTransactions(transactionsFile, accounts);
+  }
+
+  public static void main(String[] args) {
+    if (args.length != 4 || !(args[0].equals("to-binary") || args[0].equals("to-text"))) {
+      System.out.println("Usage:");
+      System.out.println("  SnapshotConverter to-binary <accounts.txt> <transactions.txt> <bank.snapshot>");
+      System.out.println("  SnapshotConverter to-text <bank.snapshot> <accounts.txt> <transactions.txt>");
+      System.exit(2);
+    }
+    try {
+      if (args[0].equals("to-binary")) {
+        toBinary(args[1], args[2], args[3]);
+      } else {
+        toText(args[1], args[2], args[3]);
+      }
+      System.out.println("Converted successfully.");
+    } catch (IOException | IllegalArgumentException e) {
+      System.out.println("Conversion failed: " + e.getMessage());
+      System.exit(1);
+    }
+  }
+}
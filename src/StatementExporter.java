@@ -0,0 +1,411 @@
+package src;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+
+// Streams an account statement, optionally limited to a time range, as CSV or
+// JSON. Rows go straight from the history columns, or from the lines of a
+// mapped snapshot (see Account.visitTransactions), into one reusable byte
+// buffer: numbers, amounts and times are formatted by hand and strings are
+// encoded to UTF-8 char by char, so exporting allocates nothing per row and
+// uses the same memory for ten rows as for ten million. An exporter can be
+// reused, but by one thread at a time.
+//
+//   CSV   sequence,time,type,amount,description
+//         12,2024-05-01T09:30:00.000Z,Deposit,150.00,Deposited to account 123456
+//   JSON  {"accNo":123456,"transactions":[
+//         {"sequence":12,"time":"2024-05-01T09:30:00.000Z","type":"Deposit","amount":150.00,"description":"..."}
+//         ],"count":1}
+//
+// Times are UTC; an entry whose time is not known has an empty time (null in
+// JSON). CSV fields are quoted when they hold a comma, quote or line break.
+//
+// Usage: java -cp <classes> src.StatementExporter <accNo> <csv|json> [fromDate toDate] [dataDir]
+// writes the statement to standard output; dates are yyyy-mm-dd, both inclusive.
+public final class StatementExporter {
+
+  public enum Format {
+    CSV,
+    JSON
+  }
+
+  public static final int DEFAULT_BUFFER_BYTES = 64 * 1024;
+
+  private static final int MAX_CHAR_BYTES = 6; // an escaped control character in JSON
+  private static final int MAX_UTF8_BYTES = 3; // per char; a surrogate pair takes 4 for two
+  private static final long MILLIS_PER_DAY = 86_400_000L;
+
+  private final Format format;
+  private final byte[] buffer;
+  private final byte[] digits = new byte[20];
+  private final byte[] date = new byte[32]; // the last date written, yyyy-mm-dd
+  private final TransactionHistory.EntryVisitor rows = this::writeRow;
+  private int dateLength;
+  private long lastDay;
+  private OutputStream out;
+  private int position;
+  private boolean firstRow;
+
+  public StatementExporter(Format format) {
+    this(format, DEFAULT_BUFFER_BYTES);
+  }
+
+  public StatementExporter(Format format, int bufferBytes) {
+    if (bufferBytes < 64) {
+      throw new IllegalArgumentException("Buffer must hold at least 64 bytes");
+    }
+    this.format = format;
+    this.buffer = new byte[bufferBytes];
+  }
+
+  // Writes the account's transactions recorded in [fromMillis, toMillis),
+  // oldest first, and returns how many there were. Does not close out.
+  public int export(Account account, long fromMillis, long toMillis, OutputStream out) throws IOException {
+    this.out = out;
+    position = 0;
+    firstRow = true;
+    try {
+      if (format == Format.CSV) {
+        writeAscii("sequence,time,type,amount,description\n");
+      } else {
+        writeAscii("{\"accNo\":");
+        writeLong(account.getAccNo());
+        writeAscii(",\"transactions\":[");
+      }
+      int count = account.visitTransactions(fromMillis, toMillis, rows);
+      if (format == Format.JSON) {
+        writeAscii(firstRow ? "],\"count\":" : "\n],\"count\":");
+        writeLong(count);
+        writeAscii("}\n");
+      }
+      flush();
+      return count;
+    } finally {
+      this.out = null;
+    }
+  }
+
+  // Writes the whole history
+  public int export(Account account, OutputStream out) throws IOException {
+    return export(account, Long.MIN_VALUE, Long.MAX_VALUE, out);
+  }
+
+  private void writeRow(CharSequence type, long amountCents, long timestamp, long sequence, CharSequence description)
+      throws IOException {
+    if (format == Format.CSV) {
+      writeLong(sequence);
+      put(',');
+      if (timestamp != 0) {
+        writeTime(timestamp);
+      }
+      put(',');
+      writeCsv(type);
+      put(',');
+      writeCents(amountCents);
+      put(',');
+      writeCsv(description);
+      put('\n');
+    } else {
+      writeAscii(firstRow ? "\n{\"sequence\":" : ",\n{\"sequence\":");
+      writeLong(sequence);
+      if (timestamp != 0) {
+        writeAscii(",\"time\":\"");
+        writeTime(timestamp);
+        put('"');
+      } else {
+        writeAscii(",\"time\":null");
+      }
+      writeAscii(",\"type\":");
+      writeJson(type);
+      writeAscii(",\"amount\":");
+      writeCents(amountCents);
+      writeAscii(",\"description\":");
+      writeJson(description);
+      put('}');
+    }
+    firstRow = false;
+  }
+
+  private void put(char ascii) throws IOException {
+    if (position == buffer.length) {
+      flush();
+    }
+    buffer[position++] = (byte) ascii;
+  }
+
+  private void ensure(int bytes) throws IOException {
+    if (position + bytes > buffer.length) {
+      flush();
+    }
+  }
+
+  private void flush() throws IOException {
+    out.write(buffer, 0, position);
+    position = 0;
+  }
+
+  private void writeAscii(String s) throws IOException {
+    if (s.length() > buffer.length) {
+      for (int i = 0; i < s.length(); i++) {
+        put(s.charAt(i));
+      }
+      return;
+    }
+    ensure(s.length());
+    for (int i = 0; i < s.length(); i++) {
+      buffer[position++] = (byte) s.charAt(i);
+    }
+  }
+
+  private void writeLong(long value) throws IOException {
+    if (value < 0) {
+      if (value == Long.MIN_VALUE) {
+        writeAscii("-9223372036854775808");
+        return;
+      }
+      put('-');
+      value = -value;
+    }
+    int n = 0;
+    do {
+      digits[n++] = (byte) ('0' + value % 10);
+      value /= 10;
+    } while (value != 0);
+    ensure(n);
+    while (n > 0) {
+      buffer[position++] = digits[--n];
+    }
+  }
+
+  // units.cc, as Money.append does
+  private void writeCents(long cents) throws IOException {
+    if (cents < 0) {
+      if (cents == Long.MIN_VALUE) {
+        writeAscii("-92233720368547758.08");
+        return;
+      }
+      put('-');
+      cents = -cents;
+    }
+    writeLong(cents / Money.CENTS_PER_UNIT);
+    int fraction = (int) (cents % Money.CENTS_PER_UNIT);
+    ensure(3);
+    buffer[position++] = '.';
+    buffer[position++] = (byte) ('0' + fraction / 10);
+    buffer[position++] = (byte) ('0' + fraction % 10);
+  }
+
+  // yyyy-mm-ddThh:mm:ss.SSSZ in UTC. The date is worked out from the day
+  // number with the days-to-civil algorithm (Howard Hinnant's), which is exact
+  // for the proleptic Gregorian calendar, and kept for the next row, which is
+  // usually on the same day.
+  private void writeTime(long millis) throws IOException {
+    long days = Math.floorDiv(millis, MILLIS_PER_DAY);
+    int millisOfDay = (int) Math.floorMod(millis, MILLIS_PER_DAY);
+    if (days != lastDay || dateLength == 0) {
+      formatDate(days);
+    }
+    ensure(dateLength + 14);
+    System.arraycopy(date, 0, buffer, position, dateLength);
+    position += dateLength;
+    buffer[position++] = 'T';
+    writeDigits(millisOfDay / 3_600_000, 2);
+    buffer[position++] = ':';
+    writeDigits(millisOfDay / 60_000 % 60, 2);
+    buffer[position++] = ':';
+    writeDigits(millisOfDay / 1_000 % 60, 2);
+    buffer[position++] = '.';
+    writeDigits(millisOfDay % 1_000, 3);
+    buffer[position++] = 'Z';
+  }
+
+  private void formatDate(long days) {
+    long z = days + 719_468;
+    long era = Math.floorDiv(z, 146_097);
+    long dayOfEra = z - era * 146_097;
+    long yearOfEra = (dayOfEra - dayOfEra / 1_460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+    long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    long shiftedMonth = (5 * dayOfYear + 2) / 153; // March is 0
+    int day = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+    int month = (int) (shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+    long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+    int n = 0;
+    if (year >= 0 && year <= 9999) {
+      for (int divisor = 1000; divisor > 0; divisor /= 10) {
+        date[n++] = (byte) ('0' + year / divisor % 10);
+      }
+    } else {
+      String yyyy = Long.toString(year);
+      for (int i = 0; i < yyyy.length(); i++) {
+        date[n++] = (byte) yyyy.charAt(i);
+      }
+    }
+    date[n++] = '-';
+    date[n++] = (byte) ('0' + month / 10);
+    date[n++] = (byte) ('0' + month % 10);
+    date[n++] = '-';
+    date[n++] = (byte) ('0' + day / 10);
+    date[n++] = (byte) ('0' + day % 10);
+    dateLength = n;
+    lastDay = days;
+  }
+
+  // Zero-padded; the caller has made room
+  private void writeDigits(int value, int width) {
+    for (int i = position + width - 1; i >= position; i--) {
+      buffer[i] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+    position += width;
+  }
+
+  private void writeCsv(CharSequence s) throws IOException {
+    boolean quote = false;
+    for (int i = 0; i < s.length() && !quote; i++) {
+      char c = s.charAt(i);
+      quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+    }
+    if (!quote && fits(s)) {
+      writePlain(s);
+      return;
+    }
+    if (quote) {
+      put('"');
+    }
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"') {
+        put('"');
+      }
+      i = writeUtf8(s, i);
+    }
+    if (quote) {
+      put('"');
+    }
+  }
+
+  private void writeJson(CharSequence s) throws IOException {
+    put('"');
+    if (fits(s) && !needsJsonEscape(s)) {
+      writePlain(s);
+    } else {
+      for (int i = 0; i < s.length(); i++) {
+        char c = s.charAt(i);
+        if (c == '"' || c == '\\') {
+          put('\\');
+          put(c);
+        } else if (c < 0x20) {
+          ensure(MAX_CHAR_BYTES);
+          buffer[position++] = '\\';
+          buffer[position++] = 'u';
+          buffer[position++] = '0';
+          buffer[position++] = '0';
+          buffer[position++] = (byte) Character.forDigit(c >> 4, 16);
+          buffer[position++] = (byte) Character.forDigit(c & 0xF, 16);
+        } else {
+          i = writeUtf8(s, i);
+        }
+      }
+    }
+    put('"');
+  }
+
+  private static boolean needsJsonEscape(CharSequence s) {
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\' || c < 0x20) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean fits(CharSequence s) {
+    return s.length() <= buffer.length / MAX_UTF8_BYTES;
+  }
+
+  // A string with nothing to escape that fits() the buffer, so one check makes
+  // room for all of it; ASCII is copied straight in
+  private void writePlain(CharSequence s) throws IOException {
+    ensure(s.length() * MAX_UTF8_BYTES);
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        buffer[position++] = (byte) c;
+      } else {
+        i = writeUtf8(s, i);
+      }
+    }
+  }
+
+  // Encodes the char at i (with the next one, for a surrogate pair) and
+  // returns the index of the last char used. Unpaired surrogates become '?'.
+  private int writeUtf8(CharSequence s, int i) throws IOException {
+    ensure(MAX_CHAR_BYTES);
+    char c = s.charAt(i);
+    if (c < 0x80) {
+      buffer[position++] = (byte) c;
+    } else if (c < 0x800) {
+      buffer[position++] = (byte) (0xC0 | (c >> 6));
+      buffer[position++] = (byte) (0x80 | (c & 0x3F));
+    } else if (Character.isSurrogate(c)) {
+      if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, s.charAt(++i));
+        buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+        buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+      } else {
+        buffer[position++] = '?';
+      }
+    } else {
+      buffer[position++] = (byte) (0xE0 | (c >> 12));
+      buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+      buffer[position++] = (byte) (0x80 | (c & 0x3F));
+    }
+    return i;
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: StatementExporter <accNo> <csv|json> [fromDate toDate] [dataDir]");
+      return;
+    }
+    int accNo = Integer.parseInt(args[0]);
+    Format format = Format.valueOf(args[1].toUpperCase());
+    long fromMillis = Long.MIN_VALUE;
+    long toMillis = Long.MAX_VALUE;
+    int next = 2;
+    if (args.length >= 4) {
+      try {
+        ZoneId zone = ZoneId.systemDefault();
+        fromMillis = LocalDate.parse(args[2]).atStartOfDay(zone).toInstant().toEpochMilli();
+        toMillis = LocalDate.parse(args[3]).plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        next = 4;
+      } catch (DateTimeParseException e) {
+        System.err.println("Dates must be yyyy-mm-dd: " + e.getMessage());
+        return;
+      }
+    }
+    String dataDir = args.length > next ? args[next] : ".";
+
+    // Notices go to stderr, so stdout only holds the statement
+    BankService service = new BankService(dataDir, System.err::println);
+    service.open();
+    Account account = service.findAccountByNumber(accNo);
+    if (account == null) {
+      System.err.println("Account not found for number: " + accNo);
+    } else {
+      int rows = new StatementExporter(format).export(account, fromMillis, toMillis,
+          new FileOutputStream(FileDescriptor.out));
+      System.err.println("Exported " + rows + " transactions.");
+    }
+    service.close();
+  }
+}
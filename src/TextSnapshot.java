@@ -0,0 +1,238 @@
+package src;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
+
+// The CSV snapshot files:
+//   accounts.txt      name,accNo,balance,password
+//   transactions.txt  TRANSACTIONS_HEADER, then accNo,sequence,timestamp,balance,type,amount,description
+// where balance is the account's balance after the transaction, empty if it
+// was not recorded. Files with the SEQUENCED_HEADER line are from before
+// balances were stored, and hold accNo,sequence,timestamp,type,amount,description;
+// files without a header line are from before sequence ids and timestamps
+// were stored, and hold accNo,type,amount,description.
+public final class TextSnapshot {
+  public static final String ACCOUNTS_FILE = "accounts.txt";
+  public static final String TRANSACTIONS_FILE = "transactions.txt";
+  public static final String TRANSACTIONS_HEADER = "#v3 accNo,sequence,timestamp,balance,type,amount,description";
+  public static final String SEQUENCED_HEADER = "#v2 accNo,sequence,timestamp,type,amount,description";
+
+  private TextSnapshot() {
+  }
+
+  public static void writeAccounts(String file, AccountRegistry accounts) throws IOException {
+    writeAccounts(file, accounts, AtomicFileWriter.FILES);
+  }
+
+  public static void writeAccounts(String file, AccountRegistry accounts, AtomicFileWriter.ChannelOpener opener)
+      throws IOException {
+    writeAccounts(file, accounts, null, opener);
+  }
+
+  // Each account is read while holding lockFor(account), if lockFor is given.
+  // Written through an AtomicFileWriter, so a crash leaves either the old file
+  // or the new one.
+  static void writeAccounts(String file, Iterable<Account> accounts, Function<Account, ? extends Lock> lockFor,
+      AtomicFileWriter.ChannelOpener opener) throws IOException {
+    try (AtomicFileWriter out = new AtomicFileWriter(file, AtomicFileWriter.DEFAULT_BUFFER_BYTES, opener)) {
+      for (Account acc : accounts) {
+        Lock lock = lockFor == null ? null : lockFor.apply(acc);
+        String line;
+        if (lock != null) {
+          lock.lock();
+        }
+        try {
+          line = acc.toCSV();
+        } finally {
+          if (lock != null) {
+            lock.unlock();
+          }
+        }
+        out.write(line);
+        out.write('\n');
+      }
+      out.commit();
+    }
+  }
+
+  public static void writeTransactions(String file, AccountRegistry accounts) throws IOException {
+    writeTransactions(file, accounts, AtomicFileWriter.FILES);
+  }
+
+  public static void writeTransactions(String file, AccountRegistry accounts, AtomicFileWriter.ChannelOpener opener)
+      throws IOException {
+    writeTransactions(file, accounts, null, Long.MAX_VALUE, opener);
+  }
+
+  // Written through an AtomicFileWriter rather than in place: the old file may still
+  // be memory-mapped by a MappedTransactionLog, and truncating it in place would
+  // pull the bytes out from under that mapping. Only transactions with a
+  // sequence id up to throughSequence are written. Each account's history is
+  // read while holding lockFor(account), if lockFor is given.
+  static void writeTransactions(String file, Iterable<Account> accounts, Function<Account, ? extends Lock> lockFor,
+      long throughSequence, AtomicFileWriter.ChannelOpener opener) throws IOException {
+    try (AtomicFileWriter out = new AtomicFileWriter(file, AtomicFileWriter.DEFAULT_BUFFER_BYTES, opener)) {
+      out.write(TRANSACTIONS_HEADER);
+      out.write('\n');
+      LineWriter lines = new LineWriter(out);
+      for (Account acc : accounts) {
+        Lock lock = lockFor == null ? null : lockFor.apply(acc);
+        if (lock != null) {
+          lock.lock();
+        }
+        try {
+          acc.forEachTransaction(t -> {
+            if (t.getSequence() <= throughSequence) {
+              lines.write(acc.getAccNo(), t);
+            }
+          });
+        } finally {
+          if (lock != null) {
+            lock.unlock();
+          }
+        }
+      }
+      out.commit();
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  // Appends the transactions with a sequence id in (afterSequence,
+  // throughSequence] to a file written by writeTransactions, whose entries all
+  // have ids up to afterSequence. A crash part way through leaves a torn last
+  // line, which the readers skip; the journal still holds what is missing.
+  // Forced to disk before returning, as the journal is dropped after this.
+  static void appendTransactions(String file, Iterable<Account> accounts, Function<Account, ? extends Lock> lockFor,
+      long afterSequence, long throughSequence) throws IOException {
+    try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.WRITE,
+        StandardOpenOption.APPEND)) {
+      Writer writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8),
+          AtomicFileWriter.DEFAULT_BUFFER_BYTES);
+      LineWriter lines = new LineWriter(writer);
+      for (Account acc : accounts) {
+        Lock lock = lockFor == null ? null : lockFor.apply(acc);
+        if (lock != null) {
+          lock.lock();
+        }
+        try {
+          acc.forEachNewTransaction(afterSequence, throughSequence, t -> lines.write(acc.getAccNo(), t));
+        } finally {
+          if (lock != null) {
+            lock.unlock();
+          }
+        }
+      }
+      writer.flush();
+      channel.force(false);
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  // Formats transaction lines; I/O errors come out as UncheckedIOException
+  private static final class LineWriter {
+    private final Writer writer;
+    private final StringBuilder line = new StringBuilder(128);
+
+    LineWriter(Writer writer) {
+      this.writer = writer;
+    }
+
+    void write(int accNo, Transaction t) {
+      // The description is the last field, so it may contain commas
+      line.setLength(0);
+      line.append(accNo).append(',').append(t.getSequence()).append(',').append(t.getTimestamp()).append(',');
+      if (t.getBalanceCents() >= 0) {
+        Money.append(line, t.getBalanceCents());
+      }
+      line.append(',').append(t.getType()).append(',');
+      Money.append(line, t.getAmountCents()).append(',').append(t.getDescription());
+      try {
+        line.append('\n');
+        writer.append(line);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  // Lines without exactly four fields are skipped; a bad number aborts the load
+  // with a NumberFormatException
+  public static int readAccounts(String file, AccountRegistry accounts) throws IOException {
+    int loaded = 0;
+    try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+      String line;
+      while ((line = br.readLine()) != null) {
+        String[] parts = line.split(",");
+        if (parts.length == 4) {
+          String name = parts[0];
+          int accNo = Integer.parseInt(parts[1]);
+          long balance = Money.parse(parts[2]);
+          String password = parts[3];
+          accounts.put(Account.ofCents(name, accNo, balance, password));
+          loaded++;
+        }
+      }
+    }
+    return loaded;
+  }
+
+  // Transactions for accounts that are not in the registry are skipped, as is a
+  // torn last line left by a checkpoint that crashed while appending. Decodes
+  // every line up front; MappedTransactionLog is the lazy alternative.
+  public static int readTransactions(String file, AccountRegistry accounts) throws IOException {
+    int loaded = 0;
+    boolean lastLineComplete = true;
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      if (raf.length() > 0) {
+        raf.seek(raf.length() - 1);
+        lastLineComplete = raf.read() == '\n';
+      }
+    }
+    try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+      String line = reader.readLine();
+      boolean balanced = TRANSACTIONS_HEADER.equals(line);
+      boolean sequenced = balanced || SEQUENCED_HEADER.equals(line);
+      if (sequenced) {
+        line = reader.readLine();
+      }
+      int fields = balanced ? 7 : sequenced ? 6 : 4;
+      int type = fields - 3;
+      String next;
+      for (; line != null; line = next) {
+        next = reader.readLine();
+        if (next == null && sequenced && !lastLineComplete) {
+          break;
+        }
+        // Limit the split so commas in the description are kept
+        String[] parts = line.split(",", fields);
+        if (parts.length == fields) {
+          int accNo = Integer.parseInt(parts[0]);
+          Account acc = accounts.get(accNo);
+          if (acc != null) {
+            long balance = balanced && !parts[3].isEmpty() ? Money.parse(parts[3]) : -1;
+            acc.addTransaction(sequenced
+                ? Transaction.ofCents(parts[type], Money.parse(parts[type + 1]), parts[type + 2],
+                    Long.parseLong(parts[2]), Long.parseLong(parts[1]), balance)
+                : Transaction.ofCents(parts[1], Money.parse(parts[2]), parts[3], 0));
+            loaded++;
+          }
+        }
+      }
+    }
+    return loaded;
+  }
+}
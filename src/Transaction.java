@@ -1,12 +1,72 @@
 package src;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 public class Transaction {
+  // Last sequence id handed out in this process; loaders move it past the ids
+  // they read so new transactions always sort after stored ones
+  private static final AtomicLong LAST_SEQUENCE = new AtomicLong();
+
+  // Descriptions of the two sides of a transfer, followed by the other account
+  static final String TRANSFER_TO = "Transfer to account ";
+  static final String TRANSFER_FROM = "Transfer from account ";
+
   private String type;
-  private double amount;
+  private long amountCents;
   private String description;
+  private long timestamp; // epoch millis, 0 when not known
+  private long sequence; // 0 until the transaction is added to an account
+  private long balanceCents; // the account's balance after it, -1 when not recorded
+  private int counterparty; // the other account of a transfer made with transfer(), else 0
+  private boolean outgoing;
 
   public Transaction(String type, double amount, String description) {
-    if (amount <= 0) {
+    this(type, Money.fromDouble(amount), description, System.currentTimeMillis(), 0, -1);
+  }
+
+  // A transaction happening now
+  public static Transaction ofCents(String type, long amountCents, String description) {
+    return new Transaction(type, amountCents, description, System.currentTimeMillis(), 0, -1);
+  }
+
+  public static Transaction ofCents(String type, long amountCents, String description, long timestamp) {
+    return new Transaction(type, amountCents, description, timestamp, 0, -1);
+  }
+
+  // A stored transaction that already has its sequence id
+  public static Transaction ofCents(String type, long amountCents, String description, long timestamp,
+      long sequence) {
+    return new Transaction(type, amountCents, description, timestamp, sequence, -1);
+  }
+
+  // A stored transaction with the balance it left, or -1 if that was not stored
+  public static Transaction ofCents(String type, long amountCents, String description, long timestamp,
+      long sequence, long balanceCents) {
+    return new Transaction(type, amountCents, description, timestamp, sequence, balanceCents);
+  }
+
+  // One side of a transfer happening now: money leaving for counterparty if
+  // outgoing, else arriving from it
+  public static Transaction transfer(long amountCents, int counterparty, boolean outgoing) {
+    return transfer(amountCents, counterparty, outgoing, System.currentTimeMillis(), 0, -1);
+  }
+
+  static Transaction transfer(long amountCents, int counterparty, boolean outgoing, long timestamp,
+      long sequence, long balanceCents) {
+    Transaction t = new Transaction("Transfer", amountCents, transferDescription(counterparty, outgoing),
+        timestamp, sequence, balanceCents);
+    t.counterparty = counterparty;
+    t.outgoing = outgoing;
+    return t;
+  }
+
+  static String transferDescription(int counterparty, boolean outgoing) {
+    return (outgoing ? TRANSFER_TO : TRANSFER_FROM) + counterparty;
+  }
+
+  private Transaction(String type, long amountCents, String description, long timestamp, long sequence,
+      long balanceCents) {
+    if (amountCents <= 0) {
       throw new IllegalArgumentException("Amount must be positive.");
     }
     if (description == null || description.trim().isEmpty()) {
@@ -14,8 +74,33 @@ public class Transaction {
     }
 
     this.type = type;
-    this.amount = amount;
+    this.amountCents = amountCents;
     this.description = description;
+    this.timestamp = timestamp;
+    this.sequence = sequence;
+    this.balanceCents = balanceCents < 0 ? -1 : balanceCents;
+  }
+
+  static long nextSequence() {
+    return LAST_SEQUENCE.incrementAndGet();
+  }
+
+  // The last id handed out
+  static long currentSequence() {
+    return LAST_SEQUENCE.get();
+  }
+
+  // Makes sure ids handed out from now on are greater than sequence
+  static void advanceSequence(long sequence) {
+    LAST_SEQUENCE.accumulateAndGet(sequence, Math::max);
+  }
+
+  // Gives a new transaction its place in an account's history and the balance
+  // it left; called by Account under the history lock
+  void stamp(long sequence, long timestamp, long balanceCents) {
+    this.sequence = sequence;
+    this.timestamp = timestamp;
+    this.balanceCents = balanceCents;
   }
 
   public String getType() {
@@ -23,16 +108,49 @@ public class Transaction {
   }
 
   public double getAmount() {
-    return amount;
+    return Money.toDouble(amountCents);
+  }
+
+  public long getAmountCents() {
+    return amountCents;
   }
 
   public String getDescription() {
     return description;
   }
 
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  // Increases with every transaction added to any account, so within one
+  // account it gives the order entries were recorded in. 0 until added.
+  public long getSequence() {
+    return sequence;
+  }
+
+  // The account's balance right after this transaction, or -1 if it was
+  // loaded from a file written before balances were kept
+  public long getBalanceCents() {
+    return balanceCents;
+  }
+
+  // The other account, for a transfer made with transfer(); 0 otherwise
+  public int getCounterparty() {
+    return counterparty;
+  }
+
+  // Whether a transfer made with transfer() took money out of the account
+  public boolean isOutgoing() {
+    return outgoing;
+  }
+
   // toString method for displaying transactions
   @Override
   public String toString() {
-    return String.format("%s: $%.2f - %s", type, amount, description);
+    StringBuilder sb = new StringBuilder(type.length() + description.length() + 24);
+    sb.append(type).append(": $");
+    Money.append(sb, amountCents);
+    return sb.append(" - ").append(description).toString();
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,581 @@
+package src;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+// Column-oriented transaction history for one account. Instead of one object per
+// transaction it keeps parallel primitive columns in chunks of 1024 entries, so
+// growing never copies more than one chunk. The last chunk starts small and
+// doubles, which keeps accounts with short histories cheap:
+//   type        byte code into a small shared type table, plus a flag for
+//               transfers out of the account
+//   amount      cents
+//   timestamp   epoch millis (0 when unknown)
+//   sequence    Transaction sequence id
+//   description int id into a shared description dictionary, or the other
+//               account of a transfer (its text is built when it is read)
+//   balance     cents in the account right after the entry (-1 when not recorded)
+// The four numbers are longs, but each chunk stores them as int offsets from
+// its first value (see LongColumn): entries close together in time have
+// nearby times, sequence ids and balances. A chunk holding a value too far
+// from its first falls back to longs for that column. That is 21 bytes per
+// entry plus the first copy of each distinct description.
+// Transaction objects are only created when an entry is read.
+//
+// The description dictionary lives as long as the process, so it is capped
+// (-Dbank.history.maxDescriptions, 65536 by default). Once it is full, new
+// descriptions are kept with their entry instead, in a String column that a
+// chunk only gets when it first needs one.
+//
+// Appends also keep running totals of what the entries did to the balance
+// (see HistorySummary.Flow), with a copy of the totals every 64 entries, which
+// is another byte per entry. The totals over any range of entries are then two
+// copies plus at most 63 entries read at each end. Each entry counts as its
+// amount, negative for a withdrawal or an outgoing transfer.
+//
+// Account appends entries with increasing sequence ids and non-decreasing
+// timestamps, so both columns are sorted and double as the index for cursor
+// pagination and time-range queries: finding a position is a binary search.
+//
+// Appends must be externally synchronized (Account does this); reads see every
+// entry published before the size they observed.
+public class TransactionHistory {
+  private static final int CHUNK_SHIFT = 10;
+  private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+  private static final int FIRST_CHUNK_CAPACITY = 8;
+  private static final int CHECKPOINT_SHIFT = 6;
+  private static final int CHECKPOINT_MASK = (1 << CHECKPOINT_SHIFT) - 1;
+  private static final int TALLIES = 2 * HistorySummary.Flow.values().length; // count and cents per flow
+  private static final int WITHDRAWAL = Dictionary.TYPES.idFor("Withdrawal");
+  private static final int TRANSFER = Dictionary.TYPES.idFor("Transfer");
+  private static final int OUTGOING = 0x80; // type flag of a transfer out of the account
+  private static final int TYPE_MASK = 0x7F;
+  private static final int INLINE = -1; // description id of an entry that keeps its own
+  private static final int COUNTERPARTY = -2; // ids at or below this are COUNTERPARTY - account number
+
+  public static final int DEFAULT_MAX_DESCRIPTIONS = 1 << 16;
+
+  // The columns and tally checkpoints per entry, when no column is widened
+  static final int ENTRY_BYTES = 22;
+
+  // Receives one entry as its column values, without a Transaction object. The
+  // type and description may be reused for the next entry once visit returns.
+  public interface EntryVisitor {
+    void visit(CharSequence type, long amountCents, long timestamp, long sequence, CharSequence description)
+        throws IOException;
+  }
+
+  private byte[][] types = new byte[0][];
+  private final LongColumn amounts = new LongColumn();
+  private final LongColumn timestamps = new LongColumn();
+  private final LongColumn sequences = new LongColumn();
+  private int[][] descriptions = new int[0][];
+  private String[][] inlineDescriptions = new String[0][]; // null for chunks without any
+  private final LongColumn balances = new LongColumn();
+  private final LongColumn[] longColumns = { amounts, timestamps, sequences, balances };
+  private volatile int size;
+
+  // Totals over every entry so far, and checkpoints of them: checkpoint k, at
+  // k * TALLIES, covers entries [0, k * 64)
+  private final long[] running = new long[TALLIES];
+  private long[] checkpoints = new long[4 * TALLIES];
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public void add(Transaction t) {
+    if (t.getCounterparty() > 0) {
+      add(TRANSFER, t.isOutgoing(), t.getAmountCents(), t.getTimestamp(), t.getSequence(), t.getBalanceCents(),
+          COUNTERPARTY - t.getCounterparty(), null);
+    } else {
+      add(t.getType(), t.getAmountCents(), t.getTimestamp(), t.getSequence(), t.getBalanceCents(),
+          t.getDescription());
+    }
+  }
+
+  public void add(String type, long amountCents, long timestamp, String description) {
+    add(type, amountCents, timestamp, 0, description);
+  }
+
+  public void add(String type, long amountCents, long timestamp, long sequence, String description) {
+    add(type, amountCents, timestamp, sequence, -1, description);
+  }
+
+  // Entries that only come with their text (from files, or built by hand) are
+  // told apart by it once, here: a transfer is outgoing if its description
+  // starts with "Transfer to ", and one described the way Transaction.transfer
+  // describes it keeps just the other account's number.
+  public void add(String type, long amountCents, long timestamp, long sequence, long balanceCents,
+      String description) {
+    int typeId = Dictionary.TYPES.idFor(type);
+    boolean outgoing = typeId == TRANSFER && description.startsWith("Transfer to ");
+    int counterparty = typeId == TRANSFER ? counterpartyIn(description, outgoing) : 0;
+    add(typeId, outgoing, amountCents, timestamp, sequence, balanceCents,
+        counterparty > 0 ? COUNTERPARTY - counterparty : Dictionary.DESCRIPTIONS.tryIdFor(description), description);
+  }
+
+  // The account number in a description Transaction.transfer would build, or 0
+  private static int counterpartyIn(String description, boolean outgoing) {
+    String prefix = outgoing ? Transaction.TRANSFER_TO : Transaction.TRANSFER_FROM;
+    int digits = description.length() - prefix.length();
+    if (!description.startsWith(prefix) || digits < 1 || digits > 9 || description.charAt(prefix.length()) == '0') {
+      return 0;
+    }
+    for (int i = prefix.length(); i < description.length(); i++) {
+      if (description.charAt(i) < '0' || description.charAt(i) > '9') {
+        return 0;
+      }
+    }
+    return Integer.parseInt(description, prefix.length(), description.length(), 10);
+  }
+
+  // description is only kept (inline) when id is INLINE
+  private void add(int typeId, boolean outgoing, long amountCents, long timestamp, long sequence, long balanceCents,
+      int id, String description) {
+    int index = size;
+    int chunk = index >>> CHUNK_SHIFT;
+    int offset = index & CHUNK_MASK;
+    ensureCapacity(chunk, offset);
+    types[chunk][offset] = (byte) (outgoing ? typeId | OUTGOING : typeId);
+    amounts.set(chunk, offset, amountCents);
+    timestamps.set(chunk, offset, timestamp);
+    sequences.set(chunk, offset, sequence);
+    descriptions[chunk][offset] = id;
+    if (id == INLINE) {
+      inline(chunk)[offset] = description;
+    }
+    balances.set(chunk, offset, balanceCents < 0 ? -1 : balanceCents);
+    tally(index);
+    size = index + 1; // publish after the columns are written
+  }
+
+  public void addAll(TransactionHistory other) {
+    for (int i = 0, n = other.size; i < n; i++) {
+      int chunk = i >>> CHUNK_SHIFT;
+      int offset = i & CHUNK_MASK;
+      int index = size;
+      int target = index >>> CHUNK_SHIFT;
+      int at = index & CHUNK_MASK;
+      ensureCapacity(target, at);
+      types[target][at] = other.types[chunk][offset];
+      amounts.set(target, at, other.amounts.get(chunk, offset));
+      timestamps.set(target, at, other.timestamps.get(chunk, offset));
+      sequences.set(target, at, other.sequences.get(chunk, offset));
+      descriptions[target][at] = other.descriptions[chunk][offset];
+      if (other.descriptions[chunk][offset] == INLINE) {
+        inline(target)[at] = other.inlineDescriptions[chunk][offset];
+      }
+      balances.set(target, at, other.balances.get(chunk, offset));
+      tally(index); // the entry before it may be a different one here
+      size = index + 1;
+    }
+  }
+
+  private void ensureCapacity(int chunk, int offset) {
+    if (chunk == types.length) {
+      types = Arrays.copyOf(types, chunk + 1);
+      descriptions = Arrays.copyOf(descriptions, chunk + 1);
+      inlineDescriptions = Arrays.copyOf(inlineDescriptions, chunk + 1);
+      types[chunk] = new byte[FIRST_CHUNK_CAPACITY];
+      descriptions[chunk] = new int[FIRST_CHUNK_CAPACITY];
+      for (LongColumn column : longColumns) {
+        column.addChunk(FIRST_CHUNK_CAPACITY);
+      }
+    } else if (offset == types[chunk].length) {
+      int capacity = Math.min(offset * 2, CHUNK_SIZE);
+      types[chunk] = Arrays.copyOf(types[chunk], capacity);
+      descriptions[chunk] = Arrays.copyOf(descriptions[chunk], capacity);
+      if (inlineDescriptions[chunk] != null) {
+        inlineDescriptions[chunk] = Arrays.copyOf(inlineDescriptions[chunk], capacity);
+      }
+      for (LongColumn column : longColumns) {
+        column.grow(chunk, capacity);
+      }
+    }
+  }
+
+  // The chunk's inline descriptions, allocated on first use
+  private String[] inline(int chunk) {
+    if (inlineDescriptions[chunk] == null) {
+      inlineDescriptions[chunk] = new String[descriptions[chunk].length];
+    }
+    return inlineDescriptions[chunk];
+  }
+
+  private String description(int chunk, int offset) {
+    int id = descriptions[chunk][offset];
+    if (id <= COUNTERPARTY) {
+      return Transaction.transferDescription(COUNTERPARTY - id, outgoing(chunk, offset));
+    }
+    return id == INLINE ? inlineDescriptions[chunk][offset] : Dictionary.DESCRIPTIONS.valueOf(id);
+  }
+
+  // The same, building a transfer's text in text instead of a new String
+  private CharSequence description(int chunk, int offset, StringBuilder text) {
+    int id = descriptions[chunk][offset];
+    if (id > COUNTERPARTY) {
+      return description(chunk, offset);
+    }
+    text.setLength(0);
+    return text.append(outgoing(chunk, offset) ? Transaction.TRANSFER_TO : Transaction.TRANSFER_FROM)
+        .append(COUNTERPARTY - id);
+  }
+
+  private boolean outgoing(int chunk, int offset) {
+    return (types[chunk][offset] & OUTGOING) != 0;
+  }
+
+  private int type(int chunk, int offset) {
+    return types[chunk][offset] & TYPE_MASK;
+  }
+
+  // Adds a new entry to the running totals, and checkpoints them when it
+  // completes a group of 64
+  private void tally(int index) {
+    tally(index, running);
+    int entries = index + 1;
+    if ((entries & CHECKPOINT_MASK) == 0) {
+      int at = (entries >>> CHECKPOINT_SHIFT) * TALLIES;
+      long[] table = checkpoints;
+      if (at + TALLIES > table.length) {
+        table = Arrays.copyOf(table, table.length * 2);
+      }
+      System.arraycopy(running, 0, table, at, TALLIES);
+      checkpoints = table; // published with size
+    }
+  }
+
+  private void tally(int index, long[] totals) {
+    long change = change(index);
+    if (change != 0) {
+      boolean transfer = type(index >>> CHUNK_SHIFT, index & CHUNK_MASK) == TRANSFER;
+      HistorySummary.Flow flow = change > 0
+          ? (transfer ? HistorySummary.Flow.TRANSFER_IN : HistorySummary.Flow.DEPOSIT)
+          : (transfer ? HistorySummary.Flow.TRANSFER_OUT : HistorySummary.Flow.WITHDRAWAL);
+      totals[2 * flow.ordinal()]++;
+      totals[2 * flow.ordinal() + 1] += Math.abs(change);
+    }
+  }
+
+  // What the entry did to the balance
+  private long change(int index) {
+    int chunk = index >>> CHUNK_SHIFT;
+    int offset = index & CHUNK_MASK;
+    long amount = amounts.get(chunk, offset);
+    boolean debit = type(chunk, offset) == WITHDRAWAL || outgoing(chunk, offset);
+    return debit ? -amount : amount;
+  }
+
+  // Counts and cents per flow over entries [from, to): the nearest checkpoint
+  // at or below each end plus the entries after it
+  long[] tallies(int from, int to) {
+    long[] totals = new long[TALLIES];
+    long[] before = new long[TALLIES];
+    tallyBefore(to, totals);
+    tallyBefore(from, before);
+    for (int i = 0; i < TALLIES; i++) {
+      totals[i] -= before[i];
+    }
+    return totals;
+  }
+
+  private void tallyBefore(int end, long[] totals) {
+    int checkpoint = end >>> CHECKPOINT_SHIFT;
+    System.arraycopy(checkpoints, checkpoint * TALLIES, totals, 0, TALLIES);
+    for (int i = checkpoint << CHECKPOINT_SHIFT; i < end; i++) {
+      tally(i, totals);
+    }
+  }
+
+  // The balance after the entries before index, or -1 if it was not recorded
+  // (or there are no entries)
+  public long balanceBefore(int index) {
+    if (index < 0 || index > size) {
+      throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+    }
+    if (index > 0) {
+      return balances.get((index - 1) >>> CHUNK_SHIFT, (index - 1) & CHUNK_MASK);
+    }
+    if (size == 0 || balances.get(0, 0) < 0) {
+      return -1;
+    }
+    return balances.get(0, 0) - change(0);
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+    }
+  }
+
+  public String typeAt(int index) {
+    checkIndex(index);
+    return Dictionary.TYPES.valueOf(type(index >>> CHUNK_SHIFT, index & CHUNK_MASK));
+  }
+
+  public long amountAt(int index) {
+    checkIndex(index);
+    return amounts.get(index >>> CHUNK_SHIFT, index & CHUNK_MASK);
+  }
+
+  public long timestampAt(int index) {
+    checkIndex(index);
+    return timestamps.get(index >>> CHUNK_SHIFT, index & CHUNK_MASK);
+  }
+
+  public long sequenceAt(int index) {
+    checkIndex(index);
+    return sequences.get(index >>> CHUNK_SHIFT, index & CHUNK_MASK);
+  }
+
+  public String descriptionAt(int index) {
+    checkIndex(index);
+    return description(index >>> CHUNK_SHIFT, index & CHUNK_MASK);
+  }
+
+  public long balanceAt(int index) {
+    checkIndex(index);
+    return balances.get(index >>> CHUNK_SHIFT, index & CHUNK_MASK);
+  }
+
+  // Builds a Transaction for one entry
+  public Transaction get(int index) {
+    checkIndex(index);
+    int chunk = index >>> CHUNK_SHIFT;
+    int offset = index & CHUNK_MASK;
+    int id = descriptions[chunk][offset];
+    if (id <= COUNTERPARTY) {
+      return Transaction.transfer(amounts.get(chunk, offset), COUNTERPARTY - id, outgoing(chunk, offset),
+          timestamps.get(chunk, offset), sequences.get(chunk, offset), balances.get(chunk, offset));
+    }
+    return Transaction.ofCents(Dictionary.TYPES.valueOf(type(chunk, offset)), amounts.get(chunk, offset),
+        description(chunk, offset), timestamps.get(chunk, offset), sequences.get(chunk, offset),
+        balances.get(chunk, offset));
+  }
+
+  // Index of the first entry whose sequence id is at least sequence, or size()
+  public int indexOfSequence(long sequence) {
+    return lowerBound(sequences, sequence);
+  }
+
+  // Index of the first entry recorded at or after timestamp, or size()
+  public int indexOfTime(long timestamp) {
+    return lowerBound(timestamps, timestamp);
+  }
+
+  private int lowerBound(LongColumn column, long key) {
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (column.get(mid >>> CHUNK_SHIFT, mid & CHUNK_MASK) < key) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  public void forEach(int from, Consumer<Transaction> action) {
+    for (int i = from, n = size; i < n; i++) {
+      action.accept(get(i));
+    }
+  }
+
+  // Visits entries [from, to) in order
+  public void forEach(int from, int to, EntryVisitor visitor) throws IOException {
+    StringBuilder text = new StringBuilder(32);
+    for (int i = from; i < to; i++) {
+      int chunk = i >>> CHUNK_SHIFT;
+      int offset = i & CHUNK_MASK;
+      visitor.visit(Dictionary.TYPES.valueOf(type(chunk, offset)), amounts.get(chunk, offset),
+          timestamps.get(chunk, offset), sequences.get(chunk, offset), description(chunk, offset, text));
+    }
+  }
+
+  // Read-only List view; entries are built as they are read
+  public List<Transaction> asList() {
+    return new AbstractList<Transaction>() {
+      @Override
+      public Transaction get(int index) {
+        return TransactionHistory.this.get(index);
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  // Bytes held by the columns and the tally checkpoints, array headers
+  // included. Descriptions' characters are not counted: the shared ones are
+  // not this history's, and inline ones only appear once the dictionary is full.
+  public long footprintBytes() {
+    long bytes = arrayBytes(types.length, 4) + arrayBytes(descriptions.length, 4)
+        + arrayBytes(inlineDescriptions.length, 4) + arrayBytes(running.length, 8)
+        + arrayBytes(checkpoints.length, 8);
+    for (int chunk = 0; chunk < types.length; chunk++) {
+      bytes += arrayBytes(types[chunk].length, 1) + arrayBytes(descriptions[chunk].length, 4);
+      if (inlineDescriptions[chunk] != null) {
+        bytes += arrayBytes(inlineDescriptions[chunk].length, 4);
+      }
+    }
+    for (LongColumn column : longColumns) {
+      bytes += column.footprintBytes();
+    }
+    return bytes;
+  }
+
+  // A 16-byte header and the elements, padded to 8 bytes (4-byte references,
+  // as with compressed oops)
+  private static long arrayBytes(int length, int elementBytes) {
+    return (16 + (long) length * elementBytes + 7) & ~7L;
+  }
+
+  // One long per entry, kept per chunk as int offsets from the chunk's first
+  // value. A chunk that is given a value too far from its first is widened to
+  // longs for good. Each chunk's values are one array, int[] or long[], in an
+  // AtomicReferenceArray: a new array is filled before it replaces the old one,
+  // so a reader that is not holding the append lock gets one whole array or
+  // the other, and both hold every entry published before the widening.
+  private static final class LongColumn {
+    private long[] bases = new long[0];
+    private AtomicReferenceArray<Object> chunks = new AtomicReferenceArray<>(0);
+
+    long get(int chunk, int offset) {
+      Object values = chunks.get(chunk);
+      return values instanceof int[] ? bases[chunk] + ((int[]) values)[offset] : ((long[]) values)[offset];
+    }
+
+    // Entries are set in order, so offset 0 of a chunk is set first
+    void set(int chunk, int offset, long value) {
+      Object values = chunks.get(chunk);
+      if (values instanceof long[]) {
+        ((long[]) values)[offset] = value;
+        return;
+      }
+      int[] packed = (int[]) values;
+      if (offset == 0) {
+        bases[chunk] = value;
+      }
+      long delta = value - bases[chunk];
+      if (delta == (int) delta) {
+        packed[offset] = (int) delta;
+        return;
+      }
+      long[] widened = new long[packed.length];
+      for (int i = 0; i < offset; i++) {
+        widened[i] = bases[chunk] + packed[i];
+      }
+      widened[offset] = value;
+      chunks.set(chunk, widened);
+    }
+
+    void addChunk(int capacity) {
+      int chunk = chunks.length();
+      bases = Arrays.copyOf(bases, chunk + 1);
+      Object[] table = new Object[chunk + 1];
+      for (int i = 0; i < chunk; i++) {
+        table[i] = chunks.get(i);
+      }
+      table[chunk] = new int[capacity];
+      chunks = new AtomicReferenceArray<>(table);
+    }
+
+    void grow(int chunk, int capacity) {
+      Object values = chunks.get(chunk);
+      chunks.set(chunk, values instanceof int[]
+          ? Arrays.copyOf((int[]) values, capacity) : Arrays.copyOf((long[]) values, capacity));
+    }
+
+    // The AtomicReferenceArray counts as its 16-byte object plus its array
+    long footprintBytes() {
+      long bytes = arrayBytes(bases.length, 8) + 16 + arrayBytes(chunks.length(), 4);
+      for (int chunk = 0; chunk < chunks.length(); chunk++) {
+        Object values = chunks.get(chunk);
+        bytes += values instanceof int[]
+            ? arrayBytes(((int[]) values).length, 4) : arrayBytes(((long[]) values).length, 8);
+      }
+      return bytes;
+    }
+  }
+
+  // Number of distinct descriptions in the shared dictionary, which stays at or
+  // below its cap
+  public static int sharedDescriptions() {
+    return Dictionary.DESCRIPTIONS.size();
+  }
+
+  // Shared, append-only string table. Ids are stable for the life of the process.
+  static final class Dictionary {
+    static final Dictionary TYPES = new Dictionary(TYPE_MASK + 1, "Deposit", "Withdrawal", "Transfer");
+    static final Dictionary DESCRIPTIONS =
+        new Dictionary(Integer.getInteger("bank.history.maxDescriptions", DEFAULT_MAX_DESCRIPTIONS));
+
+    private final int limit;
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] values = new String[64];
+    private int count;
+
+    Dictionary(int limit, String... preset) {
+      this.limit = limit;
+      for (String s : preset) {
+        idFor(s);
+      }
+    }
+
+    int idFor(String value) {
+      int id = tryIdFor(value);
+      if (id < 0) {
+        throw new IllegalStateException("Too many distinct values (limit " + limit + ")");
+      }
+      return id;
+    }
+
+    // The value's id, adding it if there is room, or -1 once the table is full
+    int tryIdFor(String value) {
+      Integer id = ids.get(value);
+      if (id != null) {
+        return id;
+      }
+      synchronized (this) {
+        id = ids.get(value);
+        if (id != null) {
+          return id;
+        }
+        if (count >= limit) {
+          return -1;
+        }
+        String[] table = values;
+        if (count == table.length) {
+          table = Arrays.copyOf(table, count * 2);
+        }
+        table[count] = value;
+        values = table; // volatile write publishes the new entry before its id
+        ids.put(value, count);
+        return count++;
+      }
+    }
+
+    String valueOf(int id) {
+      return values[id];
+    }
+
+    synchronized int size() {
+      return count;
+    }
+  }
+}
@@ -0,0 +1,367 @@
+package src;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Append-only log of account changes made since the last snapshot
+// (accounts.txt / transactions.txt). Each change is one line:
+//   A,<Account.toCSV()>                      account created or updated
+//   R,accNo,sequence,timestamp,balance,type,amount,description
+//                                            transaction added, with the balance
+//                                            it left (empty if not recorded)
+//   S,accNo,sequence,timestamp,type,amount,description
+//                                            transaction added, from journals
+//                                            written before balances were kept
+//   T,accNo,type,amount,description          transaction added, from journals
+//                                            written before sequence ids; replayed
+//                                            as a new transaction
+//   D,accNo                                  account deleted
+//   B,n                                      the next n records are one change
+// On startup the journal is replayed on top of the snapshot.
+//
+// A checkpoint renames the journal to <file>.checkpoint and starts a fresh one,
+// writes the snapshot while changes keep being appended, then deletes the
+// .checkpoint file. The snapshot may already hold some of the changes in the
+// fresh journal, so replay is idempotent: A records carry the whole account,
+// R and S records whose sequence id the account already has are skipped, and D
+// records for a missing account do nothing. After a crash mid-checkpoint both
+// files are replayed, the older one first.
+public class TransactionJournal implements Closeable {
+
+  public enum FsyncPolicy {
+    PER_RECORD, // force to disk after every append
+    GROUP_COMMIT, // batch concurrent appends into one write + force
+    OS_BUFFERED // leave flushing to the operating system
+  }
+
+  public static final int DEFAULT_MAX_BATCH = 256;
+  public static final long DEFAULT_MAX_LINGER_MICROS = 1000;
+  public static final String CHECKPOINT_SUFFIX = ".checkpoint";
+
+  // Opens the journal for appending; tests pass one whose writes fail
+  public static final AtomicFileWriter.ChannelOpener APPEND = path -> FileChannel.open(path,
+      StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+
+  private final FsyncPolicy policy;
+  private final AtomicFileWriter.ChannelOpener files;
+  private final Path file;
+  private final Path checkpointFile;
+  private final GroupCommitter committer;
+  private FileChannel channel; // replaced when a checkpoint starts
+  private volatile long size;
+
+  public TransactionJournal(String fileName, FsyncPolicy policy) throws IOException {
+    this(fileName, policy, DEFAULT_MAX_BATCH, DEFAULT_MAX_LINGER_MICROS);
+  }
+
+  // maxBatchSize and maxLingerMicros only apply to GROUP_COMMIT
+  public TransactionJournal(String fileName, FsyncPolicy policy, int maxBatchSize, long maxLingerMicros)
+      throws IOException {
+    this(fileName, policy, maxBatchSize, maxLingerMicros, APPEND);
+  }
+
+  // files opens the journal file, and each fresh one a checkpoint starts
+  public TransactionJournal(String fileName, FsyncPolicy policy, int maxBatchSize, long maxLingerMicros,
+      AtomicFileWriter.ChannelOpener files) throws IOException {
+    this.policy = policy;
+    this.files = files;
+    this.file = Paths.get(fileName);
+    this.checkpointFile = Paths.get(fileName + CHECKPOINT_SUFFIX);
+    this.channel = files.open(file);
+    this.size = channel.size();
+    this.committer = policy == FsyncPolicy.GROUP_COMMIT
+        ? new GroupCommitter(this::commitBatch, maxBatchSize, maxLingerMicros)
+        : null;
+  }
+
+  // Reads the policy from -Dbank.journal.fsync=per-record|group|os, and the group
+  // commit tuning from -Dbank.journal.maxBatch and -Dbank.journal.lingerUs
+  public static TransactionJournal openFromSystemProperties(String fileName) throws IOException {
+    return openFromSystemProperties(fileName, APPEND);
+  }
+
+  public static TransactionJournal openFromSystemProperties(String fileName, AtomicFileWriter.ChannelOpener files)
+      throws IOException {
+    String mode = System.getProperty("bank.journal.fsync", "per-record");
+    FsyncPolicy policy;
+    switch (mode) {
+      case "group":
+        policy = FsyncPolicy.GROUP_COMMIT;
+        break;
+      case "os":
+        policy = FsyncPolicy.OS_BUFFERED;
+        break;
+      case "per-record":
+        policy = FsyncPolicy.PER_RECORD;
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown journal fsync policy: " + mode);
+    }
+    int maxBatch = Integer.getInteger("bank.journal.maxBatch", DEFAULT_MAX_BATCH);
+    long lingerMicros = Long.getLong("bank.journal.lingerUs", DEFAULT_MAX_LINGER_MICROS);
+    return new TransactionJournal(fileName, policy, maxBatch, lingerMicros, files);
+  }
+
+  public static String accountRecord(Account acc) {
+    return "A," + acc.toCSV();
+  }
+
+  public static String transactionRecord(int accNo, Transaction t) {
+    StringBuilder sb = new StringBuilder(64);
+    sb.append("R,").append(accNo).append(',').append(t.getSequence()).append(',').append(t.getTimestamp())
+        .append(',');
+    if (t.getBalanceCents() >= 0) {
+      Money.append(sb, t.getBalanceCents());
+    }
+    sb.append(',').append(t.getType()).append(',');
+    Money.append(sb, t.getAmountCents());
+    return sb.append(',').append(t.getDescription()).toString();
+  }
+
+  public static String deletionRecord(int accNo) {
+    return "D," + accNo;
+  }
+
+  // Writes all records with a single write call. A change that spans several
+  // records (e.g. both sides of a transfer) is framed by a B header, and replay
+  // applies it only if every record made it to disk. Returns once the records
+  // are as durable as the fsync policy makes them.
+  public void append(String... records) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    if (records.length > 1) {
+      sb.append("B,").append(records.length).append('\n');
+    }
+    for (String record : records) {
+      sb.append(record).append('\n');
+    }
+    byte[] data = sb.toString().getBytes(StandardCharsets.UTF_8);
+    if (committer != null) {
+      committer.submitAndWait(data);
+      return;
+    }
+    synchronized (this) {
+      writeFully(ByteBuffer.wrap(data));
+      if (policy == FsyncPolicy.PER_RECORD) {
+        channel.force(false);
+      }
+      size += data.length;
+    }
+  }
+
+  private void writeFully(ByteBuffer buf) throws IOException {
+    while (buf.hasRemaining()) {
+      channel.write(buf);
+    }
+  }
+
+  // Group commit sink: one gathering write and one force for the whole batch
+  private synchronized void commitBatch(List<byte[]> batch) throws IOException {
+    ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+    long remaining = 0;
+    for (int i = 0; i < buffers.length; i++) {
+      buffers[i] = ByteBuffer.wrap(batch.get(i));
+      remaining += buffers[i].remaining();
+    }
+    long total = remaining;
+    while (remaining > 0) {
+      remaining -= channel.write(buffers);
+    }
+    channel.force(false);
+    size += total;
+  }
+
+  // Batch size and commit latency figures, or null when not group committing
+  public String groupCommitStats() {
+    return committer == null ? null : committer.stats();
+  }
+
+  // Bytes in the journal since the last checkpoint started
+  public long size() {
+    return size;
+  }
+
+  // Moves the records appended so far to the .checkpoint file; later appends
+  // go to a fresh journal. If an earlier checkpoint never finished, its file
+  // still holds records no snapshot contains, and these are added after them.
+  public synchronized void beginCheckpoint() throws IOException {
+    channel.force(false);
+    if (Files.exists(checkpointFile)) {
+      try (FileChannel records = FileChannel.open(file, StandardOpenOption.READ);
+          FileChannel previous = APPEND.open(checkpointFile)) {
+        long copied = 0;
+        while (copied < size) {
+          copied += records.transferTo(copied, size - copied, previous);
+        }
+        previous.force(false);
+      }
+      // A crash before this truncate leaves the records in both files, which
+      // replay tolerates
+      channel.truncate(0);
+    } else {
+      channel.close();
+      Files.move(file, checkpointFile, StandardCopyOption.ATOMIC_MOVE);
+      channel = files.open(file);
+    }
+    size = 0;
+  }
+
+  // Called once the snapshot files contain everything in the .checkpoint file
+  public void endCheckpoint() throws IOException {
+    Files.deleteIfExists(checkpointFile);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (committer != null) {
+      committer.close();
+    }
+    synchronized (this) {
+      if (policy != FsyncPolicy.OS_BUFFERED) {
+        channel.force(false);
+      }
+      channel.close();
+    }
+  }
+
+  public static int replay(String fileName, AccountRegistry accounts) throws IOException {
+    return replay(fileName, accounts, notice -> { });
+  }
+
+  // Applies the journal on top of the accounts loaded from the snapshot, after
+  // the .checkpoint file of an unfinished checkpoint if there is one. Returns
+  // the number of records applied; unreadable records are skipped and
+  // reported to notices.
+  public static int replay(String fileName, AccountRegistry accounts, Consumer<String> notices) throws IOException {
+    return replayFile(Paths.get(fileName + CHECKPOINT_SUFFIX), accounts, notices)
+        + replayFile(Paths.get(fileName), accounts, notices);
+  }
+
+  // A torn final line (no trailing newline) is from a crash mid-append and is
+  // ignored
+  private static int replayFile(Path file, AccountRegistry accounts, Consumer<String> notices) throws IOException {
+    if (!Files.exists(file)) {
+      return 0;
+    }
+    boolean lastLineComplete = true;
+    try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r")) {
+      if (raf.length() > 0) {
+        raf.seek(raf.length() - 1);
+        lastLineComplete = raf.read() == '\n';
+      }
+    }
+
+    // Each line is handled once the next one has been read, so the last line
+    // can be held back if it is torn. Records of a batch are collected and only
+    // applied once the whole batch has been read.
+    int applied = 0;
+    ArrayList<String> batch = new ArrayList<>();
+    int batchRemaining = 0;
+    try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      String pending = reader.readLine();
+      String line;
+      while (pending != null) {
+        line = reader.readLine();
+        if (line == null && !lastLineComplete) {
+          break;
+        }
+        if (batchRemaining > 0) {
+          batch.add(pending);
+          if (--batchRemaining == 0) {
+            for (String record : batch) {
+              if (apply(record, accounts, notices)) {
+                applied++;
+              }
+            }
+            batch.clear();
+          }
+        } else if (pending.startsWith("B,")) {
+          batchRemaining = parseBatchSize(pending, notices);
+        } else if (apply(pending, accounts, notices)) {
+          applied++;
+        }
+        pending = line;
+      }
+    }
+    // A batch cut short by a crash is dropped as a whole
+    return applied;
+  }
+
+  private static int parseBatchSize(String header, Consumer<String> notices) {
+    try {
+      return Math.max(0, Integer.parseInt(header.substring(2)));
+    } catch (NumberFormatException e) {
+      notices.accept("Skipping unreadable journal record: " + header);
+      return 0;
+    }
+  }
+
+  private static boolean apply(String line, AccountRegistry accounts, Consumer<String> notices) {
+    if (line.length() < 2 || line.charAt(1) != ',') {
+      return false;
+    }
+    String body = line.substring(2);
+    try {
+      switch (line.charAt(0)) {
+        case 'A': {
+          Account updated = Account.fromCSV(body);
+          Account existing = accounts.get(updated.getAccNo());
+          if (existing != null) {
+            updated.adoptHistoryOf(existing);
+          }
+          accounts.put(updated);
+          return true;
+        }
+        case 'T': {
+          String[] parts = body.split(",", 4);
+          if (parts.length != 4) {
+            return false;
+          }
+          Account acc = accounts.get(Integer.parseInt(parts[0]));
+          if (acc == null) {
+            return false;
+          }
+          acc.addTransaction(Transaction.ofCents(parts[1], Money.parse(parts[2]), parts[3], 0));
+          return true;
+        }
+        case 'R':
+        case 'S': {
+          int fields = line.charAt(0) == 'R' ? 7 : 6;
+          String[] parts = body.split(",", fields);
+          if (parts.length != fields) {
+            return false;
+          }
+          Account acc = accounts.get(Integer.parseInt(parts[0]));
+          long sequence = Long.parseLong(parts[1]);
+          if (acc == null || sequence <= acc.lastSequence()) {
+            return false; // unknown account, or already in the snapshot
+          }
+          int type = fields - 3;
+          long balance = fields == 7 && !parts[3].isEmpty() ? Money.parse(parts[3]) : -1;
+          acc.addTransaction(Transaction.ofCents(parts[type], Money.parse(parts[type + 1]), parts[type + 2],
+              Long.parseLong(parts[2]), sequence, balance));
+          return true;
+        }
+        case 'D':
+          return accounts.remove(Integer.parseInt(body)) != null;
+        default:
+          return false;
+      }
+    } catch (IllegalArgumentException e) { // includes NumberFormatException
+      notices.accept("Skipping unreadable journal record: " + line);
+      return false;
+    }
+  }
+}
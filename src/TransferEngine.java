@@ -0,0 +1,138 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+// Moves money between two accounts as one unit. Each account maps to a lock
+// stripe by accNo; a transfer holds the stripes of both accounts, always taken
+// lowest index first, so two transfers in opposite directions cannot deadlock.
+// Both legs and both history entries are applied and persisted under the locks.
+// An account that the registered check rejects under them (it was deleted
+// while a session still held it) takes part in no transfer.
+public class TransferEngine {
+
+  public enum Result {
+    SUCCESS,
+    INVALID_AMOUNT,
+    SAME_ACCOUNT,
+    INSUFFICIENT_FUNDS,
+    ACCOUNT_NOT_FOUND,
+    IO_ERROR // made, but the sink could not save it
+  }
+
+  // Receives the journal records for a completed transfer, in one call, and
+  // returns whether they were saved
+  public interface ChangeSink {
+    boolean persist(ArrayList<String> records);
+  }
+
+  public static final int DEFAULT_STRIPES = 1024;
+
+  private final ReentrantLock[] stripes;
+  private final int mask;
+  private final ChangeSink sink;
+  private final Predicate<Account> registered;
+
+  public TransferEngine(ChangeSink sink) {
+    this(DEFAULT_STRIPES, sink);
+  }
+
+  public TransferEngine(int stripeCount, ChangeSink sink) {
+    this(stripeCount, sink, account -> true);
+  }
+
+  // registered is asked about both accounts while their stripes are held
+  public TransferEngine(int stripeCount, ChangeSink sink, Predicate<Account> registered) {
+    if (stripeCount < 1 || Integer.bitCount(stripeCount) != 1) {
+      throw new IllegalArgumentException("Stripe count must be a power of two");
+    }
+    stripes = new ReentrantLock[stripeCount];
+    for (int i = 0; i < stripeCount; i++) {
+      stripes[i] = new ReentrantLock();
+    }
+    mask = stripeCount - 1;
+    this.sink = sink;
+    this.registered = registered;
+  }
+
+  int stripeFor(int accNo) {
+    int h = accNo * 0x9E3779B9;
+    return (h ^ (h >>> 16)) & mask;
+  }
+
+  // The stripe lock of one account. Single-account changes take it so they
+  // never interleave with a transfer touching the same account.
+  ReentrantLock lockFor(Account account) {
+    return stripes[stripeFor(account.getAccNo())];
+  }
+
+  // The distinct stripe locks of the first count accNos, lowest index first:
+  // the order a transfer takes its two, so holding them all cannot deadlock
+  ArrayList<ReentrantLock> locksFor(int[] accNos, int count) {
+    boolean[] needed = new boolean[stripes.length];
+    for (int i = 0; i < count; i++) {
+      needed[stripeFor(accNos[i])] = true;
+    }
+    ArrayList<ReentrantLock> locks = new ArrayList<>();
+    for (int i = 0; i < stripes.length; i++) {
+      if (needed[i]) {
+        locks.add(stripes[i]);
+      }
+    }
+    return locks;
+  }
+
+  public Result transfer(Account from, Account to, double amount) {
+    return transferCents(from, to, Money.fromDouble(amount));
+  }
+
+  public Result transferCents(Account from, Account to, long cents) {
+    if (cents <= 0) {
+      return Result.INVALID_AMOUNT;
+    }
+    if (from.getAccNo() == to.getAccNo()) {
+      return Result.SAME_ACCOUNT;
+    }
+
+    int a = stripeFor(from.getAccNo());
+    int b = stripeFor(to.getAccNo());
+    ReentrantLock first = stripes[Math.min(a, b)];
+    ReentrantLock second = stripes[Math.max(a, b)];
+    first.lock();
+    try {
+      if (second != first) {
+        second.lock();
+      }
+      try {
+        if (!registered.test(from) || !registered.test(to)) {
+          return Result.ACCOUNT_NOT_FOUND;
+        }
+        Transaction out = Transaction.transfer(cents, to.getAccNo(), true);
+        if (from.debitCents(cents, out) < 0) {
+          return Result.INSUFFICIENT_FUNDS;
+        }
+        Transaction in = Transaction.transfer(cents, from.getAccNo(), false);
+        to.creditCents(cents, in);
+
+        if (sink != null) {
+          ArrayList<String> records = new ArrayList<>();
+          records.add(TransactionJournal.accountRecord(from));
+          records.add(TransactionJournal.transactionRecord(from.getAccNo(), out));
+          records.add(TransactionJournal.accountRecord(to));
+          records.add(TransactionJournal.transactionRecord(to.getAccNo(), in));
+          if (!sink.persist(records)) {
+            return Result.IO_ERROR;
+          }
+        }
+        return Result.SUCCESS;
+      } finally {
+        if (second != first) {
+          second.unlock();
+        }
+      }
+    } finally {
+      first.unlock();
+    }
+  }
+}
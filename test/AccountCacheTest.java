@@ -0,0 +1,248 @@
+package test;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import src.Account;
+import src.AccountCache;
+import src.AccountCache.Policy;
+import src.BankService;
+import src.Transaction;
+
+public class AccountCacheTest {
+
+  @TempDir
+  Path dir;
+
+  AccountCache cache;
+
+  @AfterEach
+  public void tearDown() throws Exception {
+    if (cache != null) {
+      cache.close();
+    }
+  }
+
+  private AccountCache newCache(Policy policy, long maxEntries, long maxBytes) {
+    cache = new AccountCache(dir.resolve("accounts.spill").toString(), policy, maxEntries, maxBytes);
+    return cache;
+  }
+
+  private static Account account(int accNo) {
+    return Account.ofCents("Holder", accNo, 1000, "secret1");
+  }
+
+  @Test
+  public void testLruEvictsLeastRecentlyUsed() {
+    newCache(Policy.LRU, 3, 0);
+    cache.put(account(100001));
+    cache.put(account(100002));
+    cache.put(account(100003));
+    cache.get(100001);
+    cache.put(account(100004)); // evicts 100002
+
+    AccountCache.Stats stats = cache.stats();
+    assertEquals(1, stats.hits());
+    assertEquals(1, stats.evictions());
+    assertEquals(3, stats.resident());
+    assertEquals(4, cache.size());
+
+    cache.get(100003);
+    assertEquals(0, cache.stats().misses());
+    cache.get(100002);
+    assertEquals(1, cache.stats().misses());
+  }
+
+  @Test
+  public void testEvictedAccountIsReloadedWithItsHistory() {
+    newCache(Policy.LRU, 1, 0);
+    Account acc = account(100001);
+    cache.put(acc);
+    acc.depositCents(250);
+    acc.withdrawCents(100);
+    long[] sequences = acc.getTransactions().stream().mapToLong(Transaction::getSequence).toArray();
+    acc = null;
+    cache.put(account(100002));
+    System.gc(); // drop the evicted object, so it has to come back from the spill file
+
+    Account loaded = cache.get(100001);
+    assertEquals(1150, loaded.getBalanceCents());
+    assertEquals("Holder", loaded.getName());
+    assertTrue(loaded.checkPassword("secret1"));
+    List<Transaction> history = loaded.getTransactions();
+    assertEquals(2, history.size());
+    assertEquals("Withdrawal", history.get(1).getType());
+    assertArrayEquals(sequences, history.stream().mapToLong(Transaction::getSequence).toArray());
+    assertEquals(2, cache.stats().spillWrites()); // 100001, then 100002 when 100001 came back
+  }
+
+  @Test
+  public void testHeldReferenceStaysTheAccount() {
+    newCache(Policy.LRU, 1, 0);
+    Account held = account(100001);
+    cache.put(held);
+    cache.put(account(100002)); // evicts held
+
+    held.depositCents(500); // a change while evicted brings it back
+    assertEquals(2, cache.stats().evictions()); // and pushes 100002 out
+    assertSame(held, cache.get(100001));
+    assertEquals(1500, cache.get(100001).getBalanceCents());
+
+    cache.get(100002);
+    assertSame(held, cache.get(100001));
+    assertEquals(1500, cache.get(100001).getBalanceCents());
+  }
+
+  @Test
+  public void testTinyLfuKeepsBusyAccountsThroughAScan() throws Exception {
+    for (Policy policy : Policy.values()) {
+      newCache(policy, 100, 0);
+      for (int i = 0; i < 10; i++) {
+        cache.put(account(100000 + i));
+      }
+      for (int round = 0; round < 5; round++) {
+        for (int i = 0; i < 10; i++) {
+          cache.get(100000 + i);
+        }
+      }
+      for (int i = 0; i < 1000; i++) {
+        cache.put(account(200000 + i));
+      }
+      long misses = cache.stats().misses();
+      for (int i = 0; i < 10; i++) {
+        cache.get(100000 + i);
+      }
+      long busyMisses = cache.stats().misses() - misses;
+      if (policy == Policy.LRU) {
+        assertEquals(10, busyMisses);
+      } else {
+        assertEquals(0, busyMisses);
+      }
+      assertEquals(1010, cache.size());
+      cache.close();
+      cache = null;
+    }
+  }
+
+  @Test
+  public void testByteBudget() {
+    newCache(Policy.W_TINYLFU, 0, 2000);
+    for (int i = 0; i < 50; i++) {
+      cache.put(account(100000 + i));
+    }
+    AccountCache.Stats stats = cache.stats();
+    assertTrue(stats.residentBytes() <= 2000, stats.toString());
+    assertTrue(stats.resident() < 50);
+    assertEquals(50, cache.size());
+  }
+
+  @Test
+  public void testIterationAndRemoveCoverEvictedAccounts() {
+    newCache(Policy.LRU, 2, 0);
+    for (int i = 0; i < 5; i++) {
+      cache.put(account(100000 + i));
+    }
+    Set<Integer> seen = new HashSet<>();
+    for (Account acc : cache) {
+      seen.add(acc.getAccNo());
+    }
+    assertEquals(Set.of(100000, 100001, 100002, 100003, 100004), seen);
+    assertEquals(2, cache.stats().resident()); // iterating does not load
+
+    assertTrue(cache.contains(100000));
+    cache.remove(100000);
+    assertFalse(cache.contains(100000));
+    assertNull(cache.get(100000));
+    assertEquals(4, cache.size());
+  }
+
+  // Each eviction appends a record and leaves the old one as garbage; the
+  // file is compacted once the garbage passes 64 KB and the live records
+  @Test
+  public void testSpillFileIsCompacted() throws Exception {
+    newCache(Policy.LRU, 1, 0);
+    for (int i = 0; i < 10; i++) {
+      cache.put(Account.ofCents("Holder", 200000 + i, 1000 + i, "secret1"));
+    }
+    for (int round = 0; round < 20_000; round++) {
+      cache.put(account(100000 + round % 2)); // replaces the evicted one, and evicts the other
+    }
+    long bytes = Files.size(dir.resolve("accounts.spill"));
+    assertTrue(bytes < 1 << 17, "Spill file grew to " + bytes + " bytes");
+    for (int i = 0; i < 10; i++) {
+      assertEquals(1000 + i, cache.get(200000 + i).getBalanceCents());
+    }
+    assertEquals(1000, cache.get(100000).getBalanceCents());
+    assertEquals(12, cache.size());
+  }
+
+  // Threads missing the same account at once read it back once, and all get
+  // the one object
+  @Test
+  public void testConcurrentMissesShareOneAccount() throws Exception {
+    newCache(Policy.LRU, 1, 0);
+    for (int i = 0; i < 20; i++) {
+      cache.put(account(100000 + i));
+    }
+    System.gc(); // drop the evicted objects, so they come back from the spill file
+    Account[] seen = new Account[8];
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < seen.length; t++) {
+      int index = t;
+      Thread thread = new Thread(() -> seen[index] = cache.get(100007));
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    for (Account acc : seen) {
+      assertSame(seen[0], acc);
+    }
+    assertEquals(1000, seen[0].getBalanceCents());
+    assertEquals(20, cache.size());
+  }
+
+  @Test
+  public void testServiceWithCacheBudget() throws Exception {
+    List<String> notices = new ArrayList<>();
+    System.setProperty("bank.cache.maxEntries", "3");
+    try {
+      BankService service = new BankService(dir.toString(), notices::add);
+      service.open();
+      for (int i = 0; i < 10; i++) {
+        assertTrue(service.createAccount("Holder", 100000 + i, 1000, "secret1").ok());
+      }
+      for (int i = 0; i < 10; i++) {
+        assertTrue(service.deposit(service.findAccountByNumber(100000 + i), 100 * (i + 1)).ok());
+      }
+      assertTrue(service.cacheStats().evictions() > 0);
+      assertTrue(Files.exists(dir.resolve(BankService.SPILL_FILE)));
+      service.close();
+      assertFalse(Files.exists(dir.resolve(BankService.SPILL_FILE)));
+
+      service = new BankService(dir.toString(), notices::add);
+      service.open();
+      // Histories were attached to the spilled accounts without reading them back
+      assertEquals(0, service.cacheStats().misses(), service.cacheStats().toString());
+      for (int i = 0; i < 10; i++) {
+        Account acc = service.findAccountByNumber(100000 + i);
+        assertEquals(1100 + 100 * i, acc.getBalanceCents());
+        assertEquals("Deposit", acc.getTransactions().get(0).getType());
+      }
+      assertEquals(10, service.accounts().size());
+      service.close();
+    } finally {
+      System.clearProperty("bank.cache.maxEntries");
+    }
+  }
+}
@@ -0,0 +1,129 @@
+package test;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import src.Account;
+import src.Transaction;
+
+public class AccountConcurrencyTest {
+
+  @Test
+  public void testHotAccountFromManyThreadsLosesNoUpdates() throws Exception {
+    final int threads = 64;
+    final int opsPerThread = 2_000;
+    final long initialCents = 50_000;
+    Account hot = new Account("Hot", 100001, initialCents / 100.0, "hotPass1");
+    AtomicLong appliedCents = new AtomicLong();
+    AtomicLong appliedOps = new AtomicLong();
+    AtomicLong lowestSeen = new AtomicLong(Long.MAX_VALUE);
+    CountDownLatch start = new CountDownLatch(1);
+
+    Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      final long seed = t;
+      workers[t] = new Thread(() -> {
+        Random random = new Random(seed);
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        for (int i = 0; i < opsPerThread; i++) {
+          long cents = 1 + random.nextInt(2_000);
+          if (random.nextBoolean()) {
+            if (hot.deposit(cents / 100.0)) {
+              appliedCents.addAndGet(cents);
+              appliedOps.incrementAndGet();
+            }
+          } else if (hot.withdraw(cents / 100.0)) {
+            appliedCents.addAndGet(-cents);
+            appliedOps.incrementAndGet();
+          }
+          lowestSeen.accumulateAndGet(Math.round(hot.getBalance() * 100), Math::min);
+        }
+      });
+      workers[t].start();
+    }
+    start.countDown();
+    for (Thread w : workers) {
+      w.join();
+    }
+
+    long expected = initialCents + appliedCents.get();
+    assertEquals(expected, Math.round(hot.getBalance() * 100),
+        "Final balance should equal the initial balance plus every applied operation");
+    assertTrue(lowestSeen.get() >= 0, "Balance should never go negative");
+    assertEquals(appliedOps.get(), hot.getTransactions().size(), "Every applied operation should be recorded");
+  }
+
+  @Test
+  public void testConcurrentWithdrawalsNeverOverdraw() throws Exception {
+    Account acc = new Account("Drain", 100002, 100.0, "drainPass");
+    Thread[] workers = new Thread[64];
+    AtomicLong successes = new AtomicLong();
+    for (int t = 0; t < workers.length; t++) {
+      workers[t] = new Thread(() -> {
+        for (int i = 0; i < 10; i++) {
+          if (acc.withdraw(1.0)) {
+            successes.incrementAndGet();
+          }
+        }
+      });
+      workers[t].start();
+    }
+    for (Thread w : workers) {
+      w.join();
+    }
+    assertEquals(100, successes.get(), "Exactly the available funds should be withdrawn");
+    assertEquals(0.0, acc.getBalance());
+  }
+
+  // Each entry's balance must be the one its own change produced: the previous
+  // entry's balance plus or minus its amount, all the way through
+  @Test
+  public void testConcurrentChangesStampTheirOwnBalance() throws Exception {
+    final long initialCents = 10_000;
+    Account acc = Account.ofCents("Stamps", 100003, initialCents, "stampsPass");
+    CountDownLatch start = new CountDownLatch(1);
+    Thread[] workers = new Thread[16];
+    for (int t = 0; t < workers.length; t++) {
+      final long seed = t;
+      workers[t] = new Thread(() -> {
+        Random random = new Random(seed);
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        for (int i = 0; i < 2_000; i++) {
+          long cents = 1 + random.nextInt(500);
+          if (random.nextBoolean()) {
+            acc.depositCents(cents);
+          } else {
+            acc.withdrawCents(cents);
+          }
+        }
+      });
+      workers[t].start();
+    }
+    start.countDown();
+    for (Thread w : workers) {
+      w.join();
+    }
+
+    long balance = initialCents;
+    long previousSequence = 0;
+    for (Transaction t : acc.getTransactions()) {
+      balance += t.getType().equals("Deposit") ? t.getAmountCents() : -t.getAmountCents();
+      assertEquals(balance, t.getBalanceCents(), "entry " + t.getSequence());
+      assertTrue(t.getSequence() > previousSequence);
+      previousSequence = t.getSequence();
+    }
+    assertEquals(acc.getBalanceCents(), balance);
+  }
+}
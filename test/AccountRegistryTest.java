@@ -0,0 +1,83 @@
+package test;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import src.Account;
+import src.AccountRegistry;
+
+public class AccountRegistryTest {
+
+  private static Account account(int accNo) {
+    return new Account("User", accNo, 100.0, "password");
+  }
+
+  @Test
+  public void testGetReturnsPutAccount() {
+    AccountRegistry registry = new AccountRegistry();
+    Account acc = account(123456);
+    registry.put(acc);
+    assertSame(acc, registry.get(123456), "Lookup should return the stored account");
+    assertNull(registry.get(654321), "Lookup of an unknown number should return null");
+    assertEquals(1, registry.size());
+  }
+
+  @Test
+  public void testIterationKeepsInsertionOrder() {
+    AccountRegistry registry = new AccountRegistry();
+    int[] numbers = { 500000, 100000, 900000, 300000 };
+    for (int n : numbers) {
+      registry.put(account(n));
+    }
+    registry.remove(900000);
+    List<Integer> seen = new ArrayList<>();
+    for (Account acc : registry) {
+      seen.add(acc.getAccNo());
+    }
+    assertEquals(List.of(500000, 100000, 300000), seen, "Iteration should follow insertion order");
+  }
+
+  @Test
+  public void testPutWithExistingNumberReplacesInPlace() {
+    AccountRegistry registry = new AccountRegistry();
+    registry.put(account(111111));
+    registry.put(account(222222));
+    Account replacement = account(111111);
+    assertNotNull(registry.put(replacement), "Replacing should return the previous account");
+    assertSame(replacement, registry.get(111111));
+    assertEquals(2, registry.size());
+    assertSame(replacement, registry.iterator().next(), "Replacement should keep the original position");
+  }
+
+  @Test
+  public void testRandomOperationsMatchHashMap() {
+    AccountRegistry registry = new AccountRegistry();
+    Map<Integer, Account> expected = new HashMap<>();
+    Random random = new Random(42);
+    for (int i = 0; i < 200_000; i++) {
+      int accNo = 100000 + random.nextInt(5000);
+      if (random.nextInt(3) == 0) {
+        assertSame(expected.remove(accNo), registry.remove(accNo));
+      } else {
+        Account acc = account(accNo);
+        assertSame(expected.put(accNo, acc), registry.put(acc));
+      }
+    }
+    assertEquals(expected.size(), registry.size());
+    for (Map.Entry<Integer, Account> e : expected.entrySet()) {
+      assertSame(e.getValue(), registry.get(e.getKey()));
+    }
+    int iterated = 0;
+    for (Account acc : registry) {
+      assertSame(expected.get(acc.getAccNo()), acc);
+      iterated++;
+    }
+    assertEquals(expected.size(), iterated, "Iteration should visit every live account once");
+  }
+}
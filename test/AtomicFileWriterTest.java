@@ -0,0 +1,157 @@
+package test;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import src.Account;
+import src.AccountRegistry;
+import src.AtomicFileWriter;
+import src.BankService;
+import src.TextSnapshot;
+import src.Transaction;
+import src.TransactionJournal;
+
+public class AtomicFileWriterTest {
+
+  @TempDir
+  Path dir;
+
+  // Opens real temporary files whose writes stop after failAfter bytes and
+  // fail, as a crash or full disk would; -1 never fails
+  private static final class FailingOpener implements AtomicFileWriter.ChannelOpener {
+    volatile long failAfter = -1;
+
+    @Override
+    public FileChannel open(Path temp) throws IOException {
+      long limit = failAfter;
+      return new FailingChannel(AtomicFileWriter.FILES.open(temp), () -> limit);
+    }
+  }
+
+  private static AccountRegistry sampleAccounts(int count, String name) {
+    AccountRegistry accounts = new AccountRegistry();
+    for (int i = 0; i < count; i++) {
+      Account acc = Account.ofCents(name, 100000 + i, 1000L * i, "secret" + i);
+      acc.addTransaction(Transaction.ofCents("Deposit", 1000L * i + 1, "Deposit to account"));
+      accounts.put(acc);
+    }
+    return accounts;
+  }
+
+  private void assertNoTemporaryFiles() throws IOException {
+    try (var files = Files.list(dir)) {
+      assertTrue(files.noneMatch(f -> f.toString().endsWith(".tmp")), "temporary file left behind");
+    }
+  }
+
+  @Test
+  public void testCommitReplacesFile() throws IOException {
+    Path file = dir.resolve("data.txt");
+    Files.writeString(file, "old contents\n");
+    StringBuilder expected = new StringBuilder();
+    // Larger than the buffer, with characters that take several UTF-8 bytes
+    for (int i = 0; i < 20_000; i++) {
+      expected.append("Zo\u00eb \u20ac").append(i).append(" \ud83d\ude00\n");
+    }
+    try (AtomicFileWriter out = new AtomicFileWriter(file.toString())) {
+      out.write(expected.toString());
+      out.write(ByteBuffer.wrap("binary tail".getBytes(StandardCharsets.UTF_8)));
+      out.commit();
+    }
+    assertEquals(expected + "binary tail", Files.readString(file));
+    assertNoTemporaryFiles();
+  }
+
+  @Test
+  public void testCloseWithoutCommitKeepsOldFile() throws IOException {
+    Path file = dir.resolve("data.txt");
+    Files.writeString(file, "old contents\n");
+    try (AtomicFileWriter out = new AtomicFileWriter(file.toString(), 16)) {
+      out.write("new contents that fill the buffer several times over\n");
+      out.flush();
+    }
+    assertEquals("old contents\n", Files.readString(file));
+    assertNoTemporaryFiles();
+  }
+
+  // Cuts the write off at random offsets, as a crash or full disk would, and
+  // checks the previous file survives byte for byte
+  @Test
+  public void testFailedWritesLeavePreviousFileIntact() throws IOException {
+    String accountsFile = dir.resolve(TextSnapshot.ACCOUNTS_FILE).toString();
+    String transactionsFile = dir.resolve(TextSnapshot.TRANSACTIONS_FILE).toString();
+    TextSnapshot.writeAccounts(accountsFile, sampleAccounts(2_000, "Before"));
+    TextSnapshot.writeTransactions(transactionsFile, sampleAccounts(2_000, "Before"));
+    byte[] accountsBefore = Files.readAllBytes(Path.of(accountsFile));
+    byte[] transactionsBefore = Files.readAllBytes(Path.of(transactionsFile));
+
+    AccountRegistry changed = sampleAccounts(3_000, "After");
+    FailingOpener failing = new FailingOpener();
+    Random random = new Random(42);
+    for (int i = 0; i < 50; i++) {
+      failing.failAfter = random.nextInt(accountsBefore.length);
+      assertThrows(IOException.class, () -> TextSnapshot.writeAccounts(accountsFile, changed, failing));
+      failing.failAfter = random.nextInt(transactionsBefore.length);
+      assertThrows(IOException.class, () -> TextSnapshot.writeTransactions(transactionsFile, changed, failing));
+      assertArrayEquals(accountsBefore, Files.readAllBytes(Path.of(accountsFile)));
+      assertArrayEquals(transactionsBefore, Files.readAllBytes(Path.of(transactionsFile)));
+      assertNoTemporaryFiles();
+    }
+
+    TextSnapshot.writeAccounts(accountsFile, changed);
+    AccountRegistry reloaded = new AccountRegistry();
+    assertEquals(3_000, TextSnapshot.readAccounts(accountsFile, reloaded));
+  }
+
+  // Checkpoints that fail part way must leave the snapshot and journal able to
+  // recover every change made so far
+  @Test
+  public void testFailedCheckpointsLoseNothing() throws IOException {
+    FailingOpener failing = new FailingOpener();
+    BankService service = new BankService(dir.toString(), notice -> { }, failing);
+    service.open();
+    List<Account> accounts = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      service.createAccount("Holder", 200000 + i, 10_000, "secret1");
+      accounts.add(service.findAccountByNumber(200000 + i));
+    }
+    service.checkpoint();
+
+    Random random = new Random(7);
+    for (int round = 0; round < 30; round++) {
+      for (int i = 0; i < 20; i++) {
+        service.deposit(accounts.get(random.nextInt(accounts.size())), 1 + random.nextInt(500));
+      }
+      long snapshotBytes = Files.size(dir.resolve(TextSnapshot.ACCOUNTS_FILE))
+          + Files.size(dir.resolve(TextSnapshot.TRANSACTIONS_FILE));
+      failing.failAfter = random.nextInt((int) snapshotBytes);
+      service.checkpoint();
+      failing.failAfter = -1;
+
+      // Recover the way open() does, without disturbing the running service
+      AccountRegistry recovered = new AccountRegistry();
+      TextSnapshot.readAccounts(dir.resolve(TextSnapshot.ACCOUNTS_FILE).toString(), recovered);
+      TextSnapshot.readTransactions(dir.resolve(TextSnapshot.TRANSACTIONS_FILE).toString(), recovered);
+      TransactionJournal.replay(dir.resolve(BankService.JOURNAL_FILE).toString(), recovered);
+      for (Account acc : accounts) {
+        Account copy = recovered.get(acc.getAccNo());
+        assertNotNull(copy, "round " + round + ": account " + acc.getAccNo() + " lost");
+        assertEquals(acc.getBalanceCents(), copy.getBalanceCents(), "round " + round);
+        assertEquals(acc.getTransactions().size(), copy.getTransactions().size(), "round " + round);
+      }
+      assertNoTemporaryFiles();
+    }
+    service.close();
+  }
+}
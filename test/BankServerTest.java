@@ -0,0 +1,214 @@
+package test;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import src.Account;
+import src.BankServer;
+import src.BankService;
+import src.BankSession;
+
+public class BankServerTest {
+
+  @TempDir
+  Path dir;
+
+  BankService service;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    service = new BankService(dir.toString(), notice -> { });
+    service.open();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    service.close();
+  }
+
+  @Test
+  public void testSessionProtocol() {
+    BankSession session = new BankSession(service);
+    assertEquals("OK 100.00", session.handle("CREATE 123456 100 secret1 Mary Ann"));
+    assertEquals("OK 0.00", session.handle("CREATE 654321 0 secret2 Bob"));
+    assertEquals("ERR NOT_LOGGED_IN Please log in first.", session.handle("BALANCE"));
+    assertTrue(session.handle("LOGIN 123456 wrong!!").startsWith("ERR WRONG_PASSWORD"));
+    assertEquals("OK 100.00", session.handle("LOGIN 123456 secret1"));
+    assertEquals("Mary Ann", session.account().getName());
+
+    assertEquals("OK 112.50", session.handle("DEPOSIT 12.50"));
+    assertEquals("OK 102.50", session.handle("withdraw 10"));
+    assertTrue(session.handle("WITHDRAW 1000").startsWith("ERR INSUFFICIENT_FUNDS"));
+    assertEquals("OK 72.50", session.handle("TRANSFER 654321 30"));
+    assertTrue(session.handle("TRANSFER 654321 abc").startsWith("ERR BAD_REQUEST"));
+    assertTrue(session.handle("DEPOSIT").startsWith("ERR BAD_REQUEST"));
+    assertTrue(session.handle("FLY").startsWith("ERR BAD_REQUEST"));
+
+    String history = session.handle("HISTORY");
+    assertTrue(history.startsWith("OK 3\n"), history);
+    assertTrue(history.endsWith("Transfer: $30.00 - Transfer to account 654321"), history);
+    String[] page = session.handle("HISTORY 2").split("\n");
+    assertEquals(3, page.length);
+    assertTrue(page[0].startsWith("OK 2 "), page[0]);
+    assertEquals("Transfer: $30.00 - Transfer to account 654321", page[1], "Pages are newest first");
+    String cursor = page[0].substring("OK 2 ".length());
+    String last = session.handle("HISTORY 5 " + cursor);
+    assertTrue(last.startsWith("OK 1 0\n"), last);
+    assertTrue(session.handle("HISTORY 0").startsWith("ERR BAD_REQUEST"));
+
+    assertEquals("OK 82.50", session.handle("KEY d-1 DEPOSIT 10"));
+    assertEquals("OK 82.50", session.handle("key d-1 DEPOSIT 10"));
+    assertTrue(session.handle("KEY d-2").startsWith("ERR BAD_REQUEST"));
+    assertEquals("OK", session.handle("LOGOUT"));
+    assertNull(session.account());
+    assertEquals("OK", session.handle("QUIT"));
+    assertTrue(session.isClosed());
+  }
+
+  // The whole history is written out as it is read, with the snapshot part
+  // still mapped, and reads the same as the reply built in one piece
+  @Test
+  public void testFullHistoryIsStreamed() throws Exception {
+    Account acc = service.createAccount("Alice", 123456, 0, "secret1").account();
+    for (int i = 1; i <= 1500; i++) {
+      service.deposit(acc, i);
+    }
+    service.close();
+    service = new BankService(dir.toString(), notice -> { });
+    service.open();
+    service.deposit(service.findAccountByNumber(123456), 7);
+
+    BankSession session = new BankSession(service);
+    session.handle("LOGIN 123456 secret1");
+    List<String> writes = new ArrayList<>();
+    StringBuilder streamed = new StringBuilder();
+    session.handle("HISTORY", new Appendable() {
+      @Override
+      public Appendable append(CharSequence text) {
+        writes.add(text.toString());
+        streamed.append(text);
+        return this;
+      }
+
+      @Override
+      public Appendable append(CharSequence text, int start, int end) {
+        return append(text.subSequence(start, end));
+      }
+
+      @Override
+      public Appendable append(char c) {
+        return append(String.valueOf(c));
+      }
+    });
+    assertEquals(session.handle("HISTORY"), streamed.toString());
+    assertTrue(streamed.toString().startsWith("OK 1501\nDeposit: $0.01 - Deposited to account 123456\n"));
+    assertTrue(streamed.toString().endsWith("\nDeposit: $0.07 - Deposited to account 123456"));
+    assertTrue(writes.size() > 1500, "Entries should be written one at a time, not as one reply");
+  }
+
+  @Test
+  public void testResumeWithToken() {
+    BankSession first = new BankSession(service);
+    first.handle("CREATE 123456 100 secret1 Alice");
+    assertEquals("ERR NOT_LOGGED_IN Please log in first.", first.handle("TOKEN"));
+    first.handle("LOGIN 123456 secret1");
+    String token = first.handle("TOKEN").substring("OK ".length());
+    assertEquals("OK", first.handle("QUIT"));
+
+    BankSession second = new BankSession(service);
+    assertEquals("OK 100.00", second.handle("RESUME " + token));
+    assertEquals("OK 110.00", second.handle("DEPOSIT 10"));
+    assertEquals("OK", second.handle("LOGOUT"));
+    assertTrue(new BankSession(service).handle("RESUME " + token).startsWith("ERR SESSION_EXPIRED"));
+  }
+
+  @Test
+  public void testSessionsAreIndependent() {
+    BankSession alice = new BankSession(service);
+    BankSession bob = new BankSession(service);
+    alice.handle("CREATE 123456 50 secret1 Alice");
+    bob.handle("CREATE 654321 70 secret2 Bob");
+    alice.handle("LOGIN 123456 secret1");
+    bob.handle("LOGIN 654321 secret2");
+    assertEquals("OK 50.00", alice.handle("BALANCE"));
+    assertEquals("OK 70.00", bob.handle("BALANCE"));
+  }
+
+  @Test
+  public void testManyConcurrentConnections() throws Exception {
+    final int clients = 50;
+    final int depositsEach = 20;
+    service.createAccount("Shared", 100000, 0, "sharedPw");
+
+    try (BankServer server = new BankServer(service, 0)) {
+      Thread acceptor = new Thread(() -> {
+        try {
+          server.serve();
+        } catch (Exception e) {
+          // closed by the test
+        }
+      });
+      acceptor.start();
+
+      ExecutorService pool = BankServer.perTaskExecutor("test-client");
+      List<Future<String>> results = new ArrayList<>();
+      for (int c = 0; c < clients; c++) {
+        int accNo = 200000 + c;
+        results.add(pool.submit(() -> {
+          try (Socket socket = new Socket("localhost", server.port());
+              PrintWriter out = new PrintWriter(socket.getOutputStream(), true, StandardCharsets.UTF_8);
+              BufferedReader in = new BufferedReader(
+                  new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            out.println("CREATE " + accNo + " 0 password Client");
+            in.readLine();
+            // Logins past the account's burst while others are being checked are
+            // turned away as BUSY, to be tried again shortly
+            String login;
+            do {
+              out.println("LOGIN 100000 sharedPw");
+              login = in.readLine();
+            } while (login.startsWith("ERR BUSY") && sleep(5));
+            for (int i = 0; i < depositsEach; i++) {
+              out.println("DEPOSIT 1");
+              String reply = in.readLine();
+              if (!reply.startsWith("OK")) {
+                return reply;
+              }
+            }
+            out.println("QUIT");
+            return in.readLine();
+          }
+        }));
+      }
+      for (Future<String> result : results) {
+        assertEquals("OK", result.get(30, TimeUnit.SECONDS));
+      }
+      pool.shutdown();
+    }
+
+    assertEquals(clients * depositsEach * 100L, service.findAccountByNumber(100000).getBalanceCents());
+    for (int c = 0; c < clients; c++) {
+      assertNotNull(service.findAccountByNumber(200000 + c), "Every client should have created its account");
+    }
+  }
+  private static boolean sleep(long millis) throws InterruptedException {
+    Thread.sleep(millis);
+    return true;
+  }
+
+}
@@ -0,0 +1,468 @@
+package test;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import src.Account;
+import src.AtomicFileWriter;
+import src.BatchPoster;
+import src.HistoryPage;
+import src.HistorySummary;
+import src.Metrics;
+import src.PasswordHasher;
+import src.Transaction;
+import src.TransactionJournal;
+import src.BankService;
+import src.BankService.Result;
+import src.BankService.Status;
+
+public class BankServiceTest {
+
+  @TempDir
+  Path dir;
+
+  List<String> notices = new ArrayList<>();
+  BankService service;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    service = new BankService(dir.toString(), notices::add);
+    service.open();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    service.close();
+  }
+
+  @Test
+  public void testCreateAccountValidatesEveryField() {
+    assertEquals(Status.INVALID_NAME, service.createAccount("", 123456, 0, "secret1").status());
+    assertEquals(Status.INVALID_NAME, service.createAccount("R2D2", 123456, 0, "secret1").status());
+    assertEquals(Status.INVALID_ACCOUNT_NUMBER, service.createAccount("Alice", 12345, 0, "secret1").status());
+    assertEquals(Status.INVALID_PASSWORD, service.createAccount("Alice", 123456, 0, "short").status());
+    assertEquals(Status.INVALID_AMOUNT, service.createAccount("Alice", 123456, -1, "secret1").status());
+
+    Result created = service.createAccount("Alice", 123456, 10_000, "secret1");
+    assertTrue(created.ok());
+    assertEquals(10_000, created.balanceCents());
+    assertEquals(Status.ACCOUNT_EXISTS, service.createAccount("Bob", 123456, 0, "secret2").status());
+  }
+
+  @Test
+  public void testLogin() {
+    service.createAccount("Alice", 123456, 0, "secret1");
+    assertEquals(Status.ACCOUNT_NOT_FOUND, service.login(654321, "secret1").status());
+    assertEquals(Status.WRONG_PASSWORD, service.login(123456, "wrong!!").status());
+    Result login = service.login(123456, "secret1");
+    assertTrue(login.ok());
+    assertEquals("Alice", login.account().getName());
+  }
+
+  @Test
+  public void testRepeatedFailedLoginsAreRateLimited() {
+    service.createAccount("Alice", 123456, 0, "secret1");
+    service.createAccount("Bob", 654321, 0, "secret2");
+    for (int i = 0; i < 5; i++) {
+      assertEquals(Status.WRONG_PASSWORD, service.login(123456, "guess" + i).status());
+    }
+    assertEquals(Status.RATE_LIMITED, service.login(123456, "secret1").status(),
+        "Even the right password is turned away until the limit passes");
+    assertTrue(service.login(654321, "secret2").ok(), "Other accounts are not affected");
+
+    // A source making many failed attempts is limited across accounts
+    int source = 0x7F000001;
+    for (int i = 0; i < 100; i++) {
+      service.login(200000 + i, "secret1", source);
+    }
+    assertEquals(Status.RATE_LIMITED, service.login(654321, "secret2", source).status());
+    assertTrue(service.login(654321, "secret2", 0x7F000002).ok());
+  }
+
+  // Guesses made all at once are held to the same limit as guesses made one
+  // after another: only as many reach the password check as the burst allows.
+  // The rest are turned away at once, BUSY while those are being checked.
+  @Test
+  public void testParallelGuessesAreRateLimited() throws Exception {
+    service.createAccount("Alice", 123456, 0, "secret1");
+    int guesses = 40;
+    CountDownLatch go = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<>();
+    AtomicInteger checked = new AtomicInteger();
+    AtomicInteger limited = new AtomicInteger();
+    AtomicInteger other = new AtomicInteger();
+    for (int i = 0; i < guesses; i++) {
+      String guess = "guess" + i;
+      Thread t = new Thread(() -> {
+        try {
+          go.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        Status status = service.login(123456, guess).status();
+        (status == Status.WRONG_PASSWORD ? checked
+            : status == Status.RATE_LIMITED || status == Status.BUSY ? limited : other).incrementAndGet();
+      });
+      t.start();
+      threads.add(t);
+    }
+    go.countDown();
+    for (Thread t : threads) {
+      t.join();
+    }
+    assertEquals(5, checked.get(), "Only the burst of 5 should be checked against the password");
+    assertEquals(guesses - 5, limited.get());
+    assertEquals(0, other.get());
+    assertEquals(Status.RATE_LIMITED, service.login(123456, "secret1").status());
+  }
+
+  // The password prompts before a password change or deletion are held to
+  // the login limit, and share it with login
+  @Test
+  public void testPasswordChecksShareTheLoginLimit() {
+    Account acc = service.createAccount("Alice", 123456, 0, "secret1").account();
+    assertTrue(service.verifyPassword(acc, "secret1").ok());
+    for (int i = 0; i < 3; i++) {
+      assertEquals(Status.WRONG_PASSWORD, service.verifyPassword(acc, "guess" + i).status());
+    }
+    assertEquals(Status.WRONG_PASSWORD, service.changePassword(acc, "guess3", "secret2").status());
+    assertEquals(Status.WRONG_PASSWORD, service.deleteAccount(acc, "guess4").status());
+    assertEquals(Status.RATE_LIMITED, service.verifyPassword(acc, "secret1").status());
+    assertEquals(Status.RATE_LIMITED, service.deleteAccount(acc, "secret1").status());
+    assertEquals(Status.RATE_LIMITED, service.login(123456, "secret1").status());
+  }
+
+  @Test
+  public void testDepositAndWithdrawReturnNewBalance() {
+    Account acc = service.createAccount("Alice", 123456, 10_000, "secret1").account();
+    assertEquals(15_000, service.deposit(acc, 5_000).balanceCents());
+    assertEquals(Status.INVALID_AMOUNT, service.deposit(acc, 0).status());
+    assertEquals(12_500, service.withdraw(acc, 2_500).balanceCents());
+    assertEquals(Status.INSUFFICIENT_FUNDS, service.withdraw(acc, 20_000).status());
+    assertEquals(12_500, acc.getBalanceCents());
+  }
+
+  @Test
+  public void testRetriesWithAnIdempotencyKeyApplyOnce() throws Exception {
+    Account alice = service.createAccount("Alice", 123456, 10_000, "secret1", "create-1").account();
+    Account bob = service.createAccount("Bob", 654321, 0, "secret2").account();
+    assertTrue(service.createAccount("Alice", 123456, 10_000, "secret1", "create-1").replayed());
+
+    Result first = service.deposit(alice, 5_000, "dep-1");
+    assertFalse(first.replayed());
+    assertEquals(Status.OK, service.transfer(alice, 654321, 1_000, "xfer-1").status());
+    Path journal = dir.resolve(BankService.JOURNAL_FILE);
+    long journalSize = Files.size(journal);
+    int historySize = alice.getTransactionCount();
+
+    Result retry = service.deposit(alice, 5_000, "dep-1");
+    assertTrue(retry.ok());
+    assertTrue(retry.replayed());
+    assertEquals(15_000, retry.balanceCents(), "The retry gets the first result back");
+    Result transferRetry = service.transfer(alice, 654321, 1_000, "xfer-1");
+    assertTrue(transferRetry.replayed());
+    assertEquals(14_000, transferRetry.balanceCents());
+    assertEquals(14_000, alice.getBalanceCents());
+    assertEquals(1_000, bob.getBalanceCents());
+    assertEquals(historySize, alice.getTransactionCount());
+    assertEquals(journalSize, Files.size(journal), "Replays write nothing");
+
+    // A key reused for a different request is refused, not answered with the first result
+    Result reused = service.withdraw(alice, 500, "dep-1");
+    assertEquals(Status.KEY_REUSED, reused.status());
+    assertFalse(reused.replayed());
+    assertEquals(Status.KEY_REUSED, service.deposit(alice, 6_000, "dep-1").status());
+    assertEquals(Status.KEY_REUSED, service.transfer(alice, 654321, 2_000, "xfer-1").status());
+    assertEquals(14_000, alice.getBalanceCents());
+    assertEquals(journalSize, Files.size(journal));
+
+    // Failures are not remembered, and a different key is a different request
+    assertEquals(Status.INSUFFICIENT_FUNDS, service.withdraw(alice, 50_000, "wd-1").status());
+    service.deposit(alice, 50_000);
+    assertTrue(service.withdraw(alice, 50_000, "wd-1").ok());
+    assertFalse(service.deposit(alice, 5_000, "dep-2").replayed());
+    assertEquals(Status.INVALID_KEY, service.deposit(alice, 5_000, "").status());
+    assertEquals(1, service.metrics().count(Metrics.Operation.DEPOSIT, Metrics.Outcome.REPLAYED));
+  }
+
+  @Test
+  public void testTransferErrorCodes() {
+    Account alice = service.createAccount("Alice", 123456, 10_000, "secret1").account();
+    Account bob = service.createAccount("Bob", 654321, 0, "secret2").account();
+
+    assertEquals(Status.INVALID_ACCOUNT_NUMBER, service.transfer(alice, 42, 100).status());
+    assertEquals(Status.ACCOUNT_NOT_FOUND, service.transfer(alice, 111111, 100).status());
+    assertEquals(Status.SAME_ACCOUNT, service.transfer(alice, 123456, 100).status());
+    assertEquals(Status.INVALID_AMOUNT, service.transfer(alice, 654321, -5).status());
+    assertEquals(Status.INSUFFICIENT_FUNDS, service.transfer(alice, 654321, 10_001).status());
+
+    Result transfer = service.transfer(alice, 654321, 4_000);
+    assertTrue(transfer.ok());
+    assertEquals(6_000, transfer.balanceCents());
+    assertEquals(4_000, bob.getBalanceCents());
+  }
+
+  @Test
+  public void testChangePasswordAndDelete() {
+    Account acc = service.createAccount("Alice", 123456, 0, "secret1").account();
+    assertEquals(Status.WRONG_PASSWORD, service.changePassword(acc, "nope!!", "secret2").status());
+    assertEquals(Status.SAME_PASSWORD, service.changePassword(acc, "secret1", "secret1").status());
+    assertEquals(Status.INVALID_PASSWORD, service.changePassword(acc, "secret1", "abc").status());
+    assertTrue(service.changePassword(acc, "secret1", "secret2").ok());
+    assertTrue(acc.checkPassword("secret2"));
+
+    assertEquals(Status.WRONG_PASSWORD, service.deleteAccount(acc, "secret1").status());
+    assertTrue(service.deleteAccount(acc, "secret2").ok());
+    assertNull(service.findAccountByNumber(123456));
+  }
+
+  // A session that logged in before another one deleted the account still
+  // holds it, and must not be able to move money through it or bring it back
+  @Test
+  public void testDeletedAccountRefusesChangesFromOtherSessions() throws Exception {
+    service.createAccount("Alice", 123456, 10_000, "secret1");
+    Account bob = service.createAccount("Bob", 654321, 0, "secret2").account();
+    Account first = service.login(123456, "secret1").account();
+    Account stale = service.login(123456, "secret1").account();
+    assertTrue(service.deleteAccount(first, "secret1").ok());
+
+    assertEquals(Status.ACCOUNT_NOT_FOUND, service.deposit(stale, 500).status());
+    assertEquals(Status.ACCOUNT_NOT_FOUND, service.withdraw(stale, 500).status());
+    assertEquals(Status.ACCOUNT_NOT_FOUND, service.transfer(stale, 654321, 5_000).status());
+    assertEquals(Status.ACCOUNT_NOT_FOUND, service.changePassword(stale, "secret1", "secret3").status());
+    assertEquals(0, bob.getBalanceCents());
+    service.close();
+
+    service = new BankService(dir.toString(), notices::add);
+    service.open();
+    assertNull(service.findAccountByNumber(123456), "The deleted account should stay deleted");
+    assertEquals(0, service.findAccountByNumber(654321).getBalanceCents());
+  }
+
+  @Test
+  public void testPasswordsAreStoredHashed() throws Exception {
+    service.createAccount("Alice", 123456, 0, "secret1");
+    service.close();
+    String accounts = Files.readString(dir.resolve("accounts.txt"));
+    assertFalse(accounts.contains("secret1"), accounts);
+    assertTrue(accounts.contains(PasswordHasher.PREFIX), accounts);
+    service = new BankService(dir.toString(), notices::add);
+    service.open();
+    assertTrue(service.login(123456, "secret1").ok());
+  }
+
+  @Test
+  public void testLoginRehashesPlaintextPasswords() throws Exception {
+    service.close();
+    Files.writeString(dir.resolve("accounts.txt"), "Alice,123456,10.00,secret1\n");
+    Files.deleteIfExists(dir.resolve("transactions.txt"));
+    service = new BankService(dir.toString(), notices::add);
+    service.open();
+    assertEquals(Status.WRONG_PASSWORD, service.login(123456, "secret2").status());
+    assertTrue(service.login(123456, "secret1").ok());
+    service.close();
+    String accounts = Files.readString(dir.resolve("accounts.txt"));
+    assertFalse(accounts.contains("secret1"), "The plaintext should be replaced at login: " + accounts);
+    service = new BankService(dir.toString(), notices::add);
+    service.open();
+    assertTrue(service.login(123456, "secret1").ok());
+  }
+
+  @Test
+  public void testSessionTokens() {
+    Account acc = service.createAccount("Alice", 123456, 0, "secret1").account();
+    String token = service.login(123456, "secret1").token();
+    assertNotNull(token);
+    Result resumed = service.resume(token);
+    assertTrue(resumed.ok());
+    assertSame(acc, resumed.account());
+    assertEquals(Status.SESSION_EXPIRED, service.resume("not-a-token").status());
+
+    service.logout(token);
+    assertEquals(Status.SESSION_EXPIRED, service.resume(token).status());
+
+    token = service.login(123456, "secret1").token();
+    assertTrue(service.changePassword(acc, "secret1", "secret2").ok());
+    assertEquals(Status.SESSION_EXPIRED, service.resume(token).status(), "A password change ends every session");
+  }
+
+  @Test
+  public void testChangesSurviveReopen() throws Exception {
+    Account alice = service.createAccount("Alice", 123456, 10_000, "secret1").account();
+    service.createAccount("Bob", 654321, 0, "secret2");
+    service.deposit(alice, 500);
+    service.transfer(alice, 654321, 2_000);
+    service.close();
+
+    BankService reopened = new BankService(dir.toString(), notices::add);
+    reopened.open();
+    assertEquals(8_500, reopened.findAccountByNumber(123456).getBalanceCents());
+    assertEquals(2_000, reopened.findAccountByNumber(654321).getBalanceCents());
+    assertEquals(2, reopened.history(reopened.findAccountByNumber(123456)).size(),
+        "The deposit and the transfer should be in the history, once each");
+    reopened.close();
+  }
+
+  @Test
+  public void testBackgroundCheckpointsKeepJournalSmall() throws Exception {
+    Path data = dir.resolve("background");
+    Files.createDirectories(data);
+    Path journal = data.resolve(BankService.JOURNAL_FILE);
+    System.setProperty("bank.checkpoint.maxJournalBytes", "4096");
+    BankService busy;
+    try {
+      busy = new BankService(data.toString(), notices::add);
+      busy.open();
+    } finally {
+      System.clearProperty("bank.checkpoint.maxJournalBytes");
+    }
+    Account alice = busy.createAccount("Alice", 123456, 0, "secret1").account();
+    for (int i = 0; i < 500; i++) {
+      busy.deposit(alice, 100);
+    }
+    busy.createAccount("Bob", 654321, 0, "secret2");
+    long deadline = System.nanoTime() + 10_000_000_000L;
+    while (Files.size(journal) >= 4096 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(Files.size(journal) < 4096, "the checkpointer should have emptied the journal");
+    long lines = Files.readAllLines(data.resolve("transactions.txt")).size();
+    assertTrue(lines > 1, "transactions should be in the snapshot");
+    busy.close();
+
+    BankService reopened = new BankService(data.toString(), notices::add);
+    reopened.open();
+    assertEquals(50_000, reopened.findAccountByNumber(123456).getBalanceCents());
+    assertEquals(500, reopened.history(reopened.findAccountByNumber(123456)).size());
+    assertEquals(501, Files.readAllLines(data.resolve("transactions.txt")).size(),
+        "no entry should be written twice");
+    reopened.close();
+  }
+
+  @Test
+  public void testHistoryPagesKeepSequenceIdsAndTimesAcrossReopen() throws Exception {
+    Account alice = service.createAccount("Alice", 123456, 0, "secret1").account();
+    for (int i = 0; i < 30; i++) {
+      service.deposit(alice, 100 + i);
+    }
+    service.checkpoint(); // the first half comes back from transactions.txt
+    for (int i = 30; i < 60; i++) {
+      service.deposit(alice, 100 + i);
+    }
+    List<Transaction> before = service.history(alice);
+    service.close(); // the rest was journaled, then checkpointed
+
+    BankService reopened = new BankService(dir.toString(), notices::add);
+    reopened.open();
+    Account acc = reopened.findAccountByNumber(123456);
+    List<Transaction> seen = new ArrayList<>();
+    HistoryPage page = reopened.history(acc, Long.MAX_VALUE, 25);
+    seen.addAll(page.transactions());
+    while (page.hasMore()) {
+      page = reopened.history(acc, page.nextCursor(), 25);
+      seen.addAll(page.transactions());
+    }
+    assertEquals(before.size(), seen.size());
+    for (int i = 0; i < seen.size(); i++) {
+      Transaction original = before.get(before.size() - 1 - i);
+      assertEquals(original.getSequence(), seen.get(i).getSequence());
+      assertEquals(original.getTimestamp(), seen.get(i).getTimestamp());
+      assertEquals(original.getDescription(), seen.get(i).getDescription());
+    }
+
+    long from = before.get(40).getTimestamp();
+    HistoryPage range = reopened.historyBetween(acc, from, Long.MAX_VALUE, 0, 200);
+    assertTrue(range.transactions().get(0).getSequence() <= before.get(40).getSequence());
+    assertEquals(before.get(before.size() - 1).getSequence(), range.transactions().get(range.transactions().size() - 1)
+        .getSequence());
+    reopened.close();
+  }
+
+  @Test
+  public void testSummariesCountEachChangeOnceAndSurviveReopen() throws Exception {
+    Account alice = service.createAccount("Alice", 123456, 10_000, "secret1").account();
+    service.createAccount("Bob", 654321, 0, "secret2");
+    long before = System.currentTimeMillis() - 1;
+    service.deposit(alice, 500);
+    service.withdraw(alice, 200);
+    service.transfer(alice, 654321, 300);
+    checkSummaries(service, before);
+    service.close();
+
+    BankService reopened = new BankService(dir.toString(), notices::add);
+    reopened.open();
+    checkSummaries(reopened, before);
+    reopened.close();
+  }
+
+  private static void checkSummaries(BankService bank, long before) {
+    Account alice = bank.findAccountByNumber(123456);
+    HistorySummary summary = alice.summarize(0, Long.MAX_VALUE);
+    assertEquals(3, bank.history(alice).size());
+    assertEquals(1, summary.count(HistorySummary.Flow.DEPOSIT));
+    assertEquals(500, summary.cents(HistorySummary.Flow.DEPOSIT));
+    assertEquals(1, summary.count(HistorySummary.Flow.WITHDRAWAL));
+    assertEquals(200, summary.cents(HistorySummary.Flow.WITHDRAWAL));
+    assertEquals(1, summary.count(HistorySummary.Flow.TRANSFER_OUT));
+    assertEquals(300, summary.cents(HistorySummary.Flow.TRANSFER_OUT));
+    assertEquals(10_000, summary.openingBalanceCents());
+    assertEquals(10_000, summary.closingBalanceCents());
+    assertEquals(10_000, alice.balanceAsOf(before));
+    assertEquals(10_000, alice.balanceAsOf(Long.MAX_VALUE));
+    assertEquals(10_500, bank.history(alice).get(0).getBalanceCents());
+    assertEquals(10_300, bank.history(alice).get(1).getBalanceCents());
+
+    Account bob = bank.findAccountByNumber(654321);
+    assertEquals(300, bob.summarize(0, Long.MAX_VALUE).cents(HistorySummary.Flow.TRANSFER_IN));
+    assertEquals(0, bob.balanceAsOf(before));
+  }
+
+  // A change the journal cannot take is answered with IO_ERROR, not OK. It
+  // stays made in memory and the next checkpoint saves it.
+  @Test
+  public void testJournalFailuresAreReportedAndSavedByTheNextCheckpoint() throws Exception {
+    Path data = Files.createDirectory(dir.resolve("failing"));
+    boolean[] failing = { false };
+    BankService failable = new BankService(data.toString(), notices::add, AtomicFileWriter.FILES,
+        path -> new FailingChannel(TransactionJournal.APPEND.open(path), () -> failing[0] ? 0 : -1));
+    failable.open();
+    Account alice = failable.createAccount("Alice", 123456, 10_000, "secret1").account();
+    Account bob = failable.createAccount("Bob", 654321, 0, "secret2").account();
+    Path postings = Files.writeString(data.resolve("postings.csv"), "123456,Deposit,1.00,Batch deposit\n");
+
+    failing[0] = true;
+    assertEquals(Status.IO_ERROR, failable.deposit(alice, 500).status());
+    assertEquals(Status.IO_ERROR, failable.withdraw(alice, 200).status());
+    assertEquals(Status.IO_ERROR, failable.transfer(alice, 654321, 100).status());
+    assertThrows(IOException.class, () -> new BatchPoster(failable, 2, 16).post(postings.toString(),
+        data.resolve("rejects.csv").toString()));
+    assertEquals(10_300, alice.getBalanceCents());
+    assertEquals(100, bob.getBalanceCents());
+    for (Metrics.Operation operation : List.of(Metrics.Operation.DEPOSIT, Metrics.Operation.WITHDRAW,
+        Metrics.Operation.TRANSFER)) {
+      assertEquals(1, failable.metrics().count(operation, Metrics.Outcome.IO_ERROR), operation.name());
+      assertEquals(0, failable.metrics().count(operation, Metrics.Outcome.SUCCESS), operation.name());
+    }
+    assertEquals(1, failable.metrics().count(Metrics.Operation.POST_BATCH, Metrics.Outcome.IO_ERROR));
+
+    failing[0] = false;
+    failable.checkpoint();
+    failable.close();
+    BankService reopened = new BankService(data.toString(), notices::add);
+    reopened.open();
+    assertEquals(10_300, reopened.findAccountByNumber(123456).getBalanceCents());
+    assertEquals(100, reopened.findAccountByNumber(654321).getBalanceCents());
+    reopened.close();
+  }
+}
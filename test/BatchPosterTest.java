@@ -0,0 +1,126 @@
+package test;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import src.Account;
+import src.BankService;
+import src.BatchPoster;
+
+public class BatchPosterTest {
+
+  @TempDir
+  Path dir;
+
+  BankService service;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    service = new BankService(dir.toString(), notice -> { });
+    service.open();
+    service.createAccount("Alice", 111111, 0, "secret1");
+    service.createAccount("Bob", 222222, 5_000, "secret2");
+  }
+
+  @AfterEach
+  public void tearDown() {
+    service.close();
+  }
+
+  @Test
+  public void testAppliesPostingsInOrderAndRejectsTheRest() throws Exception {
+    Path postings = dir.resolve("postings.csv");
+    Files.write(postings, List.of(
+        "111111,Deposit,100.00,Payroll",
+        "111111,Withdrawal,60.00,Rent, March",
+        "222222,withdrawal,80.00,Too much",
+        "333333,Deposit,1.00,Nobody",
+        "garbage",
+        "",
+        "222222,Refund,1.00,Unknown type",
+        "111111,Withdrawal,40.00,Groceries",
+        "222222,Deposit,0.50,Interest"));
+    Path rejects = dir.resolve("rejects.csv");
+
+    BatchPoster.Report report = new BatchPoster(service, 4, 3).post(postings.toString(), rejects.toString());
+
+    assertEquals(4, report.posted());
+    assertEquals(4, report.rejected());
+    assertEquals(3, report.batches());
+    assertEquals(0, service.findAccountByNumber(111111).getBalanceCents(),
+        "The withdrawals only succeed because the deposit before them was applied first");
+    assertEquals(5_050, service.findAccountByNumber(222222).getBalanceCents());
+    assertEquals("Rent, March", service.history(service.findAccountByNumber(111111)).get(1).getDescription());
+
+    assertEquals(List.of(
+        "3,INSUFFICIENT_FUNDS,222222,withdrawal,80.00,Too much",
+        "4,UNKNOWN_ACCOUNT,333333,Deposit,1.00,Nobody",
+        "5,MALFORMED,garbage",
+        "7,UNKNOWN_TYPE,222222,Refund,1.00,Unknown type"), Files.readAllLines(rejects));
+  }
+
+  @Test
+  public void testPostedBatchesSurviveRestart() throws Exception {
+    Path postings = dir.resolve("postings.csv");
+    List<String> lines = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      lines.add((i % 2 == 0 ? "111111" : "222222") + ",Deposit,0.01,Batch " + i);
+    }
+    Files.write(postings, lines);
+    new BatchPoster(service, 3, 128).post(postings.toString(), dir.resolve("rejects.csv").toString());
+
+    // Reopen from the journal alone, without the snapshot close() would write
+    BankService reopened = new BankService(dir.toString(), notice -> { });
+    reopened.open();
+    assertEquals(500, reopened.findAccountByNumber(111111).getBalanceCents());
+    assertEquals(5_500, reopened.findAccountByNumber(222222).getBalanceCents());
+    assertEquals(500, reopened.history(reopened.findAccountByNumber(111111)).size());
+    reopened.close();
+  }
+
+  // Interactive deposits on the batch's accounts, racing it, must not hide any
+  // posting from replay
+  @Test
+  public void testBatchesRacingInteractiveChangesReplayInFull() throws Exception {
+    Path postings = dir.resolve("postings.csv");
+    List<String> lines = new ArrayList<>();
+    for (int i = 0; i < 4000; i++) {
+      lines.add((i % 2 == 0 ? "111111" : "222222") + ",Deposit,0.01,Batch " + i);
+    }
+    Files.write(postings, lines);
+    Account alice = service.findAccountByNumber(111111);
+    Account bob = service.findAccountByNumber(222222);
+    AtomicBoolean posting = new AtomicBoolean(true);
+    Thread teller = new Thread(() -> {
+      while (posting.get()) {
+        service.deposit(alice, 1);
+        service.deposit(bob, 1);
+      }
+    });
+    teller.start();
+    try {
+      new BatchPoster(service, 2, 64).post(postings.toString(), dir.resolve("rejects.csv").toString());
+    } finally {
+      posting.set(false);
+      teller.join();
+    }
+
+    BankService reopened = new BankService(dir.toString(), notice -> { });
+    reopened.open();
+    for (Account live : List.of(alice, bob)) {
+      Account replayed = reopened.findAccountByNumber(live.getAccNo());
+      assertEquals(live.getBalanceCents(), replayed.getBalanceCents());
+      assertEquals(live.getTransactionCount(), replayed.getTransactionCount());
+    }
+    reopened.close();
+  }
+}
@@ -0,0 +1,114 @@
+package test;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import src.Account;
+import src.AccountRegistry;
+import src.BinarySnapshot;
+import src.SnapshotConverter;
+import src.Transaction;
+import src.TextSnapshot;
+
+public class BinarySnapshotTest {
+
+  @TempDir
+  Path dir;
+
+  private static AccountRegistry sampleAccounts() {
+    AccountRegistry accounts = new AccountRegistry();
+    Account alice = Account.ofCents("Alice", 123456, 15075, "secret,with,commas");
+    alice.addTransaction(Transaction.ofCents("Deposit", 5000, "Deposit to account"));
+    alice.addTransaction(Transaction.ofCents("Transfer", 125, "Transfer to account 654321"));
+    accounts.put(alice);
+    accounts.put(Account.ofCents("Zo\u00eb O'Brien", 654321, 0, "secret2"));
+    return accounts;
+  }
+
+  private static void assertSameAccounts(AccountRegistry expected, AccountRegistry actual) {
+    assertEquals(expected.size(), actual.size());
+    Iterator<Account> it = actual.iterator();
+    for (Account e : expected) {
+      Account a = it.next();
+      assertEquals(e.toCSV(), a.toCSV(), "Accounts should round-trip in order");
+      assertEquals(e.getTransactions().size(), a.getTransactions().size());
+      for (int i = 0; i < e.getTransactions().size(); i++) {
+        assertEquals(e.getTransactions().get(i).toString(), a.getTransactions().get(i).toString());
+        assertEquals(e.getTransactions().get(i).getBalanceCents(), a.getTransactions().get(i).getBalanceCents());
+      }
+    }
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    String file = dir.resolve("bank.snapshot").toString();
+    AccountRegistry accounts = sampleAccounts();
+    BinarySnapshot.write(file, accounts);
+    assertSameAccounts(accounts, BinarySnapshot.read(file));
+  }
+
+  @Test
+  public void testManyBlocksRoundTrip() throws IOException {
+    String file = dir.resolve("bank.snapshot").toString();
+    AccountRegistry accounts = new AccountRegistry();
+    for (int i = 0; i < 10_000; i++) {
+      Account acc = Account.ofCents("User", 100000 + i, i, "password");
+      acc.addTransaction(Transaction.ofCents("Deposit", i + 1, "Deposit to account"));
+      accounts.put(acc);
+    }
+    BinarySnapshot.write(file, accounts);
+    assertSameAccounts(accounts, BinarySnapshot.read(file));
+  }
+
+  @Test
+  public void testCorruptedBlockIsDetected() throws IOException {
+    Path file = dir.resolve("bank.snapshot");
+    BinarySnapshot.write(file.toString(), sampleAccounts());
+    try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+      raf.seek(8 + 9 + 4); // inside the first account's balance
+      raf.write(0x7F);
+    }
+    IOException e = assertThrows(IOException.class, () -> BinarySnapshot.read(file.toString()));
+    assertEquals("Snapshot block checksum mismatch", e.getMessage());
+  }
+
+  @Test
+  public void testTruncatedFileIsRejected() throws IOException {
+    Path file = dir.resolve("bank.snapshot");
+    BinarySnapshot.write(file.toString(), sampleAccounts());
+    byte[] bytes = Files.readAllBytes(file);
+    Files.write(file, Arrays.copyOf(bytes, bytes.length - 20));
+    assertThrows(IOException.class, () -> BinarySnapshot.read(file.toString()));
+  }
+
+  @Test
+  public void testConverterRoundTripsTextFiles() throws IOException {
+    String accountsFile = dir.resolve("accounts.txt").toString();
+    String transactionsFile = dir.resolve("transactions.txt").toString();
+    String snapshotFile = dir.resolve("bank.snapshot").toString();
+    AccountRegistry accounts = new AccountRegistry();
+    Account bob = Account.ofCents("Bob", 222222, 999, "secret3");
+    bob.addTransaction(Transaction.ofCents("Withdrawal", 1, "Withdrawal from account"));
+    accounts.put(bob);
+    TextSnapshot.writeAccounts(accountsFile, accounts);
+    TextSnapshot.writeTransactions(transactionsFile, accounts);
+    byte[] originalAccounts = Files.readAllBytes(Path.of(accountsFile));
+    byte[] originalTransactions = Files.readAllBytes(Path.of(transactionsFile));
+
+    SnapshotConverter.toBinary(accountsFile, transactionsFile, snapshotFile);
+    Files.delete(Path.of(accountsFile));
+    Files.delete(Path.of(transactionsFile));
+    SnapshotConverter.toText(snapshotFile, accountsFile, transactionsFile);
+
+    assertArrayEquals(originalAccounts, Files.readAllBytes(Path.of(accountsFile)));
+    assertArrayEquals(originalTransactions, Files.readAllBytes(Path.of(transactionsFile)));
+  }
+}
@@ -0,0 +1,121 @@
+package test;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import src.Account;
+import src.BankService;
+import src.HistorySummary;
+import src.Transaction;
+
+// Kills a process that is transferring money between accounts while the
+// background checkpointer keeps rewriting the snapshot, then checks what
+// recovery finds: no money created or lost, every balance matching its
+// history (and the balances recorded in it), and no transaction replayed twice.
+public class CrashRecoveryTest {
+  private static final int ACCOUNTS = 20;
+  private static final long OPENING_CENTS = 100_000;
+
+  @TempDir
+  Path dir;
+
+  // Runs in the child process: opens the service on the given directory and
+  // transfers from two threads until it is killed
+  public static class Workload {
+    public static void main(String[] args) throws Exception {
+      BankService service = new BankService(args[0], notice -> { });
+      service.open();
+      for (int i = 0; i < ACCOUNTS; i++) {
+        if (service.findAccountByNumber(100000 + i) == null) {
+          service.createAccount("Holder", 100000 + i, OPENING_CENTS, "secret1");
+        }
+      }
+      System.out.println("READY");
+      System.out.flush();
+      for (int t = 0; t < 2; t++) {
+        long seed = t;
+        new Thread(() -> {
+          Random random = new Random(seed);
+          while (true) {
+            Account from = service.findAccountByNumber(100000 + random.nextInt(ACCOUNTS));
+            service.transfer(from, 100000 + random.nextInt(ACCOUNTS), 1 + random.nextInt(5_000));
+          }
+        }).start();
+      }
+    }
+  }
+
+  @Test
+  public void testRecoveryAfterKillIsConsistent() throws Exception {
+    Random random = new Random();
+    for (int round = 0; round < 4; round++) {
+      Process child = startWorkload();
+      try (BufferedReader out = new BufferedReader(
+          new InputStreamReader(child.getInputStream(), StandardCharsets.UTF_8))) {
+        assertEquals("READY", out.readLine(), "workload did not start");
+        Thread.sleep(200 + random.nextInt(400));
+      } finally {
+        child.destroyForcibly();
+        child.waitFor();
+      }
+      checkConsistent(round);
+    }
+  }
+
+  private Process startWorkload() throws Exception {
+    String classpath = new File(BankService.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+        + File.pathSeparator
+        + new File(Workload.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+    List<String> command = new ArrayList<>();
+    command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+    command.add("-cp");
+    command.add(classpath);
+    // Checkpoint every few dozen transfers, so the kill often lands in the middle of one
+    command.add("-Dbank.checkpoint.maxJournalBytes=16384");
+    command.add("-Dbank.journal.fsync=os");
+    command.add(Workload.class.getName());
+    command.add(dir.toString());
+    return new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+  }
+
+  private void checkConsistent(int round) {
+    List<String> notices = new ArrayList<>();
+    BankService service = new BankService(dir.toString(), notices::add);
+    try {
+      service.open();
+    } catch (Exception e) {
+      fail("round " + round + ": recovery failed: " + e);
+    }
+    long total = 0;
+    for (int i = 0; i < ACCOUNTS; i++) {
+      Account acc = service.findAccountByNumber(100000 + i);
+      assertNotNull(acc, "round " + round + ": account " + (100000 + i) + " lost");
+      long expected = OPENING_CENTS;
+      long lastSequence = 0;
+      for (Transaction t : acc.getTransactions()) {
+        expected += t.getDescription().startsWith("Transfer to") ? -t.getAmountCents() : t.getAmountCents();
+        assertEquals(expected, t.getBalanceCents(), "round " + round + ": balance recorded with " + t);
+        assertTrue(t.getSequence() > lastSequence, "round " + round + ": transaction repeated in " + acc.getAccNo());
+        lastSequence = t.getSequence();
+      }
+      assertEquals(expected, acc.getBalanceCents(), "round " + round + ": balance of " + acc.getAccNo()
+          + " does not match its history");
+      HistorySummary summary = acc.summarize(Long.MIN_VALUE, Long.MAX_VALUE);
+      assertEquals(acc.getBalanceCents() - OPENING_CENTS, summary.netCents(), "round " + round + ": totals of "
+          + acc.getAccNo() + " do not match its balance");
+      total += acc.getBalanceCents();
+    }
+    assertEquals(ACCOUNTS * OPENING_CENTS, total, "round " + round + ": money created or lost");
+    service.close();
+  }
+}
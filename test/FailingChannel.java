@@ -0,0 +1,120 @@
+package test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.function.LongSupplier;
+
+// A real file channel whose writes stop once failAfter bytes have been written
+// through it and then fail, as a crash or full disk would; a negative limit
+// never fails. It is read on every write, so a test can make writes start failing.
+public class FailingChannel extends FileChannel {
+  private final FileChannel file;
+  private final LongSupplier failAfter;
+  private long written;
+
+  public FailingChannel(FileChannel file, LongSupplier failAfter) {
+    this.file = file;
+    this.failAfter = failAfter;
+  }
+
+  @Override
+  public int write(ByteBuffer src) throws IOException {
+    long limit = failAfter.getAsLong();
+    if (limit >= 0 && written + src.remaining() > limit) {
+      ByteBuffer part = src.duplicate();
+      part.limit(part.position() + (int) Math.max(0, limit - written));
+      while (part.hasRemaining()) {
+        written += file.write(part);
+      }
+      throw new IOException("Injected write failure after " + limit + " bytes");
+    }
+    int n = file.write(src);
+    written += n;
+    return n;
+  }
+
+  @Override
+  public void force(boolean metaData) throws IOException {
+    file.force(metaData);
+  }
+
+  @Override
+  protected void implCloseChannel() throws IOException {
+    file.close();
+  }
+
+  @Override
+  public int read(ByteBuffer dst) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public long read(ByteBuffer[] dsts, int offset, int length) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public long write(ByteBuffer[] srcs, int offset, int length) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public long position() throws IOException {
+    return file.position();
+  }
+
+  @Override
+  public FileChannel position(long newPosition) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public long size() throws IOException {
+    return file.size();
+  }
+
+  @Override
+  public FileChannel truncate(long size) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public long transferTo(long position, long count, WritableByteChannel target) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public long transferFrom(ReadableByteChannel src, long position, long count) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public int read(ByteBuffer dst, long position) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public int write(ByteBuffer src, long position) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public MappedByteBuffer map(MapMode mode, long position, long size) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public FileLock lock(long position, long size, boolean shared) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public FileLock tryLock(long position, long size, boolean shared) {
+    throw new UnsupportedOperationException();
+  }
+}
@@ -0,0 +1,88 @@
+package test;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import src.GroupCommitter;
+
+public class GroupCommitterTest {
+
+  @Test
+  public void testConcurrentRecordsAreCommittedInBatches() throws Exception {
+    List<Integer> committedBatchSizes = Collections.synchronizedList(new ArrayList<>());
+    List<byte[]> committed = Collections.synchronizedList(new ArrayList<>());
+    GroupCommitter committer = new GroupCommitter(batch -> {
+      committedBatchSizes.add(batch.size());
+      committed.addAll(batch);
+    }, 64, 2000);
+
+    int threads = 8;
+    int perThread = 200;
+    Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      workers[t] = new Thread(() -> {
+        for (int i = 0; i < perThread; i++) {
+          try {
+            committer.submitAndWait(new byte[] { 1 });
+          } catch (IOException e) {
+            fail(e);
+          }
+        }
+      });
+      workers[t].start();
+    }
+    for (Thread w : workers) {
+      w.join();
+    }
+    committer.close();
+
+    assertEquals(threads * perThread, committed.size(), "Every record should be committed exactly once");
+    assertEquals(threads * perThread, committer.recordCount());
+    assertTrue(committedBatchSizes.stream().allMatch(n -> n <= 64), "Batches should respect the max batch size");
+    assertTrue(committer.batchCount() < threads * perThread, "Concurrent records should share commits");
+  }
+
+  @Test
+  public void testCommitFailureIsReportedToCallers() {
+    GroupCommitter committer = new GroupCommitter(batch -> {
+      throw new IOException("disk full");
+    }, 16, 0);
+    CompletableFuture<Void> result = committer.submit(new byte[] { 1 });
+    ExecutionException e = assertThrows(ExecutionException.class, result::get);
+    assertEquals("disk full", e.getCause().getMessage());
+    committer.close();
+  }
+
+  @Test
+  public void testSubmitsRacingCloseNeverHang() throws Exception {
+    for (int round = 0; round < 50; round++) {
+      GroupCommitter committer = new GroupCommitter(batch -> { }, 4, 0);
+      List<CompletableFuture<Void>> accepted = Collections.synchronizedList(new ArrayList<>());
+      Thread submitter = new Thread(() -> {
+        try {
+          while (true) {
+            accepted.add(committer.submit(new byte[] { 1 }));
+          }
+        } catch (IllegalStateException e) {
+          // closed
+        }
+      });
+      submitter.start();
+      Thread.sleep(1);
+      committer.close();
+      submitter.join();
+      for (CompletableFuture<Void> f : accepted) {
+        f.get(5, TimeUnit.SECONDS); // committed before the writer stopped
+      }
+      assertThrows(IllegalStateException.class, () -> committer.submit(new byte[] { 1 }));
+    }
+  }
+}
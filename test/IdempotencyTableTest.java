@@ -0,0 +1,77 @@
+package test;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import src.IdempotencyTable;
+
+public class IdempotencyTableTest {
+
+  @Test
+  public void testClaimCompleteReplay() {
+    IdempotencyTable table = new IdempotencyTable(64, 60);
+    assertEquals(IdempotencyTable.CLAIMED, table.claim(123456, "req-1"));
+    assertEquals(IdempotencyTable.IN_PROGRESS, table.claim(123456, "req-1"), "A retry racing the original waits");
+    table.complete(123456, "req-1", 1_500);
+    assertEquals(1_500, table.claim(123456, "req-1"));
+    assertEquals(1_500, table.claim(123456, "req-1"));
+    assertEquals(IdempotencyTable.CLAIMED, table.claim(654321, "req-1"), "Keys are scoped to the account");
+    assertTrue(table.stats().startsWith("replayed=2 "), table.stats());
+  }
+
+  @Test
+  public void testReusingAKeyForAnotherRequestIsRefused() {
+    IdempotencyTable table = new IdempotencyTable(64, 60);
+    long deposit = IdempotencyTable.request(1, 100, 0);
+    long withdraw = IdempotencyTable.request(2, 500, 0);
+    assertEquals(IdempotencyTable.CLAIMED, table.claim(123456, "req-1", deposit));
+    assertEquals(IdempotencyTable.MISMATCH, table.claim(123456, "req-1", withdraw), "Also while it runs");
+    table.complete(123456, "req-1", 1_100);
+    assertEquals(IdempotencyTable.MISMATCH, table.claim(123456, "req-1", withdraw));
+    assertEquals(IdempotencyTable.MISMATCH, table.claim(123456, "req-1", IdempotencyTable.request(1, 200, 0)));
+    assertEquals(1_100, table.claim(123456, "req-1", deposit));
+    assertNotEquals(IdempotencyTable.request(3, 100, 123456), IdempotencyTable.request(3, 100, 654321));
+  }
+
+  @Test
+  public void testReleasedKeysRunAgain() {
+    IdempotencyTable table = new IdempotencyTable(64, 60);
+    assertEquals(IdempotencyTable.CLAIMED, table.claim(123456, "req-1"));
+    table.release(123456, "req-1");
+    assertEquals(IdempotencyTable.CLAIMED, table.claim(123456, "req-1"));
+    table.complete(123456, "req-1", 0);
+    table.release(123456, "req-1");
+    assertEquals(0, table.claim(123456, "req-1"), "Completed keys are not released");
+  }
+
+  @Test
+  public void testKeysExpire() {
+    AtomicLong clock = new AtomicLong(5_000_000);
+    IdempotencyTable table = new IdempotencyTable(64, 60, clock::get);
+    table.claim(123456, "req-1");
+    table.complete(123456, "req-1", 700);
+    clock.addAndGet(59_000);
+    assertEquals(700, table.claim(123456, "req-1"));
+    clock.addAndGet(1_000);
+    assertEquals(IdempotencyTable.CLAIMED, table.claim(123456, "req-1"));
+  }
+
+  @Test
+  public void testMemoryStaysBoundedUnderManyKeys() {
+    AtomicLong clock = new AtomicLong();
+    IdempotencyTable table = new IdempotencyTable(1 << 10, 60, clock::get);
+    // Many more keys than slots, a second apart so they expire in order
+    for (int i = 0; i < 200_000; i++) {
+      if (i % 1_000 == 0) {
+        clock.addAndGet(1_000);
+      }
+      assertEquals(IdempotencyTable.CLAIMED, table.claim(100000 + i % 900_000, "k" + i));
+      table.complete(100000 + i % 900_000, "k" + i, i);
+    }
+    assertEquals(1 << 10, table.slots());
+    assertEquals(199_999, table.claim(100000 + 199_999, "k199999"), "Recent keys are still there");
+    assertTrue(table.stats().contains("evictedLive="), table.stats());
+  }
+}
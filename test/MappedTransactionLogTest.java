@@ -0,0 +1,135 @@
+package test;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import src.Account;
+import src.AccountRegistry;
+import src.MappedTransactionLog;
+import src.TextSnapshot;
+import src.Transaction;
+
+public class MappedTransactionLogTest {
+
+  @TempDir
+  Path dir;
+
+  private Path writeLog(String... lines) throws Exception {
+    Path file = dir.resolve("transactions.txt");
+    Files.write(file, List.of(lines));
+    return file;
+  }
+
+  @Test
+  public void testIndexesLinesPerAccount() throws Exception {
+    Path file = writeLog(
+        "111111,Deposit,10.00,Deposit to account",
+        "222222,Deposit,5.00,Deposit to account",
+        "not a transaction",
+        "111111,Transfer,2.50,Transfer to account 222222,with a comma");
+    try (MappedTransactionLog log = MappedTransactionLog.open(file.toString())) {
+      assertEquals(2, log.count(111111));
+      assertEquals(1, log.count(222222));
+      assertEquals(0, log.count(333333));
+      assertEquals(2, log.accountCount());
+
+      List<Transaction> history = new ArrayList<>();
+      log.forEach(111111, history::add);
+      assertEquals(1000, history.get(0).getAmountCents());
+      assertEquals("Transfer to account 222222,with a comma", history.get(1).getDescription());
+      assertEquals(history.get(1).getSequence(), log.lastSequence(111111), "Known from the index alone");
+      assertEquals(0, log.lastSequence(333333));
+    }
+  }
+
+  @Test
+  public void testAccountDecodesHistoryOnlyWhenAsked() throws Exception {
+    Path file = writeLog("111111,Deposit,10.00,Deposit to account");
+    AccountRegistry accounts = new AccountRegistry();
+    Account acc = Account.ofCents("Alice", 111111, 1000, "secret1");
+    accounts.put(acc);
+    try (MappedTransactionLog log = MappedTransactionLog.open(file.toString())) {
+      log.attachTo(accounts);
+      acc.addTransaction(Transaction.ofCents("Withdrawal", 100, "Withdrawal from account"));
+      assertEquals(2, acc.getTransactionCount());
+      List<Transaction> newer = acc.getTransactionsFrom(1);
+      assertEquals(1, newer.size());
+      assertEquals("Withdrawal", newer.get(0).getType());
+
+      List<Transaction> all = acc.getTransactions();
+      assertEquals(2, all.size());
+      assertEquals("Deposit", all.get(0).getType(), "Snapshot history should come before newer entries");
+    }
+  }
+
+  @Test
+  public void testSnapshotCanBeRewrittenWhileMapped() throws Exception {
+    Path file = writeLog("111111,Deposit,10.00,Deposit to account");
+    AccountRegistry accounts = new AccountRegistry();
+    Account acc = Account.ofCents("Alice", 111111, 1000, "secret1");
+    accounts.put(acc);
+    try (MappedTransactionLog log = MappedTransactionLog.open(file.toString())) {
+      log.attachTo(accounts);
+      acc.addTransaction(Transaction.ofCents("Deposit", 200, "Deposit to account"));
+      TextSnapshot.writeTransactions(file.toString(), accounts);
+      // The old mapping must still decode after the file was replaced
+      assertEquals(2, acc.getTransactions().size());
+    }
+    Transaction added = acc.getTransactions().get(1);
+    assertEquals(List.of(TextSnapshot.TRANSACTIONS_HEADER,
+        "111111,1,0,,Deposit,10.00,Deposit to account",
+        "111111," + added.getSequence() + "," + added.getTimestamp() + ",10.00,Deposit,2.00,Deposit to account"),
+        Files.readAllLines(file), "The line from the old format gets its line number as sequence id and no balance");
+  }
+
+  @Test
+  public void testReadsSequenceIdsAndTimestamps() throws Exception {
+    Path file = writeLog(TextSnapshot.SEQUENCED_HEADER,
+        "111111,7,1700000000000,Deposit,10.00,Deposit to account",
+        "111111,x,1700000000000,Deposit,1.00,Bad sequence",
+        "111111,9,1700000001000,Transfer,2.50,Transfer to account 222222,with a comma");
+    List<String> problems = new ArrayList<>();
+    try (MappedTransactionLog log = MappedTransactionLog.open(file.toString(), ForkJoinPool.commonPool(),
+        problems::add)) {
+      assertEquals(2, log.count(111111));
+      List<Transaction> history = new ArrayList<>();
+      log.forEach(111111, history::add);
+      assertEquals(7, history.get(0).getSequence());
+      assertEquals(9, log.lastSequence(111111));
+      assertEquals(1_700_000_001_000L, history.get(1).getTimestamp());
+      assertEquals("Transfer to account 222222,with a comma", history.get(1).getDescription());
+    }
+    assertEquals(List.of("transactions.txt line 3: expected accNo,sequence,timestamp,type,amount,description"),
+        problems);
+    Account acc = Account.ofCents("Alice", 111111, 0, "secret1");
+    acc.addTransaction(Transaction.ofCents("Deposit", 1, "New"));
+    assertTrue(acc.getTransactions().get(0).getSequence() > 9, "New ids come after the ones loaded");
+  }
+
+  @Test
+  public void testReadsBalances() throws Exception {
+    Path file = writeLog(TextSnapshot.TRANSACTIONS_HEADER,
+        "111111,7,1700000000000,10.00,Deposit,10.00,Deposit to account",
+        "111111,8,1700000000000,1.x,Deposit,1.00,Bad balance",
+        "111111,9,1700000001000,,Transfer,2.50,Transfer to account 222222,with a comma");
+    List<String> problems = new ArrayList<>();
+    try (MappedTransactionLog log = MappedTransactionLog.open(file.toString(), ForkJoinPool.commonPool(),
+        problems::add)) {
+      List<Transaction> history = new ArrayList<>();
+      log.forEach(111111, history::add);
+      assertEquals(2, history.size());
+      assertEquals(1000, history.get(0).getBalanceCents());
+      assertEquals(-1, history.get(1).getBalanceCents(), "Empty when it was not recorded");
+      assertEquals("Transfer to account 222222,with a comma", history.get(1).getDescription());
+    }
+    assertEquals(List.of("transactions.txt line 3: expected accNo,sequence,timestamp,balance,type,amount,description"),
+        problems);
+  }
+}
@@ -0,0 +1,122 @@
+package test;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import src.Account;
+import src.BankService;
+import src.Metrics;
+import src.Metrics.Operation;
+import src.Metrics.Outcome;
+import src.MetricsDumper;
+
+public class MetricsTest {
+
+  @TempDir
+  Path dir;
+
+  List<String> notices = new ArrayList<>();
+
+  @Test
+  public void testServiceCountsEveryOutcome() throws Exception {
+    BankService service = new BankService(dir.toString(), notices::add);
+    service.open();
+    try {
+      Account alice = service.createAccount("Alice", 123456, 1_000, "secret1").account();
+      service.createAccount("Bob", 654321, 0, "secret2");
+      service.login(123456, "secret1");
+      service.login(123456, "wrong-one");
+      service.login(999999, "secret1");
+      service.deposit(alice, 500);
+      service.withdraw(alice, 1_000_000);
+      service.transfer(alice, 654321, 100);
+
+      Metrics metrics = service.metrics();
+      assertEquals(2, metrics.count(Operation.CREATE_ACCOUNT, Outcome.SUCCESS));
+      assertEquals(1, metrics.count(Operation.LOGIN, Outcome.SUCCESS));
+      assertEquals(1, metrics.count(Operation.LOGIN, Outcome.WRONG_PASSWORD));
+      assertEquals(1, metrics.count(Operation.LOGIN, Outcome.INVALID), "Unknown accounts count as invalid");
+      assertEquals(3, metrics.count(Operation.LOGIN));
+      assertEquals(1, metrics.count(Operation.DEPOSIT, Outcome.SUCCESS));
+      assertEquals(1, metrics.count(Operation.WITHDRAW, Outcome.INSUFFICIENT_FUNDS));
+      assertEquals(1, metrics.count(Operation.TRANSFER, Outcome.SUCCESS));
+      assertTrue(metrics.latencyNanos(Operation.LOGIN, Outcome.SUCCESS).percentile(50) > 0);
+      assertEquals(1, metrics.count(Operation.LOAD_ACCOUNTS), "Loading at open() is timed too");
+    } finally {
+      service.close();
+    }
+  }
+
+  @Test
+  public void testPrometheusFormat() throws Exception {
+    Metrics metrics = new Metrics();
+    long start = System.nanoTime();
+    metrics.record(Operation.DEPOSIT, Outcome.SUCCESS, start);
+    metrics.record(Operation.DEPOSIT, Outcome.SUCCESS, start);
+    metrics.record(Operation.WITHDRAW, Outcome.IO_ERROR, start);
+
+    StringWriter out = new StringWriter();
+    metrics.writePrometheus(out);
+    String text = out.toString();
+    assertTrue(text.startsWith("# HELP bank_operation_seconds "), text);
+    assertTrue(text.contains("# TYPE bank_operation_seconds summary\n"), text);
+    assertTrue(text.contains("bank_operation_seconds_count{operation=\"deposit\",outcome=\"success\"} 2\n"), text);
+    assertTrue(text.contains("bank_operation_seconds_count{operation=\"withdraw\",outcome=\"io_error\"} 1\n"), text);
+    assertTrue(text.contains("bank_operation_seconds{operation=\"deposit\",outcome=\"success\",quantile=\"0.99\"} "),
+        text);
+    assertFalse(text.contains("operation=\"transfer\""), "Pairs never recorded are left out");
+    for (String line : text.split("\n")) {
+      assertTrue(line.startsWith("#") || line.matches("bank_operation_seconds\\w*\\{[^}]*\\} [0-9.]+"), line);
+    }
+  }
+
+  @Test
+  public void testDumperReplacesTheFile() throws Exception {
+    Metrics metrics = new Metrics();
+    File file = dir.resolve("bank.prom").toFile();
+    MetricsDumper dumper = new MetricsDumper(metrics, file.getPath(), 20, notices::add);
+    metrics.record(Operation.LOGIN, Outcome.SUCCESS, System.nanoTime());
+    long deadline = System.currentTimeMillis() + 5_000;
+    while (!file.exists() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(file.exists(), "The dumper writes every interval");
+
+    metrics.record(Operation.LOGIN, Outcome.SUCCESS, System.nanoTime());
+    dumper.close();
+    String text = Files.readString(file.toPath());
+    assertTrue(text.contains("bank_operation_seconds_count{operation=\"login\",outcome=\"success\"} 2\n"),
+        "close() writes a final dump: " + text);
+    assertFalse(new File(file.getPath() + ".tmp").exists());
+    assertTrue(notices.isEmpty(), notices.toString());
+  }
+
+  @Test
+  public void testRegisteredWithJmx() throws Exception {
+    Metrics metrics = new Metrics();
+    List<ObjectName> names = metrics.register(dir.toString());
+    try {
+      metrics.record(Operation.WITHDRAW, Outcome.INSUFFICIENT_FUNDS, System.nanoTime());
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName withdraw = new ObjectName("src:type=BankMetrics,instance=" + ObjectName.quote(dir.toString())
+          + ",operation=withdraw");
+      assertTrue(names.contains(withdraw));
+      assertEquals(1L, server.getAttribute(withdraw, "InsufficientFundsCount"));
+      assertEquals(0L, server.getAttribute(withdraw, "SuccessCount"));
+    } finally {
+      Metrics.unregister(names);
+    }
+    assertTrue(ManagementFactory.getPlatformMBeanServer().queryNames(names.get(0), null).isEmpty());
+  }
+}
@@ -0,0 +1,63 @@
+package test;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import src.Account;
+import src.Money;
+
+public class MoneyTest {
+
+  @Test
+  public void testFormatAlwaysHasTwoDecimals() {
+    assertEquals("150.00", Money.format(15000));
+    assertEquals("0.05", Money.format(5));
+    assertEquals("500.75", Money.format(50075));
+    assertEquals("-1.10", Money.format(-110));
+  }
+
+  @Test
+  public void testParsePlainDecimals() {
+    assertEquals(15000, Money.parse("150"));
+    assertEquals(15000, Money.parse("150.00"));
+    assertEquals(15050, Money.parse("150.5"));
+    assertEquals(5, Money.parse(".05"));
+    assertEquals(-250, Money.parse("-2.50"));
+    assertEquals(1234, Money.parse("x12.34,", 1, 6), "Should parse only the given range");
+  }
+
+  @Test
+  public void testParseReadsDoubleBasedFileValues() {
+    // What Double.toString wrote into accounts.txt / transactions.txt before
+    assertEquals(15000, Money.parse("150.0"));
+    assertEquals(30, Money.parse("0.30000000000000004"));
+    assertEquals(30, Money.parse("0.29999999999999999"));
+    assertEquals(1_000_000_000L, Money.parse("1.0E7"));
+    assertEquals(123, Money.parse("1.23E0"));
+  }
+
+  @Test
+  public void testParseRejectsGarbage() {
+    assertThrows(NumberFormatException.class, () -> Money.parse(""));
+    assertThrows(NumberFormatException.class, () -> Money.parse("-"));
+    assertThrows(NumberFormatException.class, () -> Money.parse("12a"));
+    assertThrows(NumberFormatException.class, () -> Money.parse("NaN"));
+    assertThrows(NumberFormatException.class, () -> Money.parse("99999999999999999999"));
+  }
+
+  @Test
+  public void testRepeatedSmallDepositsDoNotDrift() {
+    Account acc = new Account("Drift", 100003, 0, "driftPass");
+    for (int i = 0; i < 1000; i++) {
+      acc.depositCents(10);
+    }
+    assertEquals(10_000, acc.getBalanceCents(), "A thousand 10 cent deposits should be exactly $100");
+    assertEquals("Drift,100003,100.00,driftPass", acc.toCSV());
+  }
+
+  @Test
+  public void testFromCSVReadsOldDoubleFormat() {
+    Account acc = Account.fromCSV("Alice,123456,150.0,secret1");
+    assertEquals(15000, acc.getBalanceCents());
+  }
+}
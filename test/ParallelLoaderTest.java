@@ -0,0 +1,117 @@
+package test;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import src.AccountRegistry;
+import src.MappedTransactionLog;
+import src.ParallelLoader;
+import src.TextSnapshot;
+
+public class ParallelLoaderTest {
+
+  @TempDir
+  Path dir;
+
+  ForkJoinPool pool;
+
+  @BeforeEach
+  public void setUp() {
+    pool = new ForkJoinPool(4);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    pool.shutdown();
+  }
+
+  @Test
+  public void testReportsMalformedAccountLinesByLineNumber() throws Exception {
+    Path file = dir.resolve("accounts.txt");
+    Files.write(file, List.of(
+        "Alice,111111,10.00,secret1",
+        "Bob,22x222,5.00,secret2",
+        "",
+        "Carol,333333,abc,secret3",
+        "Dave,444444,1.00",
+        "Eve,555555,1.00,short",
+        "Frank,666666,2.50,pass,word",
+        "Grace,777777,0.99,secret7"));
+    List<String> problems = new ArrayList<>();
+    AccountRegistry accounts = new AccountRegistry();
+
+    assertEquals(2, ParallelLoader.readAccounts(file.toString(), accounts, pool, problems::add));
+    assertEquals(1000, accounts.get(111111).getBalanceCents());
+    assertEquals("Grace", accounts.get(777777).getName());
+    assertEquals(List.of(
+        "accounts.txt line 2: invalid account number",
+        "accounts.txt line 4: invalid balance",
+        "accounts.txt line 5: expected name,accNo,balance,password",
+        "accounts.txt line 6: Password must be at least 6 characters long.",
+        "accounts.txt line 7: expected name,accNo,balance,password"), problems);
+  }
+
+  @Test
+  public void testLargeFileMatchesSequentialLoad() throws Exception {
+    // Over 2 MB, so the file is split into several ranges
+    Path file = dir.resolve("accounts.txt");
+    List<String> lines = new ArrayList<>();
+    for (int i = 0; i < 80_000; i++) {
+      lines.add(i == 70_000 ? "broken line" : "Holder " + i + "," + (100000 + i) + "," + i + ".25,password" + i);
+    }
+    lines.add("Holder again,100005,1.00,password5"); // a later duplicate wins, as in a sequential read
+    Files.write(file, lines);
+
+    List<String> problems = new ArrayList<>();
+    AccountRegistry parallel = new AccountRegistry();
+    ParallelLoader.readAccounts(file.toString(), parallel, pool, problems::add);
+    AccountRegistry sequential = new AccountRegistry();
+    TextSnapshot.readAccounts(file.toString(), sequential);
+
+    assertEquals(List.of("accounts.txt line 70001: expected name,accNo,balance,password"), problems);
+    assertEquals(sequential.size(), parallel.size());
+    for (int i = 0; i < 80_000; i++) {
+      int accNo = 100000 + i;
+      assertEquals(sequential.contains(accNo), parallel.contains(accNo));
+      if (sequential.contains(accNo)) {
+        assertEquals(sequential.get(accNo).toCSV(), parallel.get(accNo).toCSV());
+      }
+    }
+    assertEquals("Holder again", parallel.get(100005).getName());
+  }
+
+  @Test
+  public void testTransactionLogReportsMalformedLinesAcrossRanges() throws Exception {
+    Path file = dir.resolve("transactions.txt");
+    List<String> lines = new ArrayList<>();
+    for (int i = 0; i < 60_000; i++) {
+      lines.add((100000 + i % 100) + ",Deposit,1.00,Deposit to account " + i);
+    }
+    lines.set(9, "100001,Deposit,-1.00,Negative");
+    lines.set(55_000, "100002,Deposit,1.00,");
+    lines.add("");
+    lines.add("12x,Deposit,1.00,Bad account");
+    Files.write(file, lines);
+
+    List<String> problems = new ArrayList<>();
+    try (MappedTransactionLog log = MappedTransactionLog.open(file.toString(), pool, problems::add)) {
+      assertEquals(100, log.accountCount());
+      assertEquals(599, log.count(100009), "Line 10 belonged to 100009");
+      assertEquals(599, log.count(100000), "Line 55001 belonged to 100000");
+      assertEquals(600, log.count(100001));
+    }
+    assertEquals(List.of(
+        "transactions.txt line 10: expected accNo,type,amount,description",
+        "transactions.txt line 55001: expected accNo,type,amount,description",
+        "transactions.txt line 60002: expected accNo,type,amount,description"), problems);
+  }
+}
@@ -0,0 +1,118 @@
+package test;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import src.Account;
+import src.PasswordHasher;
+import src.PasswordVerifier;
+import src.SessionTokens;
+
+public class PasswordHasherTest {
+
+  @Test
+  public void testHashVerifiesOnlyThePassword() {
+    PasswordHasher hasher = new PasswordHasher(1_000);
+    String hash = hasher.hash("secret1");
+    assertTrue(hash.startsWith(PasswordHasher.PREFIX + "1000$"), hash);
+    assertFalse(hash.contains("secret1"));
+    assertFalse(hash.contains(","), "Hashes must be safe in the CSV snapshot");
+    assertTrue(PasswordHasher.matches("secret1", hash));
+    assertFalse(PasswordHasher.matches("secret2", hash));
+    assertFalse(PasswordHasher.matches(null, hash));
+    assertNotEquals(hash, hasher.hash("secret1"), "Every hash gets its own salt");
+  }
+
+  @Test
+  public void testWorkFactorChangesNeedRehash() {
+    String older = new PasswordHasher(1_000).hash("secret1");
+    PasswordHasher current = new PasswordHasher(2_000);
+    assertTrue(PasswordHasher.matches("secret1", older), "Older hashes still verify");
+    assertTrue(current.needsRehash(older));
+    assertFalse(current.needsRehash(current.hash("secret1")));
+  }
+
+  @Test
+  public void testPlaintextFromOldFilesStillVerifies() {
+    PasswordHasher hasher = new PasswordHasher(1_000);
+    assertTrue(PasswordHasher.matches("secret1", "secret1"));
+    assertFalse(PasswordHasher.matches("secret2", "secret1"));
+    assertTrue(hasher.needsRehash("secret1"));
+    assertFalse(PasswordHasher.isHash("secret1"));
+    assertFalse(PasswordHasher.isHash(PasswordHasher.PREFIX + "x$$"), "Malformed hashes are plaintext");
+  }
+
+  @Test
+  public void testSetPasswordStoresAHash() {
+    Account acc = new Account("Alice", 123456, 0, "secret1");
+    acc.setPassword("secret2");
+    assertFalse(acc.toCSV().contains("secret2"));
+    assertTrue(acc.toCSV().startsWith("Alice,123456,0.00," + PasswordHasher.PREFIX), acc.toCSV());
+    assertTrue(Account.fromCSV(acc.toCSV()).checkPassword("secret2"));
+  }
+
+  @Test
+  public void testVerifierRejectsWhenQueueIsFull() throws Exception {
+    PasswordVerifier verifier = new PasswordVerifier(1, 1);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    List<Thread> callers = new ArrayList<>();
+    AtomicInteger done = new AtomicInteger();
+    // One task runs and one waits in the queue...
+    for (int i = 0; i < 2; i++) {
+      Thread t = new Thread(() -> {
+        verifier.call(() -> {
+          started.countDown();
+          release.await();
+          return null;
+        });
+        done.incrementAndGet();
+      });
+      t.start();
+      callers.add(t);
+      if (i == 0) {
+        started.await();
+      }
+    }
+    while (verifier.stats().endsWith("queued=0")) {
+      Thread.sleep(1);
+    }
+    // ...so the next one is turned away rather than waiting
+    assertThrows(RejectedExecutionException.class, () -> verifier.call(() -> true));
+    assertEquals(1, verifier.rejected());
+    release.countDown();
+    for (Thread t : callers) {
+      t.join();
+    }
+    assertEquals(2, done.get());
+    assertEquals(Boolean.TRUE, verifier.call(() -> true));
+    verifier.close();
+  }
+
+  @Test
+  public void testSessionTokensExpireAndEvict() throws Exception {
+    SessionTokens tokens = new SessionTokens(1_000, 2);
+    String first = tokens.issue(123456);
+    assertEquals(123456, tokens.lookup(first));
+    assertEquals(-1, tokens.lookup("made-up"));
+
+    String second = tokens.issue(654321);
+    tokens.lookup(first);
+    tokens.issue(111111); // evicts second, the least recently used
+    assertEquals(-1, tokens.lookup(second));
+    assertEquals(123456, tokens.lookup(first));
+
+    tokens.revokeAll(123456);
+    assertEquals(-1, tokens.lookup(first));
+
+    String expiring = tokens.issue(222222);
+    Thread.sleep(1_200);
+    assertEquals(-1, tokens.lookup(expiring));
+  }
+}
@@ -0,0 +1,112 @@
+package test;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import src.RateLimiter;
+
+public class RateLimiterTest {
+
+  @Test
+  public void testBurstThenSteadyRate() {
+    AtomicLong clock = new AtomicLong(1_000_000);
+    RateLimiter limiter = new RateLimiter(3, 1_000, 64, clock::get);
+    assertFalse(limiter.isLimited(123456));
+    for (int i = 0; i < 3; i++) {
+      assertTrue(limiter.tryAcquire(123456), "attempt " + i + " is within the burst");
+    }
+    assertTrue(limiter.isLimited(123456));
+    assertFalse(limiter.tryAcquire(123456));
+    assertFalse(limiter.isLimited(654321), "Other keys have their own bucket");
+
+    clock.addAndGet(999);
+    assertFalse(limiter.tryAcquire(123456));
+    clock.addAndGet(1);
+    assertTrue(limiter.tryAcquire(123456), "One token comes back per interval");
+    assertFalse(limiter.tryAcquire(123456));
+
+    clock.addAndGet(60_000);
+    for (int i = 0; i < 3; i++) {
+      assertTrue(limiter.tryAcquire(123456), "An idle bucket refills to the burst, no further");
+    }
+    assertFalse(limiter.tryAcquire(123456));
+  }
+
+  @Test
+  public void testReleaseGivesBackOneToken() {
+    AtomicLong clock = new AtomicLong(1_000_000);
+    RateLimiter limiter = new RateLimiter(2, 1_000, 64, clock::get);
+    limiter.release(123456); // unknown keys are already full
+    assertTrue(limiter.tryAcquire(123456));
+    assertTrue(limiter.tryAcquire(123456));
+    assertFalse(limiter.tryAcquire(123456));
+    limiter.release(123456);
+    assertTrue(limiter.tryAcquire(123456));
+    assertFalse(limiter.tryAcquire(123456));
+
+    limiter.release(123456);
+    limiter.release(123456);
+    limiter.release(123456);
+    assertTrue(limiter.tryAcquire(123456));
+    assertTrue(limiter.tryAcquire(123456));
+    assertFalse(limiter.tryAcquire(123456), "Releasing never fills a bucket past the burst");
+  }
+
+  @Test
+  public void testRefillTimesSurviveClockWrap() {
+    AtomicLong clock = new AtomicLong((1L << 32) - 500);
+    RateLimiter limiter = new RateLimiter(1, 1_000, 64, clock::get);
+    assertTrue(limiter.tryAcquire(7));
+    assertTrue(limiter.isLimited(7));
+    clock.addAndGet(999); // refill time is past 2^32
+    assertTrue(limiter.isLimited(7));
+    clock.addAndGet(1);
+    assertFalse(limiter.isLimited(7));
+    clock.addAndGet(10L << 32); // idle for a long time
+    assertTrue(limiter.tryAcquire(7));
+  }
+
+  // Millions of distinct keys through a small table: memory stays put, and a
+  // key that keeps hitting its limit is not pushed out by the idle ones
+  @Test
+  public void testManyKeysInBoundedMemory() {
+    AtomicLong clock = new AtomicLong(0);
+    RateLimiter limiter = new RateLimiter(2, 1_000, 4096, clock::get);
+    int hotAllowed = 0;
+    for (int i = 1; i <= 2_000_000; i++) {
+      clock.incrementAndGet();
+      assertTrue(limiter.tryAcquire(1_000_000 + i), "a new key starts with a full bucket");
+      if (i % 100 == 0 && limiter.tryAcquire(42)) {
+        hotAllowed++;
+      }
+    }
+    assertEquals(4096, limiter.slots());
+    // 2,000 seconds at one token a second, plus the burst
+    assertTrue(hotAllowed <= 2_000 + 2, "hot key allowed " + hotAllowed);
+    assertTrue(hotAllowed >= 1_990, "hot key allowed " + hotAllowed);
+  }
+
+  @Test
+  public void testConcurrentAcquiresNeverExceedTheBurst() throws Exception {
+    RateLimiter limiter = new RateLimiter(1_000, 60_000, 1024, () -> 5_000);
+    AtomicInteger allowed = new AtomicInteger();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread(() -> {
+        for (int i = 0; i < 10_000; i++) {
+          if (limiter.tryAcquire(99)) {
+            allowed.incrementAndGet();
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    assertEquals(1_000, allowed.get());
+  }
+}
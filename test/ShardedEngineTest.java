@@ -0,0 +1,188 @@
+package test;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import src.Account;
+import src.BankService;
+import src.ShardedEngine;
+import src.TransferEngine;
+
+public class ShardedEngineTest {
+
+  @TempDir
+  Path dir;
+
+  // Applies changes with no locks and checks that no account is ever changed by
+  // two threads at once
+  static final class CheckingLedger implements ShardedEngine.Ledger {
+    final AtomicIntegerArray busy = new AtomicIntegerArray(1000);
+    final AtomicInteger overlaps = new AtomicInteger();
+
+    void enter(Account account) {
+      if (!busy.compareAndSet(account.getAccNo() - 100000, 0, 1)) {
+        overlaps.incrementAndGet();
+      }
+    }
+
+    void exit(Account account) {
+      busy.set(account.getAccNo() - 100000, 0);
+    }
+
+    @Override
+    public TransferEngine.Result deposit(Account account, long cents) {
+      enter(account);
+      account.depositCents(cents);
+      exit(account);
+      return TransferEngine.Result.SUCCESS;
+    }
+
+    @Override
+    public TransferEngine.Result withdraw(Account account, long cents) {
+      enter(account);
+      boolean ok = account.withdrawCents(cents);
+      exit(account);
+      return ok ? TransferEngine.Result.SUCCESS : TransferEngine.Result.INSUFFICIENT_FUNDS;
+    }
+
+    @Override
+    public TransferEngine.Result transfer(Account from, Account to, long cents) {
+      if (from == to) {
+        return TransferEngine.Result.SAME_ACCOUNT;
+      }
+      enter(from);
+      enter(to);
+      try {
+        if (!from.withdrawCents(cents)) {
+          return TransferEngine.Result.INSUFFICIENT_FUNDS;
+        }
+        to.depositCents(cents);
+        return TransferEngine.Result.SUCCESS;
+      } finally {
+        exit(to);
+        exit(from);
+      }
+    }
+  }
+
+  @Test
+  public void testConcurrentCommandsKeepEveryCent() throws Exception {
+    Account[] accounts = new Account[64];
+    for (int i = 0; i < accounts.length; i++) {
+      accounts[i] = Account.ofCents("Test", 100000 + i, 10_000, "password");
+    }
+    CheckingLedger ledger = new CheckingLedger();
+    ShardedEngine engine = new ShardedEngine(4, 64, ledger);
+    AtomicLong net = new AtomicLong(); // deposits less withdrawals that went through
+    List<Thread> clients = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      long seed = t;
+      Thread client = new Thread(() -> {
+        Random random = new Random(seed);
+        List<CompletableFuture<ShardedEngine.Outcome>> pending = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+          Account a = accounts[random.nextInt(accounts.length)];
+          long cents = 1 + random.nextInt(5_000);
+          switch (random.nextInt(3)) {
+            case 0:
+              engine.deposit(a, cents).thenRun(() -> net.addAndGet(cents));
+              break;
+            case 1:
+              engine.withdraw(a, cents).thenAccept(o -> {
+                if (o.result() == TransferEngine.Result.SUCCESS) {
+                  net.addAndGet(-cents);
+                }
+              });
+              break;
+            default:
+              pending.add(engine.transfer(a, accounts[random.nextInt(accounts.length)], cents));
+          }
+        }
+        pending.forEach(CompletableFuture::join);
+      });
+      client.start();
+      clients.add(client);
+    }
+    for (Thread client : clients) {
+      client.join(60_000);
+      assertFalse(client.isAlive(), "Cross-shard transfers must not deadlock");
+    }
+    engine.close();
+
+    long total = 0;
+    for (Account a : accounts) {
+      assertTrue(a.getBalanceCents() >= 0);
+      total += a.getBalanceCents();
+    }
+    assertEquals(accounts.length * 10_000L + net.get(), total);
+    assertEquals(0, ledger.overlaps.get(), "Each account is changed by one thread at a time");
+  }
+
+  @Test
+  public void testOppositeTransfersAcrossShards() throws Exception {
+    ShardedEngine engine = new ShardedEngine(2, 16, new CheckingLedger());
+    Account a = null;
+    Account b = null;
+    for (int accNo = 100000; a == null || b == null; accNo++) {
+      Account candidate = Account.ofCents("Test", accNo, 1_000, "password");
+      if (engine.shardFor(accNo) == 0) {
+        a = a == null ? candidate : a;
+      } else {
+        b = b == null ? candidate : b;
+      }
+    }
+    List<CompletableFuture<ShardedEngine.Outcome>> pending = new ArrayList<>();
+    for (int i = 0; i < 10_000; i++) {
+      pending.add(engine.transfer(a, b, 7));
+      pending.add(engine.transfer(b, a, 7));
+      pending.add(engine.deposit(a, 1));
+    }
+    for (CompletableFuture<ShardedEngine.Outcome> outcome : pending) {
+      assertNotNull(outcome.get(30, TimeUnit.SECONDS));
+    }
+    engine.close();
+    assertEquals(12_000, a.getBalanceCents() + b.getBalanceCents());
+    assertThrows(IllegalStateException.class, () -> engine.deposit(Account.ofCents("Test", 100000, 0, "password"), 1));
+  }
+
+  @Test
+  public void testServiceOnShards() throws Exception {
+    System.setProperty("bank.engine", "sharded");
+    System.setProperty("bank.engine.shards", "4");
+    try {
+      BankService service = new BankService(dir.toString(), notice -> { });
+      service.open();
+      Account alice = service.createAccount("Alice", 123456, 10_000, "secret1").account();
+      service.createAccount("Bob", 654321, 0, "secret2");
+      assertEquals(15_000, service.deposit(alice, 5_000).balanceCents());
+      assertEquals(BankService.Status.INSUFFICIENT_FUNDS, service.withdraw(alice, 50_000).status());
+      assertEquals(12_500, service.withdraw(alice, 2_500).balanceCents());
+      assertEquals(10_000, service.transfer(alice, 654321, 2_500).balanceCents());
+      assertEquals(BankService.Status.INSUFFICIENT_FUNDS, service.transfer(alice, 654321, 20_000).status());
+      assertTrue(service.engineStats().startsWith("shard0="), service.engineStats());
+      int history = alice.getTransactionCount();
+      service.close();
+
+      BankService reopened = new BankService(dir.toString(), notice -> { });
+      reopened.open();
+      assertEquals(10_000, reopened.findAccountByNumber(123456).getBalanceCents());
+      assertEquals(2_500, reopened.findAccountByNumber(654321).getBalanceCents());
+      assertEquals(history, reopened.findAccountByNumber(123456).getTransactionCount());
+      reopened.close();
+    } finally {
+      System.clearProperty("bank.engine");
+      System.clearProperty("bank.engine.shards");
+    }
+  }
+}
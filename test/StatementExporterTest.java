@@ -0,0 +1,175 @@
+package test;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+
+import src.Account;
+import src.AccountRegistry;
+import src.BankService;
+import src.MappedTransactionLog;
+import src.StatementExporter;
+import src.StatementExporter.Format;
+import src.TextSnapshot;
+import src.Transaction;
+
+public class StatementExporterTest {
+  private static final long MAY_1 = 1_714_555_800_123L; // 2024-05-01T09:30:00.123Z
+
+  @TempDir
+  Path dir;
+
+  private static String export(StatementExporter exporter, Account acc, long from, long to) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    exporter.export(acc, from, to, out);
+    return out.toString(StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testCsvFormatsAndQuotesFields() throws Exception {
+    Account acc = Account.ofCents("Alice", 123456, 0, "password");
+    acc.addTransaction(Transaction.ofCents("Deposit", 15_000, "Deposited to account 123456", MAY_1, 12));
+    acc.addTransaction(Transaction.ofCents("Withdrawal", 5, "Rent, \"May\"", MAY_1 + 1000, 13));
+    acc.addTransaction(Transaction.ofCents("Deposit", 1, "Caf\u00e9 \ud83d\ude00", 0, 14)); // time not known
+
+    String csv = export(new StatementExporter(Format.CSV), acc, Long.MIN_VALUE, Long.MAX_VALUE);
+    assertEquals("sequence,time,type,amount,description\n"
+        + "12,2024-05-01T09:30:00.123Z,Deposit,150.00,Deposited to account 123456\n"
+        + "13,2024-05-01T09:30:01.123Z,Withdrawal,0.05,\"Rent, \"\"May\"\"\"\n"
+        + "14,,Deposit,0.01,Caf\u00e9 \ud83d\ude00\n", csv);
+  }
+
+  @Test
+  public void testTimesMatchInstant() throws Exception {
+    long[] times = { 1, 951_782_400_000L, 4_102_444_799_999L, -86_400_000L, 253_402_300_799_999L };
+    for (long time : times) {
+      Account acc = Account.ofCents("Alice", 123456, 0, "password");
+      acc.addTransaction(Transaction.ofCents("Deposit", 100, "Deposit to account", time, 1));
+      String row = export(new StatementExporter(Format.CSV), acc, Long.MIN_VALUE, Long.MAX_VALUE).split("\n")[1];
+      String expected = Instant.ofEpochMilli(time).toString();
+      if (!expected.contains(".")) {
+        expected = expected.replace("Z", ".000Z");
+      }
+      assertEquals(expected, row.split(",")[1]);
+    }
+  }
+
+  @Test
+  public void testJsonEscapesAndCounts() throws Exception {
+    Account acc = Account.ofCents("Alice", 123456, 0, "password");
+    StatementExporter exporter = new StatementExporter(Format.JSON);
+    assertEquals("{\"accNo\":123456,\"transactions\":[],\"count\":0}\n",
+        export(exporter, acc, Long.MIN_VALUE, Long.MAX_VALUE));
+
+    acc.addTransaction(Transaction.ofCents("Deposit", 123_456, "Say \"hi\"\\\n\u0001", 0, 7));
+    assertEquals("{\"accNo\":123456,\"transactions\":[\n{\"sequence\":7"
+        + ",\"time\":null,\"type\":\"Deposit\",\"amount\":1234.56,\"description\":\"Say \\\"hi\\\"\\\\\\u000a\\u0001\"}"
+        + "\n],\"count\":1}\n", export(exporter, acc, Long.MIN_VALUE, Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testRangeSelectsEntriesInIt() throws Exception {
+    Account acc = Account.ofCents("Alice", 123456, 0, "password");
+    for (int i = 0; i < 100; i++) {
+      acc.addTransaction(Transaction.ofCents("Deposit", 100 + i, "Deposit to account", MAY_1 + i * 1000L));
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertEquals(10, new StatementExporter(Format.CSV).export(acc, MAY_1 + 20_000, MAY_1 + 30_000, out));
+    String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+    assertEquals(11, lines.length);
+    assertTrue(lines[1].contains(",1.20,"));
+    assertTrue(lines[10].contains(",1.29,"));
+  }
+
+  @Test
+  public void testSmallBufferGivesTheSameOutput() throws Exception {
+    Account acc = Account.ofCents("Alice", 123456, 0, "password");
+    for (int i = 0; i < 5000; i++) {
+      acc.addTransaction(Transaction.ofCents("Deposit", 1 + i, "Deposit \u00e9 " + (i % 13), MAY_1 + i));
+    }
+    for (Format format : Format.values()) {
+      String large = export(new StatementExporter(format), acc, Long.MIN_VALUE, Long.MAX_VALUE);
+      String small = export(new StatementExporter(format, 64), acc, Long.MIN_VALUE, Long.MAX_VALUE);
+      assertEquals(large, small);
+    }
+  }
+
+  @Test
+  public void testExportsSnapshotHistoryAfterReopen() throws Exception {
+    BankService service = new BankService(dir.toString(), message -> { });
+    service.open();
+    Account alice = service.createAccount("Alice", 123456, 10_000, "secret1").account();
+    for (int i = 0; i < 20; i++) {
+      service.deposit(alice, 100 + i);
+    }
+    service.close();
+
+    BankService reopened = new BankService(dir.toString(), message -> { });
+    reopened.open();
+    Account acc = reopened.findAccountByNumber(123456);
+    String csv = export(new StatementExporter(Format.CSV), acc, Long.MIN_VALUE, Long.MAX_VALUE);
+    String[] lines = csv.split("\n");
+    List<Transaction> history = reopened.history(acc);
+    assertEquals(history.size() + 1, lines.length);
+    for (int i = 0; i < history.size(); i++) {
+      Transaction t = history.get(i);
+      assertTrue(lines[i + 1].startsWith(t.getSequence() + ","), lines[i + 1]);
+      assertTrue(lines[i + 1].contains("," + t.getType() + ","), lines[i + 1]);
+    }
+    reopened.close();
+  }
+
+  // Rows read in place from the mapped snapshot, with the range found by
+  // binary search, match the same history exported from memory
+  @Test
+  public void testMappedSnapshotExportsLikeMemory() throws Exception {
+    Account inMemory = Account.ofCents("Alice", 123456, 0, "password");
+    for (int i = 0; i < 3000; i++) {
+      String description = i % 7 == 0 ? "Caf\u00e9, \"\u20ac\" \ud83d\ude00 " + i : "Deposit to account";
+      inMemory.addTransaction(Transaction.ofCents(i % 5 == 0 ? "Withdrawal" : "Deposit", 1 + i, description,
+          MAY_1 + (i / 3) * 1000L, 100 + i, 50_000 + i)); // three entries per second
+    }
+    AccountRegistry written = new AccountRegistry();
+    written.put(inMemory);
+    Path file = dir.resolve(TextSnapshot.TRANSACTIONS_FILE);
+    TextSnapshot.writeTransactions(file.toString(), written);
+
+    AccountRegistry loaded = new AccountRegistry();
+    loaded.put(Account.ofCents("Alice", 123456, 0, "password"));
+    try (MappedTransactionLog log = MappedTransactionLog.open(file.toString())) {
+      assertEquals(1, log.attachTo(loaded));
+      Account mapped = loaded.get(123456);
+      long[][] ranges = { { Long.MIN_VALUE, Long.MAX_VALUE }, { MAY_1 + 20_000, MAY_1 + 30_000 },
+          { MAY_1 + 999_000, Long.MAX_VALUE }, { MAY_1 + 1_500, MAY_1 + 1_501 }, { 0, MAY_1 } };
+      for (Format format : Format.values()) {
+        for (long[] range : ranges) {
+          StatementExporter exporter = new StatementExporter(format, 64);
+          assertEquals(export(exporter, inMemory, range[0], range[1]), export(exporter, mapped, range[0], range[1]));
+        }
+      }
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      assertEquals(30, new StatementExporter(Format.CSV).export(mapped, MAY_1 + 20_000, MAY_1 + 30_000, out));
+    }
+
+    // Files from before sequence ids: the line number is the id and the time is not known
+    Path legacy = dir.resolve("legacy.txt");
+    Files.write(legacy, List.of("123456,Deposit,10.00,Deposit to account", "654321,Deposit,1.00,Other account",
+        "123456,Withdrawal,2.50,Rent, May"));
+    AccountRegistry old = new AccountRegistry();
+    old.put(Account.ofCents("Alice", 123456, 0, "password"));
+    try (MappedTransactionLog log = MappedTransactionLog.open(legacy.toString())) {
+      log.attachTo(old);
+      assertEquals("sequence,time,type,amount,description\n"
+          + "1,,Deposit,10.00,Deposit to account\n"
+          + "3,,Withdrawal,2.50,\"Rent, May\"\n",
+          export(new StatementExporter(Format.CSV), old.get(123456), Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+  }
+}
@@ -0,0 +1,358 @@
+package test;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import src.Account;
+import src.HistoryPage;
+import src.HistorySummary;
+import src.Transaction;
+import src.TransactionHistory;
+
+public class TransactionHistoryTest {
+
+  @Test
+  public void testRoundTripsEveryField() {
+    TransactionHistory history = new TransactionHistory();
+    history.add(Transaction.ofCents("Deposit", 1050, "Deposit to account", 1_700_000_000_000L));
+    history.add("Transfer", 25, 0, "Transfer to account 654321");
+
+    assertEquals(2, history.size());
+    Transaction first = history.get(0);
+    assertEquals("Deposit", first.getType());
+    assertEquals(1050, first.getAmountCents());
+    assertEquals(1_700_000_000_000L, first.getTimestamp());
+    assertEquals("Deposit to account", first.getDescription());
+    assertEquals("Transfer: $0.25 - Transfer to account 654321", history.get(1).toString());
+    assertThrows(IndexOutOfBoundsException.class, () -> history.get(2));
+  }
+
+  @Test
+  public void testGrowsAcrossChunks() {
+    TransactionHistory history = new TransactionHistory();
+    for (int i = 1; i <= 5000; i++) {
+      history.add("Deposit", i, i, "Deposit " + (i % 7));
+    }
+    assertEquals(5000, history.size());
+    for (int i : new int[] { 0, 1023, 1024, 2047, 4999 }) {
+      assertEquals(i + 1, history.amountAt(i));
+      assertEquals(i + 1, history.timestampAt(i));
+      assertEquals("Deposit " + ((i + 1) % 7), history.descriptionAt(i));
+    }
+
+    List<Transaction> tail = new ArrayList<>();
+    history.forEach(4990, tail::add);
+    assertEquals(10, tail.size());
+    assertEquals(4991, tail.get(0).getAmountCents());
+  }
+
+  @Test
+  public void testListViewIsReadOnly() {
+    TransactionHistory history = new TransactionHistory();
+    history.add("Withdrawal", 300, 0, "Withdrawal from account");
+    List<Transaction> view = history.asList();
+    assertEquals(1, view.size());
+    assertEquals("Withdrawal", view.get(0).getType());
+    assertThrows(UnsupportedOperationException.class, () -> view.add(view.get(0)));
+
+    history.add("Deposit", 100, 0, "Deposit to account");
+    assertEquals(2, view.size(), "The view should follow later appends");
+  }
+
+  @Test
+  public void testAccountStampsNewTransactions() {
+    Account acc = new Account("Stamp", 100004, 0, "stampPass");
+    long before = System.currentTimeMillis();
+    acc.depositCents(500);
+    long timestamp = acc.getTransactions().get(0).getTimestamp();
+    assertTrue(timestamp >= before && timestamp <= System.currentTimeMillis());
+  }
+
+  @Test
+  public void testPagesBackwardsBySequenceCursor() {
+    Account acc = new Account("Pager", 100005, 0, "pagerPass");
+    for (int i = 1; i <= 2500; i++) {
+      acc.addTransaction(Transaction.ofCents("Deposit", i, "Deposit " + i));
+    }
+
+    HistoryPage page = acc.latestTransactions(1000);
+    assertEquals(2500, page.transactions().get(0).getAmountCents(), "Newest first");
+    assertEquals(1501, page.transactions().get(999).getAmountCents());
+    page = acc.transactionsBefore(page.nextCursor(), 1000);
+    assertEquals(1500, page.transactions().get(0).getAmountCents());
+    page = acc.transactionsBefore(page.nextCursor(), 1000);
+    assertEquals(500, page.transactions().size());
+    assertEquals(1, page.transactions().get(499).getAmountCents());
+    assertFalse(page.hasMore());
+
+    long previous = Long.MAX_VALUE;
+    for (Transaction t : acc.latestTransactions(2500).transactions()) {
+      assertTrue(t.getSequence() < previous, "Sequence ids increase in the order entries were added");
+      previous = t.getSequence();
+    }
+  }
+
+  @Test
+  public void testFindsTimeRangesAndKeepsTimestampsInOrder() {
+    Account acc = new Account("Ranger", 100006, 0, "rangerPass");
+    for (int i = 0; i < 100; i++) {
+      acc.addTransaction(Transaction.ofCents("Deposit", i + 1, "Day " + i, i * 1000L));
+    }
+    acc.addTransaction(Transaction.ofCents("Deposit", 500, "Clock went back", 5_000L));
+    assertEquals(99_000L, acc.latestTransactions(1).transactions().get(0).getTimestamp(),
+        "An entry is never dated before the one ahead of it");
+
+    HistoryPage page = acc.transactionsBetween(10_000L, 20_000L, 0, 4);
+    assertEquals(List.of(11L, 12L, 13L, 14L), amounts(page));
+    page = acc.transactionsBetween(10_000L, 20_000L, page.nextCursor(), 4);
+    assertEquals(List.of(15L, 16L, 17L, 18L), amounts(page));
+    page = acc.transactionsBetween(10_000L, 20_000L, page.nextCursor(), 4);
+    assertEquals(List.of(19L, 20L), amounts(page));
+    assertFalse(page.hasMore());
+    assertTrue(acc.transactionsBetween(200_000L, 300_000L, 0, 4).transactions().isEmpty());
+  }
+
+  private static List<Long> amounts(HistoryPage page) {
+    List<Long> result = new ArrayList<>();
+    for (Transaction t : page.transactions()) {
+      result.add(t.getAmountCents());
+    }
+    return result;
+  }
+
+  @Test
+  public void testSummariesMatchAScanOverAnyRange() {
+    Account acc = new Account("Summer", 100007, 0, "summerPass");
+    Random random = new Random(7);
+    long balance = 50_000;
+    long[] changes = new long[1500];
+    for (int i = 0; i < changes.length; i++) {
+      long cents = 1 + random.nextInt(1000);
+      int kind = random.nextInt(4);
+      String type = kind == 0 ? "Deposit" : kind == 1 ? "Withdrawal" : "Transfer";
+      String description = kind == 2 ? "Transfer to account 100008" : "Transfer from account 100008";
+      changes[i] = kind == 1 || kind == 2 ? -cents : cents;
+      balance += changes[i];
+      acc.addTransaction(Transaction.ofCents(type, cents, description, i * 1000L, i + 1, balance));
+    }
+
+    for (int round = 0; round < 200; round++) {
+      int from = random.nextInt(changes.length + 1);
+      int to = from + random.nextInt(changes.length + 1 - from);
+      long in = 0;
+      long out = 0;
+      for (int i = from; i < to; i++) {
+        in += Math.max(changes[i], 0);
+        out -= Math.min(changes[i], 0);
+      }
+      HistorySummary summary = acc.summarize(from * 1000L, to * 1000L);
+      long counted = 0;
+      for (HistorySummary.Flow flow : HistorySummary.Flow.values()) {
+        counted += summary.count(flow);
+      }
+      assertEquals(to - from, counted, "entries " + from + " to " + to);
+      assertEquals(in, summary.cents(HistorySummary.Flow.DEPOSIT) + summary.cents(HistorySummary.Flow.TRANSFER_IN));
+      assertEquals(out,
+          summary.cents(HistorySummary.Flow.WITHDRAWAL) + summary.cents(HistorySummary.Flow.TRANSFER_OUT));
+      assertEquals(summary.openingBalanceCents() + in - out, summary.closingBalanceCents());
+      assertEquals(summary.openingBalanceCents(), acc.balanceAsOf(from * 1000L));
+    }
+    assertEquals(50_000, acc.balanceAsOf(0), "Before the first entry");
+    assertEquals(balance, acc.balanceAsOf(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testTellsTransfersAndDepositsApart() {
+    Account acc = new Account("Mover", 100008, 0, "moverPass");
+    acc.addTransaction(Transaction.ofCents("Deposit", 1000, "Deposited to account 100008", 1000, 1, 1000));
+    acc.addTransaction(Transaction.ofCents("Transfer", 300, "Transfer to account 100007", 2000, 2, 700));
+    acc.addTransaction(Transaction.ofCents("Transfer", 50, "Transfer from account 100007", 3000, 3, 750));
+    acc.addTransaction(Transaction.ofCents("Withdrawal", 250, "Withdrawal from account", 4000, 4, 500));
+
+    HistorySummary all = acc.summarize(0, Long.MAX_VALUE);
+    assertEquals(1, all.count(HistorySummary.Flow.DEPOSIT));
+    assertEquals(1000, all.cents(HistorySummary.Flow.DEPOSIT));
+    assertEquals(1, all.count(HistorySummary.Flow.TRANSFER_OUT));
+    assertEquals(300, all.cents(HistorySummary.Flow.TRANSFER_OUT));
+    assertEquals(50, all.cents(HistorySummary.Flow.TRANSFER_IN));
+    assertEquals(250, all.cents(HistorySummary.Flow.WITHDRAWAL));
+    assertEquals(0, all.openingBalanceCents());
+    assertEquals(500, all.closingBalanceCents());
+    assertEquals(500, all.netCents());
+
+    assertEquals(1000, acc.balanceAsOf(2000), "An entry at the given time is not included yet");
+    assertEquals(700, acc.balanceAsOf(2001));
+    assertEquals(1200, new Account("Idle", 100009, 12, "idlePass").balanceAsOf(0),
+        "An account without entries has had its balance all along");
+
+    Account legacy = new Account("Legacy", 100010, 10, "legacyPass");
+    legacy.addTransaction(Transaction.ofCents("Deposit", 400, "Deposit to account", 1000, 1));
+    legacy.addTransaction(Transaction.ofCents("Transfer", 100, "Transfer to account 100007", 2000, 2));
+    assertEquals(-1, legacy.balanceAsOf(1500), "No balance was stored with these");
+    HistorySummary old = legacy.summarize(0, Long.MAX_VALUE);
+    assertEquals(400, old.cents(HistorySummary.Flow.DEPOSIT), "Counted by their amounts instead");
+    assertEquals(100, old.cents(HistorySummary.Flow.TRANSFER_OUT));
+  }
+
+  // Transfers keep the other account's number, not their text, so any number
+  // of counterparties leaves the shared dictionary alone
+  @Test
+  public void testTransfersKeepTheOtherAccountInsteadOfItsText() throws Exception {
+    int n = 100_000;
+    int shared = TransactionHistory.sharedDescriptions();
+    Account acc = new Account("Payer", 100012, 0, "payerPass");
+    acc.addTransaction(Transaction.ofCents("Transfer", 2 * n, "Transfer from account 999999", 1000, 1, 2 * n));
+    for (int i = 0; i < n; i++) {
+      Transaction t = Transaction.transfer(1, 200000 + i, i % 3 != 0);
+      acc.addTransaction(Transaction.ofCents("Transfer", 1, t.getDescription(), 1001L + i, i + 2, 0));
+    }
+    assertEquals(shared, TransactionHistory.sharedDescriptions());
+
+    List<Transaction> history = acc.getTransactions();
+    assertEquals("Transfer from account 999999", history.get(0).getDescription());
+    assertEquals(999999, history.get(0).getCounterparty());
+    for (int i = 0; i < n; i += 4999) {
+      Transaction t = history.get(i + 1);
+      assertEquals((i % 3 != 0 ? "Transfer to account " : "Transfer from account ") + (200000 + i), t.getDescription());
+      assertEquals(200000 + i, t.getCounterparty());
+      assertEquals(i % 3 != 0, t.isOutgoing());
+    }
+    HistorySummary all = acc.summarize(0, Long.MAX_VALUE);
+    assertEquals(n - (n + 2) / 3, all.count(HistorySummary.Flow.TRANSFER_OUT));
+    assertEquals(1 + (n + 2) / 3, all.count(HistorySummary.Flow.TRANSFER_IN));
+
+    // Made with transfer(), the same without reading the text
+    TransactionHistory direct = new TransactionHistory();
+    for (int i = 0; i < n; i++) {
+      direct.add(Transaction.transfer(1 + i, 300000 + i, i % 2 == 0));
+    }
+    assertEquals(shared, TransactionHistory.sharedDescriptions());
+    Transaction last = direct.get(n - 1);
+    assertEquals("Transfer from account " + (300000 + n - 1), last.getDescription());
+    assertFalse(last.isOutgoing());
+    assertEquals(n, last.getAmountCents());
+  }
+
+  // More distinct descriptions than the shared dictionary takes: the rest are
+  // kept with their entries and read back, copied and tallied the same way
+  @Test
+  public void testDescriptionsPastTheDictionaryCapStayWithTheirEntries() throws Exception {
+    int n = TransactionHistory.DEFAULT_MAX_DESCRIPTIONS + 10_000;
+    Account acc = new Account("Many", 100011, 0, "manyPass");
+    long balance = 0;
+    for (int i = 0; i < n; i++) {
+      boolean out = i % 2 == 0 && balance > 0;
+      balance += out ? -1 : 2;
+      // Not quite how transfers are described, so these go to the dictionary
+      String description = (out ? "Transfer to account " : "Transfer from account ") + (200000 + i) + ".";
+      acc.addTransaction(Transaction.ofCents("Transfer", out ? 1 : 2, description, 1000L + i, i + 1, balance));
+    }
+    assertTrue(TransactionHistory.sharedDescriptions() <= TransactionHistory.DEFAULT_MAX_DESCRIPTIONS);
+
+    List<Transaction> history = acc.getTransactions();
+    assertEquals(n, history.size());
+    for (int i = 0; i < n; i += i < n - 997 ? 997 : 1) {
+      assertTrue(history.get(i).getDescription().endsWith(" account " + (200000 + i) + "."),
+          history.get(i).toString());
+    }
+    TransactionHistory copy = new TransactionHistory();
+    TransactionHistory original = new TransactionHistory();
+    history.forEach(original::add);
+    copy.addAll(original);
+    int[] index = { 0 };
+    copy.forEach(0, n, (type, amountCents, timestamp, sequence, description) ->
+        assertEquals(history.get(index[0]++).getDescription(), description.toString()));
+
+    HistorySummary all = acc.summarize(0, Long.MAX_VALUE);
+    assertEquals(balance, all.closingBalanceCents());
+    assertEquals(balance, all.netCents());
+  }
+
+  // Values too far apart for one chunk's int offsets widen that chunk to longs
+  @Test
+  public void testKeepsValuesFarApart() throws Exception {
+    long[] amounts = { 1, Long.MAX_VALUE, 5, 3_000_000_000L, 7 };
+    long[] balances = { -1, 10, Long.MAX_VALUE - 1, -1, 4_000_000_000L };
+    long[] times = { 0, 0, 1_700_000_000_000L, 1_700_000_000_001L, Long.MAX_VALUE };
+    TransactionHistory history = new TransactionHistory();
+    for (int i = 0; i < 3000; i++) {
+      int k = i % amounts.length;
+      long time = i < amounts.length ? times[k] : Long.MAX_VALUE;
+      history.add("Deposit", amounts[k], time, i == 0 ? 1 : i * 5_000_000_000L, balances[k], "Deposit " + k);
+    }
+    TransactionHistory copy = new TransactionHistory();
+    copy.addAll(history);
+    for (TransactionHistory h : List.of(history, copy)) {
+      for (int i = 0; i < 3000; i++) {
+        int k = i % amounts.length;
+        assertEquals(amounts[k], h.amountAt(i));
+        assertEquals(balances[k], h.balanceAt(i));
+        assertEquals(i < amounts.length ? times[k] : Long.MAX_VALUE, h.timestampAt(i));
+        assertEquals(i == 0 ? 1 : i * 5_000_000_000L, h.sequenceAt(i));
+      }
+      assertEquals(2, h.indexOfTime(1));
+      assertEquals(4, h.indexOfTime(Long.MAX_VALUE));
+      assertEquals(2000, h.indexOfSequence(2000 * 5_000_000_000L - 1));
+    }
+  }
+
+  // Readers do not take the append lock (see Account.visitTransactions), so
+  // they must never catch a chunk halfway through being widened
+  @Test
+  public void testReadsWhileChunksWiden() throws Exception {
+    int n = 64 * 1024;
+    TransactionHistory history = new TransactionHistory();
+    Thread writer = new Thread(() -> {
+      for (int i = 0; i < n; i++) {
+        history.add("Deposit", farApartAmount(i), i, i + 1, i, "Deposit to account");
+      }
+    });
+    writer.start();
+    try {
+      while (writer.isAlive() || history.size() < n) {
+        int size = history.size();
+        for (int i = Math.max(0, size - 2048); i < size; i++) {
+          assertEquals(farApartAmount(i), history.amountAt(i));
+          assertEquals(i + 1, history.sequenceAt(i));
+        }
+        Thread.yield();
+      }
+    } finally {
+      writer.join();
+    }
+  }
+
+  // Each chunk of 1024 widens at a different entry
+  private static long farApartAmount(int i) {
+    return (i & 1023) == (i >>> 10) * 37 % 1024 ? i + (1L << 40) : i;
+  }
+
+  // A Transaction in a list takes about 132 bytes: the object (56), its slot in
+  // the list (4) and the description String built for it (72). The columns,
+  // counted from their arrays rather than from the heap, take at most a fifth.
+  @Test
+  public void testUsesAFifthOfTheBytesOfTransactionObjects() {
+    int n = 500_000;
+    Random random = new Random(3);
+    TransactionHistory history = new TransactionHistory();
+    long time = 1_700_000_000_000L;
+    long sequence = 0;
+    long balance = 1_000_000;
+    for (int i = 0; i < n; i++) {
+      time += random.nextInt(60_000);
+      sequence += 1 + random.nextInt(1000); // other accounts take ids in between
+      long amount = 1 + random.nextInt(100_000);
+      boolean out = random.nextBoolean() && balance > amount;
+      balance += out ? -amount : amount;
+      history.add("Transfer", amount, time, sequence, balance,
+          (out ? "Transfer to account " : "Transfer from account ") + (100000 + i % 1000));
+    }
+    assertEquals(n, history.size());
+    long bytes = history.footprintBytes();
+    assertTrue(bytes * 5 <= 132L * n, "Columnar history takes " + (double) bytes / n + " bytes per entry");
+  }
+}
@@ -0,0 +1,138 @@
+package test;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import src.Account;
+import src.AccountRegistry;
+import src.Transaction;
+import src.TransactionJournal;
+import src.TransactionJournal.FsyncPolicy;
+
+public class TransactionJournalTest {
+
+  @TempDir
+  Path dir;
+
+  @Test
+  public void testReplayAppliesRecordsOnTopOfSnapshot() throws Exception {
+    String file = dir.resolve("journal.log").toString();
+    Account acc = new Account("Alice", 123456, 100.0, "secret1");
+    try (TransactionJournal journal = new TransactionJournal(file, FsyncPolicy.PER_RECORD)) {
+      journal.append(TransactionJournal.accountRecord(acc));
+      acc.deposit(50.0);
+      journal.append(TransactionJournal.accountRecord(acc),
+          TransactionJournal.transactionRecord(123456, acc.getTransactions().get(0)));
+      journal.append(TransactionJournal.accountRecord(new Account("Bob", 654321, 10.0, "secret2")));
+      journal.append(TransactionJournal.deletionRecord(654321));
+    }
+
+    AccountRegistry accounts = new AccountRegistry();
+    assertEquals(5, TransactionJournal.replay(file, accounts));
+    Account recovered = accounts.get(123456);
+    assertEquals(150.0, recovered.getBalance(), "Balance should match the last journaled state");
+    assertEquals(1, recovered.getTransactions().size(), "Journaled transaction should be replayed");
+    assertNull(accounts.get(654321), "Deleted account should not be recovered");
+  }
+
+  @Test
+  public void testReplayKeepsHistoryWhenAccountIsUpdated() throws Exception {
+    String file = dir.resolve("journal.log").toString();
+    AccountRegistry accounts = new AccountRegistry();
+    Account acc = new Account("Alice", 123456, 100.0, "secret1");
+    acc.addTransaction(new Transaction("Deposit", 100.0, "Opening deposit"));
+    accounts.put(acc);
+
+    try (TransactionJournal journal = new TransactionJournal(file, FsyncPolicy.GROUP_COMMIT)) {
+      journal.append(TransactionJournal.accountRecord(new Account("Alice", 123456, 100.0, "newSecret")));
+    }
+    TransactionJournal.replay(file, accounts);
+    assertTrue(accounts.get(123456).checkPassword("newSecret"));
+    assertEquals(1, accounts.get(123456).getTransactions().size(), "Snapshot history should be kept");
+  }
+
+  @Test
+  public void testReplayAfterUnfinishedCheckpointSkipsWhatTheSnapshotHas() throws Exception {
+    String file = dir.resolve("journal.log").toString();
+    Account acc = Account.ofCents("Alice", 123456, 10_000, "secret1");
+    try (TransactionJournal journal = new TransactionJournal(file, FsyncPolicy.PER_RECORD)) {
+      journal.append(TransactionJournal.accountRecord(acc));
+      acc.depositCents(500);
+      journal.append(TransactionJournal.accountRecord(acc),
+          TransactionJournal.transactionRecord(123456, acc.getTransactions().get(0)));
+      journal.beginCheckpoint();
+      assertEquals(0, journal.size());
+      acc.depositCents(700);
+      journal.append(TransactionJournal.accountRecord(acc),
+          TransactionJournal.transactionRecord(123456, acc.getTransactions().get(1)));
+      // Crash before endCheckpoint: both files are still there
+    }
+    assertTrue(Files.exists(dir.resolve("journal.log" + TransactionJournal.CHECKPOINT_SUFFIX)));
+
+    // The snapshot was written after the second deposit and already has it
+    AccountRegistry accounts = new AccountRegistry();
+    Account snapshot = Account.ofCents("Alice", 123456, 11_200, "secret1");
+    for (Transaction t : acc.getTransactions()) {
+      snapshot.addTransaction(t);
+    }
+    accounts.put(snapshot);
+
+    TransactionJournal.replay(file, accounts);
+    Account recovered = accounts.get(123456);
+    assertEquals(11_200, recovered.getBalanceCents());
+    assertEquals(2, recovered.getTransactions().size(), "Replayed transactions should not repeat");
+    assertEquals(acc.getTransactions().get(1).getSequence(), recovered.getTransactions().get(1).getSequence());
+  }
+
+  @Test
+  public void testEndCheckpointDropsOldRecords() throws Exception {
+    Path file = dir.resolve("journal.log");
+    try (TransactionJournal journal = new TransactionJournal(file.toString(), FsyncPolicy.OS_BUFFERED)) {
+      journal.append(TransactionJournal.accountRecord(Account.ofCents("Alice", 123456, 100, "secret1")));
+      journal.beginCheckpoint();
+      journal.append(TransactionJournal.accountRecord(Account.ofCents("Bob", 654321, 200, "secret2")));
+      journal.endCheckpoint();
+    }
+    AccountRegistry accounts = new AccountRegistry();
+    assertEquals(1, TransactionJournal.replay(file.toString(), accounts));
+    assertNull(accounts.get(123456));
+    assertEquals(200, accounts.get(654321).getBalanceCents());
+  }
+
+  @Test
+  public void testTornLastRecordIsIgnored() throws Exception {
+    Path file = dir.resolve("journal.log");
+    try (TransactionJournal journal = new TransactionJournal(file.toString(), FsyncPolicy.OS_BUFFERED)) {
+      journal.append(TransactionJournal.accountRecord(new Account("Alice", 123456, 100.0, "secret1")));
+    }
+    // Simulate a crash part way through appending the next record
+    Files.write(file, "A,Alice,123456,99".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+    AccountRegistry accounts = new AccountRegistry();
+    assertEquals(1, TransactionJournal.replay(file.toString(), accounts));
+    assertEquals(100.0, accounts.get(123456).getBalance(), "Torn record should not be applied");
+  }
+
+  @Test
+  public void testUnreadableRecordsGoToNotices() throws Exception {
+    Path file = dir.resolve("journal.log");
+    try (TransactionJournal journal = new TransactionJournal(file.toString(), FsyncPolicy.OS_BUFFERED)) {
+      journal.append(TransactionJournal.accountRecord(Account.ofCents("Alice", 123456, 100, "secret1")));
+      journal.append("B,x");
+      journal.append("D,notanumber");
+    }
+    AccountRegistry accounts = new AccountRegistry();
+    List<String> notices = new ArrayList<>();
+    assertEquals(1, TransactionJournal.replay(file.toString(), accounts, notices::add));
+    assertEquals(List.of("Skipping unreadable journal record: B,x",
+        "Skipping unreadable journal record: D,notanumber"), notices);
+  }
+}
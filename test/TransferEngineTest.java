@@ -0,0 +1,117 @@
+package test;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import src.Account;
+import src.AccountRegistry;
+import src.TransactionJournal;
+import src.TransactionJournal.FsyncPolicy;
+import src.TransferEngine;
+import src.TransferEngine.Result;
+
+public class TransferEngineTest {
+
+  @TempDir
+  Path dir;
+
+  @Test
+  public void testTransferMovesMoneyAndRecordsBothLegs() {
+    Account from = new Account("Alice", 111111, 100.0, "secret1");
+    Account to = new Account("Bob", 222222, 5.0, "secret2");
+    List<ArrayList<String>> persisted = new ArrayList<>();
+    TransferEngine engine = new TransferEngine(persisted::add);
+
+    assertEquals(Result.SUCCESS, engine.transfer(from, to, 40.0));
+    assertEquals(60.0, from.getBalance());
+    assertEquals(45.0, to.getBalance());
+    assertEquals("Transfer to account 222222", from.getTransactions().get(0).getDescription());
+    assertEquals("Transfer from account 111111", to.getTransactions().get(0).getDescription());
+    assertEquals(1, persisted.size(), "Both legs should be persisted as one change");
+    assertEquals(4, persisted.get(0).size());
+  }
+
+  @Test
+  public void testRejectedTransfersChangeNothing() {
+    Account from = new Account("Alice", 111111, 10.0, "secret1");
+    Account to = new Account("Bob", 222222, 0.0, "secret2");
+    TransferEngine engine = new TransferEngine(null);
+
+    assertEquals(Result.INSUFFICIENT_FUNDS, engine.transfer(from, to, 10.01));
+    assertEquals(Result.INVALID_AMOUNT, engine.transfer(from, to, 0));
+    assertEquals(Result.SAME_ACCOUNT, engine.transfer(from, from, 1.0));
+    assertEquals(10.0, from.getBalance());
+    assertEquals(0.0, to.getBalance());
+    assertTrue(from.getTransactions().isEmpty());
+  }
+
+  @Test
+  public void testOpposingConcurrentTransfersConserveMoney() throws Exception {
+    int accountCount = 8;
+    Account[] accounts = new Account[accountCount];
+    for (int i = 0; i < accountCount; i++) {
+      accounts[i] = new Account("User", 300000 + i, 1000.0, "password");
+    }
+    // Few stripes so unrelated accounts share locks and opposing orders collide
+    TransferEngine engine = new TransferEngine(4, null);
+
+    Thread[] workers = new Thread[16];
+    for (int t = 0; t < workers.length; t++) {
+      final long seed = t;
+      workers[t] = new Thread(() -> {
+        Random random = new Random(seed);
+        for (int i = 0; i < 5_000; i++) {
+          Account a = accounts[random.nextInt(accountCount)];
+          Account b = accounts[random.nextInt(accountCount)];
+          engine.transfer(a, b, 1 + random.nextInt(200));
+        }
+      });
+      workers[t].start();
+    }
+    for (Thread w : workers) {
+      w.join(30_000);
+      assertFalse(w.isAlive(), "Transfers should not deadlock");
+    }
+
+    long totalCents = 0;
+    for (Account acc : accounts) {
+      assertTrue(acc.getBalance() >= 0);
+      totalCents += Math.round(acc.getBalance() * 100);
+    }
+    assertEquals(accountCount * 100_000L, totalCents, "Transfers should neither create nor destroy money");
+  }
+
+  @Test
+  public void testPartiallyWrittenTransferIsNotReplayed() throws Exception {
+    Path file = dir.resolve("journal.log");
+    Account from = new Account("Alice", 111111, 100.0, "secret1");
+    Account to = new Account("Bob", 222222, 0.0, "secret2");
+    try (TransactionJournal journal = new TransactionJournal(file.toString(), FsyncPolicy.PER_RECORD)) {
+      journal.append(TransactionJournal.accountRecord(from));
+      journal.append(TransactionJournal.accountRecord(to));
+      new TransferEngine(records -> {
+        try {
+          journal.append(records.toArray(new String[0]));
+          return true;
+        } catch (Exception e) {
+          return fail(e);
+        }
+      }).transfer(from, to, 30.0);
+    }
+    // Cut the file after the sender's leg: the batch header promised four records
+    List<String> lines = Files.readAllLines(file);
+    Files.write(file, lines.subList(0, 5));
+
+    AccountRegistry accounts = new AccountRegistry();
+    TransactionJournal.replay(file.toString(), accounts);
+    assertEquals(100.0, accounts.get(111111).getBalance(), "Half a transfer should not be applied");
+    assertEquals(0.0, accounts.get(222222).getBalance());
+  }
+}